@@ -0,0 +1,442 @@
+package steam.boiler.bench;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Finds the smallest pumps which let the controller run a scenario safely. Configurations of a
+ * number of identical pumps of a given capacity are tried in order of their total capacity, and
+ * then of their number, and the first one with which the controller neither stops the boiler nor
+ * lets the level pass the limits is reported.
+ *
+ * <p>Configurations which the controller's prediction model shows cannot work are pruned without
+ * being simulated, by two bounds which assume the steam rate holds at its maximum: that the pumps
+ * together cannot keep up with the steam for long enough to drain the boiler from one limit to the
+ * other within the run, and that every choice of pumps moves the level further in a cycle than the
+ * limits are apart. The remaining configurations are simulated headlessly on a pool with a thread
+ * for each core, earliest first, so that when one is found to work those after it are abandoned.
+ * Outcomes are cached, so searching again, or over an overlapping range, only simulates what has
+ * not been simulated before. Given a {@link ResultCache}, outcomes are also shared with other
+ * searches, in this process or another, of the same scenario by the same controller.
+ *
+ * <p>Only the pumps are searched, since the characteristics provide no means of changing the
+ * levels or the steam rate.
+ *
+ */
+public final class CapacityOptimiser {
+  /**
+   * The characteristics whose pumps are varied.
+   */
+  private final SteamBoilerCharacteristics base;
+
+  /**
+   * The scenario each configuration must survive.
+   */
+  private final HeadlessSimulation.Scenario scenario;
+
+  /**
+   * The largest number of pumps tried.
+   */
+  private int maxPumps = 6;
+
+  /**
+   * The pump capacities tried.
+   */
+  private double[] capacities = { 1, 2, 3, 4, 5, 6, 8, 10 };
+
+  /**
+   * The number of threads simulating configurations.
+   */
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Whether configurations are pruned by the analytic bounds.
+   */
+  private boolean pruning = true;
+
+  /**
+   * Whether each configuration simulated so far works, by configuration.
+   */
+  private final ConcurrentHashMap<String, CompletableFuture<Boolean>> cache =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Where outcomes are shared with other searches, or null if they are not.
+   */
+  private @Nullable ResultCache results;
+
+  /**
+   * The number of simulations run.
+   */
+  private final AtomicInteger simulations = new AtomicInteger();
+
+  /**
+   * Construct an optimiser.
+   *
+   * @param base
+   *          The characteristics whose pumps are varied.
+   * @param scenario
+   *          The scenario each configuration must survive.
+   */
+  public CapacityOptimiser(SteamBoilerCharacteristics base, HeadlessSimulation.Scenario scenario) {
+    this.base = base;
+    this.scenario = scenario;
+  }
+
+  /**
+   * Set the largest number of pumps tried.
+   *
+   * @param n
+   *          The number of pumps.
+   */
+  public void setMaxPumps(int n) {
+    if (n <= 0) {
+      throw new IllegalArgumentException("invalid number of pumps");
+    }
+    this.maxPumps = n;
+  }
+
+  /**
+   * Set the pump capacities tried.
+   *
+   * @param values
+   *          The capacities, which must be positive.
+   */
+  public void setCapacities(double... values) {
+    for (double c : values) {
+      if (!(c > 0)) {
+        throw new IllegalArgumentException("invalid capacity " + c);
+      }
+    }
+    this.capacities = values.clone();
+  }
+
+  /**
+   * Set the number of threads simulating configurations.
+   *
+   * @param n
+   *          The number of threads.
+   */
+  public void setThreads(int n) {
+    if (n <= 0) {
+      throw new IllegalArgumentException("invalid number of threads");
+    }
+    this.threads = n;
+  }
+
+  /**
+   * Set whether configurations are pruned by the analytic bounds, which is only worth turning off
+   * to check them.
+   *
+   * @param pruning
+   *          Whether to prune.
+   */
+  public void setPruning(boolean pruning) {
+    this.pruning = pruning;
+  }
+
+  /**
+   * Set where outcomes are shared with other searches.
+   *
+   * @param results
+   *          The cache of outcomes, or null to share none.
+   */
+  public void setResultCache(@Nullable ResultCache results) {
+    this.results = results;
+  }
+
+  /**
+   * Get the number of simulations run so far.
+   *
+   * @return the number of simulations.
+   */
+  public int getSimulations() {
+    return this.simulations.get();
+  }
+
+  /**
+   * Find the configuration with the least total capacity, and then the fewest pumps, which works.
+   * Simulations already under way when it is found are finished first, so that none outlives the
+   * search.
+   *
+   * @return the outcome of the search.
+   */
+  public Result optimise() {
+    List<double[]> candidates = new ArrayList<>();
+    for (int n = 1; n <= this.maxPumps; n = n + 1) {
+      for (double c : this.capacities) {
+        candidates.add(new double[] { n, c });
+      }
+    }
+    Collections.sort(candidates, new Comparator<double[]>() {
+      @Override
+      public int compare(double[] a, double[] b) {
+        int order = Double.compare(a[0] * a[1], b[0] * b[1]);
+        return order != 0 ? order : Double.compare(a[0], b[0]);
+      }
+    });
+    Result result = new Result();
+    int before = this.simulations.get();
+    List<@Nullable CompletableFuture<Boolean>> outcomes = new ArrayList<>();
+    ExecutorService pool = Executors.newFixedThreadPool(this.threads, (Runnable r) -> {
+      Thread t = new Thread(r, "steam-boiler-optimiser");
+      t.setDaemon(true);
+      return t;
+    });
+    try {
+      for (double[] candidate : candidates) {
+        int n = (int) candidate[0];
+        if (this.pruning && bound(n, candidate[1]) != null) {
+          result.pruned = result.pruned + 1;
+          outcomes.add(null);
+        } else {
+          outcomes.add(evaluate(n, candidate[1], pool));
+        }
+      }
+      for (int i = 0; i != candidates.size(); i = i + 1) {
+        CompletableFuture<Boolean> outcome = outcomes.get(i);
+        if (outcome != null && outcome.join().booleanValue()) {
+          result.pumps = (int) candidates.get(i)[0];
+          result.capacity = candidates.get(i)[1];
+          break;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+      for (CompletableFuture<Boolean> outcome : outcomes) {
+        if (outcome != null) {
+          outcome.cancel(false);
+        }
+      }
+      try {
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      this.cache.values().removeIf((CompletableFuture<Boolean> f) -> f.isCancelled());
+    }
+    result.candidates = candidates.size();
+    result.simulated = this.simulations.get() - before;
+    return result;
+  }
+
+  /**
+   * Check whether a configuration works, simulating it unless it has been already.
+   *
+   * @param pumps
+   *          The number of pumps.
+   * @param capacity
+   *          The capacity of each pump.
+   * @return true if the controller runs the scenario safely with those pumps.
+   */
+  public boolean isViable(int pumps, double capacity) {
+    String key = key(pumps, capacity);
+    CompletableFuture<Boolean> known = this.cache.get(key);
+    if (known != null && known.isDone() && !known.isCancelled()) {
+      return known.join().booleanValue();
+    }
+    boolean viable = simulate(pumps, capacity);
+    this.cache.putIfAbsent(key, CompletableFuture.completedFuture(Boolean.valueOf(viable)));
+    return viable;
+  }
+
+  /**
+   * Explain why the prediction model shows that a configuration cannot work, when it can.
+   *
+   * @param pumps
+   *          The number of pumps.
+   * @param capacity
+   *          The capacity of each pump.
+   * @return the reason, or null if the configuration may work.
+   */
+  public @Nullable String bound(int pumps, double capacity) {
+    SteamBoilerCharacteristics cs = this.base;
+    double steam = cs.getMaximualSteamRate();
+    double total = pumps * capacity;
+    double range = cs.getMaximalLimitLevel() - cs.getMinimalLimitLevel();
+    if (total < steam && range / (steam - total) < this.scenario.getDuration()) {
+      return "drains in " + Math.round(range / (steam - total)) + "s";
+    }
+    double cycle = this.scenario.getPeriod() / 1000.0;
+    double smallest = Double.POSITIVE_INFINITY;
+    for (int k = 0; k <= pumps; k = k + 1) {
+      smallest = Math.min(smallest, Math.abs(k * capacity - steam) * cycle);
+    }
+    if (smallest > range) {
+      return "moves at least " + Math.round(smallest) + " a cycle";
+    }
+    return null;
+  }
+
+  /**
+   * Start simulating a configuration, unless it has been already.
+   *
+   * @param pumps
+   *          The number of pumps.
+   * @param capacity
+   *          The capacity of each pump.
+   * @param pool
+   *          Where to simulate it.
+   * @return whether it works, when known.
+   */
+  private CompletableFuture<Boolean> evaluate(int pumps, double capacity, ExecutorService pool) {
+    return this.cache.computeIfAbsent(key(pumps, capacity),
+        (String k) -> CompletableFuture.supplyAsync(
+            () -> Boolean.valueOf(simulate(pumps, capacity)), pool));
+  }
+
+  /**
+   * Simulate a configuration, unless its outcome is shared by another search.
+   *
+   * @param pumps
+   *          The number of pumps.
+   * @param capacity
+   *          The capacity of each pump.
+   * @return true if the controller runs the scenario safely.
+   */
+  private boolean simulate(int pumps, double capacity) {
+    SteamBoilerCharacteristics cs = this.base.setNumberOfPumps(pumps, capacity);
+    ResultCache shared = this.results;
+    if (shared == null) {
+      this.simulations.incrementAndGet();
+      return new HeadlessSimulation(cs).run(this.scenario).isPassed();
+    }
+    String key = shared.key(cs, this.scenario);
+    ResultCache.Outcome outcome = shared.get(key);
+    if (outcome == null) {
+      this.simulations.incrementAndGet();
+      outcome = new ResultCache.Outcome(new HeadlessSimulation(cs).run(this.scenario));
+      try {
+        shared.put(key, outcome);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return outcome.isPassed();
+  }
+
+  /**
+   * Identify a configuration in the cache.
+   *
+   * @param pumps
+   *          The number of pumps.
+   * @param capacity
+   *          The capacity of each pump.
+   * @return the key.
+   */
+  private static String key(int pumps, double capacity) {
+    return pumps + "x" + Double.doubleToLongBits(capacity);
+  }
+
+  /**
+   * Find the smallest pumps for the default characteristics which survive a scenario.
+   *
+   * @param args
+   *          The scenario file.
+   * @throws IOException
+   *           if the scenario could not be read.
+   */
+  public static void main(String[] args) throws IOException {
+    HeadlessSimulation.Scenario scenario = new HeadlessSimulation.Scenario("default");
+    if (args.length > 0) {
+      try (Reader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+        scenario = HeadlessSimulation.Scenario.parse(args[0], in);
+      }
+    }
+    long start = System.nanoTime();
+    Result result = new CapacityOptimiser(SteamBoilerCharacteristics.DEFAULT, scenario).optimise();
+    System.out.println(result + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+  }
+
+  /**
+   * The outcome of a search.
+   */
+  public static final class Result {
+    /**
+     * The number of pumps found, or zero if none worked.
+     */
+    int pumps;
+
+    /**
+     * The capacity of each pump found.
+     */
+    double capacity;
+
+    /**
+     * The number of configurations considered.
+     */
+    int candidates;
+
+    /**
+     * The number of configurations pruned.
+     */
+    int pruned;
+
+    /**
+     * The number of configurations simulated in this search, rather than found in the cache.
+     */
+    int simulated;
+
+    /**
+     * Get the number of pumps of the smallest configuration which works.
+     *
+     * @return the number of pumps, or zero if none worked.
+     */
+    public int getPumps() {
+      return this.pumps;
+    }
+
+    /**
+     * Get the capacity of each pump of the smallest configuration which works.
+     *
+     * @return the capacity, or zero if none worked.
+     */
+    public double getCapacity() {
+      return this.capacity;
+    }
+
+    /**
+     * Get the number of configurations pruned by the analytic bounds.
+     *
+     * @return the number of configurations.
+     */
+    public int getPruned() {
+      return this.pruned;
+    }
+
+    /**
+     * Get the number of configurations simulated in this search.
+     *
+     * @return the number of configurations.
+     */
+    public int getSimulated() {
+      return this.simulated;
+    }
+
+    @Override
+    public String toString() {
+      String found = this.pumps == 0 ? "none"
+          : this.pumps + "x" + this.capacity + " (total " + this.pumps * this.capacity + ")";
+      return found + " of " + this.candidates + ", pruned " + this.pruned + ", simulated "
+          + this.simulated;
+    }
+  }
+}
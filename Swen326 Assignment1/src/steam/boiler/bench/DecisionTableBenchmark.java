@@ -0,0 +1,63 @@
+package steam.boiler.bench;
+
+import java.util.Random;
+
+import steam.boiler.core.CompiledConfiguration;
+import steam.boiler.core.DecisionTable;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Compares the time taken by a lookup in the table of pump decisions with the time taken by the
+ * full prediction, which looks at every possible number of pumps. A boiler with many small pumps
+ * is used, since that is where the full prediction is slowest. Both are timed at their best over
+ * several runs, to discount interruptions, and readings the table cannot answer fall back to the
+ * full prediction as the controller does.
+ *
+ */
+public final class DecisionTableBenchmark {
+  /**
+   * Run the benchmark and print the best times and the speed-up.
+   *
+   * @param args
+   *          Optionally, the number of pumps.
+   */
+  public static void main(String[] args) {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    config = config.setNumberOfPumps(n, config.getPumpCapacity(0) * config.getNumberOfPumps() / n);
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    DecisionTable table = CompiledConfiguration.of(config).getDecisionTable(5);
+    double c = config.getPumpCapacity(0);
+    double w = config.getMaximualSteamRate();
+    double min = config.getMinimalNormalLevel();
+    double max = config.getMaximalNormalLevel();
+    double[] levels = new double[1000];
+    Random random = new Random(4);
+    for (int i = 0; i != levels.length; i = i + 1) {
+      levels[i] = min + random.nextDouble() * (max - min);
+    }
+    long lookup = Long.MAX_VALUE;
+    long full = Long.MAX_VALUE;
+    long sum = 0;
+    for (int run = 0; run != 20; run = run + 1) {
+      long start = System.nanoTime();
+      for (double level : levels) {
+        int pumps = table.lookup(level, w / 2);
+        sum = sum + (pumps >= 0 ? pumps
+            : controller.predictPumps(level, c, w, w / 2, min, max));
+      }
+      lookup = Math.min(lookup, System.nanoTime() - start);
+      start = System.nanoTime();
+      for (double level : levels) {
+        sum = sum - controller.predictPumps(level, c, w, w / 2, min, max);
+      }
+      full = Math.min(full, System.nanoTime() - start);
+    }
+    if (sum != 0) {
+      throw new IllegalStateException("lookups disagree with the full prediction");
+    }
+    System.out.printf("pumps %d: lookup %dns, full %dns, speed-up %.1fx%n", n, lookup, full,
+        (double) full / lookup);
+  }
+}
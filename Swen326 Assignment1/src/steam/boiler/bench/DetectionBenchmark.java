@@ -0,0 +1,868 @@
+package steam.boiler.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.bench.FaultCampaign.FaultKind;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Measures how long the controller takes to detect faults. Each scenario injects one or more
+ * faults of a given kind, all at once, into a boiler with a given number of pumps, once it has
+ * been running for a while. The latency of a fault is the simulated time, and the number of
+ * controller cycles, from the fault being injected until the controller sends the matching
+ * detection. Scenarios with several pump faults also measure the time until every one of them has
+ * been detected, which is where a controller that reports a single fault per cycle falls behind.
+ *
+ * <p>Each scenario is run a number of times, with the time of injection and the pumps affected
+ * drawn from a seeded random number generator, so a benchmark always gives the same report for a
+ * given seed. Reports can be written out and read back, so they can be kept as baselines and later
+ * reports compared against them.
+ *
+ */
+public final class DetectionBenchmark {
+  /**
+   * The percentiles reported for each latency.
+   */
+  static final double[] PERCENTILES = { 50, 90, 99, 100 };
+
+  /**
+   * The time between controller cycles in milliseconds.
+   */
+  private static final int PERIOD = 5000;
+
+  /**
+   * Mixes the seed of each trial.
+   */
+  private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+  /**
+   * The baselines used by the tests, relative to the project directory.
+   */
+  private static final String BASELINES = "src/steam/boiler/tests/detection-baselines.txt";
+
+  /**
+   * The characteristics of the boiler, whose number of pumps is varied.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * The numbers of pumps to benchmark.
+   */
+  private int[] pumpCounts = { 2, 4, 6 };
+
+  /**
+   * The largest number of pumps failing at once.
+   */
+  private int maxFaults = 3;
+
+  /**
+   * The number of times each scenario is run.
+   */
+  private int trials = 20;
+
+  /**
+   * How long the boiler runs before any fault is injected, in seconds.
+   */
+  private int warmup = 120;
+
+  /**
+   * How long after injection a fault must be detected before it is counted as missed, in seconds.
+   */
+  private int window = 120;
+
+  /**
+   * The time between clocks of the physical units in milliseconds.
+   */
+  private int granularity = 100;
+
+  /**
+   * The kinds of fault to inject.
+   */
+  private FaultKind[] kinds = FaultKind.values();
+
+  /**
+   * Construct a benchmark for a given boiler.
+   *
+   * @param config
+   *          The characteristics of the boiler, apart from its number of pumps.
+   */
+  public DetectionBenchmark(SteamBoilerCharacteristics config) {
+    this.config = config;
+  }
+
+  /**
+   * Set the numbers of pumps to benchmark.
+   *
+   * @param pumpCounts
+   *          The numbers of pumps, each of which must be positive.
+   */
+  public void setPumpCounts(int... pumpCounts) {
+    for (int n : pumpCounts) {
+      if (n <= 0) {
+        throw new IllegalArgumentException("invalid number of pumps");
+      }
+    }
+    this.pumpCounts = pumpCounts.clone();
+  }
+
+  /**
+   * Set the largest number of pumps which fail at once. Every number from one up to this (but no
+   * more than the number of pumps) is benchmarked for each kind of pump fault.
+   *
+   * @param maxFaults
+   *          The number of faults.
+   */
+  public void setMaxFaults(int maxFaults) {
+    if (maxFaults <= 0) {
+      throw new IllegalArgumentException("invalid number of faults");
+    }
+    this.maxFaults = maxFaults;
+  }
+
+  /**
+   * Set the number of times each scenario is run.
+   *
+   * @param trials
+   *          The number of runs.
+   */
+  public void setTrials(int trials) {
+    if (trials <= 0) {
+      throw new IllegalArgumentException("invalid number of trials");
+    }
+    this.trials = trials;
+  }
+
+  /**
+   * Set how long the boiler runs before faults are injected. Faults are injected at a random time
+   * within one minute after this.
+   *
+   * @param seconds
+   *          The time in seconds.
+   */
+  public void setWarmup(int seconds) {
+    this.warmup = seconds;
+  }
+
+  /**
+   * Set how long the controller has to detect a fault before it is counted as missed.
+   *
+   * @param seconds
+   *          The time in seconds.
+   */
+  public void setWindow(int seconds) {
+    this.window = seconds;
+  }
+
+  /**
+   * Set the time between clocks of the physical units.
+   *
+   * @param millis
+   *          The time in milliseconds, which must divide five seconds.
+   */
+  public void setGranularity(int millis) {
+    if (millis <= 0 || PERIOD % millis != 0) {
+      throw new IllegalArgumentException("granularity must divide five seconds");
+    }
+    this.granularity = millis;
+  }
+
+  /**
+   * Restrict the kinds of fault which are injected.
+   *
+   * @param kinds
+   *          The kinds of fault, which must not be empty.
+   */
+  public void setKinds(FaultKind... kinds) {
+    if (kinds.length == 0) {
+      throw new IllegalArgumentException("no kinds of fault");
+    }
+    this.kinds = kinds.clone();
+  }
+
+  /**
+   * Run every scenario, with the trials spread across every available core.
+   *
+   * @param seed
+   *          The seed of the benchmark.
+   * @return the report.
+   */
+  public Report run(long seed) {
+    List<Scenario> scenarios = new ArrayList<>();
+    for (FaultKind kind : this.kinds) {
+      for (int pumps : this.pumpCounts) {
+        int faults = kind.isPumpFault() ? Math.min(this.maxFaults, pumps) : 1;
+        for (int f = 1; f <= faults; f = f + 1) {
+          scenarios.add(new Scenario(kind, pumps, f));
+        }
+      }
+    }
+    int total = scenarios.size() * this.trials;
+    Trial[] results = new Trial[total];
+    IntStream.range(0, total).parallel().forEach(i -> {
+      results[i] = run(scenarios.get(i / this.trials), seed, i % this.trials);
+    });
+    List<Row> rows = new ArrayList<>();
+    for (int i = 0; i != scenarios.size(); i = i + 1) {
+      rows.add(new Row(scenarios.get(i),
+          Arrays.copyOfRange(results, i * this.trials, (i + 1) * this.trials)));
+    }
+    return new Report(rows);
+  }
+
+  /**
+   * Run a single trial of a scenario.
+   *
+   * @param scenario
+   *          The scenario.
+   * @param seed
+   *          The seed of the benchmark.
+   * @param index
+   *          The index of the trial within its scenario.
+   * @return the outcome of the trial.
+   */
+  private Trial run(Scenario scenario, long seed, int index) {
+    // Seeded from the scenario itself, so its trials do not depend on which others are run.
+    long base = FaultCampaign.mix(seed + scenario.hashCode() * GAMMA);
+    SplittableRandom random = new SplittableRandom(FaultCampaign.mix(base + index * GAMMA));
+    SteamBoilerCharacteristics cs = this.config.setNumberOfPumps(scenario.pumps,
+        this.config.getPumpCapacity(0));
+    int[] pumps = new int[scenario.faults];
+    int[] order = IntStream.range(0, scenario.pumps).toArray();
+    for (int i = 0; i != pumps.length; i = i + 1) {
+      int j = i + random.nextInt(order.length - i);
+      int tmp = order[i];
+      order[i] = order[j];
+      order[j] = tmp;
+      pumps[i] = order[i];
+    }
+    int injection = this.warmup * 1000
+        + random.nextInt(60000 / this.granularity) * this.granularity;
+    int end = injection + this.window * 1000;
+    PhysicalUnits model = new PhysicalUnits.Template(cs).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    MySteamBoilerController controller = new MySteamBoilerController(cs);
+    Trial trial = new Trial(scenario.faults);
+    int cycles = 0;
+    int undetected = scenario.faults;
+    for (int time = 0; time < end && undetected > 0 && !trial.stopped; time += this.granularity) {
+      if (time == injection) {
+        for (int p : pumps) {
+          scenario.kind.inject(model, p, cs);
+        }
+      }
+      model.clock(this.granularity);
+      if (time % PERIOD == 0) {
+        Mailbox input = new UnboundedMailbox(100);
+        Mailbox output = new UnboundedMailbox(100);
+        model.transmit(input);
+        controller.clock(input, output);
+        model.receive(output);
+        if (time >= injection) {
+          cycles = cycles + 1;
+          undetected = undetected - trial.detect(scenario, pumps, output, time - injection, cycles);
+        }
+      }
+    }
+    return trial;
+  }
+
+  /**
+   * Run the default benchmark and write its report to the baselines used by the tests, which is
+   * how they are regenerated.
+   *
+   * @param args
+   *          Optionally, the file to write, which by default is the baselines beside the tests when
+   *          run from the project directory, or <code>-</code> to print the report instead; and
+   *          then the seed of the benchmark.
+   * @throws IOException
+   *           if the file could not be written.
+   */
+  public static void main(String[] args) throws IOException {
+    String file = args.length > 0 ? args[0] : BASELINES;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+    DetectionBenchmark benchmark = new DetectionBenchmark(SteamBoilerCharacteristics.DEFAULT);
+    String report = benchmark.run(seed).format();
+    if (file.equals("-")) {
+      System.out.print(report);
+    } else {
+      Files.write(Paths.get(file), report.getBytes(StandardCharsets.UTF_8));
+      System.out.println("wrote " + file);
+    }
+  }
+
+  /**
+   * Find a given percentile of some samples, using the nearest rank.
+   *
+   * @param sorted
+   *          The samples, in ascending order.
+   * @param percentile
+   *          The percentile, between zero and one hundred.
+   * @return the percentile, or -1 if there are no samples.
+   */
+  static int percentile(int[] sorted, double percentile) {
+    if (sorted.length == 0) {
+      return -1;
+    }
+    int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+    return sorted[Math.max(rank, 1) - 1];
+  }
+
+  /**
+   * A kind of fault, injected into a given number of pumps at once in a boiler with a given number
+   * of pumps.
+   */
+  public static final class Scenario {
+    /**
+     * The kind of fault.
+     */
+    final FaultKind kind;
+
+    /**
+     * The number of pumps in the boiler.
+     */
+    final int pumps;
+
+    /**
+     * The number of faults injected at once, which is one unless this is a pump fault.
+     */
+    final int faults;
+
+    /**
+     * Construct a scenario.
+     *
+     * @param kind
+     *          The kind of fault.
+     * @param pumps
+     *          The number of pumps in the boiler.
+     * @param faults
+     *          The number of faults injected at once.
+     */
+    public Scenario(FaultKind kind, int pumps, int faults) {
+      if (pumps <= 0 || faults <= 0 || faults > (kind.isPumpFault() ? pumps : 1)) {
+        throw new IllegalArgumentException("invalid scenario");
+      }
+      this.kind = kind;
+      this.pumps = pumps;
+      this.faults = faults;
+    }
+
+    /**
+     * Get the kind of fault.
+     *
+     * @return the kind.
+     */
+    public FaultKind getKind() {
+      return this.kind;
+    }
+
+    /**
+     * Get the number of pumps in the boiler.
+     *
+     * @return the number of pumps.
+     */
+    public int getPumps() {
+      return this.pumps;
+    }
+
+    /**
+     * Get the number of faults injected at once.
+     *
+     * @return the number of faults.
+     */
+    public int getFaults() {
+      return this.faults;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      if (!(o instanceof Scenario)) {
+        return false;
+      }
+      Scenario s = (Scenario) o;
+      return this.kind == s.kind && this.pumps == s.pumps && this.faults == s.faults;
+    }
+
+    @Override
+    public int hashCode() {
+      return (this.kind.ordinal() * 31 + this.pumps) * 31 + this.faults;
+    }
+
+    @Override
+    public String toString() {
+      return this.kind + " " + this.pumps + " " + this.faults;
+    }
+  }
+
+  /**
+   * The outcome of a single trial.
+   */
+  private static final class Trial {
+    /**
+     * The latency of each fault in milliseconds, or -1 if it was not detected.
+     */
+    final int[] latencies;
+
+    /**
+     * The latency of each fault in cycles, or -1 if it was not detected.
+     */
+    final int[] cycles;
+
+    /**
+     * Whether the controller stopped the boiler.
+     */
+    boolean stopped;
+
+    /**
+     * Construct a trial in which nothing has been detected yet.
+     *
+     * @param faults
+     *          The number of faults injected.
+     */
+    Trial(int faults) {
+      this.latencies = new int[faults];
+      this.cycles = new int[faults];
+      Arrays.fill(this.latencies, -1);
+      Arrays.fill(this.cycles, -1);
+    }
+
+    /**
+     * Record the detections sent by the controller in a given cycle.
+     *
+     * @param scenario
+     *          The scenario.
+     * @param pumps
+     *          The pump affected by each fault.
+     * @param output
+     *          The messages sent by the controller.
+     * @param latency
+     *          The time since the faults were injected, in milliseconds.
+     * @param cycle
+     *          The number of cycles since the faults were injected, including this one.
+     * @return the number of faults detected for the first time.
+     */
+    int detect(Scenario scenario, int[] pumps, Mailbox output, int latency, int cycle) {
+      int detected = 0;
+      MessageKind detection = scenario.kind.getDetection();
+      for (int j = 0; j != output.size(); j = j + 1) {
+        Message m = output.read(j);
+        if (m.getKind() == MessageKind.MODE_m && m.getModeParameter() == Mode.EMERGENCY_STOP) {
+          this.stopped = true;
+        } else if (m.getKind() == detection) {
+          for (int i = 0; i != pumps.length; i = i + 1) {
+            if (this.latencies[i] < 0
+                && (!scenario.kind.isPumpFault() || m.getIntegerParameter() == pumps[i])) {
+              this.latencies[i] = latency;
+              this.cycles[i] = cycle;
+              detected = detected + 1;
+            }
+          }
+        }
+      }
+      return detected;
+    }
+  }
+
+  /**
+   * The summary of every trial of a scenario.
+   */
+  public static final class Row {
+    /**
+     * The scenario.
+     */
+    final Scenario scenario;
+
+    /**
+     * The number of trials.
+     */
+    final int trials;
+
+    /**
+     * The number of faults detected.
+     */
+    final int detected;
+
+    /**
+     * The number of faults not detected in time, in trials where the boiler was not stopped.
+     */
+    final int missed;
+
+    /**
+     * The number of faults not detected, in trials where the boiler was stopped instead.
+     */
+    final int stopped;
+
+    /**
+     * The percentiles of the latency of each fault, in milliseconds.
+     */
+    final int[] latency;
+
+    /**
+     * The percentiles of the latency of each fault, in cycles.
+     */
+    final int[] cycles;
+
+    /**
+     * The percentiles of the time until every fault in a trial was detected, in milliseconds.
+     */
+    final int[] completion;
+
+    /**
+     * Summarise the trials of a scenario.
+     *
+     * @param scenario
+     *          The scenario.
+     * @param trials
+     *          The outcomes of its trials.
+     */
+    Row(Scenario scenario, Trial[] trials) {
+      int n = 0;
+      int missed = 0;
+      int stopped = 0;
+      int[] latencies = new int[trials.length * scenario.faults];
+      int[] cycles = new int[latencies.length];
+      int[] completions = new int[trials.length];
+      int completed = 0;
+      for (Trial t : trials) {
+        int worst = 0;
+        boolean complete = true;
+        for (int i = 0; i != scenario.faults; i = i + 1) {
+          if (t.latencies[i] >= 0) {
+            latencies[n] = t.latencies[i];
+            cycles[n] = t.cycles[i];
+            n = n + 1;
+            worst = Math.max(worst, t.latencies[i]);
+          } else if (t.stopped) {
+            stopped = stopped + 1;
+            complete = false;
+          } else {
+            missed = missed + 1;
+            complete = false;
+          }
+        }
+        if (complete) {
+          completions[completed++] = worst;
+        }
+      }
+      this.scenario = scenario;
+      this.trials = trials.length;
+      this.detected = n;
+      this.missed = missed;
+      this.stopped = stopped;
+      this.latency = summarise(Arrays.copyOf(latencies, n));
+      this.cycles = summarise(Arrays.copyOf(cycles, n));
+      this.completion = summarise(Arrays.copyOf(completions, completed));
+    }
+
+    /**
+     * Construct a row from its summary, such as one read back from a stored report.
+     *
+     * @param scenario
+     *          The scenario.
+     * @param counts
+     *          The number of trials, detections, misses and faults stopped for.
+     * @param latency
+     *          The percentiles of the latency of each fault, in milliseconds.
+     * @param cycles
+     *          The percentiles of the latency of each fault, in cycles.
+     * @param completion
+     *          The percentiles of the time until every fault in a trial was detected.
+     */
+    Row(Scenario scenario, int[] counts, int[] latency, int[] cycles, int[] completion) {
+      this.scenario = scenario;
+      this.trials = counts[0];
+      this.detected = counts[1];
+      this.missed = counts[2];
+      this.stopped = counts[3];
+      this.latency = latency;
+      this.cycles = cycles;
+      this.completion = completion;
+    }
+
+    /**
+     * Find the percentiles of some samples.
+     *
+     * @param samples
+     *          The samples, which are sorted in place.
+     * @return the percentiles in {@link DetectionBenchmark#PERCENTILES}.
+     */
+    private static int[] summarise(int[] samples) {
+      Arrays.sort(samples);
+      int[] result = new int[PERCENTILES.length];
+      for (int i = 0; i != result.length; i = i + 1) {
+        result[i] = percentile(samples, PERCENTILES[i]);
+      }
+      return result;
+    }
+
+    /**
+     * Get the scenario.
+     *
+     * @return the scenario.
+     */
+    public Scenario getScenario() {
+      return this.scenario;
+    }
+
+    /**
+     * Get the number of trials.
+     *
+     * @return the number of trials.
+     */
+    public int getTrials() {
+      return this.trials;
+    }
+
+    /**
+     * Get the number of faults detected in time.
+     *
+     * @return the number of faults.
+     */
+    public int getDetected() {
+      return this.detected;
+    }
+
+    /**
+     * Get the number of faults neither detected in time nor responded to with an emergency stop.
+     *
+     * @return the number of faults.
+     */
+    public int getMissed() {
+      return this.missed;
+    }
+
+    /**
+     * Get the number of faults which were responded to with an emergency stop instead of a
+     * detection.
+     *
+     * @return the number of faults.
+     */
+    public int getStopped() {
+      return this.stopped;
+    }
+
+    /**
+     * Get a percentile of the latency of each fault.
+     *
+     * @param index
+     *          The index of the percentile in {@link DetectionBenchmark#PERCENTILES}.
+     * @return the latency in milliseconds, or -1 if nothing was detected.
+     */
+    public int getLatency(int index) {
+      return this.latency[index];
+    }
+
+    /**
+     * Get a percentile of the latency of each fault in controller cycles.
+     *
+     * @param index
+     *          The index of the percentile in {@link DetectionBenchmark#PERCENTILES}.
+     * @return the number of cycles, or -1 if nothing was detected.
+     */
+    public int getCycles(int index) {
+      return this.cycles[index];
+    }
+
+    /**
+     * Get a percentile of the time until every fault injected in a trial was detected.
+     *
+     * @param index
+     *          The index of the percentile in {@link DetectionBenchmark#PERCENTILES}.
+     * @return the time in milliseconds, or -1 if no trial had every fault detected.
+     */
+    public int getCompletion(int index) {
+      return this.completion[index];
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder b = new StringBuilder(this.scenario.toString());
+      b.append(' ').append(this.trials).append(' ').append(this.detected).append(' ')
+          .append(this.missed).append(' ').append(this.stopped);
+      for (int[] summary : new int[][] { this.latency, this.cycles, this.completion }) {
+        for (int v : summary) {
+          b.append(' ').append(v);
+        }
+      }
+      return b.toString();
+    }
+  }
+
+  /**
+   * The summary of every scenario in a benchmark.
+   */
+  public static final class Report {
+    /**
+     * The header written at the start of every report.
+     */
+    private static final String HEADER = "# kind pumps faults trials detected missed stopped"
+        + " latency(ms) p50 p90 p99 max, cycles p50 p90 p99 max, completion(ms) p50 p90 p99 max";
+
+    /**
+     * The rows, one for each scenario.
+     */
+    private final List<Row> rows;
+
+    /**
+     * Construct a report.
+     *
+     * @param rows
+     *          The rows, one for each scenario.
+     */
+    Report(List<Row> rows) {
+      this.rows = Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * Get the rows of this report.
+     *
+     * @return the rows, one for each scenario.
+     */
+    public List<Row> getRows() {
+      return this.rows;
+    }
+
+    /**
+     * Get the row for a given scenario.
+     *
+     * @param scenario
+     *          The scenario.
+     * @return the row, or null if the scenario was not benchmarked.
+     */
+    public @Nullable Row getRow(Scenario scenario) {
+      for (Row r : this.rows) {
+        if (r.scenario.equals(scenario)) {
+          return r;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Compare this report with a baseline. A scenario regresses when it detects a smaller share
+     * of its faults than the baseline, or when any percentile of its latencies is worse than the
+     * baseline by more than a given factor. Scenarios missing from either report are ignored.
+     *
+     * @param baseline
+     *          The baseline.
+     * @param tolerance
+     *          How much worse a latency may be, as a proportion of the baseline.
+     * @return a description of each regression.
+     */
+    public List<String> compare(Report baseline, double tolerance) {
+      List<String> regressions = new ArrayList<>();
+      for (Row r : this.rows) {
+        Row b = baseline.getRow(r.scenario);
+        if (b == null) {
+          continue;
+        }
+        if ((long) r.detected * b.trials < (long) b.detected * r.trials) {
+          regressions.add(r.scenario + ": detected " + r.detected + "/" + r.trials
+              + " trials, was " + b.detected + "/" + b.trials);
+        }
+        compare(regressions, r, "latency", r.latency, b.latency, tolerance);
+        compare(regressions, r, "cycles", r.cycles, b.cycles, tolerance);
+        compare(regressions, r, "completion", r.completion, b.completion, tolerance);
+      }
+      return regressions;
+    }
+
+    /**
+     * Compare the percentiles of one latency with a baseline.
+     *
+     * @param regressions
+     *          The regressions found so far.
+     * @param row
+     *          The row being compared.
+     * @param name
+     *          The name of the latency.
+     * @param current
+     *          The current percentiles.
+     * @param baseline
+     *          The baseline percentiles.
+     * @param tolerance
+     *          How much worse a latency may be, as a proportion of the baseline.
+     */
+    private static void compare(List<String> regressions, Row row, String name, int[] current,
+        int[] baseline, double tolerance) {
+      for (int i = 0; i != PERCENTILES.length; i = i + 1) {
+        if (baseline[i] >= 0 && (current[i] < 0 || current[i] > baseline[i] * (1 + tolerance))) {
+          regressions.add(row.scenario + ": " + name + " p" + (int) PERCENTILES[i] + " is "
+              + current[i] + ", was " + baseline[i]);
+        }
+      }
+    }
+
+    /**
+     * Write this report out, one scenario per line, in a form which {@link #read(Reader)} reads
+     * back.
+     *
+     * @return the report.
+     */
+    public String format() {
+      StringBuilder b = new StringBuilder(HEADER).append('\n');
+      for (Row r : this.rows) {
+        b.append(r).append('\n');
+      }
+      return b.toString();
+    }
+
+    /**
+     * Read back a report written by {@link #format()}. Blank lines and lines starting with
+     * <code>#</code> are ignored.
+     *
+     * @param in
+     *          The report.
+     * @return the report.
+     * @throws IOException
+     *           if the report cannot be read, or is malformed.
+     */
+    public static Report read(Reader in) throws IOException {
+      List<Row> rows = new ArrayList<>();
+      BufferedReader reader = new BufferedReader(in);
+      int n = PERCENTILES.length;
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split("\\s+");
+        if (fields.length != 7 + 3 * n) {
+          throw new IOException("malformed report line: " + line);
+        }
+        try {
+          int[] values = new int[fields.length - 1];
+          for (int i = 1; i != fields.length; i = i + 1) {
+            values[i - 1] = Integer.parseInt(fields[i]);
+          }
+          Scenario s = new Scenario(FaultKind.valueOf(fields[0]), values[0], values[1]);
+          rows.add(new Row(s, Arrays.copyOfRange(values, 2, 6),
+              Arrays.copyOfRange(values, 6, 6 + n), Arrays.copyOfRange(values, 6 + n, 6 + 2 * n),
+              Arrays.copyOfRange(values, 6 + 2 * n, 6 + 3 * n)));
+        } catch (IllegalArgumentException e) {
+          throw new IOException("malformed report line: " + line, e);
+        }
+      }
+      return new Report(rows);
+    }
+  }
+}
@@ -0,0 +1,707 @@
+package steam.boiler.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.LongStream;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpModels;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Drives two controllers in lock-step and checks that they behave identically. Both controllers
+ * read the same incoming mailbox in every cycle, and the physical units act on the messages sent
+ * by the first (the reference), so that the second (the candidate) is checked in exactly the
+ * situations the reference creates. Each run follows a fault schedule from a
+ * {@link FaultCampaign}, so that runs exercise failures as well as normal operation.
+ *
+ * <p>The messages each controller sends in a cycle are compared as a multiset: every message is
+ * encoded as a pair of longs, and the pairs are sorted, so the order in which messages are sent
+ * does not matter but everything else about them does. The first cycle in which the two disagree
+ * is reported with the fault schedule, the inputs and outputs of the cycles leading up to it, and
+ * the messages only one controller sent. Mailboxes are allocated for each cycle anyway, so keeping
+ * the last few costs nothing on the hot path.
+ *
+ */
+public final class DifferentialRunner {
+  /**
+   * The characteristics of the boiler.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * Constructs the reference controller of each run.
+   */
+  private final Function<SteamBoilerCharacteristics, SteamBoilerController> reference;
+
+  /**
+   * Constructs the candidate controller of each run.
+   */
+  private final Function<SteamBoilerCharacteristics, SteamBoilerController> candidate;
+
+  /**
+   * Generates the fault schedule of each run.
+   */
+  private final FaultCampaign campaign;
+
+  /**
+   * The length of each run, in seconds.
+   */
+  private int duration = 600;
+
+  /**
+   * The time between clocks of the physical units, in milliseconds.
+   */
+  private int granularity = 100;
+
+  /**
+   * The period of the controllers, in milliseconds.
+   */
+  private int period = MySteamBoilerController.DEFAULT_PERIOD;
+
+  /**
+   * The number of cycles before a divergence to report.
+   */
+  private int context = 3;
+
+  /**
+   * Construct a runner comparing two kinds of controller.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param reference
+   *          Constructs the reference controller, whose messages drive the physical units.
+   * @param candidate
+   *          Constructs the controller checked against it.
+   */
+  public DifferentialRunner(SteamBoilerCharacteristics config,
+      Function<SteamBoilerCharacteristics, SteamBoilerController> reference,
+      Function<SteamBoilerCharacteristics, SteamBoilerController> candidate) {
+    this.config = config;
+    this.reference = reference;
+    this.candidate = candidate;
+    this.campaign = new FaultCampaign(config);
+  }
+
+  /**
+   * Set the length of each run.
+   *
+   * @param seconds
+   *          The length in seconds, which must be a multiple of five.
+   */
+  public void setDuration(int seconds) {
+    this.campaign.setDuration(seconds);
+    this.duration = seconds;
+  }
+
+  /**
+   * Set the time between clocks of the physical units. Coarser clocks make runs cheaper, at the
+   * expense of the accuracy of the simulated physics.
+   *
+   * @param millis
+   *          The time in milliseconds, which must divide both five seconds and the period.
+   */
+  public void setGranularity(int millis) {
+    if (millis <= 0 || this.period % millis != 0) {
+      throw new IllegalArgumentException("granularity must divide the period");
+    }
+    this.campaign.setGranularity(millis);
+    this.granularity = millis;
+  }
+
+  /**
+   * Set the period at which the controllers are clocked, which must match the period they were
+   * constructed with.
+   *
+   * @param millis
+   *          The period in milliseconds, which must be a multiple of the granularity.
+   */
+  public void setPeriod(int millis) {
+    if (millis <= 0 || millis % this.granularity != 0) {
+      throw new IllegalArgumentException("period must be a multiple of the granularity");
+    }
+    this.campaign.setPeriod(millis);
+    this.period = millis;
+  }
+
+  /**
+   * Set the maximum number of faults in each schedule.
+   *
+   * @param maxFaults
+   *          The maximum number of faults.
+   */
+  public void setMaxFaults(int maxFaults) {
+    this.campaign.setMaxFaults(maxFaults);
+  }
+
+  /**
+   * Set how many cycles before a divergence are reported with it.
+   *
+   * @param cycles
+   *          The number of cycles.
+   */
+  public void setContext(int cycles) {
+    if (cycles < 0) {
+      throw new IllegalArgumentException("context cannot be negative");
+    }
+    this.context = cycles;
+  }
+
+  /**
+   * Perform a number of runs, spread across every available core. Runs after one which has
+   * already diverged are skipped, so the divergence reported is always that of the first run to
+   * diverge, however the runs are spread.
+   *
+   * @param seed
+   *          The seed from which the fault schedules are generated.
+   * @param runs
+   *          The number of runs.
+   * @return the aggregated results.
+   */
+  public Result run(long seed, long runs) {
+    AtomicLong first = new AtomicLong(Long.MAX_VALUE);
+    return LongStream.range(0, runs).parallel().collect(Result::new, (Result r, long i) -> {
+      if (i < first.get()) {
+        Result one = run(i, this.campaign.schedule(seed, i));
+        if (one.divergence != null) {
+          first.accumulateAndGet(i, Math::min);
+        }
+        r.merge(one);
+      }
+    }, Result::merge);
+  }
+
+  /**
+   * Perform a single run with a given fault schedule.
+   *
+   * @param faults
+   *          The faults, in order of occurrence.
+   * @return the result of the run.
+   */
+  public Result run(List<FaultCampaign.Fault> faults) {
+    return run(-1, faults);
+  }
+
+  /**
+   * Perform a single run.
+   *
+   * @param index
+   *          The index of the run, or -1 if it is not part of a campaign.
+   * @param faults
+   *          The faults, in order of occurrence.
+   * @return the result of the run.
+   */
+  private Result run(long index, List<FaultCampaign.Fault> faults) {
+    SteamBoilerCharacteristics cs = this.config;
+    PhysicalUnits model = new PhysicalUnits.Template(cs).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    SteamBoilerController first = this.reference.apply(cs);
+    SteamBoilerController second = this.candidate.apply(cs);
+    Result result = new Result();
+    result.runs = 1;
+    Canonical left = new Canonical();
+    Canonical right = new Canonical();
+    // The inputs and outputs of recent cycles, three to a cycle, as a ring.
+    Mailbox[] history = new Mailbox[3 * (this.context + 1)];
+    int n = faults.size();
+    boolean[] repaired = new boolean[n];
+    int next = 0;
+    int end = this.duration * 1000;
+    for (int time = 0; time < end; time = time + this.granularity) {
+      while (next < n && faults.get(next).getTime() <= time) {
+        FaultCampaign.Fault f = faults.get(next);
+        f.getKind().inject(model, f.getPump(), cs);
+        next = next + 1;
+      }
+      for (int i = 0; i != next; i = i + 1) {
+        FaultCampaign.Fault f = faults.get(i);
+        if (!repaired[i] && f.getRepair() >= 0 && f.getRepair() <= time) {
+          repaired[i] = true;
+          model.setPump(f.getPump(),
+              new PumpModels.Ideal(f.getPump(), cs.getPumpCapacity(f.getPump()), model));
+          model.setPumpStatus(f.getPump(), PhysicalUnits.ComponentStatus.REPAIRED);
+        }
+      }
+      model.clock(this.granularity);
+      if (time % this.period == 0) {
+        Mailbox input = new UnboundedMailbox(100);
+        Mailbox output = new UnboundedMailbox(100);
+        Mailbox shadow = new UnboundedMailbox(100);
+        model.transmit(input);
+        String failure = clock(first, input, output);
+        String other = clock(second, input, shadow);
+        int slot = (int) (result.cycles % (this.context + 1)) * 3;
+        history[slot] = input;
+        history[slot + 1] = output;
+        history[slot + 2] = shadow;
+        result.cycles = result.cycles + 1;
+        if (failure != null || other != null) {
+          if (failure == null || !failure.equals(other)) {
+            result.divergence = new Divergence(index, faults, result.cycles - 1, time,
+                recent(history, result.cycles), failure, other);
+          }
+          break;
+        }
+        left.encode(output);
+        right.encode(shadow);
+        if (!left.equals(right)) {
+          result.divergence = new Divergence(index, faults, result.cycles - 1, time,
+              recent(history, result.cycles), null, null);
+          break;
+        }
+        model.receive(output);
+        if (stopped(output)) {
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Clock a controller, catching anything it throws.
+   *
+   * @param controller
+   *          The controller.
+   * @param input
+   *          The messages it receives.
+   * @param output
+   *          The messages it sends.
+   * @return null, or the class of whatever it threw.
+   */
+  private static @Nullable String clock(SteamBoilerController controller, Mailbox input,
+      Mailbox output) {
+    try {
+      controller.clock(input, output);
+      return null;
+    } catch (RuntimeException | AssertionError e) {
+      return e.getClass().getName();
+    }
+  }
+
+  /**
+   * Check whether a controller stopped the boiler, after which there is nothing left to compare.
+   *
+   * @param output
+   *          The messages sent by the controller.
+   * @return true if they include an emergency stop.
+   */
+  private static boolean stopped(Mailbox output) {
+    for (int i = 0; i != output.size(); i = i + 1) {
+      Message m = output.read(i);
+      if (m.getKind() == Mailbox.MessageKind.MODE_m
+          && m.getModeParameter() == Mode.EMERGENCY_STOP) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Unroll the ring of recent cycles, oldest first.
+   *
+   * @param history
+   *          The ring.
+   * @param cycles
+   *          The number of cycles run, including the last.
+   * @return the mailboxes of each recent cycle, three to a cycle.
+   */
+  private static Mailbox[] recent(Mailbox[] history, long cycles) {
+    int size = history.length / 3;
+    int kept = (int) Math.min(cycles, size);
+    Mailbox[] recent = new Mailbox[3 * kept];
+    for (int i = 0; i != kept; i = i + 1) {
+      int slot = (int) ((cycles - kept + i) % size) * 3;
+      System.arraycopy(history, slot, recent, 3 * i, 3);
+    }
+    return recent;
+  }
+
+  /**
+   * The messages sent in one cycle in a canonical form, sorted so that two mailboxes holding the
+   * same messages in any order encode identically. Buffers are reused from cycle to cycle.
+   */
+  static final class Canonical {
+    /**
+     * Each message as a pair: the kind and the integer, boolean and mode parameters packed into
+     * the first long, and the bits of the double parameter in the second.
+     */
+    long[] pairs = new long[32];
+
+    /**
+     * The number of messages encoded.
+     */
+    int size;
+
+    /**
+     * Encode the messages in a mailbox.
+     *
+     * @param mailbox
+     *          The mailbox.
+     */
+    void encode(Mailbox mailbox) {
+      this.size = mailbox.size();
+      if (2 * this.size > this.pairs.length) {
+        this.pairs = new long[4 * this.size];
+      }
+      for (int i = 0; i != this.size; i = i + 1) {
+        Message m = mailbox.read(i);
+        long head = head(m);
+        long value = Double.doubleToLongBits(m.getDoubleParameter());
+        // Insertion sort, since a cycle sends only a handful of messages.
+        int j = i;
+        while (j > 0 && compare(this.pairs[2 * j - 2], this.pairs[2 * j - 1], head, value) > 0) {
+          this.pairs[2 * j] = this.pairs[2 * j - 2];
+          this.pairs[2 * j + 1] = this.pairs[2 * j - 1];
+          j = j - 1;
+        }
+        this.pairs[2 * j] = head;
+        this.pairs[2 * j + 1] = value;
+      }
+    }
+
+    /**
+     * Pack everything but the double parameter of a message into a long.
+     *
+     * @param m
+     *          The message.
+     * @return the packed message.
+     */
+    static long head(Message m) {
+      Mode mode = m.getModeParameter();
+      long kind = m.getKind().ordinal();
+      long flag = m.getBooleanParameter() ? 1 : 0;
+      long modes = mode == null ? 0 : mode.ordinal() + 1;
+      return kind << 48 | modes << 40 | flag << 32 | (m.getIntegerParameter() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Compare two encoded messages.
+     *
+     * @param a
+     *          The first half of the first message.
+     * @param b
+     *          The second half of the first message.
+     * @param c
+     *          The first half of the second message.
+     * @param d
+     *          The second half of the second message.
+     * @return the order of the messages.
+     */
+    private static int compare(long a, long b, long c, long d) {
+      return a != c ? Long.compare(a, c) : Long.compare(b, d);
+    }
+
+    /**
+     * Check whether two canonical forms hold the same messages.
+     *
+     * @param other
+     *          The other form.
+     * @return true if they are identical.
+     */
+    boolean equals(Canonical other) {
+      if (this.size != other.size) {
+        return false;
+      }
+      for (int i = 0; i != 2 * this.size; i = i + 1) {
+        if (this.pairs[i] != other.pairs[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Measure how many cycles a minute are compared, over hour-long runs of two copies of the real
+   * controller, after a few runs to warm up.
+   *
+   * @param args
+   *          Optionally, the number of runs measured.
+   */
+  public static void main(String[] args) {
+    long runs = args.length > 0 ? Long.parseLong(args[0]) : 200;
+    DifferentialRunner runner = new DifferentialRunner(SteamBoilerCharacteristics.DEFAULT,
+        MySteamBoilerController::new, MySteamBoilerController::new);
+    runner.setGranularity(1000);
+    runner.setDuration(3600);
+    runner.run(3, 20);
+    long start = System.nanoTime();
+    Result result = runner.run(5, runs);
+    long elapsed = System.nanoTime() - start;
+    System.out.println(result);
+    System.out.printf("%.0f cycles a minute%n", result.getCycles() * 60e9 / elapsed);
+  }
+
+  /**
+   * The first cycle in which two controllers disagreed, with everything needed to reproduce it.
+   */
+  public static final class Divergence {
+    /**
+     * The index of the run, or -1 if it was not part of a campaign.
+     */
+    final long run;
+
+    /**
+     * The fault schedule of the run.
+     */
+    final List<FaultCampaign.Fault> faults;
+
+    /**
+     * The cycle in which the controllers disagreed, counting from zero.
+     */
+    final long cycle;
+
+    /**
+     * The time (in milliseconds) at which they disagreed.
+     */
+    final int time;
+
+    /**
+     * The inputs, reference outputs and candidate outputs of the cycles up to and including the
+     * one in which they disagreed.
+     */
+    final Mailbox[] recent;
+
+    /**
+     * What the reference threw, if anything.
+     */
+    final @Nullable String referenceFailure;
+
+    /**
+     * What the candidate threw, if anything.
+     */
+    final @Nullable String candidateFailure;
+
+    /**
+     * Construct a divergence.
+     *
+     * @param run
+     *          The index of the run.
+     * @param faults
+     *          The fault schedule.
+     * @param cycle
+     *          The cycle.
+     * @param time
+     *          The time.
+     * @param recent
+     *          The recent cycles, three mailboxes to a cycle.
+     * @param referenceFailure
+     *          What the reference threw, if anything.
+     * @param candidateFailure
+     *          What the candidate threw, if anything.
+     */
+    Divergence(long run, List<FaultCampaign.Fault> faults, long cycle, int time, Mailbox[] recent,
+        @Nullable String referenceFailure, @Nullable String candidateFailure) {
+      this.run = run;
+      this.faults = new ArrayList<>(faults);
+      this.cycle = cycle;
+      this.time = time;
+      this.recent = recent;
+      this.referenceFailure = referenceFailure;
+      this.candidateFailure = candidateFailure;
+    }
+
+    /**
+     * Get the index of the run.
+     *
+     * @return the index, or -1 if it was not part of a campaign.
+     */
+    public long getRun() {
+      return this.run;
+    }
+
+    /**
+     * Get the cycle in which the controllers disagreed.
+     *
+     * @return the cycle, counting from zero.
+     */
+    public long getCycle() {
+      return this.cycle;
+    }
+
+    /**
+     * Get the fault schedule of the run, from which it can be reproduced.
+     *
+     * @return the faults.
+     */
+    public List<FaultCampaign.Fault> getFaults() {
+      return this.faults;
+    }
+
+    /**
+     * Get the messages sent only by the reference in the cycle in which they disagreed.
+     *
+     * @return the messages.
+     */
+    public List<Message> getReferenceOnly() {
+      return difference(this.recent[this.recent.length - 2], this.recent[this.recent.length - 1]);
+    }
+
+    /**
+     * Get the messages sent only by the candidate in the cycle in which they disagreed.
+     *
+     * @return the messages.
+     */
+    public List<Message> getCandidateOnly() {
+      return difference(this.recent[this.recent.length - 1], this.recent[this.recent.length - 2]);
+    }
+
+    /**
+     * Find the messages in one mailbox which are not matched by a message in another, counting
+     * repeats.
+     *
+     * @param a
+     *          The first mailbox.
+     * @param b
+     *          The second mailbox.
+     * @return the messages in the first which are not in the second.
+     */
+    private static List<Message> difference(Mailbox a, Mailbox b) {
+      boolean[] used = new boolean[b.size()];
+      List<Message> only = new ArrayList<>();
+      for (int i = 0; i != a.size(); i = i + 1) {
+        Message m = a.read(i);
+        long head = Canonical.head(m);
+        long value = Double.doubleToLongBits(m.getDoubleParameter());
+        boolean found = false;
+        for (int j = 0; j != b.size() && !found; j = j + 1) {
+          Message o = b.read(j);
+          if (!used[j] && Canonical.head(o) == head
+              && Double.doubleToLongBits(o.getDoubleParameter()) == value) {
+            used[j] = true;
+            found = true;
+          }
+        }
+        if (!found) {
+          only.add(m);
+        }
+      }
+      return only;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder b = new StringBuilder();
+      b.append("divergence in run ").append(this.run).append(" at cycle ").append(this.cycle)
+          .append(" (").append(this.time).append("ms)\nfaults: ").append(this.faults);
+      for (int i = 0; i < this.recent.length; i = i + 3) {
+        long c = this.cycle - (this.recent.length - i) / 3 + 1;
+        b.append("\ncycle ").append(c).append("\n  input:     ").append(text(this.recent[i]))
+            .append("\n  reference: ").append(text(this.recent[i + 1]))
+            .append("\n  candidate: ").append(text(this.recent[i + 2]));
+      }
+      if (this.referenceFailure != null || this.candidateFailure != null) {
+        b.append("\nreference threw ").append(this.referenceFailure)
+            .append(", candidate threw ").append(this.candidateFailure);
+      } else {
+        b.append("\nreference only: ").append(getReferenceOnly()).append("\ncandidate only: ")
+            .append(getCandidateOnly());
+      }
+      return b.toString();
+    }
+
+    /**
+     * Render the messages in a mailbox.
+     *
+     * @param mailbox
+     *          The mailbox.
+     * @return the messages, in the order they were sent.
+     */
+    private static String text(Mailbox mailbox) {
+      Message[] messages = new Message[mailbox.size()];
+      for (int i = 0; i != messages.length; i = i + 1) {
+        messages[i] = mailbox.read(i);
+      }
+      return Arrays.toString(messages);
+    }
+  }
+
+  /**
+   * The aggregated outcome of a number of runs.
+   */
+  public static final class Result {
+    /**
+     * The number of runs.
+     */
+    long runs;
+
+    /**
+     * The number of cycles compared.
+     */
+    long cycles;
+
+    /**
+     * The divergence of the first run to diverge, if any did.
+     */
+    @Nullable
+    Divergence divergence;
+
+    /**
+     * Construct an empty result.
+     */
+    public Result() {
+    }
+
+    /**
+     * Add the results of other runs to this one, keeping the divergence of the earlier run.
+     *
+     * @param other
+     *          The other results.
+     */
+    public void merge(Result other) {
+      this.runs = this.runs + other.runs;
+      this.cycles = this.cycles + other.cycles;
+      Divergence mine = this.divergence;
+      Divergence theirs = other.divergence;
+      if (theirs != null && (mine == null || theirs.run < mine.run)) {
+        this.divergence = theirs;
+      }
+    }
+
+    /**
+     * Get the number of runs.
+     *
+     * @return the number of runs.
+     */
+    public long getRuns() {
+      return this.runs;
+    }
+
+    /**
+     * Get the number of cycles compared.
+     *
+     * @return the number of cycles.
+     */
+    public long getCycles() {
+      return this.cycles;
+    }
+
+    /**
+     * Get the first divergence.
+     *
+     * @return the divergence, or null if the controllers always agreed.
+     */
+    public @Nullable Divergence getDivergence() {
+      return this.divergence;
+    }
+
+    @Override
+    public String toString() {
+      Divergence d = this.divergence;
+      return "runs=" + this.runs + " cycles=" + this.cycles
+          + (d == null ? " no divergence" : "\n" + d);
+    }
+  }
+}
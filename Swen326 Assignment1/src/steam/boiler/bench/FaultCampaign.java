@@ -0,0 +1,886 @@
+package steam.boiler.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.LongStream;
+
+import steam.boiler.core.ControllerSnapshot;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.LevelSensorModels;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpControllerModels;
+import steam.boiler.model.PumpModels;
+import steam.boiler.model.SteamSensorModels;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Runs large numbers of randomised fault schedules against the controller, and reports how often
+ * things go wrong together with confidence intervals. Each run gets a schedule of faults saying
+ * which units fail, when, and whether they are later repaired. The run then clocks a fresh
+ * controller against a fresh model of the physical units, injecting the faults as it goes.
+ *
+ * <p>Every run is seeded from the campaign seed and its own index, so a campaign gives the same
+ * results however its runs are spread across cores. Any single run can also be regenerated for
+ * debugging with {@link #schedule(long, long)}.
+ *
+ * <p>Some faults cannot be seen by the controller until the plant is in a particular state; a pump
+ * controller which always reports no flow looks healthy while its pump is closed, for instance.
+ * The time such a fault has to be detected in only starts once it is observable, and one which
+ * never becomes observable is counted separately rather than as missed.
+ *
+ */
+public final class FaultCampaign {
+  /**
+   * The kinds of fault which can be injected.
+   */
+  public enum FaultKind {
+    /**
+     * The steam sensor always reports -1.
+     */
+    STEAM_STUCK_NEGATIVE,
+    /**
+     * The steam sensor always reports the boiler's capacity.
+     */
+    STEAM_STUCK_HIGH,
+    /**
+     * The steam sensor stops transmitting.
+     */
+    STEAM_TX_FAILURE,
+    /**
+     * The level sensor always reports -1.
+     */
+    LEVEL_STUCK_NEGATIVE,
+    /**
+     * The level sensor always reports the boiler's capacity.
+     */
+    LEVEL_STUCK_HIGH,
+    /**
+     * The level sensor stops transmitting.
+     */
+    LEVEL_TX_FAILURE,
+    /**
+     * A pump stays closed whatever it is told.
+     */
+    PUMP_STUCK_CLOSED,
+    /**
+     * A pump stays open once opened.
+     */
+    PUMP_STICKS_OPEN,
+    /**
+     * A pump stops transmitting.
+     */
+    PUMP_TX_FAILURE,
+    /**
+     * A pump controller stops transmitting.
+     */
+    PUMP_CONTROLLER_TX_FAILURE,
+    /**
+     * A pump controller always reports no flow.
+     */
+    PUMP_CONTROLLER_STUCK_OFF;
+
+    /**
+     * Check whether this kind of fault affects a single pump.
+     *
+     * @return true if the fault is of a pump or pump controller.
+     */
+    public boolean isPumpFault() {
+      return ordinal() >= PUMP_STUCK_CLOSED.ordinal();
+    }
+
+    /**
+     * Check whether this kind of fault can be repaired. Only pumps can be, since the physical units
+     * provide no means of restoring any other kind of unit.
+     *
+     * @return true if the fault can be repaired.
+     */
+    public boolean isRepairable() {
+      return this == PUMP_STUCK_CLOSED || this == PUMP_STICKS_OPEN || this == PUMP_TX_FAILURE;
+    }
+
+    /**
+     * Check whether this kind of fault only becomes observable once its pump is in a particular
+     * state.
+     *
+     * @return true if the fault may not be observable when injected.
+     */
+    public boolean isLatent() {
+      return this == PUMP_STUCK_CLOSED || this == PUMP_STICKS_OPEN
+          || this == PUMP_CONTROLLER_STUCK_OFF;
+    }
+
+    /**
+     * Check whether a latent fault is observable in a given cycle. A pump stuck closed shows once
+     * it is meant to be open, a pump stuck open shows once it is meant to be closed, and a pump
+     * controller stuck off shows once its pump is open.
+     *
+     * @param open
+     *          Whether the pump reports itself open.
+     * @param commanded
+     *          Whether the controller last told the pump to open.
+     * @return true if the fault shows in the readings.
+     */
+    boolean isObservable(boolean open, boolean commanded) {
+      switch (this) {
+        case PUMP_STUCK_CLOSED:
+          return !open && commanded;
+        case PUMP_STICKS_OPEN:
+          return open && !commanded;
+        case PUMP_CONTROLLER_STUCK_OFF:
+          return open;
+        default:
+          return true;
+      }
+    }
+
+    /**
+     * Get the detection which the controller should send for this kind of fault.
+     *
+     * @return the kind of message.
+     */
+    public MessageKind getDetection() {
+      if (ordinal() <= STEAM_TX_FAILURE.ordinal()) {
+        return MessageKind.STEAM_FAILURE_DETECTION;
+      } else if (ordinal() <= LEVEL_TX_FAILURE.ordinal()) {
+        return MessageKind.LEVEL_FAILURE_DETECTION;
+      } else if (ordinal() <= PUMP_TX_FAILURE.ordinal()) {
+        return MessageKind.PUMP_FAILURE_DETECTION_n;
+      } else {
+        return MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n;
+      }
+    }
+
+    /**
+     * Break the corresponding unit of a given model.
+     *
+     * @param m
+     *          The model of the physical units.
+     * @param pump
+     *          The pump affected, if this is a pump fault.
+     * @param config
+     *          The characteristics of the boiler.
+     */
+    public void inject(PhysicalUnits m, int pump, SteamBoilerCharacteristics config) {
+      switch (this) {
+        case STEAM_STUCK_NEGATIVE:
+          m.setSteamSensor(new SteamSensorModels.StuckNegativeOne(m));
+          break;
+        case STEAM_STUCK_HIGH:
+          m.setSteamSensor(new SteamSensorModels.Stuck(m, config.getCapacity()));
+          break;
+        case STEAM_TX_FAILURE:
+          m.setSteamSensor(new SteamSensorModels.TxFailure(m));
+          break;
+        case LEVEL_STUCK_NEGATIVE:
+          m.setLevelSensor(new LevelSensorModels.StuckNegativeOne(m));
+          break;
+        case LEVEL_STUCK_HIGH:
+          m.setLevelSensor(new LevelSensorModels.Stuck(m, config.getCapacity()));
+          break;
+        case LEVEL_TX_FAILURE:
+          m.setLevelSensor(new LevelSensorModels.TxFailure(m));
+          break;
+        case PUMP_STUCK_CLOSED:
+          m.setPump(pump, new PumpModels.StuckClosed(pump, config.getPumpCapacity(pump), m));
+          break;
+        case PUMP_STICKS_OPEN:
+          m.setPump(pump, new PumpModels.SticksOpen(pump, config.getPumpCapacity(pump), m));
+          break;
+        case PUMP_TX_FAILURE:
+          m.setPump(pump, new PumpModels.TxFailureAll(pump, 0.0, m));
+          break;
+        case PUMP_CONTROLLER_TX_FAILURE:
+          m.setPumpController(pump, new PumpControllerModels.TxFailure(pump, m));
+          break;
+        default:
+          m.setPumpController(pump, new PumpControllerModels.StuckOff(pump, m));
+          break;
+      }
+    }
+  }
+
+  /**
+   * A single fault in a schedule.
+   */
+  public static final class Fault {
+    /**
+     * The kind of fault.
+     */
+    final FaultKind kind;
+
+    /**
+     * The pump affected, or zero if this is not a pump fault.
+     */
+    final int pump;
+
+    /**
+     * The time (in milliseconds) at which the fault occurs.
+     */
+    final int time;
+
+    /**
+     * The time (in milliseconds) at which the fault is repaired, or -1 if it never is.
+     */
+    final int repair;
+
+    /**
+     * Construct a fault.
+     *
+     * @param kind
+     *          The kind of fault.
+     * @param pump
+     *          The pump affected, if this is a pump fault.
+     * @param time
+     *          The time (in milliseconds) at which the fault occurs.
+     * @param repair
+     *          The time (in milliseconds) at which the fault is repaired, or -1 if never.
+     */
+    public Fault(FaultKind kind, int pump, int time, int repair) {
+      if (repair >= 0 && (!kind.isRepairable() || repair <= time)) {
+        throw new IllegalArgumentException("invalid repair");
+      }
+      this.kind = kind;
+      this.pump = pump;
+      this.time = time;
+      this.repair = repair;
+    }
+
+    /**
+     * Get the kind of fault.
+     *
+     * @return the kind.
+     */
+    public FaultKind getKind() {
+      return this.kind;
+    }
+
+    /**
+     * Get the pump affected.
+     *
+     * @return the pump number, or zero if this is not a pump fault.
+     */
+    public int getPump() {
+      return this.pump;
+    }
+
+    /**
+     * Get the time at which the fault occurs.
+     *
+     * @return the time in milliseconds.
+     */
+    public int getTime() {
+      return this.time;
+    }
+
+    /**
+     * Get the time at which the fault is repaired.
+     *
+     * @return the time in milliseconds, or -1 if it is never repaired.
+     */
+    public int getRepair() {
+      return this.repair;
+    }
+
+    @Override
+    public String toString() {
+      String unit = this.kind.isPumpFault() ? "(" + this.pump + ")" : "";
+      String repaired = this.repair < 0 ? "" : " until " + this.repair + "ms";
+      return this.kind + unit + " at " + this.time + "ms" + repaired;
+    }
+  }
+
+  /**
+   * A proportion estimated from a number of trials, with a 95% Wilson score interval.
+   */
+  public static final class Interval {
+    /**
+     * The number of trials with the outcome in question.
+     */
+    private final long successes;
+
+    /**
+     * The total number of trials.
+     */
+    private final long trials;
+
+    /**
+     * The lower bound.
+     */
+    private final double low;
+
+    /**
+     * The upper bound.
+     */
+    private final double high;
+
+    /**
+     * Construct the interval for a given number of successes out of a number of trials.
+     *
+     * @param successes
+     *          The number of trials with the outcome in question.
+     * @param trials
+     *          The total number of trials.
+     */
+    Interval(long successes, long trials) {
+      this.successes = successes;
+      this.trials = trials;
+      if (trials == 0) {
+        this.low = 0;
+        this.high = 1;
+      } else {
+        double z = 1.959963984540054;
+        double n = trials;
+        double p = successes / n;
+        double scale = 1 + z * z / n;
+        double centre = (p + z * z / (2 * n)) / scale;
+        double half = z * Math.sqrt(p * (1 - p) / n + z * z / (4 * n * n)) / scale;
+        this.low = Math.max(0, centre - half);
+        this.high = Math.min(1, centre + half);
+      }
+    }
+
+    /**
+     * Get the estimated proportion.
+     *
+     * @return the proportion, or zero if there were no trials.
+     */
+    public double getEstimate() {
+      return this.trials == 0 ? 0 : (double) this.successes / this.trials;
+    }
+
+    /**
+     * Get the lower bound of the 95% confidence interval.
+     *
+     * @return the lower bound.
+     */
+    public double getLow() {
+      return this.low;
+    }
+
+    /**
+     * Get the upper bound of the 95% confidence interval.
+     *
+     * @return the upper bound.
+     */
+    public double getHigh() {
+      return this.high;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%.5f [%.5f, %.5f] (%d/%d)", getEstimate(), this.low, this.high,
+          this.successes, this.trials);
+    }
+  }
+
+  /**
+   * The aggregated outcomes of a number of runs. Results from separate runs are merged, so that
+   * a campaign can be split up in any way.
+   */
+  public static final class Result {
+    /**
+     * The number of runs.
+     */
+    long runs;
+
+    /**
+     * The number of runs which ended in an emergency stop.
+     */
+    long emergencyStops;
+
+    /**
+     * The number of runs in which the water level went beyond the limits after initialisation.
+     */
+    long limitViolations;
+
+    /**
+     * The number of runs in which the controller threw an exception.
+     */
+    long crashes;
+
+    /**
+     * The number of faults injected.
+     */
+    long faults;
+
+    /**
+     * The number of faults neither detected nor responded to with an emergency stop in time. A
+     * fault repaired before its deadline is never counted as missed.
+     */
+    long missedDetections;
+
+    /**
+     * The number of faults which never became observable, and so could not have been detected.
+     */
+    long unobservedFaults;
+
+    /**
+     * Construct an empty result.
+     */
+    public Result() {
+    }
+
+    /**
+     * Add the results of other runs to this one.
+     *
+     * @param other
+     *          The other results.
+     */
+    public void merge(Result other) {
+      this.runs = this.runs + other.runs;
+      this.emergencyStops = this.emergencyStops + other.emergencyStops;
+      this.limitViolations = this.limitViolations + other.limitViolations;
+      this.crashes = this.crashes + other.crashes;
+      this.faults = this.faults + other.faults;
+      this.missedDetections = this.missedDetections + other.missedDetections;
+      this.unobservedFaults = this.unobservedFaults + other.unobservedFaults;
+    }
+
+    /**
+     * Get the number of runs.
+     *
+     * @return the number of runs.
+     */
+    public long getRuns() {
+      return this.runs;
+    }
+
+    /**
+     * Get the number of faults injected.
+     *
+     * @return the number of faults.
+     */
+    public long getFaults() {
+      return this.faults;
+    }
+
+    /**
+     * Get the proportion of runs which ended in an emergency stop.
+     *
+     * @return the rate with its confidence interval.
+     */
+    public Interval getEmergencyStopRate() {
+      return new Interval(this.emergencyStops, this.runs);
+    }
+
+    /**
+     * Get the proportion of runs in which the water level went beyond the limits after
+     * initialisation.
+     *
+     * @return the rate with its confidence interval.
+     */
+    public Interval getLimitViolationRate() {
+      return new Interval(this.limitViolations, this.runs);
+    }
+
+    /**
+     * Get the proportion of runs in which the controller threw an exception.
+     *
+     * @return the rate with its confidence interval.
+     */
+    public Interval getCrashRate() {
+      return new Interval(this.crashes, this.runs);
+    }
+
+    /**
+     * Get the proportion of faults which were missed.
+     *
+     * @return the rate with its confidence interval.
+     */
+    public Interval getMissedDetectionRate() {
+      return new Interval(this.missedDetections, this.faults);
+    }
+
+    /**
+     * Get the number of faults which never became observable during their run, which are not
+     * counted as missed.
+     *
+     * @return the number of faults.
+     */
+    public long getUnobservedFaults() {
+      return this.unobservedFaults;
+    }
+
+    @Override
+    public String toString() {
+      return "runs=" + this.runs + " faults=" + this.faults + "\nemergency stops: "
+          + getEmergencyStopRate() + "\nlimit violations: " + getLimitViolationRate()
+          + "\ncrashes: " + getCrashRate() + "\nmissed detections: " + getMissedDetectionRate()
+          + "\nunobserved faults: " + this.unobservedFaults;
+    }
+  }
+
+  /**
+   * Mixes the seed of each run.
+   */
+  private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+  /**
+   * The deadline of a fault which has been injected but is not yet observable.
+   */
+  public static final int LATENT = -2;
+
+  /**
+   * The characteristics of the boiler.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * The length of each run in seconds.
+   */
+  private int duration = 600;
+
+  /**
+   * The time between clocks of the physical units in milliseconds.
+   */
+  private int granularity = 100;
+
+  /**
+   * The time between cycles of the controller in milliseconds.
+   */
+  private int period = MySteamBoilerController.DEFAULT_PERIOD;
+
+  /**
+   * The maximum number of faults in a schedule.
+   */
+  private int maxFaults = 3;
+
+  /**
+   * The probability that a repairable fault is later repaired.
+   */
+  private double repairProbability = 0.5;
+
+  /**
+   * How long the controller has to respond to a fault, in seconds.
+   */
+  private int detectionWindow = 60;
+
+  /**
+   * The kinds of fault to choose from.
+   */
+  private FaultKind[] kinds = FaultKind.values();
+
+  /**
+   * Construct a campaign for a given boiler.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   */
+  public FaultCampaign(SteamBoilerCharacteristics config) {
+    this.config = config;
+  }
+
+  /**
+   * Set the length of each run.
+   *
+   * @param seconds
+   *          The length in seconds, which must be a multiple of five.
+   */
+  public void setDuration(int seconds) {
+    if (seconds <= 0 || seconds % 5 != 0) {
+      throw new IllegalArgumentException("duration must be a positive multiple of five seconds");
+    }
+    this.duration = seconds;
+  }
+
+  /**
+   * Set the time between clocks of the physical units. Coarser clocks make runs cheaper, at the
+   * expense of the accuracy of the simulated physics.
+   *
+   * @param millis
+   *          The time in milliseconds, which must divide the period.
+   */
+  public void setGranularity(int millis) {
+    if (millis <= 0 || this.period % millis != 0) {
+      throw new IllegalArgumentException("granularity must divide the period");
+    }
+    this.granularity = millis;
+  }
+
+  /**
+   * Set the period at which the controller is clocked.
+   *
+   * @param millis
+   *          The period in milliseconds, which must be a multiple of the granularity.
+   */
+  public void setPeriod(int millis) {
+    if (millis <= 0 || millis % this.granularity != 0) {
+      throw new IllegalArgumentException("period must be a multiple of the granularity");
+    }
+    this.period = millis;
+  }
+
+  /**
+   * Set the maximum number of faults in each schedule. The number in a given schedule is chosen
+   * uniformly from zero up to this.
+   *
+   * @param maxFaults
+   *          The maximum number of faults.
+   */
+  public void setMaxFaults(int maxFaults) {
+    if (maxFaults < 0) {
+      throw new IllegalArgumentException("maximum number of faults cannot be negative");
+    }
+    this.maxFaults = maxFaults;
+  }
+
+  /**
+   * Set the probability that a repairable fault is later repaired.
+   *
+   * @param p
+   *          The probability.
+   */
+  public void setRepairProbability(double p) {
+    this.repairProbability = p;
+  }
+
+  /**
+   * Set how long the controller has to detect a fault (or stop the boiler) before the fault is
+   * counted as missed.
+   *
+   * @param seconds
+   *          The time in seconds.
+   */
+  public void setDetectionWindow(int seconds) {
+    this.detectionWindow = seconds;
+  }
+
+  /**
+   * Restrict the kinds of fault which are injected.
+   *
+   * @param kinds
+   *          The kinds to choose from, which must not be empty.
+   */
+  public void setKinds(Set<FaultKind> kinds) {
+    if (kinds.isEmpty()) {
+      throw new IllegalArgumentException("no kinds of fault");
+    }
+    this.kinds = EnumSet.copyOf(kinds).toArray(new FaultKind[kinds.size()]);
+  }
+
+  /**
+   * Perform a campaign, with the runs spread across every available core.
+   *
+   * @param seed
+   *          The seed of the campaign.
+   * @param runs
+   *          The number of runs.
+   * @return the aggregated results.
+   */
+  public Result run(long seed, long runs) {
+    return LongStream.range(0, runs).parallel().collect(Result::new,
+        (Result r, long i) -> r.merge(run(schedule(seed, i))), Result::merge);
+  }
+
+  /**
+   * Generate the fault schedule of a given run.
+   *
+   * @param seed
+   *          The seed of the campaign.
+   * @param index
+   *          The index of the run.
+   * @return the faults, in order of occurrence.
+   */
+  public List<Fault> schedule(long seed, long index) {
+    SplittableRandom random = new SplittableRandom(mix(seed + index * GAMMA));
+    int n = random.nextInt(this.maxFaults + 1);
+    int end = this.duration * 1000;
+    List<Fault> faults = new ArrayList<>();
+    for (int i = 0; i != n; i = i + 1) {
+      FaultKind kind = this.kinds[random.nextInt(this.kinds.length)];
+      int pump = kind.isPumpFault() ? random.nextInt(this.config.getNumberOfPumps()) : 0;
+      int time = random.nextInt(end / this.granularity) * this.granularity;
+      int repair = -1;
+      if (kind.isRepairable() && time + this.granularity < end
+          && random.nextDouble() < this.repairProbability) {
+        repair = time + this.granularity
+            + random.nextInt((end - time) / this.granularity - 1) * this.granularity;
+      }
+      faults.add(new Fault(kind, pump, time, repair));
+    }
+    Collections.sort(faults, (Fault a, Fault b) -> Integer.compare(a.time, b.time));
+    return faults;
+  }
+
+  /**
+   * Perform a single run with a given schedule.
+   *
+   * @param faults
+   *          The faults, in order of occurrence.
+   * @return the outcome of the run.
+   */
+  public Result run(List<Fault> faults) {
+    SteamBoilerCharacteristics cs = this.config;
+    PhysicalUnits model = new PhysicalUnits.Template(cs).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    MySteamBoilerController controller = new MySteamBoilerController(cs, this.period);
+    Result result = new Result();
+    result.runs = 1;
+    result.faults = faults.size();
+    int n = faults.size();
+    // The time by which each fault must be responded to, LATENT until it is observable, or -1
+    // once it has been responded to.
+    int[] deadlines = new int[n];
+    boolean[] repaired = new boolean[n];
+    int next = 0;
+    int end = this.duration * 1000;
+    int window = this.detectionWindow * 1000;
+    boolean violated = false;
+    for (int time = 0; time < end; time = time + this.granularity) {
+      while (next < n && faults.get(next).time <= time) {
+        Fault f = faults.get(next);
+        f.kind.inject(model, f.pump, cs);
+        deadlines[next] = f.kind.isLatent() ? LATENT : time + window;
+        next = next + 1;
+      }
+      for (int i = 0; i != next; i = i + 1) {
+        Fault f = faults.get(i);
+        if (!repaired[i] && f.repair >= 0 && f.repair <= time) {
+          repaired[i] = true;
+          model.setPump(f.pump, new PumpModels.Ideal(f.pump, cs.getPumpCapacity(f.pump), model));
+          model.setPumpStatus(f.pump, PhysicalUnits.ComponentStatus.REPAIRED);
+        }
+      }
+      model.clock(this.granularity);
+      if (time % this.period == 0) {
+        Mailbox input = new UnboundedMailbox(100);
+        Mailbox output = new UnboundedMailbox(100);
+        model.transmit(input);
+        observe(faults, next, deadlines, input, controller.getSnapshot(), time + window);
+        try {
+          controller.clock(input, output);
+        } catch (RuntimeException | AssertionError e) {
+          result.crashes = 1;
+          break;
+        }
+        model.receive(output);
+        // The limits only apply once initialisation has filled the boiler.
+        double level = model.getBoiler().getWaterLevel();
+        violated |= controller.getSnapshot().getMode() != Mode.INITIALISATION
+            && (level < cs.getMinimalLimitLevel() || level > cs.getMaximalLimitLevel());
+        if (respond(faults, next, deadlines, output)) {
+          result.emergencyStops = 1;
+          break;
+        }
+      }
+      for (int i = 0; i != next; i = i + 1) {
+        if (deadlines[i] >= 0 && deadlines[i] <= time && !repaired[i]) {
+          deadlines[i] = -1;
+          result.missedDetections = result.missedDetections + 1;
+        }
+      }
+    }
+    result.limitViolations = violated ? 1 : 0;
+    for (int i = 0; i != next; i = i + 1) {
+      if (deadlines[i] == LATENT && !repaired[i]) {
+        result.unobservedFaults = result.unobservedFaults + 1;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Start the deadline of each latent fault which has become observable in a given cycle.
+   *
+   * @param faults
+   *          The faults.
+   * @param injected
+   *          The number of faults injected so far.
+   * @param deadlines
+   *          The deadline of each fault, which is <code>LATENT</code> until it is observable.
+   * @param input
+   *          The messages sent to the controller in this cycle.
+   * @param commanded
+   *          The state of the controller before this cycle, giving the pumps it last opened.
+   * @param deadline
+   *          The deadline of a fault which has just become observable.
+   */
+  public static void observe(List<Fault> faults, int injected, int[] deadlines, Mailbox input,
+      ControllerSnapshot commanded, int deadline) {
+    for (int i = 0; i != injected; i = i + 1) {
+      Fault f = faults.get(i);
+      if (deadlines[i] == LATENT
+          && f.kind.isObservable(reported(input, f.pump), commanded.isPumpOn(f.pump))) {
+        deadlines[i] = deadline;
+      }
+    }
+  }
+
+  /**
+   * Check whether a pump reports itself open in a given cycle.
+   *
+   * @param input
+   *          The messages sent to the controller.
+   * @param pump
+   *          The pump.
+   * @return true if the pump's state says it is open.
+   */
+  private static boolean reported(Mailbox input, int pump) {
+    for (int j = 0; j != input.size(); j = j + 1) {
+      Message m = input.read(j);
+      if (m.getKind() == MessageKind.PUMP_STATE_n_b && m.getIntegerParameter() == pump) {
+        return m.getBooleanParameter();
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Mark the faults which the controller responded to in a given cycle.
+   *
+   * @param faults
+   *          The faults.
+   * @param injected
+   *          The number of faults injected so far.
+   * @param deadlines
+   *          The deadline of each fault, which is set to -1 once it has been responded to. A
+   *          latent fault which is detected before it was judged observable also counts.
+   * @param output
+   *          The messages sent by the controller.
+   * @return true if the controller stopped the boiler.
+   */
+  public static boolean respond(List<Fault> faults, int injected, int[] deadlines,
+      Mailbox output) {
+    boolean stopped = false;
+    for (int j = 0; j != output.size(); j = j + 1) {
+      Message m = output.read(j);
+      if (m.getKind() == MessageKind.MODE_m && m.getModeParameter() == Mode.EMERGENCY_STOP) {
+        stopped = true;
+      }
+      for (int i = 0; i != injected; i = i + 1) {
+        Fault f = faults.get(i);
+        if (deadlines[i] != -1 && m.getKind() == f.kind.getDetection()
+            && (!f.kind.isPumpFault() || m.getIntegerParameter() == f.pump)) {
+          deadlines[i] = -1;
+        }
+      }
+    }
+    if (stopped) {
+      Arrays.fill(deadlines, 0, injected, -1);
+    }
+    return stopped;
+  }
+
+  /**
+   * Scramble the bits of a seed, so that the seeds of neighbouring runs are unrelated.
+   *
+   * @param z
+   *          The value to scramble.
+   * @return the scrambled value.
+   */
+  public static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
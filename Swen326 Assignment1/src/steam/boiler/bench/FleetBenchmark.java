@@ -0,0 +1,355 @@
+package steam.boiler.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import steam.boiler.core.FleetScheduler;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Measures whether a host can keep a fleet of controllers running at a given period. For each
+ * period, a fleet of fault-free boilers is run under a {@link FleetScheduler} which never defers a
+ * boiler, and the time taken to clock the whole fleet is recorded for every cycle. A period is
+ * sustained if every fleet cycle took less than the period itself. The benchmark also checks that
+ * running faster does not harm control, by counting emergency stops and boilers which crossed a
+ * limit level once filled.
+ *
+ */
+public final class FleetBenchmark {
+  /**
+   * The characteristics of each boiler.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * The periods (in milliseconds) to measure.
+   */
+  private int[] periods = { 5000, 1000, 500, 100 };
+
+  /**
+   * The number of boilers in the fleet.
+   */
+  private int boilers = 1000;
+
+  /**
+   * The length (in seconds) of each run.
+   */
+  private int duration = 600;
+
+  /**
+   * The step (in milliseconds) by which the physical units are advanced.
+   */
+  private int granularity = 100;
+
+  /**
+   * Construct a benchmark for boilers with given characteristics.
+   *
+   * @param config
+   *          The characteristics of each boiler.
+   */
+  public FleetBenchmark(SteamBoilerCharacteristics config) {
+    this.config = config;
+  }
+
+  /**
+   * Set the periods to measure.
+   *
+   * @param periods
+   *          The periods, in milliseconds, each a multiple of the granularity.
+   */
+  public void setPeriods(int... periods) {
+    for (int period : periods) {
+      if (period <= 0 || period % this.granularity != 0) {
+        throw new IllegalArgumentException("invalid period");
+      }
+    }
+    this.periods = periods.clone();
+  }
+
+  /**
+   * Set the number of boilers in the fleet.
+   *
+   * @param boilers
+   *          The number of boilers.
+   */
+  public void setBoilers(int boilers) {
+    if (boilers <= 0) {
+      throw new IllegalArgumentException("invalid fleet size");
+    }
+    this.boilers = boilers;
+  }
+
+  /**
+   * Set the length of each run.
+   *
+   * @param seconds
+   *          The length of each run, in simulated seconds.
+   */
+  public void setDuration(int seconds) {
+    if (seconds <= 0) {
+      throw new IllegalArgumentException("invalid duration");
+    }
+    this.duration = seconds;
+  }
+
+  /**
+   * Set the step by which the physical units are advanced, which must divide every period.
+   *
+   * @param millis
+   *          The step, in milliseconds.
+   */
+  public void setGranularity(int millis) {
+    for (int period : this.periods) {
+      if (millis <= 0 || period % millis != 0) {
+        throw new IllegalArgumentException("invalid granularity");
+      }
+    }
+    this.granularity = millis;
+  }
+
+  /**
+   * Run the benchmark. The periods are run one after another, so that each is timed on its own.
+   *
+   * @return one row for each period.
+   */
+  public List<Row> run() {
+    List<Row> rows = new ArrayList<>();
+    for (int period : this.periods) {
+      rows.add(run(period));
+    }
+    return rows;
+  }
+
+  /**
+   * Run the fleet for the duration at a given period.
+   *
+   * @param period
+   *          The period, in milliseconds.
+   * @return the measurements.
+   */
+  private Row run(int period) {
+    FleetScheduler scheduler = new FleetScheduler(this.boilers);
+    FleetScheduler.Boiler[] fleet = new FleetScheduler.Boiler[this.boilers];
+    PhysicalUnits[] models = new PhysicalUnits[this.boilers];
+    boolean[] filled = new boolean[this.boilers];
+    boolean[] crossed = new boolean[this.boilers];
+    for (int i = 0; i != this.boilers; ++i) {
+      fleet[i] = scheduler.register(new MySteamBoilerController(this.config, period));
+      models[i] = new PhysicalUnits.Template(this.config).construct();
+      models[i].setMode(PhysicalUnits.Mode.WAITING);
+    }
+    long[] times = new long[this.duration * 1000 / period + 1];
+    int cycles = 0;
+    int stops = 0;
+    for (int time = 0; time < this.duration * 1000; time += this.granularity) {
+      for (int i = 0; i != this.boilers; ++i) {
+        models[i].clock(this.granularity);
+      }
+      if (time % period == 0) {
+        scheduler.beginCycle();
+        for (int i = 0; i != this.boilers; ++i) {
+          models[i].transmit(fleet[i].getIncoming());
+        }
+        long start = System.nanoTime();
+        scheduler.runCycle();
+        times[cycles++] = System.nanoTime() - start;
+        for (int i = 0; i != this.boilers; ++i) {
+          models[i].receive(fleet[i].getOutgoing());
+          stops = stops + (stopped(fleet[i].getOutgoing()) ? 1 : 0);
+        }
+      }
+      for (int i = 0; i != this.boilers; ++i) {
+        double level = models[i].getBoiler().getWaterLevel();
+        if (level >= this.config.getMinimalNormalLevel()
+            && level <= this.config.getMaximalNormalLevel()) {
+          filled[i] = true;
+        } else if (filled[i] && (level > this.config.getMaximalLimitLevel()
+            || level < this.config.getMinimalLimitLevel())) {
+          crossed[i] = true;
+        }
+      }
+    }
+    int crossings = 0;
+    for (boolean c : crossed) {
+      crossings = crossings + (c ? 1 : 0);
+    }
+    return new Row(period, this.boilers, Arrays.copyOf(times, cycles), stops, crossings);
+  }
+
+  /**
+   * Check whether a controller stopped its boiler.
+   *
+   * @param output
+   *          The messages sent by the controller.
+   * @return true if they include an emergency stop.
+   */
+  private static boolean stopped(Mailbox output) {
+    for (int i = 0; i != output.size(); i = i + 1) {
+      Message m = output.read(i);
+      if (m.getKind() == MessageKind.MODE_m && m.getModeParameter() == Mode.EMERGENCY_STOP) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Run the default benchmark and print its results.
+   *
+   * @param args
+   *          Optionally, the number of boilers in the fleet.
+   */
+  public static void main(String[] args) {
+    FleetBenchmark benchmark = new FleetBenchmark(SteamBoilerCharacteristics.DEFAULT);
+    if (args.length > 0) {
+      benchmark.setBoilers(Integer.parseInt(args[0]));
+    }
+    System.out.println(Row.HEADER);
+    for (Row row : benchmark.run()) {
+      System.out.println(row);
+    }
+  }
+
+  /**
+   * The measurements of the fleet at a single period.
+   */
+  public static final class Row {
+    /**
+     * The column headings matching <code>toString()</code>.
+     */
+    public static final String HEADER = "# period_ms boilers cycles p50_us p99_us max_us "
+        + "utilisation stops crossings sustained";
+
+    /**
+     * The period, in milliseconds.
+     */
+    private final int period;
+
+    /**
+     * The number of boilers in the fleet.
+     */
+    private final int boilers;
+
+    /**
+     * The time (in nanoseconds) taken to clock the fleet in each cycle, in ascending order.
+     */
+    private final long[] times;
+
+    /**
+     * The number of emergency stops.
+     */
+    private final int stops;
+
+    /**
+     * The number of boilers which crossed a limit level after being filled.
+     */
+    private final int crossings;
+
+    /**
+     * Construct a row.
+     *
+     * @param period
+     *          The period, in milliseconds.
+     * @param boilers
+     *          The number of boilers in the fleet.
+     * @param times
+     *          The time (in nanoseconds) taken to clock the fleet in each cycle.
+     * @param stops
+     *          The number of emergency stops.
+     * @param crossings
+     *          The number of boilers which crossed a limit level after being filled.
+     */
+    Row(int period, int boilers, long[] times, int stops, int crossings) {
+      this.period = period;
+      this.boilers = boilers;
+      this.times = times;
+      Arrays.sort(this.times);
+      this.stops = stops;
+      this.crossings = crossings;
+    }
+
+    /**
+     * Get the period.
+     *
+     * @return the period, in milliseconds.
+     */
+    public int getPeriod() {
+      return this.period;
+    }
+
+    /**
+     * Get the number of fleet cycles run.
+     *
+     * @return the number of cycles.
+     */
+    public int getCycles() {
+      return this.times.length;
+    }
+
+    /**
+     * Get a given percentile of the time taken to clock the fleet, using the nearest rank.
+     *
+     * @param percentile
+     *          The percentile, between zero and one hundred.
+     * @return the time, in nanoseconds, or zero if there were no cycles.
+     */
+    public long getTime(double percentile) {
+      if (this.times.length == 0) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(percentile / 100 * this.times.length);
+      return this.times[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Get the fraction of the period taken by the slowest fleet cycle.
+     *
+     * @return the utilisation, which is below one if the period was sustained.
+     */
+    public double getUtilisation() {
+      return getTime(100) / (this.period * 1e6);
+    }
+
+    /**
+     * Check whether every fleet cycle finished within the period.
+     *
+     * @return true if the period was sustained.
+     */
+    public boolean isSustained() {
+      return getUtilisation() < 1;
+    }
+
+    /**
+     * Get the number of emergency stops.
+     *
+     * @return the number of stops.
+     */
+    public int getStops() {
+      return this.stops;
+    }
+
+    /**
+     * Get the number of boilers which crossed a limit level after being filled.
+     *
+     * @return the number of boilers.
+     */
+    public int getCrossings() {
+      return this.crossings;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%d %d %d %d %d %d %.4f %d %d %b", this.period,
+          this.boilers, getCycles(), getTime(50) / 1000, getTime(99) / 1000, getTime(100) / 1000,
+          getUtilisation(), this.stops, this.crossings, isSustained());
+    }
+  }
+}
@@ -0,0 +1,939 @@
+package steam.boiler.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpModels;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Runs the controller against the physical units without a display, as fast as they can be
+ * clocked, and prints one line of summary statistics for each scenario file given. Unlike
+ * {@link steam.boiler.core.Simulation}, nothing here refers to the simulator's Swing interface, so
+ * no GUI classes are loaded and it runs on servers without X11. It also avoids lambdas and
+ * formatters, whose first use adds noticeably to the time a short-lived JVM takes to start.
+ *
+ * <p>Usage: <code>HeadlessSimulation [-c characteristics.properties] [-t directory]
+ * scenario...</code>. Given <code>-t</code>, every step of each scenario is recorded in a
+ * {@link TelemetryStore} in that directory, under the name of the scenario file. The
+ * characteristics file is a properties file which may set <code>pumps</code> and
+ * <code>pumpCapacity</code>, and the capacity of a single pump with <code>pumpCapacity.n</code>;
+ * anything not set is taken from {@link SteamBoilerCharacteristics#DEFAULT}. A scenario file has
+ * one directive per line, and <code>#</code> starts a comment:
+ *
+ * <pre>
+ * duration 600          # seconds
+ * period 1000           # milliseconds between controller cycles
+ * granularity 100       # milliseconds between clocks of the physical units
+ * window 60             # seconds allowed to detect each fault
+ * fault 120000 STEAM_STUCK_HIGH
+ * fault 60000 PUMP_STUCK_CLOSED 2 repair 180000
+ * </pre>
+ *
+ * <p>The exit status is 0 if every scenario ran, 1 if the controller threw an exception in any of
+ * them, and 2 if a file could not be read.
+ *
+ */
+public final class HeadlessSimulation {
+  /**
+   * The column headings matching <code>Summary.toString()</code>.
+   */
+  public static final String HEADER = "# scenario outcome cycles stop_ms faults missed violations "
+      + "commands min_level max_level wall_us";
+
+  /**
+   * A scenario to run: how long for, how often the controller is clocked, and which faults occur.
+   */
+  public static final class Scenario {
+    /**
+     * The name by which the scenario is reported.
+     */
+    final String name;
+
+    /**
+     * The length of the run, in seconds.
+     */
+    int duration = 600;
+
+    /**
+     * The period of the controller, in milliseconds.
+     */
+    int period = MySteamBoilerController.DEFAULT_PERIOD;
+
+    /**
+     * The time between clocks of the physical units, in milliseconds.
+     */
+    int granularity = 100;
+
+    /**
+     * How long the controller has to respond to a fault, in seconds.
+     */
+    int window = 60;
+
+    /**
+     * The faults, in order of occurrence.
+     */
+    final List<FaultCampaign.Fault> faults = new ArrayList<>();
+
+    /**
+     * Construct an empty scenario.
+     *
+     * @param name
+     *          The name by which the scenario is reported.
+     */
+    public Scenario(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Read a scenario.
+     *
+     * @param name
+     *          The name by which the scenario is reported, and by which errors are located.
+     * @param in
+     *          The text of the scenario.
+     * @return the scenario.
+     * @throws IOException
+     *           if the text could not be read.
+     * @throws IllegalArgumentException
+     *           if a directive is malformed.
+     */
+    public static Scenario parse(String name, Reader in) throws IOException {
+      Scenario scenario = new Scenario(name);
+      BufferedReader reader = new BufferedReader(in);
+      int line = 0;
+      for (String text = reader.readLine(); text != null; text = reader.readLine()) {
+        line = line + 1;
+        int hash = text.indexOf('#');
+        String[] words = (hash < 0 ? text : text.substring(0, hash)).trim().split("\\s+");
+        if (words[0].isEmpty()) {
+          continue;
+        }
+        try {
+          scenario.directive(words);
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException(name + ":" + line + ": " + e.getMessage());
+        }
+      }
+      if (scenario.period % scenario.granularity != 0) {
+        throw new IllegalArgumentException(name + ": granularity must divide the period");
+      }
+      Collections.sort(scenario.faults, new Comparator<FaultCampaign.Fault>() {
+        @Override
+        public int compare(FaultCampaign.Fault a, FaultCampaign.Fault b) {
+          return Integer.compare(a.getTime(), b.getTime());
+        }
+      });
+      return scenario;
+    }
+
+    /**
+     * Apply a single directive.
+     *
+     * @param words
+     *          The words of the directive.
+     */
+    private void directive(String[] words) {
+      switch (words[0]) {
+        case "duration":
+          this.duration = positive(words, 1);
+          break;
+        case "period":
+          this.period = positive(words, 1);
+          break;
+        case "granularity":
+          this.granularity = positive(words, 1);
+          break;
+        case "window":
+          this.window = positive(words, 1);
+          break;
+        case "fault":
+          this.faults.add(fault(words));
+          break;
+        default:
+          throw new IllegalArgumentException("unknown directive " + words[0]);
+      }
+    }
+
+    /**
+     * Read a fault directive, of the form <code>fault time kind [pump] [repair time]</code>.
+     *
+     * @param words
+     *          The words of the directive.
+     * @return the fault.
+     * @throws IllegalArgumentException
+     *           if the directive is malformed.
+     */
+    public static FaultCampaign.Fault fault(String[] words) {
+      if (words.length < 3) {
+        throw new IllegalArgumentException("expected fault time kind");
+      }
+      int time = integer(words, 1);
+      FaultCampaign.FaultKind kind;
+      try {
+        kind = FaultCampaign.FaultKind.valueOf(words[2]);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("unknown fault " + words[2]);
+      }
+      int next = 3;
+      int pump = 0;
+      if (kind.isPumpFault()) {
+        pump = integer(words, next);
+        next = next + 1;
+      }
+      int repair = -1;
+      if (next < words.length && words[next].equals("repair")) {
+        repair = integer(words, next + 1);
+        next = next + 2;
+      }
+      if (next != words.length || time < 0) {
+        throw new IllegalArgumentException("malformed fault");
+      }
+      return new FaultCampaign.Fault(kind, pump, time, repair);
+    }
+
+    /**
+     * Read an integer word.
+     *
+     * @param words
+     *          The words of a directive.
+     * @param i
+     *          The index of the word.
+     * @return the integer.
+     */
+    private static int integer(String[] words, int i) {
+      if (i >= words.length) {
+        throw new IllegalArgumentException("missing number");
+      }
+      try {
+        return Integer.parseInt(words[i]);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("not a number: " + words[i]);
+      }
+    }
+
+    /**
+     * Read the single positive integer argument of a directive.
+     *
+     * @param words
+     *          The words of the directive.
+     * @param i
+     *          The index of the argument.
+     * @return the integer.
+     */
+    private static int positive(String[] words, int i) {
+      int value = integer(words, i);
+      if (value <= 0 || words.length != i + 1) {
+        throw new IllegalArgumentException(words[0] + " must be a single positive number");
+      }
+      return value;
+    }
+
+    /**
+     * Get the name of the scenario.
+     *
+     * @return the name.
+     */
+    public String getName() {
+      return this.name;
+    }
+
+    /**
+     * Get the faults of the scenario.
+     *
+     * @return the faults, in order of occurrence.
+     */
+    public List<FaultCampaign.Fault> getFaults() {
+      return Collections.unmodifiableList(this.faults);
+    }
+
+    /**
+     * Get the length of the scenario.
+     *
+     * @return the duration, in seconds.
+     */
+    public int getDuration() {
+      return this.duration;
+    }
+
+    /**
+     * Get the period of the controller in the scenario.
+     *
+     * @return the period, in milliseconds.
+     */
+    public int getPeriod() {
+      return this.period;
+    }
+
+    /**
+     * Get the step with which the boiler is simulated in the scenario.
+     *
+     * @return the granularity, in milliseconds.
+     */
+    public int getGranularity() {
+      return this.granularity;
+    }
+
+    /**
+     * Get the time the controller has to detect a fault in the scenario.
+     *
+     * @return the detection window, in seconds.
+     */
+    public int getWindow() {
+      return this.window;
+    }
+  }
+
+  /**
+   * The statistics of a single run.
+   */
+  public static final class Summary {
+    /**
+     * The name of the scenario.
+     */
+    final String name;
+
+    /**
+     * The number of controller cycles.
+     */
+    int cycles;
+
+    /**
+     * The time at which the controller stopped the boiler, or -1 if it did not.
+     */
+    int stopTime = -1;
+
+    /**
+     * Whether the controller threw an exception.
+     */
+    boolean crashed;
+
+    /**
+     * The number of faults injected.
+     */
+    int faults;
+
+    /**
+     * The number of faults neither detected nor responded to with an emergency stop in time.
+     */
+    int missed;
+
+    /**
+     * The number of cycles after initialisation which ended with the level beyond the limits.
+     */
+    int violations;
+
+    /**
+     * The number of OPEN_PUMP_n and CLOSE_PUMP_n messages sent.
+     */
+    int commands;
+
+    /**
+     * The lowest level after initialisation.
+     */
+    double minLevel = Double.POSITIVE_INFINITY;
+
+    /**
+     * The highest level after initialisation.
+     */
+    double maxLevel = Double.NEGATIVE_INFINITY;
+
+    /**
+     * The time taken by the run, in nanoseconds.
+     */
+    long wall;
+
+    /**
+     * The statistics of the level at every step after initialisation.
+     */
+    final RunStatistics statistics;
+
+    /**
+     * The level at the end of the run.
+     */
+    double finalLevel;
+
+    /**
+     * The modes the controller entered, each preceded by the cycle in which it did.
+     */
+    final StringBuilder modes = new StringBuilder();
+
+    /**
+     * Construct an empty summary.
+     *
+     * @param name
+     *          The name of the scenario.
+     * @param config
+     *          The characteristics of the boiler.
+     */
+    Summary(String name, SteamBoilerCharacteristics config) {
+      this.name = name;
+      this.statistics = new RunStatistics(config);
+    }
+
+    /**
+     * Get the statistics of the level at every step after initialisation, and of the pumps
+     * switched, which can be merged with those of other runs.
+     *
+     * @return the statistics.
+     */
+    public RunStatistics getStatistics() {
+      return this.statistics;
+    }
+
+    /**
+     * Get the number of controller cycles run.
+     *
+     * @return the number of cycles.
+     */
+    public int getCycles() {
+      return this.cycles;
+    }
+
+    /**
+     * Get the time at which the controller stopped the boiler.
+     *
+     * @return the time in milliseconds, or -1 if it did not.
+     */
+    public int getStopTime() {
+      return this.stopTime;
+    }
+
+    /**
+     * Check whether the controller threw an exception.
+     *
+     * @return true if it did.
+     */
+    public boolean isCrashed() {
+      return this.crashed;
+    }
+
+    /**
+     * Get the number of faults which were missed.
+     *
+     * @return the number of faults.
+     */
+    public int getMissed() {
+      return this.missed;
+    }
+
+    /**
+     * Get the number of cycles after initialisation which ended with the level beyond the limits.
+     *
+     * @return the number of cycles.
+     */
+    public int getViolations() {
+      return this.violations;
+    }
+
+    /**
+     * Get the number of pump commands sent.
+     *
+     * @return the number of commands.
+     */
+    public int getCommands() {
+      return this.commands;
+    }
+
+    /**
+     * Get the level at the end of the run.
+     *
+     * @return the level.
+     */
+    public double getFinalLevel() {
+      return this.finalLevel;
+    }
+
+    /**
+     * Get the modes the controller entered, in order, each preceded by the number of the cycle in
+     * which it did, such as <code>1:INITIALISATION 24:NORMAL</code>.
+     *
+     * @return the modes.
+     */
+    public String getModes() {
+      return this.modes.toString();
+    }
+
+    /**
+     * Check whether the run passed: the controller neither threw, nor stopped the boiler, nor let
+     * the level pass the limits, nor missed a fault.
+     *
+     * @return true if it passed.
+     */
+    public boolean isPassed() {
+      return !this.crashed && this.stopTime < 0 && this.violations == 0 && this.missed == 0;
+    }
+
+    @Override
+    public String toString() {
+      String outcome = this.crashed ? "crashed" : this.stopTime >= 0 ? "stopped" : "completed";
+      boolean filled = this.minLevel <= this.maxLevel;
+      return this.name + " " + outcome + " " + this.cycles + " " + this.stopTime + " "
+          + this.faults + " " + this.missed + " " + this.violations + " " + this.commands + " "
+          + (filled ? Math.round(this.minLevel) : "-") + " "
+          + (filled ? Math.round(this.maxLevel) : "-") + " " + this.wall / 1000;
+    }
+  }
+
+  /**
+   * Records the steps of a scenario: the level at every step, and the steam rate, pumps and mode
+   * as of the last cycle.
+   */
+  private static final class Trace implements AutoCloseable {
+    /**
+     * The trace being written.
+     */
+    private final TelemetryStore.Writer writer;
+
+    /**
+     * The last steam reading, or NaN if there has been none.
+     */
+    private double steam = Double.NaN;
+
+    /**
+     * The pumps last reported open, with pump i as bit i % 64 of word i / 64.
+     */
+    private final long[] pumps;
+
+    /**
+     * The controller's mode.
+     */
+    private Mode mode = Mode.INITIALISATION;
+
+    /**
+     * Start recording.
+     *
+     * @param writer
+     *          The trace to write.
+     * @param pumps
+     *          The number of pumps.
+     */
+    Trace(TelemetryStore.Writer writer, int pumps) {
+      this.writer = writer;
+      this.pumps = new long[TelemetryStore.words(pumps)];
+    }
+
+    /**
+     * Note what the physical units reported in a cycle, and the mode the controller chose.
+     *
+     * @param input
+     *          The messages the physical units sent.
+     * @param m
+     *          The controller's mode.
+     */
+    void cycle(Mailbox input, Mode m) {
+      for (int i = 0; i != input.size(); i = i + 1) {
+        Message message = input.read(i);
+        if (message.getKind() == MessageKind.STEAM_v) {
+          this.steam = message.getDoubleParameter();
+        }
+      }
+      open(input, this.pumps);
+      this.mode = m;
+    }
+
+    /**
+     * Record a step.
+     *
+     * @param time
+     *          The time in milliseconds.
+     * @param level
+     *          The water level.
+     * @throws IOException
+     *           if the trace could not be written.
+     */
+    void step(long time, double level) throws IOException {
+      this.writer.append(time, level, this.steam, this.pumps, this.mode);
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.writer.close();
+    }
+  }
+
+  /**
+   * The characteristics of the boiler.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * Where to record every step of each scenario, if anywhere.
+   */
+  private @Nullable TelemetryStore telemetry;
+
+  /**
+   * Construct a simulation of a boiler with given characteristics.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   */
+  public HeadlessSimulation(SteamBoilerCharacteristics config) {
+    this.config = config;
+  }
+
+  /**
+   * Record every step of the scenarios run from now on in a store, under the names of the
+   * scenarios, or stop recording.
+   *
+   * @param store
+   *          The store, or null.
+   */
+  public void setTelemetry(@Nullable TelemetryStore store) {
+    this.telemetry = store;
+  }
+
+  /**
+   * Read the characteristics of a boiler. Only the pumps can be set, since the characteristics
+   * provide no means of changing anything else.
+   *
+   * @param in
+   *          The properties file.
+   * @return the characteristics.
+   * @throws IOException
+   *           if the file could not be read.
+   * @throws IllegalArgumentException
+   *           if a property is unknown or malformed.
+   */
+  public static SteamBoilerCharacteristics characteristics(InputStream in) throws IOException {
+    Properties properties = new Properties();
+    properties.load(in);
+    SteamBoilerCharacteristics cs = SteamBoilerCharacteristics.DEFAULT;
+    try {
+      String pumps = properties.getProperty("pumps");
+      String capacity = properties.getProperty("pumpCapacity");
+      if (pumps != null || capacity != null) {
+        int n = pumps == null ? cs.getNumberOfPumps() : Integer.parseInt(pumps.trim());
+        double c = capacity == null ? cs.getPumpCapacity(0) : Double.parseDouble(capacity.trim());
+        if (n <= 0 || !(c > 0)) {
+          throw new IllegalArgumentException("pumps and their capacity must be positive");
+        }
+        cs = cs.setNumberOfPumps(n, c);
+      }
+      for (String key : properties.stringPropertyNames()) {
+        if (key.startsWith("pumpCapacity.")) {
+          int i = Integer.parseInt(key.substring("pumpCapacity.".length()));
+          double c = Double.parseDouble(properties.getProperty(key).trim());
+          if (i < 0 || i >= cs.getNumberOfPumps() || !(c > 0)) {
+            throw new IllegalArgumentException("invalid property " + key);
+          }
+          cs = cs.setPumpCapacity(i, c);
+        } else if (!key.equals("pumps") && !key.equals("pumpCapacity")) {
+          throw new IllegalArgumentException("unknown property " + key);
+        }
+      }
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("not a number: " + e.getMessage());
+    }
+    return cs;
+  }
+
+  /**
+   * Run a scenario.
+   *
+   * @param scenario
+   *          The scenario.
+   * @return its statistics.
+   * @throws UncheckedIOException
+   *           if the scenario is being recorded, and its trace could not be written.
+   * @throws IllegalArgumentException
+   *           if the scenario is being recorded, and a row of this boiler's pumps would not fit
+   *           in a segment of the store.
+   */
+  public Summary run(Scenario scenario) {
+    TelemetryStore store = this.telemetry;
+    try {
+      if (store == null) {
+        return run(scenario, null);
+      }
+      int pumps = this.config.getNumberOfPumps();
+      try (Trace trace = new Trace(store.create(TelemetryStore.clean(scenario.name), pumps),
+          pumps)) {
+        return run(scenario, trace);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Run a scenario, optionally recording every step.
+   *
+   * @param scenario
+   *          The scenario.
+   * @param trace
+   *          Where to record the steps, or null.
+   * @return its statistics.
+   * @throws IOException
+   *           if the trace could not be written.
+   */
+  private Summary run(Scenario scenario, @Nullable Trace trace) throws IOException {
+    long start = System.nanoTime();
+    SteamBoilerCharacteristics cs = this.config;
+    PhysicalUnits model = new PhysicalUnits.Template(cs).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    MySteamBoilerController controller = new MySteamBoilerController(cs, scenario.period);
+    List<FaultCampaign.Fault> faults = scenario.faults;
+    int n = faults.size();
+    check(scenario);
+    Summary summary = new Summary(scenario.name, cs);
+    summary.faults = n;
+    // The time by which each fault must be responded to, LATENT until it is observable, or -1
+    // once it has been responded to.
+    int[] deadlines = new int[n];
+    boolean[] repaired = new boolean[n];
+    int next = 0;
+    int end = scenario.duration * 1000;
+    boolean filled = false;
+    long[] pumps = new long[TelemetryStore.words(cs.getNumberOfPumps())];
+    @Nullable Mode last = null;
+    for (int time = 0; time < end; time = time + scenario.granularity) {
+      while (next < n && faults.get(next).getTime() <= time) {
+        FaultCampaign.Fault f = faults.get(next);
+        f.getKind().inject(model, f.getPump(), cs);
+        deadlines[next] = f.getKind().isLatent() ? FaultCampaign.LATENT
+            : time + scenario.window * 1000;
+        next = next + 1;
+      }
+      for (int i = 0; i != next; i = i + 1) {
+        FaultCampaign.Fault f = faults.get(i);
+        if (!repaired[i] && f.getRepair() >= 0 && f.getRepair() <= time) {
+          repaired[i] = true;
+          model.setPump(f.getPump(),
+              new PumpModels.Ideal(f.getPump(), cs.getPumpCapacity(f.getPump()), model));
+          model.setPumpStatus(f.getPump(), PhysicalUnits.ComponentStatus.REPAIRED);
+        }
+      }
+      model.clock(scenario.granularity);
+      boolean stopped = false;
+      if (time % scenario.period == 0) {
+        Mailbox input = new UnboundedMailbox(100);
+        Mailbox output = new UnboundedMailbox(100);
+        model.transmit(input);
+        FaultCampaign.observe(faults, next, deadlines, input, controller.getSnapshot(),
+            time + scenario.window * 1000);
+        try {
+          controller.clock(input, output);
+        } catch (RuntimeException | AssertionError e) {
+          summary.crashed = true;
+          break;
+        }
+        model.receive(output);
+        summary.cycles = summary.cycles + 1;
+        Mode mode = controller.getSnapshot().getMode();
+        if (mode != last) {
+          summary.modes.append(summary.modes.length() == 0 ? "" : " ").append(summary.cycles)
+              .append(':').append(mode);
+          last = mode;
+        }
+        filled = mode != Mode.INITIALISATION;
+        record(summary, output, model.getBoiler().getWaterLevel(), filled);
+        open(input, pumps);
+        summary.statistics.pumps(pumps);
+        if (trace != null) {
+          trace.cycle(input, mode);
+        }
+        if (FaultCampaign.respond(faults, next, deadlines, output)) {
+          summary.stopTime = time;
+          stopped = true;
+        }
+      }
+      if (filled) {
+        summary.statistics.record(model.getBoiler().getWaterLevel(), scenario.granularity);
+      }
+      if (trace != null) {
+        trace.step(time, model.getBoiler().getWaterLevel());
+      }
+      if (stopped) {
+        break;
+      }
+      for (int i = 0; i != next; i = i + 1) {
+        if (deadlines[i] >= 0 && deadlines[i] <= time && !repaired[i]) {
+          deadlines[i] = -1;
+          summary.missed = summary.missed + 1;
+        }
+      }
+    }
+    summary.finalLevel = model.getBoiler().getWaterLevel();
+    summary.wall = System.nanoTime() - start;
+    return summary;
+  }
+
+  /**
+   * Check that a scenario only breaks pumps which this boiler has.
+   *
+   * @param scenario
+   *          The scenario.
+   * @throws IllegalArgumentException
+   *           if it does not.
+   */
+  public void check(Scenario scenario) {
+    for (FaultCampaign.Fault f : scenario.faults) {
+      if (f.getKind().isPumpFault()
+          && (f.getPump() < 0 || f.getPump() >= this.config.getNumberOfPumps())) {
+        throw new IllegalArgumentException(scenario.name + ": no pump " + f.getPump());
+      }
+    }
+  }
+
+  /**
+   * Update which pumps are open from what the physical units reported in a cycle.
+   *
+   * @param input
+   *          The messages the physical units sent.
+   * @param pumps
+   *          The pumps open before, with pump i as bit i % 64 of word i / 64, which are updated
+   *          for those reported and left as they were for any not reported.
+   */
+  static void open(Mailbox input, long[] pumps) {
+    for (int i = 0; i != input.size(); i = i + 1) {
+      Message m = input.read(i);
+      int pump = m.getKind() == MessageKind.PUMP_STATE_n_b ? m.getIntegerParameter() : -1;
+      if (pump >= 0 && pump < 64 * pumps.length) {
+        long bit = 1L << pump;
+        pumps[pump >>> 6] = m.getBooleanParameter() ? pumps[pump >>> 6] | bit
+            : pumps[pump >>> 6] & ~bit;
+      }
+    }
+  }
+
+  /**
+   * Record the outcome of a cycle.
+   *
+   * @param summary
+   *          The statistics of the run.
+   * @param output
+   *          The messages sent by the controller.
+   * @param level
+   *          The actual level at the end of the cycle.
+   * @param filled
+   *          Whether initialisation has finished, after which the limits apply.
+   */
+  private void record(Summary summary, Mailbox output, double level, boolean filled) {
+    for (int i = 0; i != output.size(); i = i + 1) {
+      Message m = output.read(i);
+      if (m.getKind() == MessageKind.OPEN_PUMP_n || m.getKind() == MessageKind.CLOSE_PUMP_n) {
+        summary.commands = summary.commands + 1;
+      }
+    }
+    if (filled) {
+      summary.minLevel = Math.min(summary.minLevel, level);
+      summary.maxLevel = Math.max(summary.maxLevel, level);
+      if (level < this.config.getMinimalLimitLevel()
+          || level > this.config.getMaximalLimitLevel()) {
+        summary.violations = summary.violations + 1;
+      }
+    }
+  }
+
+  /**
+   * Run the scenarios named on a command line, printing one summary line for each, followed by the
+   * time taken from entry to the first cycle and overall.
+   *
+   * @param args
+   *          The command line.
+   * @param out
+   *          Where to print the summaries.
+   * @param err
+   *          Where to print errors.
+   * @return the exit status.
+   */
+  public static int run(String[] args, PrintStream out, PrintStream err) {
+    long start = System.nanoTime();
+    SteamBoilerCharacteristics cs = SteamBoilerCharacteristics.DEFAULT;
+    List<Scenario> scenarios = new ArrayList<>();
+    TelemetryStore store = null;
+    try {
+      for (int i = 0; i != args.length; i = i + 1) {
+        if (args[i].equals("-c") && i + 1 < args.length) {
+          i = i + 1;
+          try (InputStream in = Files.newInputStream(Paths.get(args[i]))) {
+            cs = characteristics(in);
+          }
+        } else if (args[i].equals("-t") && i + 1 < args.length) {
+          i = i + 1;
+          store = new TelemetryStore(Paths.get(args[i]));
+        } else if (args[i].startsWith("-")) {
+          err.println("usage: HeadlessSimulation [-c characteristics.properties] [-t directory]"
+              + " scenario...");
+          return 2;
+        } else {
+          try (Reader in = new InputStreamReader(Files.newInputStream(Paths.get(args[i])),
+              StandardCharsets.UTF_8)) {
+            scenarios.add(Scenario.parse(args[i], in));
+          }
+        }
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      err.println(e.getMessage());
+      return 2;
+    }
+    HeadlessSimulation simulation = new HeadlessSimulation(cs);
+    simulation.setTelemetry(store);
+    try {
+      for (Scenario scenario : scenarios) {
+        simulation.check(scenario);
+      }
+    } catch (IllegalArgumentException e) {
+      err.println(e.getMessage());
+      return 2;
+    }
+    long ready = System.nanoTime();
+    boolean crashed = false;
+    out.println(HEADER);
+    try {
+      for (Scenario scenario : scenarios) {
+        Summary summary = simulation.run(scenario);
+        crashed |= summary.crashed;
+        out.println(summary);
+      }
+    } catch (UncheckedIOException e) {
+      err.println(e.getCause().getMessage());
+      return 2;
+    } catch (IllegalArgumentException e) {
+      err.println(e.getMessage());
+      return 2;
+    }
+    long done = System.nanoTime();
+    out.println("# startup_ms " + (ready - start) / 1000000 + " total_ms "
+        + (done - start) / 1000000);
+    return crashed ? 1 : 0;
+  }
+
+  /**
+   * Run the scenarios named on the command line.
+   *
+   * @param args
+   *          Optionally <code>-c</code> and a characteristics file, and <code>-t</code> and a
+   *          telemetry directory, then the scenario files.
+   */
+  public static void main(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    int status = run(args, System.out, System.err);
+    if (status != 0) {
+      System.exit(status);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package steam.boiler.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Measures how quickly the historian importer replays a large recording. A recording of a plant
+ * with a varying level, steam rate and pumps is generated, imported once to warm up, and then
+ * imported again while timed.
+ *
+ */
+public final class HistorianBenchmark {
+  /**
+   * The header of the generated recording, which includes columns the importer skips.
+   */
+  private static final String HEADER = "time,level,steam,pump_0,pump_1,pump_2,pump_3,"
+      + "control_0,control_1,control_2,control_3,note";
+
+  /**
+   * Run the benchmark and print the statistics and throughput of the timed import.
+   *
+   * @param args
+   *          Optionally, the number of rows in the recording.
+   * @throws IOException
+   *           if the recording could not be written or read.
+   */
+  public static void main(String[] args) throws IOException {
+    long rows = args.length > 0 ? Long.parseLong(args[0]) : 300000;
+    Path file = Files.createTempFile("historian", ".csv");
+    try {
+      Random random = new Random(4);
+      try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+        out.write(HEADER);
+        out.write('\n');
+        for (long i = 0; i != rows; i = i + 1) {
+          out.write(row(random, i));
+        }
+      }
+      HistorianImporter importer = new HistorianImporter(SteamBoilerCharacteristics.DEFAULT);
+      importer.run(file);
+      long start = System.nanoTime();
+      HistorianImporter.Statistics stats = importer.run(file);
+      long elapsed = System.nanoTime() - start;
+      System.out.println(stats);
+      System.out.println("MB/s " + Files.size(file) * 1000.0 / elapsed);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Generate a single row of a recording.
+   *
+   * @param random
+   *          The source of variation.
+   * @param i
+   *          The number of the row.
+   * @return the row.
+   */
+  private static String row(Random random, long i) {
+    StringBuilder row = new StringBuilder();
+    row.append(5 * i).append(',').append(300 + random.nextInt(400)).append('.')
+        .append(random.nextInt(100)).append(',').append(random.nextInt(10)).append(".5");
+    int open = random.nextInt(5);
+    for (int pump = 0; pump != 4; pump = pump + 1) {
+      row.append(',').append(pump < open ? 1 : 0);
+    }
+    for (int pump = 0; pump != 4; pump = pump + 1) {
+      row.append(',').append(pump < open ? "true" : "false");
+    }
+    return row.append(",\n").toString();
+  }
+}
@@ -0,0 +1,739 @@
+package steam.boiler.bench;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Replays plant historian data through the controller. A historian file is a CSV file with one
+ * row per cycle and a header naming its columns: <code>level</code>, <code>steam</code>,
+ * <code>pump_n</code> and <code>control_n</code> are read, and any other column (such as a
+ * timestamp) is skipped. Pump columns hold <code>0</code>/<code>1</code> or
+ * <code>false</code>/<code>true</code>, and an empty field means the unit sent nothing that cycle.
+ * Fields are not quoted.
+ *
+ * <p>Each row becomes the LEVEL_v, STEAM_v, PUMP_STATE_n_b and PUMP_CONTROL_STATE_n_b messages of
+ * one cycle, together with the handshake the physical units would send, and the controller's
+ * response is gathered into {@link Statistics}. The recorded plant does not respond to the
+ * controller, so if the controller stops the boiler a fresh controller takes over from the next
+ * row, and the stop is counted.
+ *
+ * <p>The file is read through a window of memory mapped from it, which slides forward a line at a
+ * time, and fields are parsed straight from the mapped bytes. Only the header is turned into
+ * strings, so memory use depends on the window and not on the size of the file.
+ *
+ */
+public final class HistorianImporter {
+  /**
+   * Powers of ten which are exact as doubles.
+   */
+  private static final double[] POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+      1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  /**
+   * Marks a column which is skipped.
+   */
+  private static final int SKIP = 0;
+
+  /**
+   * Marks the level column.
+   */
+  private static final int LEVEL = 1;
+
+  /**
+   * Marks the steam column.
+   */
+  private static final int STEAM = 2;
+
+  /**
+   * Marks a pump column; the pump number is added.
+   */
+  private static final int PUMP = 1 << 16;
+
+  /**
+   * Marks a pump controller column; the pump number is added.
+   */
+  private static final int CONTROL = 2 << 16;
+
+  /**
+   * The characteristics of the boiler.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * The size (in bytes) of the window mapped at a time.
+   */
+  private int window = 64 << 20;
+
+  /**
+   * Construct an importer for a boiler with given characteristics.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   */
+  public HistorianImporter(SteamBoilerCharacteristics config) {
+    this.config = config;
+  }
+
+  /**
+   * Set the size of the window mapped at a time, which bounds the length of a line.
+   *
+   * @param bytes
+   *          The size in bytes.
+   */
+  public void setWindow(int bytes) {
+    if (bytes <= 0) {
+      throw new IllegalArgumentException("invalid window");
+    }
+    this.window = bytes;
+  }
+
+  /**
+   * Replay a historian file.
+   *
+   * @param file
+   *          The file.
+   * @return the statistics of the controller's responses.
+   * @throws IOException
+   *           if the file could not be read, or has no header or a line longer than the window.
+   */
+  public Statistics run(Path file) throws IOException {
+    Statistics stats = new Statistics();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      stats.bytes = size;
+      Replay replay = null;
+      long position = 0;
+      while (position < size) {
+        int length = (int) Math.min(this.window, size - position);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        boolean last = position + length == size;
+        int start = 0;
+        while (start < length) {
+          int end = start;
+          while (end < length && buffer.get(end) != '\n') {
+            end = end + 1;
+          }
+          if (end == length && !last) {
+            break;
+          }
+          if (replay == null) {
+            replay = new Replay(header(buffer, start, end), stats);
+          } else {
+            replay.row(buffer, start, end);
+          }
+          start = end + 1;
+        }
+        if (start == 0 && !last) {
+          throw new IOException("line longer than " + this.window + " bytes at byte " + position);
+        }
+        position = position + Math.min(start, length);
+      }
+      if (replay == null) {
+        throw new IOException("no header");
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Read the header, which says what each column holds.
+   *
+   * @param buffer
+   *          The mapped bytes.
+   * @param start
+   *          The start of the header.
+   * @param end
+   *          The end of the header, exclusive.
+   * @return what each column holds.
+   * @throws IOException
+   *           if the header names a pump the boiler does not have, or names the same column twice.
+   */
+  private int[] header(MappedByteBuffer buffer, int start, int end) throws IOException {
+    byte[] bytes = new byte[end - start];
+    for (int i = 0; i != bytes.length; i = i + 1) {
+      bytes[i] = buffer.get(start + i);
+    }
+    String[] names = new String(bytes, StandardCharsets.UTF_8).trim().split(",", -1);
+    int[] columns = new int[names.length];
+    for (int i = 0; i != names.length; i = i + 1) {
+      String name = names[i].trim();
+      int column = SKIP;
+      try {
+        if (name.equals("level")) {
+          column = LEVEL;
+        } else if (name.equals("steam")) {
+          column = STEAM;
+        } else if (name.startsWith("pump_")) {
+          column = PUMP + pump(Integer.parseInt(name.substring(5)));
+        } else if (name.startsWith("control_")) {
+          column = CONTROL + pump(Integer.parseInt(name.substring(8)));
+        }
+      } catch (NumberFormatException e) {
+        throw new IOException("invalid column " + name);
+      }
+      for (int j = 0; j != i; j = j + 1) {
+        if (column != SKIP && columns[j] == column) {
+          throw new IOException("repeated column " + name);
+        }
+      }
+      columns[i] = column;
+    }
+    return columns;
+  }
+
+  /**
+   * Check that a pump named in the header exists.
+   *
+   * @param pump
+   *          The pump.
+   * @return the pump.
+   * @throws IOException
+   *           if it does not.
+   */
+  private int pump(int pump) throws IOException {
+    if (pump < 0 || pump >= this.config.getNumberOfPumps()) {
+      throw new IOException("no pump " + pump);
+    }
+    return pump;
+  }
+
+  /**
+   * The state of a replay: the controller, and the readings of the row being parsed.
+   */
+  private final class Replay {
+    /**
+     * What each column holds.
+     */
+    private final int[] columns;
+
+    /**
+     * The statistics being gathered.
+     */
+    private final Statistics stats;
+
+    /**
+     * The controller, replaced after an emergency stop.
+     */
+    private MySteamBoilerController controller;
+
+    /**
+     * Whether the next row is the first the current controller sees.
+     */
+    private boolean first = true;
+
+    /**
+     * Whether the controller has said it is ready, and is waiting for the physical units to be.
+     */
+    private boolean ready;
+
+    /**
+     * The level reading of the row, or NaN if there is none.
+     */
+    private double level;
+
+    /**
+     * The steam reading of the row, or NaN if there is none.
+     */
+    private double steam;
+
+    /**
+     * The pump readings of the row: 0 for closed, 1 for open, -1 if there is none.
+     */
+    private final byte[] pumps;
+
+    /**
+     * The pump controller readings of the row, in the same form.
+     */
+    private final byte[] controls;
+
+    /**
+     * The number of pumps the controller told to be open in the previous row, or -1 if it sent
+     * no pump commands.
+     */
+    private int commanded = -1;
+
+    /**
+     * Which pumps the controller has told to be open.
+     */
+    private final boolean[] open;
+
+    /**
+     * Start a replay.
+     *
+     * @param columns
+     *          What each column holds.
+     * @param stats
+     *          Where to gather statistics.
+     */
+    Replay(int[] columns, Statistics stats) {
+      this.columns = columns;
+      this.stats = stats;
+      this.controller = new MySteamBoilerController(HistorianImporter.this.config);
+      int n = HistorianImporter.this.config.getNumberOfPumps();
+      this.pumps = new byte[n];
+      this.controls = new byte[n];
+      this.open = new boolean[n];
+    }
+
+    /**
+     * Parse a row and clock the controller with it.
+     *
+     * @param buffer
+     *          The mapped bytes.
+     * @param start
+     *          The start of the row.
+     * @param end
+     *          The end of the row, exclusive.
+     */
+    void row(MappedByteBuffer buffer, int start, int end) {
+      if (end > start && buffer.get(end - 1) == '\r') {
+        end = end - 1;
+      }
+      if (end == start) {
+        return;
+      }
+      this.level = Double.NaN;
+      this.steam = Double.NaN;
+      Arrays.fill(this.pumps, (byte) -1);
+      Arrays.fill(this.controls, (byte) -1);
+      int column = 0;
+      int field = start;
+      for (int i = start; i <= end; i = i + 1) {
+        if (i == end || buffer.get(i) == ',') {
+          if (column < this.columns.length && !field(buffer, field, i, this.columns[column])) {
+            this.stats.malformed = this.stats.malformed + 1;
+            return;
+          }
+          column = column + 1;
+          field = i + 1;
+        }
+      }
+      if (column != this.columns.length) {
+        this.stats.malformed = this.stats.malformed + 1;
+        return;
+      }
+      clock();
+    }
+
+    /**
+     * Parse a single field.
+     *
+     * @param buffer
+     *          The mapped bytes.
+     * @param start
+     *          The start of the field.
+     * @param end
+     *          The end of the field, exclusive.
+     * @param column
+     *          What the field holds.
+     * @return false if the field is malformed.
+     */
+    private boolean field(MappedByteBuffer buffer, int start, int end, int column) {
+      if (column == SKIP || start == end) {
+        return true;
+      } else if (column == LEVEL || column == STEAM) {
+        double value = number(buffer, start, end);
+        if (column == LEVEL) {
+          this.level = value;
+        } else {
+          this.steam = value;
+        }
+        return !Double.isNaN(value);
+      }
+      int state = flag(buffer, start, end);
+      if ((column & PUMP) != 0) {
+        this.pumps[column - PUMP] = (byte) state;
+      } else {
+        this.controls[column - CONTROL] = (byte) state;
+      }
+      return state >= 0;
+    }
+
+    /**
+     * Send the readings of the row to the controller and record its response.
+     */
+    private void clock() {
+      Mailbox incoming = new UnboundedMailbox(100);
+      if (!Double.isNaN(this.level)) {
+        incoming.send(new Message(MessageKind.LEVEL_v, this.level));
+      }
+      if (!Double.isNaN(this.steam)) {
+        incoming.send(new Message(MessageKind.STEAM_v, this.steam));
+      }
+      int recorded = 0;
+      for (int i = 0; i != this.pumps.length; i = i + 1) {
+        if (this.pumps[i] >= 0) {
+          incoming.send(new Message(MessageKind.PUMP_STATE_n_b, i, this.pumps[i] == 1));
+          recorded = recorded + this.pumps[i];
+        }
+      }
+      for (int i = 0; i != this.controls.length; i = i + 1) {
+        if (this.controls[i] >= 0) {
+          incoming.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, this.controls[i] == 1));
+        }
+      }
+      if (this.first) {
+        incoming.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+        this.first = false;
+      } else if (this.ready) {
+        incoming.send(new Message(MessageKind.PHYSICAL_UNITS_READY));
+        this.ready = false;
+      }
+      if (this.commanded >= 0) {
+        this.stats.compared = this.stats.compared + 1;
+        this.stats.agreed = this.stats.agreed + (this.commanded == recorded ? 1 : 0);
+      }
+      Mailbox outgoing = new UnboundedMailbox(100);
+      this.controller.clock(incoming, outgoing);
+      this.stats.rows = this.stats.rows + 1;
+      record(outgoing);
+    }
+
+    /**
+     * Record the controller's response to a row.
+     *
+     * @param outgoing
+     *          The messages it sent.
+     */
+    private void record(Mailbox outgoing) {
+      boolean commands = false;
+      boolean stopped = false;
+      for (int i = 0; i != outgoing.size(); i = i + 1) {
+        Message m = outgoing.read(i);
+        switch (m.getKind()) {
+          case OPEN_PUMP_n:
+          case CLOSE_PUMP_n:
+            boolean on = m.getKind() == MessageKind.OPEN_PUMP_n;
+            int pump = m.getIntegerParameter();
+            if (pump >= 0 && pump < this.open.length && this.open[pump] != on) {
+              this.stats.switches = this.stats.switches + 1;
+              this.open[pump] = on;
+            }
+            commands = true;
+            break;
+          case PROGRAM_READY:
+            this.ready = true;
+            break;
+          case MODE_m:
+            stopped = m.getModeParameter() == Mode.EMERGENCY_STOP;
+            break;
+          case LEVEL_FAILURE_DETECTION:
+          case STEAM_FAILURE_DETECTION:
+          case PUMP_FAILURE_DETECTION_n:
+          case PUMP_CONTROL_FAILURE_DETECTION_n:
+            this.stats.detections[m.getKind().ordinal()] += 1;
+            break;
+          default:
+            break;
+        }
+      }
+      int count = 0;
+      for (boolean on : this.open) {
+        count = count + (on ? 1 : 0);
+      }
+      this.commanded = commands ? count : -1;
+      Mode mode = this.controller.getSnapshot().getMode();
+      this.stats.modes[mode.ordinal()] += 1;
+      if (stopped || mode == Mode.EMERGENCY_STOP) {
+        this.stats.stops = this.stats.stops + 1;
+        this.controller = new MySteamBoilerController(HistorianImporter.this.config);
+        this.first = true;
+        this.ready = false;
+        this.commanded = -1;
+        Arrays.fill(this.open, false);
+      }
+    }
+  }
+
+  /**
+   * Parse a decimal number directly from bytes. Numbers with at most eighteen significant digits
+   * and a small exponent are converted exactly, as a single multiplication or division of exact
+   * doubles; anything else falls back to {@link Double#parseDouble(String)}.
+   *
+   * @param buffer
+   *          The bytes.
+   * @param start
+   *          The start of the number.
+   * @param end
+   *          The end of the number, exclusive.
+   * @return the number, or NaN if it is malformed.
+   */
+  static double number(MappedByteBuffer buffer, int start, int end) {
+    int i = start;
+    while (i < end && buffer.get(i) == ' ') {
+      i = i + 1;
+    }
+    while (end > i && buffer.get(end - 1) == ' ') {
+      end = end - 1;
+    }
+    boolean negative = i < end && buffer.get(i) == '-';
+    if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+      i = i + 1;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean point = false;
+    boolean any = false;
+    for (; i < end; i = i + 1) {
+      byte b = buffer.get(i);
+      if (b >= '0' && b <= '9') {
+        any = true;
+        if (mantissa != 0 || b != '0') {
+          digits = digits + 1;
+        }
+        if (digits <= 18) {
+          mantissa = mantissa * 10 + (b - '0');
+          scale = scale - (point ? 1 : 0);
+        } else {
+          scale = scale + (point ? 0 : 1);
+        }
+      } else if (b == '.' && !point) {
+        point = true;
+      } else {
+        break;
+      }
+    }
+    if (!any) {
+      return Double.NaN;
+    }
+    if (i < end) {
+      if (buffer.get(i) != 'e' && buffer.get(i) != 'E') {
+        return Double.NaN;
+      }
+      return slow(buffer, start, end);
+    }
+    double value;
+    if (mantissa < (1L << 53) && scale >= -22 && scale <= 22) {
+      value = scale < 0 ? mantissa / POWERS[-scale] : mantissa * POWERS[scale];
+    } else {
+      return slow(buffer, start, end);
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parse a number the slow way.
+   *
+   * @param buffer
+   *          The bytes.
+   * @param start
+   *          The start of the number.
+   * @param end
+   *          The end of the number, exclusive.
+   * @return the number, or NaN if it is malformed.
+   */
+  private static double slow(MappedByteBuffer buffer, int start, int end) {
+    byte[] bytes = new byte[end - start];
+    for (int i = 0; i != bytes.length; i = i + 1) {
+      bytes[i] = buffer.get(start + i);
+    }
+    try {
+      return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII).trim());
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  /**
+   * Parse a pump state.
+   *
+   * @param buffer
+   *          The bytes.
+   * @param start
+   *          The start of the field.
+   * @param end
+   *          The end of the field, exclusive.
+   * @return 1 for open, 0 for closed, or -1 if it is malformed.
+   */
+  private static int flag(MappedByteBuffer buffer, int start, int end) {
+    while (start < end && buffer.get(start) == ' ') {
+      start = start + 1;
+    }
+    while (end > start && buffer.get(end - 1) == ' ') {
+      end = end - 1;
+    }
+    if (end - start == 1 && (buffer.get(start) == '0' || buffer.get(start) == '1')) {
+      return buffer.get(start) - '0';
+    } else if (matches(buffer, start, end, "true")) {
+      return 1;
+    } else if (matches(buffer, start, end, "false")) {
+      return 0;
+    }
+    return -1;
+  }
+
+  /**
+   * Check whether some bytes spell a given word, ignoring case.
+   *
+   * @param buffer
+   *          The bytes.
+   * @param start
+   *          The start of the bytes.
+   * @param end
+   *          The end of the bytes, exclusive.
+   * @param word
+   *          The word, in lower case.
+   * @return true if they match.
+   */
+  private static boolean matches(MappedByteBuffer buffer, int start, int end, String word) {
+    if (end - start != word.length()) {
+      return false;
+    }
+    for (int i = 0; i != word.length(); i = i + 1) {
+      if (Character.toLowerCase(buffer.get(start + i)) != word.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * What the controller did with the rows of a historian file.
+   */
+  public static final class Statistics {
+    /**
+     * The size of the file in bytes.
+     */
+    long bytes;
+
+    /**
+     * The number of rows sent to the controller.
+     */
+    long rows;
+
+    /**
+     * The number of rows skipped because a field could not be read.
+     */
+    long malformed;
+
+    /**
+     * The number of rows ending in each mode, indexed by ordinal.
+     */
+    final long[] modes = new long[Mode.values().length];
+
+    /**
+     * The number of failure detections of each kind, indexed by ordinal.
+     */
+    final long[] detections = new long[MessageKind.values().length];
+
+    /**
+     * The number of pump commands which changed a pump.
+     */
+    long switches;
+
+    /**
+     * The number of times the controller stopped the boiler.
+     */
+    long stops;
+
+    /**
+     * The number of rows following one in which the controller sent pump commands.
+     */
+    long compared;
+
+    /**
+     * The number of those rows in which the plant had as many pumps open as the controller asked.
+     */
+    long agreed;
+
+    /**
+     * Get the number of rows sent to the controller.
+     *
+     * @return the number of rows.
+     */
+    public long getRows() {
+      return this.rows;
+    }
+
+    /**
+     * Get the number of rows skipped because a field could not be read.
+     *
+     * @return the number of rows.
+     */
+    public long getMalformed() {
+      return this.malformed;
+    }
+
+    /**
+     * Get the number of rows after which the controller was in a given mode.
+     *
+     * @param mode
+     *          The mode.
+     * @return the number of rows.
+     */
+    public long getRows(Mode mode) {
+      return this.modes[mode.ordinal()];
+    }
+
+    /**
+     * Get the number of failure detections of a given kind.
+     *
+     * @param kind
+     *          The kind of detection.
+     * @return the number of detections.
+     */
+    public long getDetections(MessageKind kind) {
+      return this.detections[kind.ordinal()];
+    }
+
+    /**
+     * Get the number of pump commands which changed a pump.
+     *
+     * @return the number of commands.
+     */
+    public long getSwitches() {
+      return this.switches;
+    }
+
+    /**
+     * Get the number of times the controller stopped the boiler.
+     *
+     * @return the number of stops.
+     */
+    public long getStops() {
+      return this.stops;
+    }
+
+    /**
+     * Get the fraction of rows, following the controller's pump commands, in which the plant had
+     * as many pumps open as the controller asked for.
+     *
+     * @return the fraction, or zero if the controller never sent commands.
+     */
+    public double getAgreement() {
+      return this.compared == 0 ? 0 : (double) this.agreed / this.compared;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder b = new StringBuilder();
+      b.append("bytes=").append(this.bytes).append(" rows=").append(this.rows)
+          .append(" malformed=").append(this.malformed).append(" stops=").append(this.stops)
+          .append(" switches=").append(this.switches).append(" agreement=")
+          .append(getAgreement());
+      for (Mode mode : Mode.values()) {
+        b.append(' ').append(mode).append('=').append(this.modes[mode.ordinal()]);
+      }
+      for (MessageKind kind : MessageKind.values()) {
+        if (this.detections[kind.ordinal()] != 0) {
+          b.append(' ').append(kind).append('=').append(this.detections[kind.ordinal()]);
+        }
+      }
+      return b.toString();
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package steam.boiler.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.StateJournal;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Measures how long a restarted controller takes to recover its state from a journal. A
+ * controller with six pumps is clocked with readings which change every cycle, so that the pumps
+ * are switched often and the journal's region fills with deltas, and recovery from the resulting
+ * file is then timed at its best over many runs, to discount interruptions.
+ *
+ */
+public final class JournalBenchmark {
+  /**
+   * Run the benchmark and print the best and average time taken by a recovery.
+   *
+   * @param args
+   *          Optionally, the number of cycles journalled.
+   * @throws IOException
+   *           if the journal could not be written or read.
+   */
+  public static void main(String[] args) throws IOException {
+    int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    config = config.setNumberOfPumps(6, config.getPumpCapacity(0));
+    int pumps = config.getNumberOfPumps();
+    Path file = Files.createTempFile("journal", ".bin");
+    try {
+      MySteamBoilerController controller = new MySteamBoilerController(config);
+      StateJournal journal = new StateJournal(file, pumps);
+      controller.setJournal(journal);
+      boolean[] on = new boolean[pumps];
+      for (int cycle = 1; cycle <= cycles; cycle = cycle + 1) {
+        step(controller, config, cycle, on);
+      }
+      journal.close();
+      long best = Long.MAX_VALUE;
+      long total = 0;
+      int runs = 1000;
+      for (int i = 0; i != runs; i = i + 1) {
+        long start = System.nanoTime();
+        if (new StateJournal(file, pumps).recover() == null) {
+          throw new IllegalStateException("nothing recovered");
+        }
+        long elapsed = System.nanoTime() - start;
+        best = Math.min(best, elapsed);
+        total = total + elapsed;
+      }
+      System.out.println("cycles " + cycles + ": best " + best / 1000 + "us, mean "
+          + total / runs / 1000 + "us");
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Clock a controller in normal mode for one cycle, using readings which change every cycle so
+   * that the pumps are switched often.
+   *
+   * @param controller
+   *          The controller.
+   * @param cs
+   *          The characteristics of the boiler.
+   * @param cycle
+   *          The number of the cycle, starting from one.
+   * @param pumps
+   *          Which pumps are on, which is updated from the controller's commands.
+   */
+  private static void step(MySteamBoilerController controller, SteamBoilerCharacteristics cs,
+      int cycle, boolean[] pumps) {
+    Mailbox incoming = new UnboundedMailbox(100);
+    Mailbox outgoing = new UnboundedMailbox(100);
+    double range = cs.getMaximalNormalLevel() - cs.getMinimalNormalLevel();
+    double level = cs.getMinimalNormalLevel() + range * ((cycle * 37) % 100) / 100;
+    incoming.send(new Message(MessageKind.LEVEL_v, level));
+    incoming.send(new Message(MessageKind.STEAM_v, cs.getMaximualSteamRate() * (cycle % 11) / 10));
+    for (int i = 0; i != pumps.length; i = i + 1) {
+      incoming.send(new Message(MessageKind.PUMP_STATE_n_b, i, pumps[i]));
+      incoming.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, pumps[i]));
+    }
+    if (cycle == 1) {
+      incoming.send(new Message(MessageKind.PHYSICAL_UNITS_READY));
+    }
+    controller.clock(incoming, outgoing);
+    for (int i = 0; i != outgoing.size(); i = i + 1) {
+      Message m = outgoing.read(i);
+      if (m.getKind() == MessageKind.OPEN_PUMP_n && m.getIntegerParameter() < pumps.length) {
+        pumps[m.getIntegerParameter()] = true;
+      } else if (m.getKind() == MessageKind.CLOSE_PUMP_n
+          && m.getIntegerParameter() < pumps.length) {
+        pumps[m.getIntegerParameter()] = false;
+      }
+    }
+  }
+}
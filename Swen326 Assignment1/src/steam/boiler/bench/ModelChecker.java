@@ -0,0 +1,819 @@
+package steam.boiler.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.ControllerSnapshot;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Explores every configuration of the controller's mode machine reachable from start-up, and
+ * checks safety properties on every transition. The inputs from the physical units are abstracted
+ * into a finite alphabet. Each input picks a band for the level reading and one for the steam
+ * reading (either of which may also be missing or nonsensical), which pumps and pump controllers
+ * disagree with what the controller believes, and at most one extra message such as a repair.
+ *
+ * <p>The controller's decisions depend only on its internal state, which pumps it believes are
+ * on, and its inputs. Its other fields merely record what it has reported. A configuration is
+ * therefore just a state and a set of pumps, and the search restores the controller to each
+ * configuration in turn and tries every input. The search is breadth first, with each level
+ * expanded in parallel and the configurations seen so far kept in a {@link StateSet}. Any
+ * violation found is reported with a shortest sequence of inputs which leads to it from a freshly
+ * constructed controller.
+ *
+ * <p>The level and steam bands are each represented by a single reading, so the pump decisions
+ * made within a band are sampled rather than covered exhaustively.
+ *
+ */
+public final class ModelChecker {
+  /**
+   * A safety property, checked on every transition.
+   */
+  public interface Property {
+    /**
+     * Check a single transition.
+     *
+     * @param before
+     *          The state of the controller before the transition.
+     * @param input
+     *          The messages received by the controller.
+     * @param output
+     *          The messages sent by the controller.
+     * @param after
+     *          The state of the controller after the transition.
+     * @return a description of the violation, or null if the property holds.
+     */
+    @Nullable
+    String check(ControllerSnapshot before, Mailbox input, Mailbox output,
+        ControllerSnapshot after);
+  }
+
+  /**
+   * Once the boiler has been stopped, it stays stopped.
+   */
+  public static final Property STOP_IS_FINAL = (before, input, output, after) -> {
+    if (before.getMode() == Mode.EMERGENCY_STOP && after.getMode() != Mode.EMERGENCY_STOP) {
+      return "left emergency stop for " + after.getMode();
+    }
+    return null;
+  };
+
+  /**
+   * The controller never names a pump which does not exist.
+   */
+  public static final Property PUMPS_EXIST = (before, input, output, after) -> {
+    for (int i = 0; i != output.size(); i = i + 1) {
+      Message m = output.read(i);
+      if (namesPump(m.getKind()) && (m.getIntegerParameter() < 0
+          || m.getIntegerParameter() >= before.getNumberOfPumps())) {
+        return "sent " + m;
+      }
+    }
+    return null;
+  };
+
+  /**
+   * The controller stops the boiler whenever the level reading is missing.
+   */
+  public static final Property STOP_WITHOUT_LEVEL = (before, input, output, after) -> {
+    for (int i = 0; i != input.size(); i = i + 1) {
+      if (input.read(i).getKind() == MessageKind.LEVEL_v) {
+        return null;
+      }
+    }
+    if (after.getMode() != Mode.EMERGENCY_STOP) {
+      return "carried on in " + after.getMode() + " without a level reading";
+    }
+    return null;
+  };
+
+  /**
+   * The name used for a transition on which the controller threw an exception.
+   */
+  public static final String NO_EXCEPTION = "no exception";
+
+  /**
+   * The characteristics of the boiler.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * The number of pumps.
+   */
+  private final int numberOfPumps;
+
+  /**
+   * The level readings used for each band, where NaN means the reading is missing.
+   */
+  private final double[] levels;
+
+  /**
+   * The steam readings used for each band, where NaN means the reading is missing.
+   */
+  private final double[] steams;
+
+  /**
+   * The properties to check, by name.
+   */
+  private final Map<String, Property> properties = new LinkedHashMap<>();
+
+  /**
+   * The largest number of pumps, and separately of pump controllers, which may disagree with the
+   * controller in a single input.
+   */
+  private int maxDisagreements = 1;
+
+  /**
+   * The largest number of configurations which may be explored.
+   */
+  private int maxStates = 1 << 20;
+
+  /**
+   * Construct a model checker for a given boiler, checking {@link #STOP_IS_FINAL},
+   * {@link #PUMPS_EXIST} and {@link #STOP_WITHOUT_LEVEL}.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   */
+  public ModelChecker(SteamBoilerCharacteristics config) {
+    this.config = config;
+    this.numberOfPumps = config.getNumberOfPumps();
+    if (this.numberOfPumps > 30) {
+      throw new IllegalArgumentException("too many pumps");
+    }
+    double minLimit = config.getMinimalLimitLevel();
+    double minNormal = config.getMinimalNormalLevel();
+    double maxNormal = config.getMaximalNormalLevel();
+    double maxLimit = config.getMaximalLimitLevel();
+    double capacity = config.getCapacity();
+    double steam = config.getMaximualSteamRate();
+    this.levels = new double[] { Double.NaN, -1, minLimit / 2, (minLimit + minNormal) / 2,
+        (minNormal + maxNormal) / 2, (maxNormal + maxLimit) / 2, (maxLimit + capacity) / 2,
+        capacity + 1 };
+    this.steams = new double[] { Double.NaN, -1, 0, steam / 2, steam, steam + 1 };
+    this.properties.put("stop is final", STOP_IS_FINAL);
+    this.properties.put("pumps exist", PUMPS_EXIST);
+    this.properties.put("stop without level", STOP_WITHOUT_LEVEL);
+  }
+
+  /**
+   * Add a property to check.
+   *
+   * @param name
+   *          The name the property is reported under.
+   * @param property
+   *          The property.
+   */
+  public void addProperty(String name, Property property) {
+    this.properties.put(name, property);
+  }
+
+  /**
+   * Set the largest number of pumps, and separately of pump controllers, which may disagree with
+   * the controller in a single input. The number of inputs grows quickly with this.
+   *
+   * @param maxDisagreements
+   *          The number of disagreements, which defaults to one.
+   */
+  public void setMaxDisagreements(int maxDisagreements) {
+    if (maxDisagreements < 0) {
+      throw new IllegalArgumentException("invalid number of disagreements");
+    }
+    this.maxDisagreements = Math.min(maxDisagreements, this.numberOfPumps);
+  }
+
+  /**
+   * Set the largest number of configurations which may be explored, beyond which the search
+   * fails.
+   *
+   * @param maxStates
+   *          The number of configurations.
+   */
+  public void setMaxStates(int maxStates) {
+    this.maxStates = maxStates;
+  }
+
+  /**
+   * Explore every reachable configuration.
+   *
+   * @return the outcome of the search.
+   * @throws IllegalStateException
+   *           if there are more configurations than allowed.
+   */
+  public Result run() {
+    long start = System.nanoTime();
+    Search search = new Search(disagreements(this.numberOfPumps, this.maxDisagreements));
+    long initial = key(new MySteamBoilerController(this.config).getSnapshot());
+    search.visited.add(initial, -1, -1, 0);
+    long[] frontier = new long[] { initial };
+    int depth = 0;
+    while (frontier.length != 0) {
+      int d = depth;
+      frontier = LongStream.of(frontier).parallel().flatMap(k -> search.expand(k, d)).toArray();
+      depth = depth + 1;
+    }
+    List<Counterexample> found = new ArrayList<>();
+    for (String name : this.properties.keySet()) {
+      addCounterexample(found, search, name);
+    }
+    addCounterexample(found, search, NO_EXCEPTION);
+    List<ControllerSnapshot> reachable = new ArrayList<>();
+    for (long k : search.visited.toArray()) {
+      reachable.add(snapshot(k));
+    }
+    return new Result(reachable, search.transitions.sum(), depth - 1,
+        search.modeTransitions.get(), found, System.nanoTime() - start);
+  }
+
+  /**
+   * Add the counterexample found for a property, if there is one.
+   *
+   * @param found
+   *          The counterexamples found so far.
+   * @param search
+   *          The completed search.
+   * @param name
+   *          The name of the property.
+   */
+  private void addCounterexample(List<Counterexample> found, Search search, String name) {
+    Candidate c = search.violations.get(name);
+    if (c != null) {
+      List<Mailbox> trace = new ArrayList<>();
+      trace.add(input(search.masks, c.from, c.input));
+      for (long k = c.from; search.visited.getParent(k) >= 0; k = search.visited.getParent(k)) {
+        trace.add(input(search.masks, search.visited.getParent(k), search.visited.getInput(k)));
+      }
+      Collections.reverse(trace);
+      found.add(new Counterexample(name, c.description, trace));
+    }
+  }
+
+  /**
+   * Encode the configuration of a controller.
+   *
+   * @param s
+   *          The state of the controller.
+   * @return the configuration.
+   */
+  private long key(ControllerSnapshot s) {
+    long k = s.getStateIndex();
+    for (int i = 0; i != this.numberOfPumps; i = i + 1) {
+      k = (k << 1) | (s.isPumpOn(this.numberOfPumps - 1 - i) ? 1 : 0);
+    }
+    return k;
+  }
+
+  /**
+   * Decode a configuration into a state the controller can be restored to.
+   *
+   * @param key
+   *          The configuration.
+   * @return the state.
+   */
+  private ControllerSnapshot snapshot(long key) {
+    boolean[] pumps = new boolean[this.numberOfPumps];
+    for (int i = 0; i != this.numberOfPumps; i = i + 1) {
+      pumps[i] = ((key >>> i) & 1) != 0;
+    }
+    return ControllerSnapshot.of((int) (key >>> this.numberOfPumps), pumps);
+  }
+
+  /**
+   * Build the messages making up an input, as sent to a controller in a given configuration.
+   *
+   * @param masks
+   *          The ways pumps, or pump controllers, may disagree with the controller.
+   * @param key
+   *          The configuration.
+   * @param input
+   *          The input.
+   * @return the messages.
+   */
+  private Mailbox input(int[] masks, long key, int input) {
+    int n = this.numberOfPumps;
+    int extras = 5 + 2 * n;
+    int extra = input % extras;
+    int rest = input / extras;
+    int control = masks[rest % masks.length];
+    rest = rest / masks.length;
+    int pump = masks[rest % masks.length];
+    rest = rest / masks.length;
+    double steam = this.steams[rest % this.steams.length];
+    double level = this.levels[rest / this.steams.length];
+    Mailbox mailbox = new UnboundedMailbox(2 * n + 3);
+    if (!Double.isNaN(level)) {
+      mailbox.send(new Message(MessageKind.LEVEL_v, level));
+    }
+    if (!Double.isNaN(steam)) {
+      mailbox.send(new Message(MessageKind.STEAM_v, steam));
+    }
+    long pumpStates = key ^ pump;
+    for (int i = 0; i != n; i = i + 1) {
+      mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, i, ((pumpStates >>> i) & 1) != 0));
+    }
+    long controlStates = pumpStates ^ control;
+    for (int i = 0; i != n; i = i + 1) {
+      mailbox.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i,
+          ((controlStates >>> i) & 1) != 0));
+    }
+    if (extra == 1) {
+      mailbox.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+    } else if (extra == 2) {
+      mailbox.send(new Message(MessageKind.PHYSICAL_UNITS_READY));
+    } else if (extra == 3) {
+      mailbox.send(new Message(MessageKind.STEAM_REPAIRED));
+    } else if (extra == 4) {
+      mailbox.send(new Message(MessageKind.LEVEL_REPAIRED));
+    } else if (extra >= 5 && extra < 5 + n) {
+      mailbox.send(new Message(MessageKind.PUMP_REPAIRED_n, extra - 5));
+    } else if (extra >= 5 + n) {
+      mailbox.send(new Message(MessageKind.PUMP_CONTROL_REPAIRED_n, extra - 5 - n));
+    }
+    return mailbox;
+  }
+
+  /**
+   * Count the inputs.
+   *
+   * @param masks
+   *          The number of ways pumps, or pump controllers, may disagree.
+   * @return the number of inputs.
+   */
+  private int inputs(int masks) {
+    long count = (long) this.levels.length * this.steams.length * masks * masks
+        * (5 + 2 * this.numberOfPumps);
+    if (count > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("too many inputs");
+    }
+    return (int) count;
+  }
+
+  /**
+   * Enumerate every set of pumps of at most a given size.
+   *
+   * @param n
+   *          The number of pumps.
+   * @param k
+   *          The largest size.
+   * @return the sets, as bit masks.
+   */
+  private static int[] disagreements(int n, int k) {
+    int count = 0;
+    int[] masks = new int[16];
+    for (long m = 0; m < (1L << n); m = nextMask(m, n, k)) {
+      if (count == masks.length) {
+        masks = Arrays.copyOf(masks, count * 2);
+      }
+      masks[count++] = (int) m;
+    }
+    return Arrays.copyOf(masks, count);
+  }
+
+  /**
+   * Find the next bit mask, in increasing order, with at most a given number of bits set.
+   *
+   * @param m
+   *          The current mask.
+   * @param n
+   *          The number of bits.
+   * @param k
+   *          The largest number of bits set.
+   * @return the next mask, or 2^n if there is none.
+   */
+  private static long nextMask(long m, int n, int k) {
+    long next = m + 1;
+    while (next < (1L << n) && Long.bitCount(next) > k) {
+      // Carry past the lowest set bit, since every mask up to there has too many bits.
+      next = next + Long.lowestOneBit(next);
+    }
+    return next;
+  }
+
+  /**
+   * Check whether a message sent by the controller names a pump.
+   *
+   * @param kind
+   *          The kind of message.
+   * @return true if its parameter is a pump number.
+   */
+  private static boolean namesPump(MessageKind kind) {
+    switch (kind) {
+      case OPEN_PUMP_n:
+      case CLOSE_PUMP_n:
+      case PUMP_FAILURE_DETECTION_n:
+      case PUMP_CONTROL_FAILURE_DETECTION_n:
+      case PUMP_REPAIRED_ACKNOWLEDGEMENT_n:
+      case PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n:
+      case PUMP_FAILURE_ACKNOWLEDGEMENT_n:
+      case PUMP_CONTROL_FAILURE_ACKNOWLEDGEMENT_n:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * The state of a single search, shared by every thread taking part.
+   */
+  private final class Search {
+    /**
+     * The ways pumps, or pump controllers, may disagree with the controller.
+     */
+    final int[] masks;
+
+    /**
+     * The number of inputs.
+     */
+    final int inputs;
+
+    /**
+     * The configurations reached so far.
+     */
+    final StateSet visited;
+
+    /**
+     * The number of transitions taken.
+     */
+    final LongAdder transitions = new LongAdder();
+
+    /**
+     * The pairs of states with a transition between them, with bit <code>from * 8 + to</code> set
+     * for each.
+     */
+    final AtomicLong modeTransitions = new AtomicLong();
+
+    /**
+     * The first violation found of each property.
+     */
+    final Map<String, Candidate> violations = new ConcurrentHashMap<>();
+
+    /**
+     * A controller for each thread taking part.
+     */
+    final ThreadLocal<MySteamBoilerController> controllers;
+
+    /**
+     * Construct a search.
+     *
+     * @param masks
+     *          The ways pumps, or pump controllers, may disagree with the controller.
+     */
+    Search(int[] masks) {
+      this.masks = masks;
+      this.inputs = inputs(masks.length);
+      // There can never be more configurations than states and sets of pumps.
+      long bound = (long) ControllerSnapshot.getNumberOfStates() << ModelChecker.this.numberOfPumps;
+      this.visited = new StateSet((int) Math.min(ModelChecker.this.maxStates, bound));
+      this.controllers = ThreadLocal.withInitial(
+          () -> new MySteamBoilerController(ModelChecker.this.config));
+    }
+
+    /**
+     * Try every input in a given configuration.
+     *
+     * @param key
+     *          The configuration.
+     * @param depth
+     *          The number of transitions from the initial configuration.
+     * @return the configurations reached for the first time.
+     */
+    LongStream expand(long key, int depth) {
+      MySteamBoilerController controller = this.controllers.get();
+      ControllerSnapshot before = snapshot(key);
+      LongStream.Builder next = LongStream.builder();
+      long modes = 0;
+      for (int i = 0; i != this.inputs; i = i + 1) {
+        controller.restore(before);
+        Mailbox input = input(this.masks, key, i);
+        Mailbox output = new UnboundedMailbox(16);
+        try {
+          controller.clock(input, output);
+        } catch (RuntimeException | AssertionError e) {
+          violate(NO_EXCEPTION, depth, key, i, "threw " + e);
+          continue;
+        }
+        ControllerSnapshot after = controller.getSnapshot();
+        for (Map.Entry<String, Property> p : ModelChecker.this.properties.entrySet()) {
+          String violation = p.getValue().check(before, input, output, after);
+          if (violation != null) {
+            violate(p.getKey(), depth, key, i, violation);
+          }
+        }
+        modes |= 1L << (before.getStateIndex() * 8 + after.getStateIndex());
+        long successor = key(after);
+        if (this.visited.add(successor, key, i, depth + 1)) {
+          next.add(successor);
+        }
+      }
+      this.transitions.add(this.inputs);
+      long found = modes;
+      this.modeTransitions.accumulateAndGet(found, (a, b) -> a | b);
+      return next.build();
+    }
+
+    /**
+     * Record a violation, keeping only the first found of each property. Violations are ordered
+     * by depth, then configuration and then input, so the one kept is both shortest and the same
+     * whichever threads take part.
+     *
+     * @param name
+     *          The name of the property.
+     * @param depth
+     *          The number of transitions before the violating one.
+     * @param from
+     *          The configuration in which the violation occurs.
+     * @param input
+     *          The input on which it occurs.
+     * @param description
+     *          The description of the violation.
+     */
+    void violate(String name, int depth, long from, int input, String description) {
+      Candidate c = new Candidate(depth, from, input, description);
+      this.violations.merge(name, c, (a, b) -> a.precedes(b) ? a : b);
+    }
+  }
+
+  /**
+   * A violation found during a search, before its path is recovered.
+   */
+  private static final class Candidate {
+    /**
+     * The number of transitions before the violating one.
+     */
+    final int depth;
+
+    /**
+     * The configuration in which the violation occurs.
+     */
+    final long from;
+
+    /**
+     * The input on which it occurs.
+     */
+    final int input;
+
+    /**
+     * The description of the violation.
+     */
+    final String description;
+
+    /**
+     * Construct a candidate.
+     *
+     * @param depth
+     *          The number of transitions before the violating one.
+     * @param from
+     *          The configuration in which the violation occurs.
+     * @param input
+     *          The input on which it occurs.
+     * @param description
+     *          The description of the violation.
+     */
+    Candidate(int depth, long from, int input, String description) {
+      this.depth = depth;
+      this.from = from;
+      this.input = input;
+      this.description = description;
+    }
+
+    /**
+     * Check whether this violation should be reported in preference to another.
+     *
+     * @param other
+     *          The other violation.
+     * @return true if this one comes first.
+     */
+    boolean precedes(Candidate other) {
+      if (this.depth != other.depth) {
+        return this.depth < other.depth;
+      } else if (this.from != other.from) {
+        return this.from < other.from;
+      }
+      return this.input < other.input;
+    }
+  }
+
+  /**
+   * A violation of a property, together with the inputs which lead to it.
+   */
+  public static final class Counterexample {
+    /**
+     * The name of the property violated.
+     */
+    private final String property;
+
+    /**
+     * The description of the violation.
+     */
+    private final String description;
+
+    /**
+     * The inputs leading to the violation.
+     */
+    private final List<Mailbox> trace;
+
+    /**
+     * Construct a counterexample.
+     *
+     * @param property
+     *          The name of the property violated.
+     * @param description
+     *          The description of the violation.
+     * @param trace
+     *          The inputs leading to the violation.
+     */
+    Counterexample(String property, String description, List<Mailbox> trace) {
+      this.property = property;
+      this.description = description;
+      this.trace = Collections.unmodifiableList(trace);
+    }
+
+    /**
+     * Get the name of the property violated.
+     *
+     * @return the name.
+     */
+    public String getProperty() {
+      return this.property;
+    }
+
+    /**
+     * Get the description of the violation.
+     *
+     * @return the description.
+     */
+    public String getDescription() {
+      return this.description;
+    }
+
+    /**
+     * Get the inputs which lead to the violation when given, in order, to a freshly constructed
+     * controller. The last input is the one on which the violation occurs.
+     *
+     * @return the inputs.
+     */
+    public List<Mailbox> getTrace() {
+      return this.trace;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder b = new StringBuilder(this.property + ": " + this.description);
+      for (Mailbox m : this.trace) {
+        b.append("\n  ").append(m);
+      }
+      return b.toString();
+    }
+  }
+
+  /**
+   * The outcome of a search.
+   */
+  public static final class Result {
+    /**
+     * The configurations reached.
+     */
+    private final List<ControllerSnapshot> reachable;
+
+    /**
+     * The number of transitions taken.
+     */
+    private final long transitions;
+
+    /**
+     * The largest number of transitions needed to reach any configuration.
+     */
+    private final int depth;
+
+    /**
+     * The pairs of states with a transition between them.
+     */
+    private final long modeTransitions;
+
+    /**
+     * The violations found, one for each property violated.
+     */
+    private final List<Counterexample> counterexamples;
+
+    /**
+     * The time the search took, in nanoseconds.
+     */
+    private final long time;
+
+    /**
+     * Construct a result.
+     *
+     * @param reachable
+     *          The configurations reached.
+     * @param transitions
+     *          The number of transitions taken.
+     * @param depth
+     *          The largest number of transitions needed to reach any configuration.
+     * @param modeTransitions
+     *          The pairs of states with a transition between them.
+     * @param counterexamples
+     *          The violations found.
+     * @param time
+     *          The time the search took, in nanoseconds.
+     */
+    Result(List<ControllerSnapshot> reachable, long transitions, int depth, long modeTransitions,
+        List<Counterexample> counterexamples, long time) {
+      this.reachable = Collections.unmodifiableList(reachable);
+      this.transitions = transitions;
+      this.depth = depth;
+      this.modeTransitions = modeTransitions;
+      this.counterexamples = Collections.unmodifiableList(counterexamples);
+      this.time = time;
+    }
+
+    /**
+     * Get the configurations reached, as the states a controller can be restored to.
+     *
+     * @return the configurations, in no particular order.
+     */
+    public List<ControllerSnapshot> getReachable() {
+      return this.reachable;
+    }
+
+    /**
+     * Get the number of transitions taken.
+     *
+     * @return the number of transitions.
+     */
+    public long getTransitions() {
+      return this.transitions;
+    }
+
+    /**
+     * Get the largest number of transitions needed to reach any configuration.
+     *
+     * @return the depth.
+     */
+    public int getDepth() {
+      return this.depth;
+    }
+
+    /**
+     * Check whether the controller can move directly between two modes.
+     *
+     * @param from
+     *          The mode before the transition.
+     * @param to
+     *          The mode after the transition.
+     * @return true if some transition does so.
+     */
+    public boolean hasTransition(Mode from, Mode to) {
+      int states = ControllerSnapshot.getNumberOfStates();
+      for (int f = 0; f != states; f = f + 1) {
+        for (int t = 0; t != states; t = t + 1) {
+          if (ControllerSnapshot.getMode(f) == from && ControllerSnapshot.getMode(t) == to
+              && (this.modeTransitions & (1L << (f * 8 + t))) != 0) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Get the violations found, one for each property violated.
+     *
+     * @return the counterexamples.
+     */
+    public List<Counterexample> getCounterexamples() {
+      return this.counterexamples;
+    }
+
+    /**
+     * Get the time the search took.
+     *
+     * @return the time in nanoseconds.
+     */
+    public long getTime() {
+      return this.time;
+    }
+
+    @Override
+    public String toString() {
+      return this.reachable.size() + " configurations, " + this.transitions + " transitions, depth "
+          + this.depth + ", " + this.counterexamples.size() + " violations in "
+          + this.time / 1000000 + "ms";
+    }
+  }
+}
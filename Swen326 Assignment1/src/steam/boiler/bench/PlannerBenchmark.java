@@ -0,0 +1,373 @@
+package steam.boiler.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import steam.boiler.core.HorizonPlanner;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Measures what planning several cycles ahead costs and what it saves. A fault-free boiler is run
+ * for a simulated hour with no planner and then with planners of increasing horizon, counting the
+ * pump commands sent and how far the level strays from the middle of the normal range, and timing
+ * every plan.
+ *
+ */
+public final class PlannerBenchmark {
+  /**
+   * The period (in milliseconds) at which the controller is clocked.
+   */
+  private static final int PERIOD = 5000;
+
+  /**
+   * The step (in milliseconds) by which the physical units are advanced.
+   */
+  private static final int GRANULARITY = 100;
+
+  /**
+   * The characteristics of the boiler.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * The horizons to measure.
+   */
+  private int[] horizons = { 1, 2, 4, 8, 16 };
+
+  /**
+   * The length (in seconds) of each run.
+   */
+  private int duration = 3600;
+
+  /**
+   * The time (in nanoseconds) allowed for one plan.
+   */
+  private long budget = 1000000;
+
+  /**
+   * Construct a benchmark for a boiler with given characteristics.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   */
+  public PlannerBenchmark(SteamBoilerCharacteristics config) {
+    this.config = config;
+  }
+
+  /**
+   * Set the horizons to measure.
+   *
+   * @param horizons
+   *          The horizons, each between one and <code>HorizonPlanner.MAX_HORIZON</code>.
+   */
+  public void setHorizons(int... horizons) {
+    for (int horizon : horizons) {
+      if (horizon < 1 || horizon > HorizonPlanner.MAX_HORIZON) {
+        throw new IllegalArgumentException("invalid horizon");
+      }
+    }
+    this.horizons = horizons.clone();
+  }
+
+  /**
+   * Set the length of each run.
+   *
+   * @param seconds
+   *          The length of each run, in simulated seconds.
+   */
+  public void setDuration(int seconds) {
+    if (seconds <= 0) {
+      throw new IllegalArgumentException("invalid duration");
+    }
+    this.duration = seconds;
+  }
+
+  /**
+   * Set the time allowed for one plan.
+   *
+   * @param budget
+   *          The time allowed, in nanoseconds.
+   */
+  public void setBudget(long budget) {
+    if (budget <= 0) {
+      throw new IllegalArgumentException("invalid budget");
+    }
+    this.budget = budget;
+  }
+
+  /**
+   * Run the benchmark. Unlike the other benchmarks, the runs are made one after another, since
+   * planning times would otherwise include time spent waiting for other runs.
+   *
+   * @return one row without a planner, followed by one for each horizon.
+   */
+  public List<Row> run() {
+    List<Row> rows = new ArrayList<>();
+    rows.add(run(0));
+    for (int horizon : this.horizons) {
+      rows.add(run(horizon));
+    }
+    return rows;
+  }
+
+  /**
+   * Run the boiler for the duration with a given horizon.
+   *
+   * @param horizon
+   *          The horizon, or zero for no planner.
+   * @return the measurements.
+   */
+  private Row run(int horizon) {
+    PhysicalUnits model = new PhysicalUnits.Template(this.config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    MySteamBoilerController controller = new MySteamBoilerController(this.config);
+    HorizonPlanner planner = new HorizonPlanner(this.config);
+    if (horizon > 0) {
+      planner.setHorizon(horizon);
+      planner.setBudget(this.budget, System::nanoTime);
+      controller.setPlanner(planner);
+    }
+    double target = (this.config.getMinimalNormalLevel() + this.config.getMaximalNormalLevel())
+        / 2;
+    Row row = new Row(horizon, this.config.getNumberOfPumps());
+    for (int time = 0; time < this.duration * 1000 && !row.stopped; time += GRANULARITY) {
+      model.clock(GRANULARITY);
+      if (time % PERIOD == 0) {
+        Mailbox input = new UnboundedMailbox(100);
+        Mailbox output = new UnboundedMailbox(100);
+        model.transmit(input);
+        controller.clock(input, output);
+        model.receive(output);
+        row.record(input, output, target, controller.getSnapshot().getMode() == Mode.NORMAL);
+      }
+    }
+    row.plans = planner.getPlans();
+    row.truncated = planner.getTruncated();
+    row.time = planner.getTime();
+    row.worst = planner.getWorstTime();
+    return row;
+  }
+
+  /**
+   * Run the default benchmark and print its results.
+   *
+   * @param args
+   *          Ignored.
+   */
+  public static void main(String[] args) {
+    PlannerBenchmark benchmark = new PlannerBenchmark(SteamBoilerCharacteristics.DEFAULT);
+    System.out.println(Row.HEADER);
+    for (Row row : benchmark.run()) {
+      System.out.println(row);
+    }
+  }
+
+  /**
+   * The measurements of a single run.
+   */
+  public static final class Row {
+    /**
+     * The column headings matching <code>toString()</code>.
+     */
+    public static final String HEADER = "# horizon commands toggles cycles deviation stopped "
+        + "plans truncated mean_ns worst_ns";
+
+    /**
+     * The horizon, or zero for no planner.
+     */
+    final int horizon;
+
+    /**
+     * The number of OPEN_PUMP_n and CLOSE_PUMP_n messages sent in normal mode.
+     */
+    int commands;
+
+    /**
+     * The number of OPEN_PUMP_n and CLOSE_PUMP_n messages sent in normal mode which changed a
+     * pump.
+     */
+    int toggles;
+
+    /**
+     * The last command sent to each pump.
+     */
+    final boolean[] open;
+
+    /**
+     * The number of cycles in normal mode.
+     */
+    int cycles;
+
+    /**
+     * The sum of the squared distances of the level from the middle of the normal range.
+     */
+    double squares;
+
+    /**
+     * Whether the controller stopped the boiler.
+     */
+    boolean stopped;
+
+    /**
+     * The number of plans made.
+     */
+    long plans;
+
+    /**
+     * The number of plans which ran out of time.
+     */
+    long truncated;
+
+    /**
+     * The total planning time, in nanoseconds.
+     */
+    long time;
+
+    /**
+     * The longest planning time, in nanoseconds.
+     */
+    long worst;
+
+    /**
+     * Construct an empty row.
+     *
+     * @param horizon
+     *          The horizon, or zero for no planner.
+     * @param pumps
+     *          The number of pumps.
+     */
+    Row(int horizon, int pumps) {
+      this.horizon = horizon;
+      this.open = new boolean[pumps];
+    }
+
+    /**
+     * Record a cycle.
+     *
+     * @param input
+     *          The messages received by the controller.
+     * @param output
+     *          The messages sent by the controller.
+     * @param target
+     *          The middle of the normal range.
+     * @param normal
+     *          Whether the controller was in normal mode at the end of the cycle.
+     */
+    void record(Mailbox input, Mailbox output, double target, boolean normal) {
+      for (int i = 0; i != output.size(); i = i + 1) {
+        Message m = output.read(i);
+        if (m.getKind() == MessageKind.MODE_m && m.getModeParameter() == Mode.EMERGENCY_STOP) {
+          this.stopped = true;
+        } else if (m.getKind() == MessageKind.OPEN_PUMP_n
+            || m.getKind() == MessageKind.CLOSE_PUMP_n) {
+          boolean on = m.getKind() == MessageKind.OPEN_PUMP_n;
+          int pump = m.getIntegerParameter();
+          if (normal) {
+            this.commands = this.commands + 1;
+            this.toggles = this.toggles + (on != this.open[pump] ? 1 : 0);
+          }
+          this.open[pump] = on;
+        }
+      }
+      if (normal) {
+        for (int i = 0; i != input.size(); i = i + 1) {
+          Message m = input.read(i);
+          if (m.getKind() == MessageKind.LEVEL_v) {
+            double distance = m.getDoubleParameter() - target;
+            this.squares = this.squares + distance * distance;
+          }
+        }
+        this.cycles = this.cycles + 1;
+      }
+    }
+
+    /**
+     * Get the horizon.
+     *
+     * @return the horizon, or zero for no planner.
+     */
+    public int getHorizon() {
+      return this.horizon;
+    }
+
+    /**
+     * Get the number of pump commands sent in normal mode, per hour in normal mode.
+     *
+     * @return the commands per hour.
+     */
+    public double getCommandsPerHour() {
+      return this.cycles == 0 ? 0 : this.commands * 3600000.0 / (this.cycles * (double) PERIOD);
+    }
+
+    /**
+     * Get the number of pump commands sent in normal mode which changed a pump, per hour in normal
+     * mode.
+     *
+     * @return the pump changes per hour.
+     */
+    public double getTogglesPerHour() {
+      return this.cycles == 0 ? 0 : this.toggles * 3600000.0 / (this.cycles * (double) PERIOD);
+    }
+
+    /**
+     * Get the root mean square distance of the level from the middle of the normal range, in
+     * normal mode.
+     *
+     * @return the distance, in litres.
+     */
+    public double getDeviation() {
+      return this.cycles == 0 ? 0 : Math.sqrt(this.squares / this.cycles);
+    }
+
+    /**
+     * Check whether the controller stopped the boiler.
+     *
+     * @return true if it was stopped.
+     */
+    public boolean isStopped() {
+      return this.stopped;
+    }
+
+    /**
+     * Get the number of plans which ran out of time before reaching the horizon.
+     *
+     * @return the number of truncated plans.
+     */
+    public long getTruncated() {
+      return this.truncated;
+    }
+
+    /**
+     * Get the mean time taken by a plan.
+     *
+     * @return the time, in nanoseconds, or zero if there were no plans.
+     */
+    public long getMeanTime() {
+      return this.plans == 0 ? 0 : this.time / this.plans;
+    }
+
+    /**
+     * Get the longest time taken by a plan.
+     *
+     * @return the time, in nanoseconds.
+     */
+    public long getWorstTime() {
+      return this.worst;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%d %.1f %.1f %d %.2f %b %d %d %d %d", this.horizon,
+          getCommandsPerHour(), getTogglesPerHour(), this.cycles, getDeviation(), this.stopped,
+          this.plans, this.truncated, getMeanTime(), this.worst);
+    }
+  }
+}
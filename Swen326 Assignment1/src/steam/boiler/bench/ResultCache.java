@@ -0,0 +1,668 @@
+package steam.boiler.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Remembers the outcomes of headless simulations on disk, so that a run whose characteristics,
+ * scenario and controller are unchanged need not be simulated again, even by another process.
+ * Outcomes are addressed by the SHA-256 hash of everything which decides them: the values of the
+ * characteristics, every setting and fault of the scenario, and the class files of the controller
+ * and of the simulation harness.
+ *
+ * <p>Each outcome is a small file named by its hash. It is written to a temporary file and renamed
+ * into place, so readers in any process see a whole outcome or none, and writers racing to store
+ * the same outcome store the same bytes. Reading an outcome marks it as recently used, and when
+ * the outcomes exceed their budget the least recently used are removed until they take up nine
+ * tenths of it. Removal holds a lock on a file in the cache, so that processes sharing the cache
+ * do not remove outcomes from under each other; the size this process sees is refreshed each time
+ * it removes outcomes, so writes by others are accounted for then.
+ *
+ */
+public final class ResultCache {
+  /**
+   * Identifies the format of an outcome, and of the key.
+   */
+  private static final int MAGIC = 0x53424331;
+
+  /**
+   * The suffix of outcome files.
+   */
+  private static final String SUFFIX = ".sbr";
+
+  /**
+   * The name of the file locked while removing outcomes.
+   */
+  private static final String LOCK = "lock";
+
+  /**
+   * Serialises the removal of outcomes within this process, since a file lock is held by the
+   * whole process.
+   */
+  private static final Object EVICTION = new Object();
+
+  /**
+   * The fingerprint of the controller, once computed.
+   */
+  private static byte @Nullable [] controllerBuild;
+
+  /**
+   * The directory holding the outcomes.
+   */
+  private final Path directory;
+
+  /**
+   * The largest number of bytes the outcomes may take.
+   */
+  private final long budget;
+
+  /**
+   * The fingerprint of the controller whose outcomes are cached.
+   */
+  private final byte[] build;
+
+  /**
+   * The number of bytes the outcomes take, as far as this process knows.
+   */
+  private final AtomicLong size = new AtomicLong();
+
+  /**
+   * The number of outcomes found in the cache.
+   */
+  private final AtomicLong hits = new AtomicLong();
+
+  /**
+   * The number of outcomes not found.
+   */
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Open a cache of outcomes of the controller as built.
+   *
+   * @param directory
+   *          The directory holding the outcomes, which is created if needed.
+   * @param budget
+   *          The largest number of bytes the outcomes may take.
+   * @throws IOException
+   *           if the directory could not be created or read.
+   */
+  public ResultCache(Path directory, long budget) throws IOException {
+    this(directory, budget, controllerBuild());
+  }
+
+  /**
+   * Open a cache of outcomes of a given build of the controller.
+   *
+   * @param directory
+   *          The directory holding the outcomes, which is created if needed.
+   * @param budget
+   *          The largest number of bytes the outcomes may take.
+   * @param build
+   *          A fingerprint of the controller.
+   * @throws IOException
+   *           if the directory could not be created or read.
+   */
+  public ResultCache(Path directory, long budget, byte[] build) throws IOException {
+    if (budget <= 0) {
+      throw new IllegalArgumentException("invalid budget");
+    }
+    this.directory = directory;
+    this.budget = budget;
+    this.build = build.clone();
+    Files.createDirectories(directory);
+    long total = 0;
+    for (Path p : outcomes()) {
+      total = total + sizeOf(p);
+    }
+    this.size.set(total);
+  }
+
+  /**
+   * Get the outcome of a scenario, simulating it only if it has not been already.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param scenario
+   *          The scenario.
+   * @return the outcome.
+   * @throws UncheckedIOException
+   *           if the outcome could not be stored.
+   */
+  public Outcome run(SteamBoilerCharacteristics config, HeadlessSimulation.Scenario scenario) {
+    String key = key(config, scenario);
+    Outcome outcome = get(key);
+    if (outcome == null) {
+      outcome = new Outcome(new HeadlessSimulation(config).run(scenario));
+      try {
+        put(key, outcome);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return outcome;
+  }
+
+  /**
+   * Determine the key of a scenario run on a boiler by this cache's controller.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param scenario
+   *          The scenario.
+   * @return the key, in hexadecimal.
+   */
+  public String key(SteamBoilerCharacteristics config, HeadlessSimulation.Scenario scenario) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(MAGIC);
+      out.write(this.build);
+      out.writeDouble(config.getCapacity());
+      out.writeDouble(config.getMinimalLimitLevel());
+      out.writeDouble(config.getMaximalLimitLevel());
+      out.writeDouble(config.getMinimalNormalLevel());
+      out.writeDouble(config.getMaximalNormalLevel());
+      out.writeDouble(config.getMaximualSteamRate());
+      out.writeInt(config.getNumberOfPumps());
+      for (int i = 0; i != config.getNumberOfPumps(); i = i + 1) {
+        out.writeDouble(config.getPumpCapacity(i));
+      }
+      out.writeInt(scenario.getDuration());
+      out.writeInt(scenario.getPeriod());
+      out.writeInt(scenario.getGranularity());
+      out.writeInt(scenario.getWindow());
+      out.writeInt(scenario.getFaults().size());
+      for (FaultCampaign.Fault f : scenario.getFaults()) {
+        out.writeUTF(f.getKind().name());
+        out.writeInt(f.getPump());
+        out.writeInt(f.getTime());
+        out.writeInt(f.getRepair());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return hex(sha256().digest(bytes.toByteArray()));
+  }
+
+  /**
+   * Look up an outcome, marking it as recently used.
+   *
+   * @param key
+   *          The key of the outcome.
+   * @return the outcome, or null if it is not held.
+   */
+  public @Nullable Outcome get(String key) {
+    Path file = file(key);
+    try {
+      byte[] bytes = Files.readAllBytes(file);
+      Outcome outcome = Outcome.decode(bytes);
+      if (outcome == null) {
+        Files.deleteIfExists(file);
+      } else {
+        try {
+          Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+          // Removed since it was read, which does not change the outcome read
+        }
+        this.hits.incrementAndGet();
+        return outcome;
+      }
+    } catch (NoSuchFileException e) {
+      // Not held, or removed by another process
+    } catch (IOException e) {
+      // An unreadable outcome is simply not held
+    }
+    this.misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Store an outcome, removing the least recently used outcomes if the budget is exceeded.
+   *
+   * @param key
+   *          The key of the outcome.
+   * @param outcome
+   *          The outcome.
+   * @throws IOException
+   *           if the outcome could not be stored.
+   */
+  public void put(String key, Outcome outcome) throws IOException {
+    Path file = file(key);
+    Files.createDirectories(file.getParent());
+    Path temporary = Files.createTempFile(file.getParent(), key.substring(0, 8), ".tmp");
+    try {
+      byte[] bytes = outcome.encode();
+      Files.write(temporary, bytes);
+      long replaced = sizeOf(file);
+      Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+      if (this.size.addAndGet(bytes.length - replaced) > this.budget) {
+        evict();
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Remove the least recently used outcomes until they take up nine tenths of the budget.
+   *
+   * @throws IOException
+   *           if the cache could not be read.
+   */
+  public void evict() throws IOException {
+    synchronized (EVICTION) {
+      try (FileChannel channel = FileChannel.open(this.directory.resolve(LOCK),
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+          FileLock lock = channel.lock()) {
+        List<Path> files = outcomes();
+        TreeMap<Path, long[]> seen = new TreeMap<>();
+        long total = 0;
+        for (Path p : files) {
+          try {
+            long[] info = { Files.getLastModifiedTime(p).toMillis(), Files.size(p) };
+            seen.put(p, info);
+            total = total + info[1];
+          } catch (NoSuchFileException e) {
+            // Removed meanwhile
+          }
+        }
+        List<Path> order = new ArrayList<>(seen.keySet());
+        Collections.sort(order, new Comparator<Path>() {
+          @Override
+          public int compare(Path a, Path b) {
+            return Long.compare(seen.get(a)[0], seen.get(b)[0]);
+          }
+        });
+        long target = this.budget / 10 * 9;
+        for (Path p : order) {
+          if (total <= target) {
+            break;
+          }
+          Files.deleteIfExists(p);
+          total = total - seen.get(p)[1];
+        }
+        this.size.set(total);
+      }
+    }
+  }
+
+  /**
+   * Get the number of bytes the outcomes take, as far as this process knows.
+   *
+   * @return the number of bytes.
+   */
+  public long getSize() {
+    return this.size.get();
+  }
+
+  /**
+   * Get the number of lookups which found an outcome.
+   *
+   * @return the number of hits.
+   */
+  public long getHits() {
+    return this.hits.get();
+  }
+
+  /**
+   * Get the number of lookups which did not find an outcome.
+   *
+   * @return the number of misses.
+   */
+  public long getMisses() {
+    return this.misses.get();
+  }
+
+  /**
+   * Find the file holding an outcome, in a subdirectory named by the first two digits of its key
+   * so that no directory grows too large.
+   *
+   * @param key
+   *          The key of the outcome.
+   * @return the file.
+   */
+  private Path file(String key) {
+    if (!key.matches("[0-9a-f]{64}")) {
+      throw new IllegalArgumentException("invalid key " + key);
+    }
+    return this.directory.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+  }
+
+  /**
+   * List the files holding outcomes.
+   *
+   * @return the files.
+   * @throws IOException
+   *           if the cache could not be read.
+   */
+  private List<Path> outcomes() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> shards = Files.newDirectoryStream(this.directory)) {
+      for (Path shard : shards) {
+        if (Files.isDirectory(shard)) {
+          try (DirectoryStream<Path> in = Files.newDirectoryStream(shard, "*" + SUFFIX)) {
+            for (Path p : in) {
+              files.add(p);
+            }
+          } catch (NoSuchFileException e) {
+            // Removed meanwhile
+          }
+        }
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Get the size of a file which may have been removed.
+   *
+   * @param file
+   *          The file.
+   * @return its size, or zero if it has gone.
+   * @throws IOException
+   *           if it could not be read.
+   */
+  private static long sizeOf(Path file) throws IOException {
+    try {
+      return Files.size(file);
+    } catch (NoSuchFileException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Compute a fingerprint of the controller, from the class files of its package and of the
+   * simulation harness in this package, wherever they were loaded from.
+   *
+   * @return the fingerprint.
+   * @throws IOException
+   *           if the class files could not be read.
+   */
+  public static synchronized byte[] controllerBuild() throws IOException {
+    byte[] known = controllerBuild;
+    if (known != null) {
+      return known.clone();
+    }
+    TreeMap<String, byte[]> classes = new TreeMap<>();
+    classFiles(MySteamBoilerController.class, classes);
+    classFiles(ResultCache.class, classes);
+    MessageDigest digest = sha256();
+    for (String name : classes.keySet()) {
+      digest.update(name.getBytes(StandardCharsets.UTF_8));
+      digest.update(classes.get(name));
+    }
+    known = digest.digest();
+    controllerBuild = known;
+    return known.clone();
+  }
+
+  /**
+   * Read the class files of the package holding a given class, from wherever it was loaded.
+   *
+   * @param type
+   *          A class in the package.
+   * @param classes
+   *          The class files read so far, by path, which those read are added to.
+   * @throws IOException
+   *           if the class files could not be read.
+   */
+  private static void classFiles(Class<?> type, TreeMap<String, byte[]> classes)
+      throws IOException {
+    String prefix = type.getPackage().getName().replace('.', '/') + "/";
+    URL location = type.getProtectionDomain().getCodeSource().getLocation();
+    Path root;
+    try {
+      root = Paths.get(location.toURI());
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+    if (Files.isDirectory(root)) {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(root.resolve(prefix),
+          "*.class")) {
+        for (Path p : files) {
+          classes.put(prefix + p.getFileName().toString(), Files.readAllBytes(p));
+        }
+      }
+    } else {
+      try (JarFile jar = new JarFile(root.toFile())) {
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+          JarEntry entry = entries.nextElement();
+          String name = entry.getName();
+          if (name.startsWith(prefix) && name.endsWith(".class")
+              && name.indexOf('/', prefix.length()) < 0) {
+            try (InputStream in = jar.getInputStream(entry)) {
+              classes.put(name, read(in));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Read the whole of a stream.
+   *
+   * @param in
+   *          The stream.
+   * @return its bytes.
+   * @throws IOException
+   *           if it could not be read.
+   */
+  private static byte[] read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int n;
+    while ((n = in.read(buffer)) > 0) {
+      out.write(buffer, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Get a SHA-256 digest.
+   *
+   * @return the digest.
+   */
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Write bytes in hexadecimal.
+   *
+   * @param bytes
+   *          The bytes.
+   * @return the digits.
+   */
+  private static String hex(byte[] bytes) {
+    StringBuilder b = new StringBuilder();
+    for (byte x : bytes) {
+      b.append(Character.forDigit((x >> 4) & 15, 16)).append(Character.forDigit(x & 15, 16));
+    }
+    return b.toString();
+  }
+
+  /**
+   * What is remembered of a run: whether it passed, how many cycles it ran, the final level and
+   * the modes the controller entered.
+   */
+  public static final class Outcome {
+    /**
+     * Whether the run passed.
+     */
+    private final boolean passed;
+
+    /**
+     * The number of controller cycles.
+     */
+    private final int cycles;
+
+    /**
+     * The level at the end of the run.
+     */
+    private final double finalLevel;
+
+    /**
+     * The modes entered, as given by {@link HeadlessSimulation.Summary#getModes()}.
+     */
+    private final String modes;
+
+    /**
+     * Remember a run.
+     *
+     * @param summary
+     *          The summary of the run.
+     */
+    public Outcome(HeadlessSimulation.Summary summary) {
+      this(summary.isPassed(), summary.getCycles(), summary.getFinalLevel(), summary.getModes());
+    }
+
+    /**
+     * Construct an outcome.
+     *
+     * @param passed
+     *          Whether the run passed.
+     * @param cycles
+     *          The number of controller cycles.
+     * @param finalLevel
+     *          The level at the end of the run.
+     * @param modes
+     *          The modes entered.
+     */
+    Outcome(boolean passed, int cycles, double finalLevel, String modes) {
+      this.passed = passed;
+      this.cycles = cycles;
+      this.finalLevel = finalLevel;
+      this.modes = modes;
+    }
+
+    /**
+     * Check whether the run passed.
+     *
+     * @return true if it passed.
+     */
+    public boolean isPassed() {
+      return this.passed;
+    }
+
+    /**
+     * Get the number of controller cycles.
+     *
+     * @return the number of cycles.
+     */
+    public int getCycles() {
+      return this.cycles;
+    }
+
+    /**
+     * Get the level at the end of the run.
+     *
+     * @return the level.
+     */
+    public double getFinalLevel() {
+      return this.finalLevel;
+    }
+
+    /**
+     * Get the modes the controller entered, each preceded by the cycle in which it did.
+     *
+     * @return the modes.
+     */
+    public String getModes() {
+      return this.modes;
+    }
+
+    /**
+     * Encode the outcome for storage.
+     *
+     * @return the bytes.
+     */
+    byte[] encode() {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        byte[] text = this.modes.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(MAGIC);
+        out.writeBoolean(this.passed);
+        out.writeInt(this.cycles);
+        out.writeDouble(this.finalLevel);
+        out.writeInt(text.length);
+        out.write(text);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a stored outcome.
+     *
+     * @param bytes
+     *          The bytes.
+     * @return the outcome, or null if they are not an outcome.
+     */
+    static @Nullable Outcome decode(byte[] bytes) {
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+        if (in.readInt() != MAGIC) {
+          return null;
+        }
+        boolean passed = in.readBoolean();
+        int cycles = in.readInt();
+        double level = in.readDouble();
+        int length = in.readInt();
+        if (length < 0 || length != in.available()) {
+          return null;
+        }
+        byte[] text = new byte[length];
+        in.readFully(text);
+        return new Outcome(passed, cycles, level, new String(text, StandardCharsets.UTF_8));
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return (this.passed ? "passed " : "failed ") + this.cycles + " " + this.finalLevel + " "
+          + this.modes;
+    }
+  }
+}
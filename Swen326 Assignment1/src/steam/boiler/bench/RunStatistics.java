@@ -0,0 +1,436 @@
+package steam.boiler.bench;
+
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Statistics of the water level over one or more runs, gathered a step at a time without keeping
+ * the levels themselves: their range, mean and variance, an approximation of any quantile, the
+ * time spent outside the normal band and outside the limits, and the number of times a pump was
+ * switched. The memory used is the same however long a run is, and the statistics of runs made
+ * separately, perhaps on different threads, can be merged into those of them all.
+ *
+ * <p>Quantiles come from a sketch in the manner of DDSketch: levels are counted in buckets whose
+ * bounds grow geometrically, so that any quantile is within one percent of a level actually seen.
+ * Levels whose magnitude is below a thousandth are counted as zero, and those above a million in
+ * the last bucket. Merging adds the counts of the buckets, so the sketch of merged runs is exactly
+ * that of a single run with all of their levels.
+ *
+ * <p>These statistics are not safe to update from more than one thread; give each run its own and
+ * merge them afterwards. A run is counted once its first level is recorded, so new statistics
+ * cover no runs and leave any they are merged into unchanged.
+ *
+ */
+public final class RunStatistics {
+  /**
+   * The relative accuracy of quantiles.
+   */
+  public static final double ACCURACY = 0.01;
+
+  /**
+   * The ratio between the bounds of successive buckets.
+   */
+  private static final double GAMMA = (1 + ACCURACY) / (1 - ACCURACY);
+
+  /**
+   * The logarithm of that ratio.
+   */
+  private static final double LOG_GAMMA = Math.log(GAMMA);
+
+  /**
+   * The smallest magnitude which is not counted as zero.
+   */
+  private static final double SMALLEST = 1e-3;
+
+  /**
+   * The bucket of the smallest magnitude.
+   */
+  private static final int LOWEST = key(SMALLEST);
+
+  /**
+   * The number of buckets for each sign.
+   */
+  private static final int BUCKETS = key(1e6) - LOWEST + 1;
+
+  /**
+   * The normal band and the limits, as the lower and upper bound of each.
+   */
+  private final double[] bands;
+
+  /**
+   * The number of runs.
+   */
+  private long runs;
+
+  /**
+   * Whether a level of the current run has been recorded.
+   */
+  private boolean started;
+
+  /**
+   * The number of levels.
+   */
+  private long count;
+
+  /**
+   * The lowest level.
+   */
+  private double min = Double.POSITIVE_INFINITY;
+
+  /**
+   * The highest level.
+   */
+  private double max = Double.NEGATIVE_INFINITY;
+
+  /**
+   * The mean level.
+   */
+  private double mean;
+
+  /**
+   * The sum of the squared differences of the levels from their mean.
+   */
+  private double squares;
+
+  /**
+   * The counts of positive levels, by bucket, or null if there have been none.
+   */
+  private long @Nullable [] positive;
+
+  /**
+   * The counts of negative levels, by bucket of their magnitude, or null if there have been none.
+   */
+  private long @Nullable [] negative;
+
+  /**
+   * The number of levels counted as zero.
+   */
+  private long zeros;
+
+  /**
+   * The time, in milliseconds, covered by the levels.
+   */
+  private long time;
+
+  /**
+   * The time, in milliseconds, spent outside the normal band.
+   */
+  private long outsideNormal;
+
+  /**
+   * The time, in milliseconds, spent outside the limits.
+   */
+  private long outsideLimits;
+
+  /**
+   * The number of times a pump was switched.
+   */
+  private long toggles;
+
+  /**
+   * The pumps open in the latest step of the current run, with pump i as bit i % 64 of word
+   * i / 64.
+   */
+  private long[] open = new long[0];
+
+  /**
+   * Construct empty statistics for a run of a boiler with given characteristics.
+   *
+   * @param config
+   *          The characteristics, which give the normal band and the limits.
+   */
+  public RunStatistics(SteamBoilerCharacteristics config) {
+    this.bands = new double[] { config.getMinimalNormalLevel(), config.getMaximalNormalLevel(),
+        config.getMinimalLimitLevel(), config.getMaximalLimitLevel() };
+  }
+
+  /**
+   * Find the bucket of a positive magnitude.
+   *
+   * @param magnitude
+   *          The magnitude.
+   * @return the bucket.
+   */
+  private static int key(double magnitude) {
+    return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+  }
+
+  /**
+   * Record the level over a step.
+   *
+   * @param level
+   *          The water level.
+   * @param elapsed
+   *          The length of the step, in milliseconds.
+   */
+  public void record(double level, long elapsed) {
+    if (!this.started) {
+      this.started = true;
+      this.runs = this.runs + 1;
+    }
+    this.count = this.count + 1;
+    if (level < this.min) {
+      this.min = level;
+    }
+    if (level > this.max) {
+      this.max = level;
+    }
+    double delta = level - this.mean;
+    this.mean = this.mean + delta / this.count;
+    this.squares = this.squares + delta * (level - this.mean);
+    double magnitude = Math.abs(level);
+    if (!(magnitude >= SMALLEST)) {
+      this.zeros = this.zeros + 1;
+    } else {
+      int bucket = Math.min(key(magnitude) - LOWEST, BUCKETS - 1);
+      long[] counts = level > 0 ? this.positive : this.negative;
+      if (counts == null) {
+        counts = new long[BUCKETS];
+        if (level > 0) {
+          this.positive = counts;
+        } else {
+          this.negative = counts;
+        }
+      }
+      counts[bucket] = counts[bucket] + 1;
+    }
+    this.time = this.time + elapsed;
+    if (level < this.bands[0] || level > this.bands[1]) {
+      this.outsideNormal = this.outsideNormal + elapsed;
+    }
+    if (level < this.bands[2] || level > this.bands[3]) {
+      this.outsideLimits = this.outsideLimits + elapsed;
+    }
+  }
+
+  /**
+   * Record which pumps are open, counting each pump which has been switched since the last time.
+   * Every pump is taken to be closed at the start of a run.
+   *
+   * @param pumps
+   *          The open pumps, with pump i as bit i % 64 of word i / 64. Words beyond the end stand
+   *          for closed pumps.
+   */
+  public void pumps(long[] pumps) {
+    if (pumps.length > this.open.length) {
+      this.open = Arrays.copyOf(this.open, pumps.length);
+    }
+    for (int i = 0; i != this.open.length; i = i + 1) {
+      long word = i < pumps.length ? pumps[i] : 0;
+      this.toggles = this.toggles + Long.bitCount(word ^ this.open[i]);
+      this.open[i] = word;
+    }
+  }
+
+  /**
+   * Add the statistics of other runs to these.
+   *
+   * @param other
+   *          The statistics of the other runs.
+   */
+  public void merge(RunStatistics other) {
+    long n = this.count + other.count;
+    if (n != 0) {
+      double delta = other.mean - this.mean;
+      this.mean = this.mean + delta * other.count / n;
+      this.squares = this.squares + other.squares
+          + delta * delta * ((double) this.count * other.count / n);
+    }
+    this.count = n;
+    this.runs = this.runs + other.runs;
+    this.min = Math.min(this.min, other.min);
+    this.max = Math.max(this.max, other.max);
+    this.positive = add(this.positive, other.positive);
+    this.negative = add(this.negative, other.negative);
+    this.zeros = this.zeros + other.zeros;
+    this.time = this.time + other.time;
+    this.outsideNormal = this.outsideNormal + other.outsideNormal;
+    this.outsideLimits = this.outsideLimits + other.outsideLimits;
+    this.toggles = this.toggles + other.toggles;
+  }
+
+  /**
+   * Add two sets of bucket counts.
+   *
+   * @param a
+   *          The first counts, which may be updated, or null.
+   * @param b
+   *          The second counts, or null.
+   * @return the sum, or null if both are.
+   */
+  private static long @Nullable [] add(long @Nullable [] a, long @Nullable [] b) {
+    if (b == null) {
+      return a;
+    }
+    long[] sum = a == null ? new long[BUCKETS] : a;
+    for (int i = 0; i != BUCKETS; i = i + 1) {
+      sum[i] = sum[i] + b[i];
+    }
+    return sum;
+  }
+
+  /**
+   * Get the number of runs these statistics cover.
+   *
+   * @return the number of runs.
+   */
+  public long getRuns() {
+    return this.runs;
+  }
+
+  /**
+   * Get the number of levels recorded.
+   *
+   * @return the number of levels.
+   */
+  public long getCount() {
+    return this.count;
+  }
+
+  /**
+   * Get the lowest level.
+   *
+   * @return the lowest level, or infinity if none has been recorded.
+   */
+  public double getMin() {
+    return this.min;
+  }
+
+  /**
+   * Get the highest level.
+   *
+   * @return the highest level, or minus infinity if none has been recorded.
+   */
+  public double getMax() {
+    return this.max;
+  }
+
+  /**
+   * Get the mean level.
+   *
+   * @return the mean, or zero if no level has been recorded.
+   */
+  public double getMean() {
+    return this.mean;
+  }
+
+  /**
+   * Get the variance of the levels.
+   *
+   * @return the population variance, or zero if no level has been recorded.
+   */
+  public double getVariance() {
+    return this.count == 0 ? 0 : this.squares / this.count;
+  }
+
+  /**
+   * Get an approximate quantile of the levels, within {@link #ACCURACY} of a level recorded.
+   *
+   * @param q
+   *          The quantile, between zero and one.
+   * @return the quantile, or NaN if no level has been recorded.
+   */
+  public double getQuantile(double q) {
+    if (q < 0 || q > 1) {
+      throw new IllegalArgumentException("invalid quantile " + q);
+    }
+    if (this.count == 0) {
+      return Double.NaN;
+    }
+    long rank = (long) Math.floor(q * (this.count - 1));
+    long seen = 0;
+    long[] counts = this.negative;
+    if (counts != null) {
+      for (int i = BUCKETS - 1; i >= 0; i = i - 1) {
+        seen = seen + counts[i];
+        if (seen > rank) {
+          return clamp(-value(i));
+        }
+      }
+    }
+    seen = seen + this.zeros;
+    if (seen > rank) {
+      return clamp(0);
+    }
+    counts = this.positive;
+    if (counts != null) {
+      for (int i = 0; i != BUCKETS; i = i + 1) {
+        seen = seen + counts[i];
+        if (seen > rank) {
+          return clamp(value(i));
+        }
+      }
+    }
+    return this.max;
+  }
+
+  /**
+   * Get the magnitude representing a bucket, which is within the accuracy of every magnitude in
+   * it.
+   *
+   * @param bucket
+   *          The bucket.
+   * @return the magnitude.
+   */
+  private static double value(int bucket) {
+    return 2 * Math.pow(GAMMA, bucket + LOWEST) / (GAMMA + 1);
+  }
+
+  /**
+   * Keep an estimate within the range of the levels.
+   *
+   * @param estimate
+   *          The estimate.
+   * @return the estimate, clamped.
+   */
+  private double clamp(double estimate) {
+    return Math.max(this.min, Math.min(this.max, estimate));
+  }
+
+  /**
+   * Get the time covered by the levels recorded.
+   *
+   * @return the time, in milliseconds.
+   */
+  public long getTime() {
+    return this.time;
+  }
+
+  /**
+   * Get the time spent outside the normal band.
+   *
+   * @return the time, in milliseconds.
+   */
+  public long getTimeOutsideNormal() {
+    return this.outsideNormal;
+  }
+
+  /**
+   * Get the time spent outside the limits.
+   *
+   * @return the time, in milliseconds.
+   */
+  public long getTimeOutsideLimits() {
+    return this.outsideLimits;
+  }
+
+  /**
+   * Get the number of times a pump was switched.
+   *
+   * @return the number of switches.
+   */
+  public long getToggles() {
+    return this.toggles;
+  }
+
+  @Override
+  public String toString() {
+    return "runs=" + this.runs + " count=" + this.count + " min=" + this.min + " max=" + this.max
+        + " mean=" + this.mean + " sd=" + Math.sqrt(getVariance()) + " p50=" + getQuantile(0.5)
+        + " p99=" + getQuantile(0.99) + " outside_normal_ms=" + this.outsideNormal
+        + " outside_limits_ms=" + this.outsideLimits + " toggles=" + this.toggles;
+  }
+}
@@ -0,0 +1,251 @@
+package steam.boiler.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-capacity set of states, each encoded as a non-negative long, which any number of threads
+ * can add to at once. States are kept in a single open-addressed table and claimed with a
+ * compare-and-set, so adding a new state never waits for another and the whole set costs a few
+ * words per state. Each state also records a state and input it was reached from at the depth at
+ * which it was first reached, which is how a path back to the initial state is found.
+ *
+ * <p>When a state is reached from several parents at the same depth, whichever thread gets there
+ * first, the one kept is the smallest parent and, for that parent, the smallest input. Provided
+ * each depth is finished before the next is started, as in a breadth-first search, the paths found
+ * are therefore the same however the work is spread across threads. The parent and input of a
+ * state are recorded under a lock shared by a stripe of slots, after the state has been claimed,
+ * and must only be read once every thread adding to the set has finished.
+ *
+ */
+final class StateSet {
+  /**
+   * The marker for an empty slot. Keys are stored plus one, so that zero is never a key.
+   */
+  private static final long EMPTY = 0;
+
+  /**
+   * The number of locks guarding the parents, which must be a power of two.
+   */
+  private static final int STRIPES = 64;
+
+  /**
+   * The stored keys.
+   */
+  private final AtomicLongArray keys;
+
+  /**
+   * The parent of the state in each slot, or -1 for the initial state.
+   */
+  private final long[] parents;
+
+  /**
+   * The input taking the parent of each slot to its state.
+   */
+  private final int[] inputs;
+
+  /**
+   * The depth at which the parent of each slot was recorded, plus one, or zero if none has been.
+   */
+  private final int[] depths;
+
+  /**
+   * The locks guarding the parents, inputs and depths, each shared by every slot with the same
+   * low bits.
+   */
+  private final Object[] locks = new Object[STRIPES];
+
+  /**
+   * The number of slots minus one, used to wrap around the table.
+   */
+  private final int mask;
+
+  /**
+   * The largest number of states which may be added.
+   */
+  private final int limit;
+
+  /**
+   * The number of states added.
+   */
+  private final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * Construct an empty set able to hold a given number of states.
+   *
+   * @param limit
+   *          The largest number of states which may be added.
+   */
+  StateSet(int limit) {
+    if (limit <= 0 || limit >= (1 << 29)) {
+      throw new IllegalArgumentException("invalid limit");
+    }
+    // Keep the table at most half full, so probes stay short.
+    int capacity = Integer.highestOneBit(limit) << 2;
+    this.keys = new AtomicLongArray(capacity);
+    this.parents = new long[capacity];
+    this.inputs = new int[capacity];
+    this.depths = new int[capacity];
+    for (int i = 0; i != STRIPES; i = i + 1) {
+      this.locks[i] = new Object();
+    }
+    this.mask = capacity - 1;
+    this.limit = limit;
+  }
+
+  /**
+   * Add a state, unless it is already present. If it was first added at the same depth, its parent
+   * and input are replaced when the given ones are smaller.
+   *
+   * @param key
+   *          The state.
+   * @param parent
+   *          The state it was reached from, or -1 if it is the initial state.
+   * @param input
+   *          The input it was reached by.
+   * @param depth
+   *          The number of transitions from the initial state.
+   * @return true if the state was added, or false if it was already present.
+   * @throws IllegalStateException
+   *           if the set is full.
+   */
+  boolean add(long key, long parent, int input, int depth) {
+    long stored = key + 1;
+    for (int i = slot(key), probes = 0; probes <= this.mask; i = (i + 1) & this.mask, ++probes) {
+      long current = this.keys.get(i);
+      if (current == EMPTY) {
+        if (this.keys.compareAndSet(i, EMPTY, stored)) {
+          if (this.size.incrementAndGet() > this.limit) {
+            throw new IllegalStateException("more than " + this.limit + " states");
+          }
+          record(i, parent, input, depth);
+          return true;
+        }
+        current = this.keys.get(i);
+      }
+      if (current == stored) {
+        record(i, parent, input, depth);
+        return false;
+      }
+    }
+    throw new IllegalStateException("more than " + this.limit + " states");
+  }
+
+  /**
+   * Record the parent and input of a slot, unless one recorded at an earlier depth, or a smaller
+   * one recorded at the same depth, is already there.
+   *
+   * @param i
+   *          The slot.
+   * @param parent
+   *          The state it was reached from.
+   * @param input
+   *          The input it was reached by.
+   * @param depth
+   *          The number of transitions from the initial state.
+   */
+  private void record(int i, long parent, int input, int depth) {
+    synchronized (this.locks[i & (STRIPES - 1)]) {
+      int recorded = this.depths[i];
+      if (recorded == 0 || (recorded == depth + 1 && (parent < this.parents[i]
+          || (parent == this.parents[i] && input < this.inputs[i])))) {
+        this.parents[i] = parent;
+        this.inputs[i] = input;
+        this.depths[i] = depth + 1;
+      }
+    }
+  }
+
+  /**
+   * Check whether a state is present.
+   *
+   * @param key
+   *          The state.
+   * @return true if it is present.
+   */
+  boolean contains(long key) {
+    return find(key) >= 0;
+  }
+
+  /**
+   * Get the state a given state was first reached from.
+   *
+   * @param key
+   *          The state, which must be present.
+   * @return the parent, or -1 for the initial state.
+   */
+  long getParent(long key) {
+    return this.parents[find(key)];
+  }
+
+  /**
+   * Get the input by which a given state was first reached.
+   *
+   * @param key
+   *          The state, which must be present.
+   * @return the input.
+   */
+  int getInput(long key) {
+    return this.inputs[find(key)];
+  }
+
+  /**
+   * Get every state in the set, in no particular order.
+   *
+   * @return the states.
+   */
+  long[] toArray() {
+    long[] result = new long[this.size.get()];
+    int n = 0;
+    for (int i = 0; i <= this.mask && n < result.length; i = i + 1) {
+      long stored = this.keys.get(i);
+      if (stored != EMPTY) {
+        result[n++] = stored - 1;
+      }
+    }
+    return n == result.length ? result : Arrays.copyOf(result, n);
+  }
+
+  /**
+   * Count the states in the set.
+   *
+   * @return the number of states.
+   */
+  int size() {
+    return Math.min(this.size.get(), this.limit);
+  }
+
+  /**
+   * Find the slot holding a state.
+   *
+   * @param key
+   *          The state.
+   * @return the slot, or -1 if the state is not present.
+   */
+  private int find(long key) {
+    long stored = key + 1;
+    for (int i = slot(key), probes = 0; probes <= this.mask; i = (i + 1) & this.mask, ++probes) {
+      long current = this.keys.get(i);
+      if (current == stored) {
+        return i;
+      } else if (current == EMPTY) {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Get the first slot to probe for a state. The key is mixed first, since states differ mostly in
+   * their low bits.
+   *
+   * @param key
+   *          The state.
+   * @return the slot.
+   */
+  private int slot(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & this.mask;
+  }
+}
@@ -0,0 +1,61 @@
+package steam.boiler.bench;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * Measures how quickly the telemetry store finds the range of a long trace. A trace of a boiler
+ * clocked every five seconds for a few months is written, and its level range is found once to
+ * warm up and then timed, over the whole trace and over a short part of it.
+ *
+ */
+public final class TelemetryBenchmark {
+  /**
+   * Run the benchmark and print the size of the trace and the time taken by each range scan.
+   *
+   * @param args
+   *          Optionally, the number of rows in the trace.
+   * @throws IOException
+   *           if the trace could not be written or read.
+   */
+  public static void main(String[] args) throws IOException {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+    Path dir = Files.createTempDirectory("telemetry");
+    try {
+      TelemetryStore store = new TelemetryStore(dir);
+      try (TelemetryStore.Writer writer = store.create("week", 4)) {
+        double level = 500;
+        long[] three = { 3 };
+        long[] one = { 1 };
+        for (int i = 0; i != n; i = i + 1) {
+          level = level + (i % 600 < 300 ? 0.125 : -0.125);
+          writer.append(5000L * i, level, i % 7200 < 3600 ? 10 : 15, i % 900 < 450 ? three : one,
+              Mode.NORMAL);
+        }
+      }
+      System.out.println("rows " + n + ", bytes " + Files.size(dir.resolve("week.tlm")));
+      TelemetryStore.Run run = store.open("week");
+      run.levelRange(0, Long.MAX_VALUE);
+      long start = System.nanoTime();
+      double[] whole = run.levelRange(0, Long.MAX_VALUE);
+      long elapsed = System.nanoTime() - start;
+      System.out.println("whole " + Arrays.toString(whole) + " in " + elapsed / 1000 + "us");
+      start = System.nanoTime();
+      double[] part = run.levelRange(5000L * 150, 5000L * 450);
+      elapsed = System.nanoTime() - start;
+      System.out.println("part " + Arrays.toString(part) + " in " + elapsed / 1000 + "us");
+    } finally {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+        for (Path p : files) {
+          Files.delete(p);
+        }
+      }
+      Files.delete(dir);
+    }
+  }
+}
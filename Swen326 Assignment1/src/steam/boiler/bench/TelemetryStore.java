@@ -0,0 +1,1051 @@
+package steam.boiler.bench;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * Stores full resolution traces of simulation runs: for every step, the time, the water level,
+ * the steam rate, which pumps are open and the controller's mode. Each run is a file of
+ * fixed-size segments which are memory mapped as they are written and read.
+ *
+ * <p>A segment holds chunks of up to {@link #CHUNK} rows. Within a chunk the rows are stored a
+ * column at a time and compressed in the manner of Facebook's Gorilla: times as the difference
+ * between successive intervals, which takes a single bit when the step is regular, and readings
+ * as the exclusive or with the previous reading, which takes a single bit when a reading does not
+ * change and few bits when it changes slightly. Pumps and mode take a single bit unless they
+ * change, when the pumps take a bit for each pump, so a boiler may have any number. Each chunk
+ * starts afresh, so can be decoded on its own, and its header records the range of its times,
+ * levels and steam rates, so that scans skip chunks which lie outside the times asked for and
+ * use the header of a chunk which lies entirely inside them.
+ *
+ */
+public final class TelemetryStore {
+  /**
+   * The largest number of rows in a chunk.
+   */
+  public static final int CHUNK = 1024;
+
+  /**
+   * The suffix of trace files.
+   */
+  private static final String SUFFIX = ".tlm";
+
+  /**
+   * Identifies a trace file.
+   */
+  private static final int MAGIC = 0x544c4d31;
+
+  /**
+   * The size of the header at the start of each segment.
+   */
+  private static final int FILE_HEADER = 16;
+
+  /**
+   * The size of the header of each chunk: the number of rows, the first time, the range of times,
+   * levels and steam rates, and the number of longs in each column.
+   */
+  private static final int CHUNK_HEADER = 88;
+
+  /**
+   * The number of columns.
+   */
+  private static final int COLUMNS = 5;
+
+  /**
+   * The directory holding the traces.
+   */
+  private final Path directory;
+
+  /**
+   * The size of a segment in bytes.
+   */
+  private int segment = 1 << 20;
+
+  /**
+   * Construct a store in a directory, creating it if needed.
+   *
+   * @param directory
+   *          The directory.
+   * @throws IOException
+   *           if the directory could not be created.
+   */
+  public TelemetryStore(Path directory) throws IOException {
+    this.directory = directory;
+    Files.createDirectories(directory);
+  }
+
+  /**
+   * Set the size of the segments of traces created from now on.
+   *
+   * @param bytes
+   *          The size in bytes, which must leave room for a chunk of the longest rows.
+   */
+  public void setSegmentSize(int bytes) {
+    if (bytes < smallest(0)) {
+      throw new IllegalArgumentException("segment too small");
+    }
+    this.segment = bytes;
+  }
+
+  /**
+   * Determine the smallest segment which leaves room for a chunk of the longest rows.
+   *
+   * @param pumps
+   *          The number of pumps.
+   * @return the size in bytes.
+   */
+  private static long smallest(int pumps) {
+    return FILE_HEADER + CHUNK_HEADER + 8L * (COLUMNS + (worst(pumps) + 63L) / 64);
+  }
+
+  /**
+   * Start a trace, replacing any trace with the same name.
+   *
+   * @param name
+   *          The name of the trace, made of letters, digits, dots, dashes and underscores.
+   * @param pumps
+   *          The number of pumps.
+   * @return the writer of the trace.
+   * @throws IOException
+   *           if the trace could not be created.
+   * @throws IllegalArgumentException
+   *           if the number of pumps is negative, or a row of them would not fit in a segment.
+   */
+  public Writer create(String name, int pumps) throws IOException {
+    if (pumps < 0) {
+      throw new IllegalArgumentException("invalid number of pumps");
+    }
+    if (this.segment < smallest(pumps)) {
+      throw new IllegalArgumentException("segment too small for " + pumps + " pumps");
+    }
+    return new Writer(file(name), this.segment, pumps);
+  }
+
+  /**
+   * Open a trace for reading.
+   *
+   * @param name
+   *          The name of the trace.
+   * @return the trace.
+   * @throws IOException
+   *           if there is no such trace, or it is not a trace.
+   */
+  public Run open(String name) throws IOException {
+    return new Run(name, file(name));
+  }
+
+  /**
+   * List the traces held.
+   *
+   * @return their names, in order.
+   * @throws IOException
+   *           if the directory could not be read.
+   */
+  public List<String> list() throws IOException {
+    List<String> names = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "*" + SUFFIX)) {
+      for (Path p : files) {
+        String file = p.getFileName().toString();
+        names.add(file.substring(0, file.length() - SUFFIX.length()));
+      }
+    }
+    Collections.sort(names);
+    return names;
+  }
+
+  /**
+   * Turn a name into something which can be used as the name of a trace, by replacing the
+   * characters which cannot.
+   *
+   * @param name
+   *          The name.
+   * @return the name of a trace.
+   */
+  public static String clean(String name) {
+    String clean = name.replaceAll("[^A-Za-z0-9._-]", "_");
+    return clean.isEmpty() || clean.startsWith(".") ? "_" + clean : clean;
+  }
+
+  /**
+   * Find the file holding a trace.
+   *
+   * @param name
+   *          The name of the trace.
+   * @return the file.
+   */
+  private Path file(String name) {
+    if (!clean(name).equals(name)) {
+      throw new IllegalArgumentException("invalid trace name " + name);
+    }
+    return this.directory.resolve(name + SUFFIX);
+  }
+
+  /**
+   * Determine the most bits a row can take.
+   *
+   * @param pumps
+   *          The number of pumps.
+   * @return the number of bits.
+   */
+  static long worst(int pumps) {
+    return (4 + 64) + 2 * (2 + 5 + 6 + 64) + (1L + pumps) + (1 + 3);
+  }
+
+  /**
+   * Determine the number of words holding the states of some pumps.
+   *
+   * @param pumps
+   *          The number of pumps.
+   * @return the number of words.
+   */
+  public static int words(int pumps) {
+    return (pumps + 63) >>> 6;
+  }
+
+  /**
+   * Writes a trace, a chunk at a time.
+   */
+  public static final class Writer implements Closeable {
+    /**
+     * The file being written.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The size of a segment.
+     */
+    private final int segment;
+
+    /**
+     * The number of pumps.
+     */
+    private final int pumps;
+
+    /**
+     * The columns of the chunk being built: time, level, steam, pumps and mode.
+     */
+    private final Bits[] columns = new Bits[COLUMNS];
+
+    /**
+     * The segment being written.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * The number of the segment being written.
+     */
+    private long index;
+
+    /**
+     * Where in the segment the next chunk goes.
+     */
+    private int position = FILE_HEADER;
+
+    /**
+     * The number of rows in the chunk being built.
+     */
+    private int rows;
+
+    /**
+     * The first time of the chunk.
+     */
+    private long first;
+
+    /**
+     * The previous time.
+     */
+    private long time;
+
+    /**
+     * The earliest and latest times in the chunk.
+     */
+    private final long[] times = new long[2];
+
+    /**
+     * The previous difference between times.
+     */
+    private long delta;
+
+    /**
+     * The previous level.
+     */
+    private final Xor level = new Xor();
+
+    /**
+     * The previous steam rate.
+     */
+    private final Xor steam = new Xor();
+
+    /**
+     * The previous pump states, which are all closed at the start of a chunk.
+     */
+    private final long[] open;
+
+    /**
+     * The pump states being appended, masked to the number of pumps.
+     */
+    private final long[] mask;
+
+    /**
+     * The previous mode, or -1 at the start of a chunk.
+     */
+    private int mode;
+
+    /**
+     * The range of the levels and steam rates in the chunk.
+     */
+    private final double[] range = new double[4];
+
+    /**
+     * Start a trace.
+     *
+     * @param file
+     *          The file.
+     * @param segment
+     *          The size of a segment.
+     * @param pumps
+     *          The number of pumps.
+     * @throws IOException
+     *           if the file could not be created.
+     */
+    Writer(Path file, int segment, int pumps) throws IOException {
+      this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      this.segment = segment;
+      this.pumps = pumps;
+      this.open = new long[words(pumps)];
+      this.mask = new long[words(pumps)];
+      for (int i = 0; i != COLUMNS; i = i + 1) {
+        this.columns[i] = new Bits();
+      }
+      this.buffer = map(0);
+      reset();
+    }
+
+    /**
+     * Map a segment, writing its header.
+     *
+     * @param number
+     *          The number of the segment.
+     * @return the segment.
+     * @throws IOException
+     *           if it could not be mapped.
+     */
+    private MappedByteBuffer map(long number) throws IOException {
+      MappedByteBuffer b = this.channel.map(FileChannel.MapMode.READ_WRITE,
+          number * this.segment, this.segment);
+      b.putInt(0, MAGIC);
+      b.putInt(4, this.segment);
+      b.putInt(8, this.pumps);
+      return b;
+    }
+
+    /**
+     * Add a row to the trace.
+     *
+     * @param t
+     *          The time in milliseconds.
+     * @param waterLevel
+     *          The water level.
+     * @param steamRate
+     *          The steam rate, or NaN if unknown.
+     * @param pumpStates
+     *          Which pumps are open, with pump i as bit i % 64 of word i / 64. Words beyond the
+     *          end stand for closed pumps.
+     * @param m
+     *          The controller's mode.
+     * @throws IOException
+     *           if the trace could not be written.
+     */
+    public void append(long t, double waterLevel, double steamRate, long[] pumpStates, Mode m)
+        throws IOException {
+      if (this.rows == 0) {
+        this.first = t;
+        this.time = t;
+      }
+      long d = t - this.time;
+      writeTime(this.columns[0], d - this.delta);
+      this.delta = d;
+      this.time = t;
+      this.times[0] = Math.min(this.times[0], t);
+      this.times[1] = Math.max(this.times[1], t);
+      this.level.write(this.columns[1], waterLevel);
+      this.steam.write(this.columns[2], steamRate);
+      for (int i = 0; i != this.mask.length; i = i + 1) {
+        int bits = Math.min(64, this.pumps - 64 * i);
+        long word = i < pumpStates.length ? pumpStates[i] : 0;
+        this.mask[i] = bits == 64 ? word : word & ((1L << bits) - 1);
+      }
+      if (Arrays.equals(this.mask, this.open)) {
+        this.columns[3].write(0, 1);
+      } else {
+        this.columns[3].write(1, 1);
+        for (int i = 0; i != this.mask.length; i = i + 1) {
+          this.columns[3].write(this.mask[i], Math.min(64, this.pumps - 64 * i));
+        }
+        System.arraycopy(this.mask, 0, this.open, 0, this.mask.length);
+      }
+      if (m.ordinal() == this.mode) {
+        this.columns[4].write(0, 1);
+      } else {
+        this.columns[4].write(8 | m.ordinal(), 4);
+        this.mode = m.ordinal();
+      }
+      include(0, waterLevel);
+      include(2, steamRate);
+      this.rows = this.rows + 1;
+      if (this.rows == CHUNK || size((worst(this.pumps) + 63) / 64 + COLUMNS)
+          > this.segment - FILE_HEADER) {
+        flush();
+      }
+    }
+
+    /**
+     * Widen the range of a reading in the chunk.
+     *
+     * @param i
+     *          Where the range is kept.
+     * @param value
+     *          The reading.
+     */
+    private void include(int i, double value) {
+      if (value < this.range[i]) {
+        this.range[i] = value;
+      }
+      if (value > this.range[i + 1]) {
+        this.range[i + 1] = value;
+      }
+    }
+
+    /**
+     * Determine the size of the chunk, with room for some more words.
+     *
+     * @param extra
+     *          The number of words.
+     * @return the size in bytes.
+     */
+    private long size(long extra) {
+      long longs = extra;
+      for (Bits b : this.columns) {
+        longs = longs + b.longs();
+      }
+      return CHUNK_HEADER + 8 * longs;
+    }
+
+    /**
+     * Write the chunk being built to the file.
+     *
+     * @throws IOException
+     *           if it could not be written.
+     */
+    private void flush() throws IOException {
+      if (this.rows == 0) {
+        return;
+      }
+      int bytes = (int) size(0);
+      if (this.position + bytes > this.segment) {
+        if (this.position + 4 <= this.segment) {
+          this.buffer.putInt(this.position, 0);
+        }
+        this.index = this.index + 1;
+        this.buffer = map(this.index);
+        this.position = FILE_HEADER;
+      }
+      MappedByteBuffer b = this.buffer;
+      int p = this.position;
+      b.putInt(p, this.rows);
+      b.putLong(p + 8, this.first);
+      b.putLong(p + 16, this.times[0]);
+      b.putLong(p + 24, this.times[1]);
+      for (int i = 0; i != 4; i = i + 1) {
+        b.putDouble(p + 32 + 8 * i, this.range[i]);
+      }
+      p = p + 64;
+      for (Bits column : this.columns) {
+        b.putInt(p, column.longs());
+        p = p + 4;
+      }
+      p = this.position + CHUNK_HEADER;
+      for (Bits column : this.columns) {
+        for (int i = 0; i != column.longs(); i = i + 1) {
+          b.putLong(p, column.words[i]);
+          p = p + 8;
+        }
+      }
+      this.position = p;
+      reset();
+    }
+
+    /**
+     * Start a new chunk.
+     */
+    private void reset() {
+      for (Bits b : this.columns) {
+        b.clear();
+      }
+      this.rows = 0;
+      this.delta = 0;
+      this.level.reset();
+      this.steam.reset();
+      Arrays.fill(this.open, 0);
+      this.mode = -1;
+      this.times[0] = Long.MAX_VALUE;
+      this.times[1] = Long.MIN_VALUE;
+      this.range[0] = Double.POSITIVE_INFINITY;
+      this.range[1] = Double.NEGATIVE_INFINITY;
+      this.range[2] = Double.POSITIVE_INFINITY;
+      this.range[3] = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Finish the trace, trimming the unused end of its last segment.
+     *
+     * @throws IOException
+     *           if it could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+      try {
+        flush();
+        if (this.position + 4 <= this.segment) {
+          this.buffer.putInt(this.position, 0);
+        }
+        this.buffer.force();
+        this.channel.truncate(this.index * this.segment + Math.min(this.position + 4,
+            this.segment));
+      } finally {
+        this.channel.close();
+      }
+    }
+  }
+
+  /**
+   * A trace which has been written.
+   */
+  public static final class Run {
+    /**
+     * The name of the trace.
+     */
+    private final String name;
+
+    /**
+     * The number of pumps.
+     */
+    private final int pumps;
+
+    /**
+     * The segments.
+     */
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Where each chunk starts, as its segment in the upper half and its position in the lower.
+     */
+    private final long[] chunks;
+
+    /**
+     * The number of rows.
+     */
+    private final long rows;
+
+    /**
+     * Open a trace.
+     *
+     * @param name
+     *          The name of the trace.
+     * @param file
+     *          The file holding it.
+     * @throws IOException
+     *           if it could not be read, or is not a trace.
+     */
+    Run(String name, Path file) throws IOException {
+      this.name = name;
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        long size = channel.size();
+        MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+            Math.min(size, FILE_HEADER));
+        if (size < FILE_HEADER || head.getInt(0) != MAGIC) {
+          throw new IOException(file + " is not a trace");
+        }
+        int segment = head.getInt(4);
+        this.pumps = head.getInt(8);
+        int n = (int) ((size + segment - 1) / segment);
+        this.segments = new MappedByteBuffer[n];
+        long[] starts = new long[16];
+        int count = 0;
+        long total = 0;
+        for (int s = 0; s != n; s = s + 1) {
+          long offset = (long) s * segment;
+          MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+              Math.min(segment, size - offset));
+          this.segments[s] = b;
+          int p = FILE_HEADER;
+          while (p + CHUNK_HEADER <= b.limit() && b.getInt(p) > 0) {
+            if (count == starts.length) {
+              starts = Arrays.copyOf(starts, 2 * count);
+            }
+            starts[count] = ((long) s << 32) | p;
+            count = count + 1;
+            total = total + b.getInt(p);
+            int longs = 0;
+            for (int i = 0; i != COLUMNS; i = i + 1) {
+              longs = longs + b.getInt(p + 64 + 4 * i);
+            }
+            p = p + CHUNK_HEADER + 8 * longs;
+          }
+        }
+        this.chunks = Arrays.copyOf(starts, count);
+        this.rows = total;
+      }
+    }
+
+    /**
+     * Get the name of the trace.
+     *
+     * @return the name.
+     */
+    public String getName() {
+      return this.name;
+    }
+
+    /**
+     * Get the number of rows in the trace.
+     *
+     * @return the number of rows.
+     */
+    public long getRows() {
+      return this.rows;
+    }
+
+    /**
+     * Get the number of pumps recorded.
+     *
+     * @return the number of pumps.
+     */
+    public int getPumps() {
+      return this.pumps;
+    }
+
+    /**
+     * Find the lowest and highest water level between two times, using the header of every chunk
+     * lying entirely between them and decoding only the times and levels of the others.
+     *
+     * @param from
+     *          The earliest time, inclusive.
+     * @param to
+     *          The latest time, inclusive.
+     * @return the lowest and highest level, or infinities of the wrong sign if there are none.
+     */
+    public double[] levelRange(long from, long to) {
+      return range(from, to, 1);
+    }
+
+    /**
+     * Find the lowest and highest steam rate between two times, in the same way as
+     * {@link #levelRange(long, long)}.
+     *
+     * @param from
+     *          The earliest time, inclusive.
+     * @param to
+     *          The latest time, inclusive.
+     * @return the lowest and highest steam rate, or infinities of the wrong sign if there are
+     *         none.
+     */
+    public double[] steamRange(long from, long to) {
+      return range(from, to, 2);
+    }
+
+    /**
+     * Find the range of a reading between two times.
+     *
+     * @param from
+     *          The earliest time, inclusive.
+     * @param to
+     *          The latest time, inclusive.
+     * @param column
+     *          The column of the reading.
+     * @return the lowest and highest reading.
+     */
+    private double[] range(long from, long to, int column) {
+      double[] result = { Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+      for (long chunk : this.chunks) {
+        MappedByteBuffer b = this.segments[(int) (chunk >>> 32)];
+        int p = (int) chunk;
+        long earliest = b.getLong(p + 16);
+        long latest = b.getLong(p + 24);
+        if (earliest >= from && latest <= to) {
+          result[0] = Math.min(result[0], b.getDouble(p + 16 + 16 * column));
+          result[1] = Math.max(result[1], b.getDouble(p + 24 + 16 * column));
+        } else if (Math.max(earliest, from) <= Math.min(latest, to)) {
+          Reader times = new Reader(b, p, 0);
+          Reader values = new Reader(b, p, column);
+          long t = b.getLong(p + 8);
+          long delta = 0;
+          long previous = 0;
+          int rows = b.getInt(p);
+          for (int i = 0; i != rows; i = i + 1) {
+            delta = delta + readTime(times);
+            t = t + delta;
+            previous = values.readXor(previous);
+            double v = Double.longBitsToDouble(previous);
+            if (t >= from && t <= to) {
+              if (v < result[0]) {
+                result[0] = v;
+              }
+              if (v > result[1]) {
+                result[1] = v;
+              }
+            }
+          }
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Visit every row between two times, in the order they were written.
+     *
+     * @param from
+     *          The earliest time, inclusive.
+     * @param to
+     *          The latest time, inclusive.
+     * @param visitor
+     *          What to do with each row.
+     */
+    public void scan(long from, long to, Visitor visitor) {
+      Mode[] modes = Mode.values();
+      for (long chunk : this.chunks) {
+        MappedByteBuffer b = this.segments[(int) (chunk >>> 32)];
+        int p = (int) chunk;
+        if (Math.max(b.getLong(p + 16), from) > Math.min(b.getLong(p + 24), to)) {
+          continue;
+        }
+        Reader[] readers = new Reader[COLUMNS];
+        for (int i = 0; i != COLUMNS; i = i + 1) {
+          readers[i] = new Reader(b, p, i);
+        }
+        long t = b.getLong(p + 8);
+        long delta = 0;
+        long level = 0;
+        long steam = 0;
+        long[] open = new long[words(this.pumps)];
+        int mode = 0;
+        int rows = b.getInt(p);
+        for (int i = 0; i != rows; i = i + 1) {
+          delta = delta + readTime(readers[0]);
+          t = t + delta;
+          level = readers[1].readXor(level);
+          steam = readers[2].readXor(steam);
+          if (readers[3].read(1) != 0) {
+            open = new long[open.length];
+            for (int w = 0; w != open.length; w = w + 1) {
+              open[w] = readers[3].read(Math.min(64, this.pumps - 64 * w));
+            }
+          }
+          if (readers[4].read(1) != 0) {
+            mode = (int) readers[4].read(3);
+          }
+          if (t >= from && t <= to) {
+            visitor.row(t, Double.longBitsToDouble(level), Double.longBitsToDouble(steam), open,
+                modes[mode]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Receives the rows of a trace.
+   */
+  public interface Visitor {
+    /**
+     * Receive a row.
+     *
+     * @param time
+     *          The time in milliseconds.
+     * @param level
+     *          The water level.
+     * @param steam
+     *          The steam rate.
+     * @param pumps
+     *          Which pumps are open, with pump i as bit i % 64 of word i / 64, which is shared
+     *          with the rows before and after it until the pumps change, so must not be altered.
+     * @param mode
+     *          The controller's mode.
+     */
+    void row(long time, double level, double steam, long[] pumps, Mode mode);
+  }
+
+  /**
+   * Encode the change in the interval between times.
+   *
+   * @param b
+   *          The column.
+   * @param d
+   *          The change.
+   */
+  static void writeTime(Bits b, long d) {
+    if (d == 0) {
+      b.write(0, 1);
+    } else if (d >= -63 && d <= 64) {
+      b.write(0b10, 2);
+      b.write(d + 63, 7);
+    } else if (d >= -255 && d <= 256) {
+      b.write(0b110, 3);
+      b.write(d + 255, 9);
+    } else if (d >= -2047 && d <= 2048) {
+      b.write(0b1110, 4);
+      b.write(d + 2047, 12);
+    } else {
+      b.write(0b1111, 4);
+      b.write(d, 64);
+    }
+  }
+
+  /**
+   * Decode the change in the interval between times.
+   *
+   * @param r
+   *          The column.
+   * @return the change.
+   */
+  static long readTime(Reader r) {
+    if (r.read(1) == 0) {
+      return 0;
+    } else if (r.read(1) == 0) {
+      return r.read(7) - 63;
+    } else if (r.read(1) == 0) {
+      return r.read(9) - 255;
+    } else if (r.read(1) == 0) {
+      return r.read(12) - 2047;
+    }
+    return r.read(64);
+  }
+
+  /**
+   * The state of a column of readings being compressed.
+   */
+  static final class Xor {
+    /**
+     * The bits of the previous reading.
+     */
+    private long previous;
+
+    /**
+     * The leading zeros of the previous difference which was written in full, or -1.
+     */
+    private int leading;
+
+    /**
+     * The trailing zeros of that difference.
+     */
+    private int trailing;
+
+    /**
+     * Start a new chunk.
+     */
+    void reset() {
+      this.previous = 0;
+      this.leading = -1;
+      this.trailing = 0;
+    }
+
+    /**
+     * Encode a reading.
+     *
+     * @param b
+     *          The column.
+     * @param value
+     *          The reading.
+     */
+    void write(Bits b, double value) {
+      long bits = Double.doubleToRawLongBits(value);
+      long xor = bits ^ this.previous;
+      this.previous = bits;
+      if (xor == 0) {
+        b.write(0, 1);
+        return;
+      }
+      int lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+      int trail = Long.numberOfTrailingZeros(xor);
+      if (this.leading >= 0 && lead >= this.leading && trail >= this.trailing) {
+        b.write(0b10, 2);
+        b.write(xor >>> this.trailing, 64 - this.leading - this.trailing);
+      } else {
+        int significant = 64 - lead - trail;
+        b.write(0b11, 2);
+        b.write(lead, 5);
+        b.write(significant & 63, 6);
+        b.write(xor >>> trail, significant);
+        this.leading = lead;
+        this.trailing = trail;
+      }
+    }
+  }
+
+  /**
+   * A column being built, as a sequence of bits.
+   */
+  static final class Bits {
+    /**
+     * The bits, from the most significant bit of the first word.
+     */
+    long[] words = new long[64];
+
+    /**
+     * The number of bits.
+     */
+    private int bits;
+
+    /**
+     * Append some bits.
+     *
+     * @param value
+     *          The bits, in the low end of the value.
+     * @param n
+     *          The number of bits, at most 64.
+     */
+    void write(long value, int n) {
+      if (n == 0) {
+        return;
+      }
+      long v = n == 64 ? value : value & ((1L << n) - 1);
+      int index = this.bits >>> 6;
+      if (index + 2 > this.words.length) {
+        this.words = Arrays.copyOf(this.words, 2 * this.words.length);
+      }
+      int free = 64 - (this.bits & 63);
+      if (n <= free) {
+        this.words[index] |= v << (free - n);
+      } else {
+        this.words[index] |= v >>> (n - free);
+        this.words[index + 1] |= v << (64 - (n - free));
+      }
+      this.bits = this.bits + n;
+    }
+
+    /**
+     * Get the number of words holding bits.
+     *
+     * @return the number of words.
+     */
+    int longs() {
+      return (this.bits + 63) >>> 6;
+    }
+
+    /**
+     * Remove every bit.
+     */
+    void clear() {
+      Arrays.fill(this.words, 0, longs(), 0);
+      this.bits = 0;
+    }
+  }
+
+  /**
+   * Reads a column of a chunk in a mapped segment.
+   */
+  static final class Reader {
+    /**
+     * The segment.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Where the column starts.
+     */
+    private final int base;
+
+    /**
+     * The number of bits read.
+     */
+    private int position;
+
+    /**
+     * The leading zeros of the last difference read in full.
+     */
+    private int leading;
+
+    /**
+     * The trailing zeros of that difference.
+     */
+    private int trailing;
+
+    /**
+     * Start reading a column of a chunk.
+     *
+     * @param buffer
+     *          The segment.
+     * @param chunk
+     *          Where the chunk starts.
+     * @param column
+     *          The column.
+     */
+    Reader(MappedByteBuffer buffer, int chunk, int column) {
+      this.buffer = buffer;
+      int p = chunk + CHUNK_HEADER;
+      for (int i = 0; i != column; i = i + 1) {
+        p = p + 8 * buffer.getInt(chunk + 64 + 4 * i);
+      }
+      this.base = p;
+    }
+
+    /**
+     * Read some bits.
+     *
+     * @param n
+     *          The number of bits, at most 64.
+     * @return the bits, in the low end of the value.
+     */
+    long read(int n) {
+      if (n == 0) {
+        return 0;
+      }
+      int index = this.position >>> 6;
+      int used = this.position & 63;
+      long word = this.buffer.getLong(this.base + 8 * index) << used;
+      long result = word >>> (64 - n);
+      if (n > 64 - used) {
+        int rest = n - (64 - used);
+        result = result | (this.buffer.getLong(this.base + 8 * index + 8) >>> (64 - rest));
+      }
+      this.position = this.position + n;
+      return result;
+    }
+
+    /**
+     * Decode a reading.
+     *
+     * @param previous
+     *          The bits of the previous reading.
+     * @return the bits of the reading.
+     */
+    long readXor(long previous) {
+      if (read(1) == 0) {
+        return previous;
+      }
+      if (read(1) != 0) {
+        this.leading = (int) read(5);
+        int significant = (int) read(6);
+        if (significant == 0) {
+          significant = 64;
+        }
+        this.trailing = 64 - this.leading - significant;
+      }
+      int significant = 64 - this.leading - this.trailing;
+      return previous ^ (read(significant) << this.trailing);
+    }
+  }
+}
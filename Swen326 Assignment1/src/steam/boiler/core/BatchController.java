@@ -0,0 +1,101 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Clocks many boilers in a single call. This is intended for hosts running very large numbers of
+ * small boilers, where the cost of dispatching each cycle separately dominates. The loop body only
+ * ever calls {@link MySteamBoilerController#clock(Mailbox, Mailbox)}, so the call site remains
+ * monomorphic. Furthermore, controllers for boilers with identical characteristics share the same
+ * compiled configuration and message decode table.
+ *
+ */
+public final class BatchController {
+  /**
+   * The controllers in this batch.
+   */
+  private final MySteamBoilerController[] controllers;
+
+  /**
+   * Construct a batch from a given set of controllers.
+   *
+   * @param controllers
+   *          The controllers making up the batch.
+   */
+  public BatchController(MySteamBoilerController[] controllers) {
+    this.controllers = controllers;
+  }
+
+  /**
+   * Construct a batch of controllers for identical boilers.
+   *
+   * @param configuration
+   *          The characteristics shared by every boiler.
+   * @param size
+   *          The number of boilers in the batch.
+   */
+  public BatchController(SteamBoilerCharacteristics configuration, int size) {
+    this.controllers = new MySteamBoilerController[size];
+    for (int i = 0; i != size; ++i) {
+      this.controllers[i] = new MySteamBoilerController(configuration);
+    }
+  }
+
+  /**
+   * Get the number of controllers in this batch.
+   *
+   * @return the batch size.
+   */
+  public int size() {
+    return this.controllers.length;
+  }
+
+  /**
+   * Get a given controller in this batch.
+   *
+   * @param index
+   *          The index of the controller.
+   * @return the controller.
+   */
+  public MySteamBoilerController get(int index) {
+    return this.controllers[index];
+  }
+
+  /**
+   * Clock every controller in the batch once. The mailboxes are matched to controllers by index.
+   *
+   * @param incoming
+   *          The incoming messages for each controller.
+   * @param outgoing
+   *          The mailboxes into which each controller's responses are written.
+   */
+  public void clock(Mailbox[] incoming, Mailbox[] outgoing) {
+    clock(this.controllers, incoming, outgoing, 0, this.controllers.length);
+  }
+
+  /**
+   * Clock a contiguous range of controllers once. The mailboxes are matched to controllers by
+   * index. This allows a large batch to be split across several threads.
+   *
+   * @param controllers
+   *          The controllers to clock.
+   * @param incoming
+   *          The incoming messages for each controller.
+   * @param outgoing
+   *          The mailboxes into which each controller's responses are written.
+   * @param from
+   *          The first index to clock (inclusive).
+   * @param to
+   *          The last index to clock (exclusive).
+   */
+  public static void clock(MySteamBoilerController[] controllers, Mailbox[] incoming,
+      Mailbox[] outgoing, int from, int to) {
+    if (incoming.length < to || outgoing.length < to || controllers.length < to || from < 0) {
+      throw new IllegalArgumentException("mailboxes do not match controllers");
+    }
+    for (int i = from; i < to; ++i) {
+      controllers[i].clock(incoming[i], outgoing[i]);
+    }
+  }
+}
@@ -0,0 +1,177 @@
+package steam.boiler.core;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * The boiler characteristics needed on every cycle, extracted once into plain fields. Instances
+ * are interned, so all controllers for boilers with identical characteristics share a single copy
+ * (and anything else attached to it). Only the most recently used configurations are kept, so a
+ * process which sees many different boilers holds a bounded number of them; a controller keeps
+ * its own configuration once evicted, but later controllers no longer share it.
+ *
+ */
+public final class CompiledConfiguration {
+  /**
+   * The most interned configurations kept at once.
+   */
+  private static final int CACHE_SIZE = 64;
+
+  /**
+   * The interned configurations, in order of use from least to most recent. This is only accessed
+   * while holding its lock.
+   */
+  private static final LinkedHashMap<CompiledConfiguration, CompiledConfiguration> CACHE =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * The capacity of the boiler.
+   */
+  final double capacity;
+
+  /**
+   * The minimal limit level.
+   */
+  final double minimalLimitLevel;
+
+  /**
+   * The maximal limit level.
+   */
+  final double maximalLimitLevel;
+
+  /**
+   * The minimal normal level.
+   */
+  final double minimalNormalLevel;
+
+  /**
+   * The maximal normal level.
+   */
+  final double maximalNormalLevel;
+
+  /**
+   * The maximum steam rate.
+   */
+  final double maximalSteamRate;
+
+  /**
+   * The capacity of each pump.
+   */
+  final double[] pumpCapacities;
+
+  /**
+   * The number of pumps.
+   */
+  final int numberOfPumps;
+
+  /**
+   * The tables of pump decisions for each length of cycle, built when first needed.
+   */
+  private final ConcurrentHashMap<Double, DecisionTable> decisionTables = new ConcurrentHashMap<>();
+
+  /**
+   * Extract the configuration from a given set of characteristics.
+   *
+   * @param configuration
+   *          The boiler characteristics.
+   */
+  private CompiledConfiguration(SteamBoilerCharacteristics configuration) {
+    this.capacity = configuration.getCapacity();
+    this.minimalLimitLevel = configuration.getMinimalLimitLevel();
+    this.maximalLimitLevel = configuration.getMaximalLimitLevel();
+    this.minimalNormalLevel = configuration.getMinimalNormalLevel();
+    this.maximalNormalLevel = configuration.getMaximalNormalLevel();
+    this.maximalSteamRate = configuration.getMaximualSteamRate();
+    this.numberOfPumps = configuration.getNumberOfPumps();
+    this.pumpCapacities = new double[this.numberOfPumps];
+    for (int i = 0; i != this.numberOfPumps; ++i) {
+      this.pumpCapacities[i] = configuration.getPumpCapacity(i);
+    }
+  }
+
+  /**
+   * Get the shared configuration for a given set of characteristics.
+   *
+   * @param configuration
+   *          The boiler characteristics.
+   * @return the compiled configuration, which is shared with any other characteristics having the
+   *         same values.
+   */
+  public static CompiledConfiguration of(SteamBoilerCharacteristics configuration) {
+    CompiledConfiguration compiled = new CompiledConfiguration(configuration);
+    synchronized (CACHE) {
+      @Nullable CompiledConfiguration existing = CACHE.get(compiled);
+      if (existing != null) {
+        return existing;
+      }
+      if (CACHE.size() >= CACHE_SIZE) {
+        CACHE.remove(CACHE.keySet().iterator().next());
+      }
+      CACHE.put(compiled, compiled);
+    }
+    return compiled;
+  }
+
+  /**
+   * Get the capacity of a given pump.
+   *
+   * @param pump
+   *          The pump number.
+   * @return the pump capacity.
+   */
+  public double getPumpCapacity(int pump) {
+    return this.pumpCapacities[pump];
+  }
+
+  /**
+   * Get the number of pumps.
+   *
+   * @return the number of pumps.
+   */
+  public int getNumberOfPumps() {
+    return this.numberOfPumps;
+  }
+
+  /**
+   * Get the table of pump decisions for this configuration and a given length of cycle, building
+   * it if this is the first time it is needed. Since configurations are interned, the table is
+   * built once and shared by every controller with the same characteristics and period.
+   *
+   * @param cycleTime
+   *          The length of a cycle, in seconds.
+   * @return the table.
+   */
+  public DecisionTable getDecisionTable(double cycleTime) {
+    return this.decisionTables.computeIfAbsent(cycleTime, t -> new DecisionTable(this, t));
+  }
+
+  @Override
+  public boolean equals(@Nullable Object o) {
+    if (!(o instanceof CompiledConfiguration)) {
+      return false;
+    }
+    CompiledConfiguration c = (CompiledConfiguration) o;
+    return this.capacity == c.capacity && this.minimalLimitLevel == c.minimalLimitLevel
+        && this.maximalLimitLevel == c.maximalLimitLevel
+        && this.minimalNormalLevel == c.minimalNormalLevel
+        && this.maximalNormalLevel == c.maximalNormalLevel
+        && this.maximalSteamRate == c.maximalSteamRate
+        && Arrays.equals(this.pumpCapacities, c.pumpCapacities);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = Double.hashCode(this.capacity);
+    h = h * 31 + Double.hashCode(this.minimalLimitLevel);
+    h = h * 31 + Double.hashCode(this.maximalLimitLevel);
+    h = h * 31 + Double.hashCode(this.minimalNormalLevel);
+    h = h * 31 + Double.hashCode(this.maximalNormalLevel);
+    h = h * 31 + Double.hashCode(this.maximalSteamRate);
+    return h * 31 + Arrays.hashCode(this.pumpCapacities);
+  }
+}
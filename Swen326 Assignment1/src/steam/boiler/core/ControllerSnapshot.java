@@ -0,0 +1,259 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * A consistent copy of a controller's state at the end of a cycle. This is what monitoring threads
+ * and the simulator see, rather than the controller's own fields.
+ *
+ */
+public final class ControllerSnapshot {
+  /**
+   * The mode of the controller.
+   */
+  final MySteamBoilerController.State state;
+
+  /**
+   * The cycle at the end of which this snapshot was taken.
+   */
+  final long cycle;
+
+  /**
+   * The last water level reading, or NaN if there has been none.
+   */
+  final double level;
+
+  /**
+   * The last steam reading, or NaN if there has been none.
+   */
+  final double steam;
+
+  /**
+   * Which pumps the controller believes are on.
+   */
+  final boolean[] pumps;
+
+  /**
+   * Which pumps are currently considered to have failed.
+   */
+  final boolean[] pumpFaults;
+
+  /**
+   * Which pump controllers are currently considered to have failed.
+   */
+  final boolean[] pumpControlFaults;
+
+  /**
+   * Whether the level sensor is currently considered to have failed.
+   */
+  final boolean levelFault;
+
+  /**
+   * Whether the steam sensor is currently considered to have failed.
+   */
+  final boolean steamFault;
+
+  /**
+   * Construct a snapshot. The arrays are not copied.
+   *
+   * @param state
+   *          The mode of the controller.
+   * @param cycle
+   *          The cycle number.
+   * @param level
+   *          The last water level reading.
+   * @param steam
+   *          The last steam reading.
+   * @param pumps
+   *          Which pumps are on.
+   * @param pumpFaults
+   *          Which pumps have failed.
+   * @param pumpControlFaults
+   *          Which pump controllers have failed.
+   * @param levelFault
+   *          Whether the level sensor has failed.
+   * @param steamFault
+   *          Whether the steam sensor has failed.
+   */
+  ControllerSnapshot(MySteamBoilerController.State state, long cycle, double level, double steam,
+      boolean[] pumps, boolean[] pumpFaults, boolean[] pumpControlFaults, boolean levelFault,
+      boolean steamFault) {
+    this.state = state;
+    this.cycle = cycle;
+    this.level = level;
+    this.steam = steam;
+    this.pumps = pumps;
+    this.pumpFaults = pumpFaults;
+    this.pumpControlFaults = pumpControlFaults;
+    this.levelFault = levelFault;
+    this.steamFault = steamFault;
+  }
+
+  /**
+   * Construct a snapshot of a controller in a given internal state with given pumps on, which has
+   * no readings and has detected no faults. This lets a controller be restored to any state, to
+   * explore what it does from there.
+   *
+   * @param state
+   *          The index of the internal state, as given by {@link #getStateIndex()}.
+   * @param pumps
+   *          Which pumps are on. This is not copied.
+   * @return the snapshot.
+   */
+  public static ControllerSnapshot of(int state, boolean[] pumps) {
+    return new ControllerSnapshot(MySteamBoilerController.State.values()[state], 0, Double.NaN,
+        Double.NaN, pumps, new boolean[pumps.length], new boolean[pumps.length], false, false);
+  }
+
+  /**
+   * Get the number of internal states a controller can be in.
+   *
+   * @return the number of states.
+   */
+  public static int getNumberOfStates() {
+    return MySteamBoilerController.State.values().length;
+  }
+
+  /**
+   * Get the mode reported to the physical units in a given internal state.
+   *
+   * @param state
+   *          The index of the internal state.
+   * @return the mode.
+   */
+  public static Mode getMode(int state) {
+    return MySteamBoilerController.toMode(MySteamBoilerController.State.values()[state]);
+  }
+
+  /**
+   * Get the mode of the controller, as reported to the physical units.
+   *
+   * @return the mode.
+   */
+  public Mode getMode() {
+    return MySteamBoilerController.toMode(this.state);
+  }
+
+  /**
+   * Get the name of the controller's internal state, which distinguishes waiting from ready.
+   *
+   * @return the state name.
+   */
+  public String getStateName() {
+    return this.state.name();
+  }
+
+  /**
+   * Get the index of the controller's internal state, between zero and
+   * {@link #getNumberOfStates()}.
+   *
+   * @return the state index.
+   */
+  public int getStateIndex() {
+    return this.state.ordinal();
+  }
+
+  /**
+   * Get the cycle at the end of which this snapshot was taken.
+   *
+   * @return the cycle number, which is zero before the first cycle.
+   */
+  public long getCycle() {
+    return this.cycle;
+  }
+
+  /**
+   * Get the last water level reading.
+   *
+   * @return the level, or NaN if there has been none.
+   */
+  public double getLevel() {
+    return this.level;
+  }
+
+  /**
+   * Get the last steam reading.
+   *
+   * @return the steam rate, or NaN if there has been none.
+   */
+  public double getSteam() {
+    return this.steam;
+  }
+
+  /**
+   * Get the number of pumps.
+   *
+   * @return the number of pumps.
+   */
+  public int getNumberOfPumps() {
+    return this.pumps.length;
+  }
+
+  /**
+   * Check whether the controller believes a given pump is on.
+   *
+   * @param pump
+   *          The pump number.
+   * @return true if the pump is on.
+   */
+  public boolean isPumpOn(int pump) {
+    return this.pumps[pump];
+  }
+
+  /**
+   * Check whether a given pump is considered to have failed.
+   *
+   * @param pump
+   *          The pump number.
+   * @return true if the pump has failed.
+   */
+  public boolean isPumpFaulty(int pump) {
+    return this.pumpFaults[pump];
+  }
+
+  /**
+   * Check whether a given pump controller is considered to have failed.
+   *
+   * @param pump
+   *          The pump number.
+   * @return true if the pump controller has failed.
+   */
+  public boolean isPumpControlFaulty(int pump) {
+    return this.pumpControlFaults[pump];
+  }
+
+  /**
+   * Check whether the level sensor is considered to have failed.
+   *
+   * @return true if the level sensor has failed.
+   */
+  public boolean isLevelFaulty() {
+    return this.levelFault;
+  }
+
+  /**
+   * Check whether the steam sensor is considered to have failed.
+   *
+   * @return true if the steam sensor has failed.
+   */
+  public boolean isSteamFaulty() {
+    return this.steamFault;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder r = new StringBuilder();
+    r.append(this.state).append('@').append(this.cycle).append(" level=").append(this.level)
+        .append(" steam=").append(this.steam).append(" pumps=");
+    for (int i = 0; i != this.pumps.length; ++i) {
+      r.append(this.pumpFaults[i] || this.pumpControlFaults[i] ? 'X' : this.pumps[i] ? '1' : '0');
+    }
+    if (this.levelFault) {
+      r.append(" LEVEL_FAULT");
+    }
+    if (this.steamFault) {
+      r.append(" STEAM_FAULT");
+    }
+    return r.toString();
+  }
+}
@@ -0,0 +1,166 @@
+package steam.boiler.core;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A per-cycle time budget for a controller. Once the budget is close to running out, the controller
+ * stops any remaining expensive work and falls back to a precomputed safe action. This bounds the
+ * worst-case execution time of a cycle, since a late cycle is worse than a slightly suboptimal one.
+ * The budget also records how often the fallback was needed and how often the budget was overrun
+ * regardless.
+ *
+ */
+public class CycleBudget {
+  /**
+   * The total time (in nanoseconds) allowed for one cycle.
+   */
+  private final long budget;
+
+  /**
+   * The time (in nanoseconds) kept back at the end of the budget for the safe action.
+   */
+  private final long reserve;
+
+  /**
+   * The source of time, in nanoseconds.
+   */
+  private final LongSupplier timer;
+
+  /**
+   * The time at which the current cycle started.
+   */
+  private long start;
+
+  /**
+   * The number of cycles started.
+   */
+  private long cycles;
+
+  /**
+   * The number of cycles which fell back to the safe action.
+   */
+  private long fallbacks;
+
+  /**
+   * The number of cycles which took longer than the budget.
+   */
+  private long overruns;
+
+  /**
+   * The longest cycle seen so far, in nanoseconds.
+   */
+  private long worst;
+
+  /**
+   * Construct a budget which reserves a quarter of each cycle for the safe action.
+   *
+   * @param budget
+   *          The total time (in nanoseconds) allowed for one cycle.
+   */
+  public CycleBudget(long budget) {
+    this(budget, budget / 4, System::nanoTime);
+  }
+
+  /**
+   * Construct a budget with a given reserve and source of time.
+   *
+   * @param budget
+   *          The total time (in nanoseconds) allowed for one cycle.
+   * @param reserve
+   *          The time (in nanoseconds) kept back for the safe action.
+   * @param timer
+   *          The source of time, in nanoseconds.
+   */
+  public CycleBudget(long budget, long reserve, LongSupplier timer) {
+    if (budget <= 0 || reserve < 0 || reserve >= budget) {
+      throw new IllegalArgumentException("invalid budget");
+    }
+    this.budget = budget;
+    this.reserve = reserve;
+    this.timer = timer;
+  }
+
+  /**
+   * Create a budget with the same limits and source of time as this one, but which has recorded
+   * nothing yet.
+   *
+   * @return the new budget.
+   */
+  public CycleBudget copy() {
+    return new CycleBudget(this.budget, this.reserve, this.timer);
+  }
+
+  /**
+   * Mark the start of a cycle.
+   */
+  void start() {
+    this.start = this.timer.getAsLong();
+    this.cycles = this.cycles + 1;
+  }
+
+  /**
+   * Check whether the remaining time in this cycle is within the reserve, in which case no more
+   * expensive work should be started.
+   *
+   * @return true if the cycle should fall back to the safe action.
+   */
+  boolean exhausted() {
+    return this.timer.getAsLong() - this.start >= this.budget - this.reserve;
+  }
+
+  /**
+   * Record that the current cycle fell back to the safe action.
+   */
+  void fallback() {
+    this.fallbacks = this.fallbacks + 1;
+  }
+
+  /**
+   * Mark the end of a cycle.
+   */
+  void finish() {
+    long elapsed = this.timer.getAsLong() - this.start;
+    if (elapsed > this.budget) {
+      this.overruns = this.overruns + 1;
+    }
+    if (elapsed > this.worst) {
+      this.worst = elapsed;
+    }
+  }
+
+  /**
+   * Get the number of cycles run under this budget.
+   *
+   * @return the number of cycles.
+   */
+  public long getCycles() {
+    return this.cycles;
+  }
+
+  /**
+   * Get the number of cycles which fell back to the safe action.
+   *
+   * @return the number of fallbacks.
+   */
+  public long getFallbacks() {
+    return this.fallbacks;
+  }
+
+  /**
+   * Get the number of cycles which took longer than the budget, even with the fallback.
+   *
+   * @return the number of overruns.
+   */
+  public long getOverruns() {
+    return this.overruns;
+  }
+
+  /**
+   * Get the longest cycle seen so far.
+   *
+   * @return the worst-case cycle time, in nanoseconds.
+   */
+  public long getWorstCycleTime() {
+    return this.worst;
+  }
+}
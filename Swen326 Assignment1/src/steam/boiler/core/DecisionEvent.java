@@ -0,0 +1,130 @@
+package steam.boiler.core;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+
+/**
+ * A single decision made by a controller, as published to subscribers such as an HMI, historian or
+ * alarm system. Each event wraps the message which the controller sent to the physical units.
+ *
+ */
+public final class DecisionEvent {
+  /**
+   * The kinds of decision which are published.
+   */
+  public enum Kind {
+    /**
+     * The controller changed mode.
+     */
+    MODE_CHANGE,
+    /**
+     * The controller commanded a pump to open or close.
+     */
+    PUMP_COMMAND,
+    /**
+     * The controller detected a failure of a physical unit.
+     */
+    FAILURE_DETECTION,
+    /**
+     * The controller acknowledged a repair or failure.
+     */
+    ACKNOWLEDGEMENT
+  }
+
+  /**
+   * The kind of decision.
+   */
+  private final Kind kind;
+
+  /**
+   * The cycle in which the decision was made.
+   */
+  private final long cycle;
+
+  /**
+   * The message sent to the physical units.
+   */
+  private final Message message;
+
+  /**
+   * Construct a decision event.
+   *
+   * @param kind
+   *          The kind of decision.
+   * @param cycle
+   *          The cycle in which the decision was made.
+   * @param message
+   *          The message sent to the physical units.
+   */
+  public DecisionEvent(Kind kind, long cycle, Message message) {
+    this.kind = kind;
+    this.cycle = cycle;
+    this.message = message;
+  }
+
+  /**
+   * Get the kind of decision.
+   *
+   * @return the kind.
+   */
+  public Kind getKind() {
+    return this.kind;
+  }
+
+  /**
+   * Get the cycle in which the decision was made.
+   *
+   * @return the cycle number, starting from one.
+   */
+  public long getCycle() {
+    return this.cycle;
+  }
+
+  /**
+   * Get the message sent to the physical units.
+   *
+   * @return the message.
+   */
+  public Message getMessage() {
+    return this.message;
+  }
+
+  /**
+   * Determine which kind of decision a given message represents. Mode messages are not classified
+   * here, since a mode change is determined by comparing modes between cycles.
+   *
+   * @param kind
+   *          The kind of message sent by the controller.
+   * @return the kind of decision, or null if the message is not published.
+   */
+  static @Nullable Kind classify(MessageKind kind) {
+    switch (kind) {
+      case OPEN_PUMP_n:
+      case CLOSE_PUMP_n:
+        return Kind.PUMP_COMMAND;
+      case PUMP_FAILURE_DETECTION_n:
+      case PUMP_CONTROL_FAILURE_DETECTION_n:
+      case LEVEL_FAILURE_DETECTION:
+      case STEAM_FAILURE_DETECTION:
+        return Kind.FAILURE_DETECTION;
+      case PUMP_REPAIRED_ACKNOWLEDGEMENT_n:
+      case PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n:
+      case LEVEL_REPAIRED_ACKNOWLEDGEMENT:
+      case STEAM_REPAIRED_ACKNOWLEDGEMENT:
+      case PUMP_FAILURE_ACKNOWLEDGEMENT_n:
+      case PUMP_CONTROL_FAILURE_ACKNOWLEDGEMENT_n:
+      case LEVEL_FAILURE_ACKNOWLEDGEMENT:
+      case STEAM_OUTCOME_FAILURE_ACKNOWLEDGEMENT:
+        return Kind.ACKNOWLEDGEMENT;
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return this.kind + "@" + this.cycle + ":" + this.message;
+  }
+}
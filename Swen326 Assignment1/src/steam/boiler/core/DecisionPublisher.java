@@ -0,0 +1,370 @@
+package steam.boiler.core;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Publishes the decisions made by a controller to any number of subscribers. The protocol follows
+ * that of the reactive streams <code>Flow</code> interfaces. That is, a subscriber receives a
+ * subscription through which it requests events, and is never sent more than it has requested.
+ *
+ * <p>Every subscriber has its own bounded buffer and an explicit overflow policy, and events are
+ * delivered on an executor rather than on the controller's thread. Publishing an event therefore
+ * never blocks, so a slow subscriber cannot stall the control cycle. Instead, that subscriber loses
+ * events according to its policy, and the losses are counted.
+ *
+ */
+public class DecisionPublisher {
+  /**
+   * Receives decision events.
+   */
+  public interface Subscriber {
+    /**
+     * Called once when subscribing, before any events are delivered.
+     *
+     * @param subscription
+     *          The subscription through which events are requested.
+     */
+    public void onSubscribe(Subscription subscription);
+
+    /**
+     * Called for each event, but only as many times as have been requested.
+     *
+     * @param event
+     *          The next event.
+     */
+    public void onNext(DecisionEvent event);
+
+    /**
+     * Called once the publisher is closed and every buffered event has been delivered.
+     */
+    public void onComplete();
+  }
+
+  /**
+   * The link between the publisher and a single subscriber.
+   */
+  public interface Subscription {
+    /**
+     * Request a given number of further events.
+     *
+     * @param n
+     *          The number of events, which must be positive.
+     */
+    public void request(long n);
+
+    /**
+     * Stop receiving events.
+     */
+    public void cancel();
+
+    /**
+     * Get the number of events lost because the buffer was full.
+     *
+     * @return the number of dropped events.
+     */
+    public long getDropped();
+  }
+
+  /**
+   * What to do when an event is published to a subscriber whose buffer is full.
+   */
+  public enum Overflow {
+    /**
+     * Discard the oldest buffered event to make room, which suits displays showing current state.
+     */
+    DROP_OLDEST,
+    /**
+     * Discard the new event, which suits consumers wanting an unbroken prefix of events.
+     */
+    DROP_NEWEST
+  }
+
+  /**
+   * The default executor, whose threads never prevent the JVM from exiting.
+   */
+  private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(
+      (Runnable r) -> {
+        Thread t = new Thread(r, "steam-boiler-decisions");
+        t.setDaemon(true);
+        return t;
+      });
+
+  /**
+   * The executor on which events are delivered.
+   */
+  private final Executor executor;
+
+  /**
+   * The current subscriptions.
+   */
+  private final CopyOnWriteArrayList<BufferedSubscription> subscriptions =
+      new CopyOnWriteArrayList<>();
+
+  /**
+   * Whether or not this publisher has been closed.
+   */
+  private volatile boolean closed;
+
+  /**
+   * Construct a publisher which delivers events on a shared pool of daemon threads.
+   */
+  public DecisionPublisher() {
+    this(DEFAULT_EXECUTOR);
+  }
+
+  /**
+   * Construct a publisher which delivers events on a given executor.
+   *
+   * @param executor
+   *          The executor used for delivery.
+   */
+  public DecisionPublisher(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Add a subscriber. This calls {@link Subscriber#onSubscribe(Subscription)} before returning.
+   *
+   * @param subscriber
+   *          The subscriber to add.
+   * @param capacity
+   *          The number of events which can be buffered for this subscriber.
+   * @param overflow
+   *          What to do when the buffer is full.
+   * @return the subscription.
+   */
+  public Subscription subscribe(Subscriber subscriber, int capacity, Overflow overflow) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    BufferedSubscription subscription = new BufferedSubscription(subscriber, capacity, overflow);
+    this.subscriptions.add(subscription);
+    subscriber.onSubscribe(subscription);
+    if (this.closed) {
+      subscription.signal();
+    }
+    return subscription;
+  }
+
+  /**
+   * Check whether there are any subscribers, so that events need not be created if not.
+   *
+   * @return true if there is at least one subscriber.
+   */
+  public boolean hasSubscribers() {
+    return !this.subscriptions.isEmpty();
+  }
+
+  /**
+   * Publish an event to every subscriber. This never blocks.
+   *
+   * @param event
+   *          The event to publish.
+   */
+  public void publish(DecisionEvent event) {
+    for (BufferedSubscription subscription : this.subscriptions) {
+      subscription.offer(event);
+    }
+  }
+
+  /**
+   * Close this publisher. Each subscriber is sent its remaining buffered events (subject to demand)
+   * followed by {@link Subscriber#onComplete()}.
+   */
+  public void close() {
+    this.closed = true;
+    for (BufferedSubscription subscription : this.subscriptions) {
+      subscription.signal();
+    }
+  }
+
+  /**
+   * A subscription with its own bounded ring buffer. Events are delivered by a drain task which
+   * runs on the executor, where at most one drain task is active for a subscription at any time.
+   */
+  private class BufferedSubscription implements Subscription, Runnable {
+    /**
+     * The subscriber.
+     */
+    private final Subscriber subscriber;
+
+    /**
+     * The overflow policy.
+     */
+    private final Overflow overflow;
+
+    /**
+     * The buffered events, as a ring.
+     */
+    private final @Nullable DecisionEvent[] buffer;
+
+    /**
+     * The index of the oldest buffered event.
+     */
+    private int head;
+
+    /**
+     * The number of buffered events.
+     */
+    private int count;
+
+    /**
+     * The number of events requested but not yet delivered.
+     */
+    private final AtomicLong demand = new AtomicLong();
+
+    /**
+     * The number of events dropped.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The number of signals not yet handled by the drain task.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Whether or not this subscription has been cancelled or completed.
+     */
+    private volatile boolean done;
+
+    /**
+     * Construct a subscription.
+     *
+     * @param subscriber
+     *          The subscriber.
+     * @param capacity
+     *          The size of the buffer.
+     * @param overflow
+     *          The overflow policy.
+     */
+    BufferedSubscription(Subscriber subscriber, int capacity, Overflow overflow) {
+      this.subscriber = subscriber;
+      this.overflow = overflow;
+      this.buffer = new DecisionEvent[capacity];
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        throw new IllegalArgumentException("request must be positive");
+      }
+      long current;
+      long next;
+      do {
+        current = this.demand.get();
+        next = current + n < 0 ? Long.MAX_VALUE : current + n;
+      } while (!this.demand.compareAndSet(current, next));
+      signal();
+    }
+
+    @Override
+    public void cancel() {
+      this.done = true;
+      DecisionPublisher.this.subscriptions.remove(this);
+    }
+
+    @Override
+    public long getDropped() {
+      return this.dropped.get();
+    }
+
+    /**
+     * Buffer an event for delivery, applying the overflow policy if the buffer is full.
+     *
+     * @param event
+     *          The event to buffer.
+     */
+    void offer(DecisionEvent event) {
+      synchronized (this) {
+        int capacity = this.buffer.length;
+        if (this.count == capacity) {
+          this.dropped.incrementAndGet();
+          if (this.overflow == Overflow.DROP_NEWEST) {
+            return;
+          }
+          this.head = (this.head + 1) % capacity;
+          this.count = this.count - 1;
+        }
+        this.buffer[(this.head + this.count) % capacity] = event;
+        this.count = this.count + 1;
+      }
+      if (this.demand.get() > 0) {
+        signal();
+      }
+    }
+
+    /**
+     * Remove the oldest buffered event.
+     *
+     * @return the event, or null if the buffer is empty.
+     */
+    private synchronized @Nullable DecisionEvent poll() {
+      if (this.count == 0) {
+        return null;
+      }
+      DecisionEvent event = this.buffer[this.head];
+      this.buffer[this.head] = null;
+      this.head = (this.head + 1) % this.buffer.length;
+      this.count = this.count - 1;
+      return event;
+    }
+
+    /**
+     * Ensure the drain task runs, scheduling it unless it is already running.
+     */
+    void signal() {
+      if (this.pending.getAndIncrement() == 0) {
+        DecisionPublisher.this.executor.execute(this);
+      }
+    }
+
+    /**
+     * The drain task, which delivers as many buffered events as have been requested.
+     */
+    @Override
+    public void run() {
+      int missed = 1;
+      while (true) {
+        while (!this.done && this.demand.get() > 0) {
+          DecisionEvent event = poll();
+          if (event == null) {
+            break;
+          }
+          this.demand.decrementAndGet();
+          try {
+            this.subscriber.onNext(event);
+          } catch (RuntimeException e) {
+            // A failing subscriber is removed, rather than being allowed to affect anyone else.
+            cancel();
+          }
+        }
+        if (!this.done && DecisionPublisher.this.closed && isEmpty()) {
+          this.done = true;
+          DecisionPublisher.this.subscriptions.remove(this);
+          this.subscriber.onComplete();
+        }
+        missed = this.pending.addAndGet(-missed);
+        if (missed == 0) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Check whether the buffer is empty.
+     *
+     * @return true if there are no buffered events.
+     */
+    private synchronized boolean isEmpty() {
+      return this.count == 0;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package steam.boiler.core;
+
+/**
+ * The number of pumps to open in normal mode, precomputed for every level and steam reading the
+ * physical units can sensibly send. Over a cycle of t seconds, the prediction depends on the
+ * readings only through <code>x = level - t / 2 * steam</code>, so the table is a single row of
+ * cells over the values x can take. Each cell either holds the number of pumps chosen for every x
+ * within it, or marks that a point at which the choice changes falls within it, in which case the
+ * prediction must be made in full. A lookup therefore always agrees exactly with
+ * {@link MySteamBoilerController#predictPumps(double, double, double, double, double, double)}.
+ *
+ * <p>Tables are immutable, and are shared by every controller with the same characteristics and
+ * period through {@link CompiledConfiguration#getDecisionTable(double)}.
+ *
+ */
+public final class DecisionTable {
+  /**
+   * The largest number of cells in a table, which bounds its size at 128KB.
+   */
+  public static final int MAX_CELLS = 1 << 16;
+
+  /**
+   * The number of cells across which the choice of pumps stays the same, when there is room.
+   */
+  private static final int CELLS_PER_PUMP = 4;
+
+  /**
+   * The marker for a cell in which the prediction must be made in full.
+   */
+  private static final short EXACT = -1;
+
+  /**
+   * The number of pumps to open for each cell, or <code>EXACT</code>.
+   */
+  private final short[] cells;
+
+  /**
+   * Half the length of a cycle, in seconds.
+   */
+  private final double half;
+
+  /**
+   * The value of x at the start of the first cell.
+   */
+  private final double origin;
+
+  /**
+   * The value of x at the end of the last cell.
+   */
+  private final double end;
+
+  /**
+   * The number of cells per unit of x.
+   */
+  private final double scale;
+
+  /**
+   * Build the table for a given configuration and length of cycle.
+   *
+   * @param compiled
+   *          The configuration.
+   * @param cycleTime
+   *          The length of a cycle, in seconds.
+   */
+  DecisionTable(CompiledConfiguration compiled, double cycleTime) {
+    int n = compiled.numberOfPumps;
+    double c = n == 0 ? 0 : compiled.pumpCapacities[0];
+    double w = compiled.maximalSteamRate;
+    double step = cycleTime * c;
+    this.half = cycleTime / 2;
+    double target = (compiled.minimalNormalLevel + compiled.maximalNormalLevel) / 2 + this.half * w;
+    // Every distance in the search is below its initial bound of 1000000 within this reach.
+    double reach = 500000 - step * n;
+    double low = Math.max(-this.half * w, target - reach);
+    double high = Math.min(compiled.capacity, target + reach);
+    if (!(step > 0 && high > low && n <= Short.MAX_VALUE)) {
+      this.cells = new short[0];
+      this.origin = 0;
+      this.end = 0;
+      this.scale = 0;
+      return;
+    }
+    int count = (int) Math.min(MAX_CELLS, Math.ceil((high - low) * CELLS_PER_PUMP / step));
+    count = Math.max(1, count);
+    double width = (high - low) / count;
+    // Allow for rounding, both in the prediction and in finding the cell for a reading.
+    double magnitude = Math.abs(target) + Math.abs(low) + Math.abs(high) + step * n;
+    double margin = Math.max(step * 1e-6, magnitude * 1e-10) + width * 1e-6;
+    this.cells = new short[count];
+    this.origin = low;
+    this.end = high;
+    this.scale = count / (high - low);
+    for (int k = 0; k != count; k = k + 1) {
+      double a = low + k * width - margin;
+      double b = low + (k + 1) * width + margin;
+      long nearest = Math.round((target - (a + b) / 2) / step);
+      int i = (int) Math.max(0, Math.min(n, nearest));
+      boolean above = i == n || a > target - step * (i + 0.5);
+      boolean below = i == 0 || b < target - step * (i - 0.5);
+      boolean near = a > target - reach && b < target + reach;
+      this.cells[k] = above && below && near ? (short) i : EXACT;
+    }
+  }
+
+  /**
+   * Look up the number of pumps to open for a given pair of readings.
+   *
+   * @param level
+   *          The level reading.
+   * @param steam
+   *          The steam reading.
+   * @return the number of pumps, or -1 if it must be predicted in full.
+   */
+  public int lookup(double level, double steam) {
+    double x = level - this.half * steam;
+    if (!(x >= this.origin && x < this.end)) {
+      return EXACT;
+    }
+    int k = (int) ((x - this.origin) * this.scale);
+    return k < this.cells.length ? this.cells[k] : EXACT;
+  }
+
+  /**
+   * Get the number of cells in the table.
+   *
+   * @return the number of cells.
+   */
+  public int getCells() {
+    return this.cells.length;
+  }
+
+  /**
+   * Get the approximate number of bytes taken by the table.
+   *
+   * @return the size in bytes.
+   */
+  public long getMemory() {
+    return 16 + 3 * 8 + 16 + 2L * this.cells.length;
+  }
+
+  /**
+   * Get the fraction of cells which must be predicted in full.
+   *
+   * @return the fraction, or 1 for an empty table.
+   */
+  public double getExactFraction() {
+    int exact = 0;
+    for (short cell : this.cells) {
+      if (cell == EXACT) {
+        exact = exact + 1;
+      }
+    }
+    return this.cells.length == 0 ? 1 : (double) exact / this.cells.length;
+  }
+}
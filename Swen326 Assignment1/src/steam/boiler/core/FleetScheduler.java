@@ -0,0 +1,315 @@
+package steam.boiler.core;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Schedules the clock cycles of a fleet of steam boiler controllers which share a single host. When
+ * the host can clock every boiler within a cycle this makes no difference. However, when the host
+ * falls behind, boilers are run in order of their predicted time to reach a limit level. Load
+ * shedding therefore only ever defers the boilers which have the most headroom.
+ *
+ */
+public class FleetScheduler {
+  /**
+   * A single boiler in the fleet. Each cycle the owner fills the incoming mailbox from the physical
+   * units and, if the boiler was clocked, passes the outgoing mailbox back to them.
+   */
+  public static class Boiler {
+    /**
+     * The controller for this boiler.
+     */
+    final MySteamBoilerController controller;
+
+    /**
+     * The cycle in which this boiler was last clocked, or -1 if it never has been.
+     */
+    long lastClocked = -1;
+
+    /**
+     * The number of cycles for which this boiler was deferred.
+     */
+    long deferred;
+
+    /**
+     * The priority key used for the current cycle.
+     */
+    double urgency;
+
+    /**
+     * Messages from the physical units for the current cycle.
+     */
+    Mailbox incoming = new UnboundedMailbox(100);
+
+    /**
+     * Messages to the physical units for the current cycle.
+     */
+    Mailbox outgoing = new UnboundedMailbox(100);
+
+    /**
+     * One-off messages sent in cycles for which this boiler was deferred, which are added to its
+     * incoming mailbox when it is next clocked.
+     */
+    final ArrayList<Message> carried = new ArrayList<>();
+
+    /**
+     * Construct a boiler entry for a given controller.
+     *
+     * @param controller
+     *          The controller to be scheduled.
+     */
+    Boiler(MySteamBoilerController controller) {
+      this.controller = controller;
+    }
+
+    /**
+     * Get the controller for this boiler.
+     *
+     * @return the controller.
+     */
+    public MySteamBoilerController getController() {
+      return this.controller;
+    }
+
+    /**
+     * Get the mailbox into which the messages from the physical units should be placed.
+     *
+     * @return the incoming mailbox.
+     */
+    public Mailbox getIncoming() {
+      return this.incoming;
+    }
+
+    /**
+     * Get the messages produced by the controller in the current cycle. This is empty if the boiler
+     * was deferred.
+     *
+     * @return the outgoing mailbox.
+     */
+    public Mailbox getOutgoing() {
+      return this.outgoing;
+    }
+
+    /**
+     * Get the total number of cycles for which this boiler has been deferred.
+     *
+     * @return the number of deferred cycles.
+     */
+    public long getDeferred() {
+      return this.deferred;
+    }
+  }
+
+  /**
+   * The maximum number of boilers which the host can clock in one cycle.
+   */
+  private final int capacity;
+
+  /**
+   * The boilers in the fleet, in registration order.
+   */
+  private final ArrayList<Boiler> boilers = new ArrayList<>();
+
+  /**
+   * Orders the boilers for the current cycle, such that the most urgent comes first.
+   */
+  private final PriorityQueue<Boiler> queue = new PriorityQueue<>(
+      (Boiler a, Boiler b) -> Double.compare(a.urgency, b.urgency));
+
+  /**
+   * The number of the current cycle.
+   */
+  private long cycle;
+
+  /**
+   * Construct a scheduler for a host of a given capacity.
+   *
+   * @param capacity
+   *          The maximum number of boilers which can be clocked in one cycle.
+   */
+  public FleetScheduler(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.capacity = capacity;
+  }
+
+  /**
+   * Add a controller to the fleet.
+   *
+   * @param controller
+   *          The controller to be scheduled.
+   * @return the entry through which the boiler's mailboxes are accessed.
+   */
+  public Boiler register(MySteamBoilerController controller) {
+    Boiler boiler = new Boiler(controller);
+    this.boilers.add(boiler);
+    return boiler;
+  }
+
+  /**
+   * Begin a new cycle. This provides every boiler with fresh mailboxes, which must then be filled
+   * before the cycle is run. A boiler which was deferred in the previous cycle keeps any one-off
+   * messages it was sent (e.g. PHYSICAL_UNITS_READY or PUMP_REPAIRED_n), since these would
+   * otherwise be lost. The periodic readings are simply replaced by the fresh ones. The physical
+   * units may send a one-off message again (e.g. STEAM_BOILER_WAITING, until the program is
+   * ready), so a message is kept only once, and only if the fresh mailbox does not repeat it.
+   */
+  public void beginCycle() {
+    for (int i = 0; i != this.boilers.size(); ++i) {
+      Boiler boiler = this.boilers.get(i);
+      Mailbox previous = boiler.incoming;
+      boiler.incoming = new UnboundedMailbox(100);
+      boiler.outgoing = new UnboundedMailbox(100);
+      if (boiler.lastClocked != this.cycle) {
+        for (int j = 0; j != previous.size(); ++j) {
+          Message m = previous.read(j);
+          if (!isReading(m.getKind()) && indexOf(boiler.carried, m) < 0) {
+            boiler.carried.add(m);
+          }
+        }
+      }
+    }
+    this.cycle = this.cycle + 1;
+  }
+
+  /**
+   * Run the current cycle. Boilers are clocked in order of urgency until the capacity of the host
+   * is exhausted, and the remainder are deferred until the next cycle.
+   *
+   * @return the number of boilers deferred in this cycle.
+   */
+  public int runCycle() {
+    for (int i = 0; i != this.boilers.size(); ++i) {
+      Boiler boiler = this.boilers.get(i);
+      boiler.urgency = urgency(boiler);
+      this.queue.add(boiler);
+    }
+    int clocked = 0;
+    while (!this.queue.isEmpty() && clocked < this.capacity) {
+      Boiler boiler = this.queue.poll();
+      deliverCarried(boiler);
+      boiler.controller.clock(boiler.incoming, boiler.outgoing);
+      boiler.lastClocked = this.cycle;
+      clocked = clocked + 1;
+    }
+    int deferred = this.queue.size();
+    while (!this.queue.isEmpty()) {
+      this.queue.poll().deferred++;
+    }
+    return deferred;
+  }
+
+  /**
+   * Check whether a given boiler was clocked in the current cycle.
+   *
+   * @param boiler
+   *          The boiler to check.
+   * @return true if the boiler was clocked.
+   */
+  public boolean wasClocked(Boiler boiler) {
+    return boiler.lastClocked == this.cycle;
+  }
+
+  /**
+   * Add the one-off messages carried over for a boiler to its incoming mailbox, except those which
+   * the physical units have sent again in this cycle.
+   *
+   * @param boiler
+   *          The boiler about to be clocked.
+   */
+  private static void deliverCarried(Boiler boiler) {
+    ArrayList<Message> fresh = new ArrayList<>();
+    for (int i = 0; i != boiler.incoming.size(); ++i) {
+      fresh.add(boiler.incoming.read(i));
+    }
+    for (int i = 0; i != boiler.carried.size(); ++i) {
+      Message m = boiler.carried.get(i);
+      if (indexOf(fresh, m) < 0) {
+        boiler.incoming.send(m);
+      }
+    }
+    boiler.carried.clear();
+  }
+
+  /**
+   * Find a message which reports the same event as a given one, that is a message of the same kind
+   * and, for kinds which name a pump, about the same pump.
+   *
+   * @param messages
+   *          The messages to search.
+   * @param m
+   *          The message to find.
+   * @return the index of the first such message, or -1 if there is none.
+   */
+  private static int indexOf(ArrayList<Message> messages, Message m) {
+    for (int i = 0; i != messages.size(); ++i) {
+      Message other = messages.get(i);
+      if (other.getKind() == m.getKind()
+          && (!namesPump(m.getKind()) || other.getIntegerParameter() == m.getIntegerParameter())) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Check whether a given kind of message, sent by the physical units, names a pump.
+   *
+   * @param kind
+   *          The kind of message.
+   * @return true if the message names a pump.
+   */
+  private static boolean namesPump(MessageKind kind) {
+    switch (kind) {
+      case PUMP_REPAIRED_n:
+      case PUMP_CONTROL_REPAIRED_n:
+      case PUMP_FAILURE_ACKNOWLEDGEMENT_n:
+      case PUMP_CONTROL_FAILURE_ACKNOWLEDGEMENT_n:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Check whether a given kind of message is a reading which the physical units send every cycle.
+   *
+   * @param kind
+   *          The kind of message.
+   * @return true if the message is a periodic reading.
+   */
+  private static boolean isReading(MessageKind kind) {
+    switch (kind) {
+      case LEVEL_v:
+      case STEAM_v:
+      case PUMP_STATE_n_b:
+      case PUMP_CONTROL_STATE_n_b:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Determine the urgency of a boiler, where smaller is more urgent. This is the predicted time to
+   * the nearest limit level, less the time which has already passed since the controller last saw a
+   * reading. Thus, a boiler which keeps being deferred eventually becomes urgent.
+   *
+   * @param boiler
+   *          The boiler in question.
+   * @return the predicted remaining time (in seconds) before a limit is reached.
+   */
+  private double urgency(Boiler boiler) {
+    if (boiler.lastClocked < 0) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    double stale = (this.cycle - boiler.lastClocked - 1) * boiler.controller.getPeriod() / 1000.0;
+    return boiler.controller.getTimeToLimit() - stale;
+  }
+}
@@ -0,0 +1,570 @@
+package steam.boiler.core;
+
+import java.util.HashMap;
+import java.util.function.LongSupplier;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Plans the number of pumps to open over several cycles, rather than just the next one. Looking a
+ * single cycle ahead, the controller often finds two choices of pumps almost equally good and
+ * alternates between them, toggling pumps every cycle. The planner instead weighs the distance of
+ * the predicted level from the middle of the normal range over a number of cycles against a cost
+ * for every pump switched on or off, and picks the first step of the cheapest schedule.
+ *
+ * <p>The level after each cycle is predicted with the same envelope as
+ * {@link MySteamBoilerController#predictPumps(double, double, double, double, double, double)}:
+ * each cycle costs the distance of the middle of the envelope from the middle of the normal range,
+ * and the level carries on from the top of the envelope, that is with the steam rate unchanged.
+ * Any part of the envelope outside the normal range costs a hundred times as much again. With a
+ * horizon of one cycle and no switching cost, the plan is exactly the one-cycle prediction. A plan
+ * whose first cycle could leave the normal range is not used at all, so the controller is never
+ * less careful than without a planner.
+ *
+ * <p>The costs of the remaining cycles are memoised by cycles remaining, pumps open, and level and
+ * steam rounded to a quantum, and are kept from one cycle to the next. Plans are deepened one
+ * cycle at a time until the horizon is reached or the time budget runs out, and the deepest
+ * complete plan is used. The memo is bounded, and is emptied when full.
+ *
+ */
+public final class HorizonPlanner {
+  /**
+   * The largest number of memoised costs.
+   */
+  public static final int MAX_MEMO = 1 << 16;
+
+  /**
+   * The largest horizon.
+   */
+  public static final int MAX_HORIZON = 63;
+
+  /**
+   * The largest number of quanta either side of zero which can be memoised, for level and steam.
+   */
+  private static final long MAX_QUANTA = 1 << 21;
+
+  /**
+   * The cost of each litre of the envelope outside the normal range, relative to each litre away
+   * from the middle of the range.
+   */
+  private static final double OUTSIDE = 100;
+
+  /**
+   * The time (in milliseconds) between cycles.
+   */
+  private final int period;
+
+  /**
+   * The length of a cycle, in seconds.
+   */
+  private final double cycleTime;
+
+  /**
+   * The number of pumps.
+   */
+  private final int pumps;
+
+  /**
+   * The capacity of a pump.
+   */
+  private final double capacity;
+
+  /**
+   * The maximum steam rate.
+   */
+  private final double maximalSteamRate;
+
+  /**
+   * The minimal normal level.
+   */
+  private final double minimalNormalLevel;
+
+  /**
+   * The maximal normal level.
+   */
+  private final double maximalNormalLevel;
+
+  /**
+   * The middle of the normal range.
+   */
+  private final double target;
+
+  /**
+   * The memoised costs.
+   */
+  private final HashMap<Long, Double> memo = new HashMap<>();
+
+  /**
+   * The number of cycles to plan ahead.
+   */
+  private int horizon = 6;
+
+  /**
+   * The cost of switching one pump on or off, in litres away from the middle of the normal range
+   * for one cycle.
+   */
+  private double switchCost;
+
+  /**
+   * The granularity (in litres, and in litres per second) of the memo.
+   */
+  private double quantum = 1;
+
+  /**
+   * The time (in nanoseconds) allowed for one plan.
+   */
+  private long budget = 1000000;
+
+  /**
+   * The source of time, in nanoseconds.
+   */
+  private LongSupplier timer = System::nanoTime;
+
+  /**
+   * The time by which the current plan must be complete.
+   */
+  private long deadline;
+
+  /**
+   * Whether the current plan has run out of time.
+   */
+  private boolean expired;
+
+  /**
+   * The number of plans made.
+   */
+  private long plans;
+
+  /**
+   * The number of plans which ran out of time before reaching the horizon.
+   */
+  private long truncated;
+
+  /**
+   * The horizon reached by the last plan.
+   */
+  private int depth;
+
+  /**
+   * The total time (in nanoseconds) taken by all plans.
+   */
+  private long time;
+
+  /**
+   * The longest time (in nanoseconds) taken by any plan.
+   */
+  private long worst;
+
+  /**
+   * Construct a planner for a boiler with given characteristics, which is clocked at the default
+   * period.
+   *
+   * @param configuration
+   *          The boiler characteristics.
+   */
+  public HorizonPlanner(SteamBoilerCharacteristics configuration) {
+    this(configuration, MySteamBoilerController.DEFAULT_PERIOD);
+  }
+
+  /**
+   * Construct a planner for a boiler with given characteristics, which is clocked at a given
+   * period. Switching a pump costs as much as being one pump's worth of water away from the middle
+   * of the normal range for one cycle.
+   *
+   * @param configuration
+   *          The boiler characteristics.
+   * @param period
+   *          The time (in milliseconds) between cycles.
+   */
+  public HorizonPlanner(SteamBoilerCharacteristics configuration, int period) {
+    if (period <= 0) {
+      throw new IllegalArgumentException("period must be positive");
+    }
+    this.period = period;
+    this.cycleTime = period / 1000.0;
+    this.pumps = configuration.getNumberOfPumps();
+    this.capacity = this.pumps == 0 ? 0 : configuration.getPumpCapacity(0);
+    this.maximalSteamRate = configuration.getMaximualSteamRate();
+    this.minimalNormalLevel = configuration.getMinimalNormalLevel();
+    this.maximalNormalLevel = configuration.getMaximalNormalLevel();
+    this.target = (this.minimalNormalLevel + this.maximalNormalLevel) / 2;
+    this.switchCost = this.cycleTime * this.capacity;
+  }
+
+  /**
+   * Construct a planner with the same characteristics and settings as a given one, but with an
+   * empty memo and no statistics.
+   *
+   * @param original
+   *          The planner to copy.
+   */
+  private HorizonPlanner(HorizonPlanner original) {
+    this.period = original.period;
+    this.cycleTime = original.cycleTime;
+    this.pumps = original.pumps;
+    this.capacity = original.capacity;
+    this.maximalSteamRate = original.maximalSteamRate;
+    this.minimalNormalLevel = original.minimalNormalLevel;
+    this.maximalNormalLevel = original.maximalNormalLevel;
+    this.target = original.target;
+    this.horizon = original.horizon;
+    this.switchCost = original.switchCost;
+    this.quantum = original.quantum;
+    this.budget = original.budget;
+    this.timer = original.timer;
+  }
+
+  /**
+   * Create a planner with the same characteristics and settings as this one, which shares none of
+   * its memo or statistics.
+   *
+   * @return the new planner.
+   */
+  public HorizonPlanner copy() {
+    return new HorizonPlanner(this);
+  }
+
+  /**
+   * Set the number of cycles to plan ahead.
+   *
+   * @param horizon
+   *          The number of cycles, between one and <code>MAX_HORIZON</code>.
+   */
+  public void setHorizon(int horizon) {
+    if (horizon < 1 || horizon > MAX_HORIZON) {
+      throw new IllegalArgumentException("invalid horizon");
+    }
+    this.horizon = horizon;
+    this.memo.clear();
+  }
+
+  /**
+   * Set the cost of switching one pump on or off.
+   *
+   * @param switchCost
+   *          The cost, in litres away from the middle of the normal range for one cycle.
+   */
+  public void setSwitchCost(double switchCost) {
+    if (!(switchCost >= 0)) {
+      throw new IllegalArgumentException("invalid switch cost");
+    }
+    this.switchCost = switchCost;
+    this.memo.clear();
+  }
+
+  /**
+   * Set the granularity of the memo. Levels and steam rates within the same quantum are taken to
+   * have the same cost from the second cycle onwards.
+   *
+   * @param quantum
+   *          The granularity, in litres and in litres per second.
+   */
+  public void setQuantum(double quantum) {
+    if (!(quantum > 0)) {
+      throw new IllegalArgumentException("invalid quantum");
+    }
+    this.quantum = quantum;
+    this.memo.clear();
+  }
+
+  /**
+   * Set the time allowed for one plan, and the source of time.
+   *
+   * @param budget
+   *          The time allowed, in nanoseconds.
+   * @param timer
+   *          The source of time, in nanoseconds.
+   */
+  public void setBudget(long budget, LongSupplier timer) {
+    if (budget <= 0) {
+      throw new IllegalArgumentException("invalid budget");
+    }
+    this.budget = budget;
+    this.timer = timer;
+  }
+
+  /**
+   * Get the number of pumps the boiler has.
+   *
+   * @return the number of pumps.
+   */
+  public int getNumberOfPumps() {
+    return this.pumps;
+  }
+
+  /**
+   * Get the time between cycles.
+   *
+   * @return the period, in milliseconds.
+   */
+  public int getPeriod() {
+    return this.period;
+  }
+
+  /**
+   * Get the number of plans made so far.
+   *
+   * @return the number of plans.
+   */
+  public long getPlans() {
+    return this.plans;
+  }
+
+  /**
+   * Get the number of plans which ran out of time before reaching the horizon.
+   *
+   * @return the number of truncated plans.
+   */
+  public long getTruncated() {
+    return this.truncated;
+  }
+
+  /**
+   * Get the number of cycles the last plan looked ahead.
+   *
+   * @return the depth of the last plan, which is zero if it did not complete even one cycle.
+   */
+  public int getDepth() {
+    return this.depth;
+  }
+
+  /**
+   * Get the total time taken by all plans so far.
+   *
+   * @return the time, in nanoseconds.
+   */
+  public long getTime() {
+    return this.time;
+  }
+
+  /**
+   * Get the longest time taken by any plan so far.
+   *
+   * @return the time, in nanoseconds.
+   */
+  public long getWorstTime() {
+    return this.worst;
+  }
+
+  /**
+   * Get the number of memoised costs.
+   *
+   * @return the size of the memo.
+   */
+  public int getMemoSize() {
+    return this.memo.size();
+  }
+
+  /**
+   * Plan the number of pumps to open for the next cycle.
+   *
+   * @param level
+   *          The current level.
+   * @param steam
+   *          The current steam rate.
+   * @param open
+   *          The number of pumps currently open.
+   * @return the number of pumps to open, or -1 if not even one cycle could be planned in time, if
+   *         the level could leave the normal range during the next cycle, or if the readings are
+   *         not finite.
+   */
+  public int plan(double level, double steam, int open) {
+    long start = this.timer.getAsLong();
+    this.plans = this.plans + 1;
+    this.deadline = start + this.budget;
+    this.expired = false;
+    this.depth = 0;
+    int best = -1;
+    if (Double.isNaN(level - steam) || Double.isInfinite(level - steam)) {
+      return best;
+    }
+    for (int d = 1; d <= this.horizon; d = d + 1) {
+      int choice = choose(level, steam, open, d);
+      if (choice < 0) {
+        this.truncated = this.truncated + 1;
+        break;
+      }
+      best = choice;
+      this.depth = d;
+    }
+    if (best >= 0 && outside(level, steam, best) > 0) {
+      best = -1;
+    }
+    long elapsed = this.timer.getAsLong() - start;
+    this.time = this.time + elapsed;
+    this.worst = Math.max(this.worst, elapsed);
+    return best;
+  }
+
+  /**
+   * Choose the first step of the cheapest schedule over a given number of cycles, starting from
+   * the exact level.
+   *
+   * @param level
+   *          The current level.
+   * @param steam
+   *          The current steam rate.
+   * @param open
+   *          The number of pumps currently open.
+   * @param cycles
+   *          The number of cycles to plan.
+   * @return the number of pumps, or -1 if time ran out.
+   */
+  private int choose(double level, double steam, int open, int cycles) {
+    int best = -1;
+    if (expired()) {
+      return best;
+    }
+    double lowest = Double.POSITIVE_INFINITY;
+    for (int k = 0; k <= this.pumps; k = k + 1) {
+      double cost = step(level, steam, open, k);
+      if (cycles > 1) {
+        cost = cost + cost(next(level, steam, k), steam, k, cycles - 1);
+      }
+      if (this.expired) {
+        return -1;
+      }
+      // As for the one-cycle prediction, ties go to more pumps.
+      if (cost <= lowest) {
+        lowest = cost;
+        best = k;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Find the cost of the cheapest schedule over a given number of cycles, starting from a level
+   * rounded to the quantum.
+   *
+   * @param level
+   *          The level.
+   * @param steam
+   *          The steam rate.
+   * @param open
+   *          The number of pumps open.
+   * @param cycles
+   *          The number of cycles.
+   * @return the cost, or NaN if time ran out.
+   */
+  private double cost(double level, double steam, int open, int cycles) {
+    if (expired()) {
+      return Double.NaN;
+    }
+    long l = Math.round(level / this.quantum);
+    long s = Math.round(steam / this.quantum);
+    boolean memoised = Math.abs(l) < MAX_QUANTA && Math.abs(s) < MAX_QUANTA && open < (1 << 14);
+    Long key = memoised ? key(l, s, open, cycles) : null;
+    if (key != null) {
+      Double cost = this.memo.get(key);
+      if (cost != null) {
+        return cost;
+      }
+    }
+    double rounded = l * this.quantum;
+    double roundedSteam = s * this.quantum;
+    double lowest = Double.POSITIVE_INFINITY;
+    for (int k = 0; k <= this.pumps; k = k + 1) {
+      double cost = step(rounded, roundedSteam, open, k);
+      if (cycles > 1) {
+        cost = cost + cost(next(rounded, roundedSteam, k), roundedSteam, k, cycles - 1);
+      }
+      if (this.expired) {
+        return Double.NaN;
+      }
+      lowest = Math.min(lowest, cost);
+    }
+    if (key != null) {
+      if (this.memo.size() >= MAX_MEMO) {
+        this.memo.clear();
+      }
+      this.memo.put(key, lowest);
+    }
+    return lowest;
+  }
+
+  /**
+   * Check whether the current plan has run out of time.
+   *
+   * @return true if it has.
+   */
+  private boolean expired() {
+    if (!this.expired && this.timer.getAsLong() - this.deadline > 0) {
+      this.expired = true;
+    }
+    return this.expired;
+  }
+
+  /**
+   * Find the cost of a single cycle.
+   *
+   * @param level
+   *          The level at the start of the cycle.
+   * @param steam
+   *          The steam rate.
+   * @param open
+   *          The number of pumps open before the cycle.
+   * @param pumps
+   *          The number of pumps open during the cycle.
+   * @return the cost.
+   */
+  private double step(double level, double steam, int open, int pumps) {
+    double lmax = level + this.cycleTime * this.capacity * pumps - this.cycleTime * steam;
+    double lmin = level + this.cycleTime * this.capacity * pumps
+        - this.cycleTime * this.maximalSteamRate;
+    return Math.abs((lmax + lmin) / 2 - this.target) + this.switchCost * Math.abs(pumps - open)
+        + OUTSIDE * outside(level, steam, pumps);
+  }
+
+  /**
+   * Find how far the envelope of a single cycle extends outside the normal range.
+   *
+   * @param level
+   *          The level at the start of the cycle.
+   * @param steam
+   *          The steam rate.
+   * @param pumps
+   *          The number of pumps open during the cycle.
+   * @return the total litres of the envelope above and below the normal range.
+   */
+  private double outside(double level, double steam, int pumps) {
+    double lmax = level + this.cycleTime * this.capacity * pumps - this.cycleTime * steam;
+    double lmin = level + this.cycleTime * this.capacity * pumps
+        - this.cycleTime * this.maximalSteamRate;
+    return Math.max(0, this.minimalNormalLevel - lmin)
+        + Math.max(0, lmax - this.maximalNormalLevel);
+  }
+
+  /**
+   * Predict the level after a cycle, assuming the steam rate stays the same.
+   *
+   * @param level
+   *          The level at the start of the cycle.
+   * @param steam
+   *          The steam rate.
+   * @param pumps
+   *          The number of pumps open during the cycle.
+   * @return the level at the end of the cycle.
+   */
+  private double next(double level, double steam, int pumps) {
+    return level + this.cycleTime * this.capacity * pumps - this.cycleTime * steam;
+  }
+
+  /**
+   * Pack a memo key.
+   *
+   * @param level
+   *          The level, in quanta.
+   * @param steam
+   *          The steam rate, in quanta.
+   * @param open
+   *          The number of pumps open.
+   * @param cycles
+   *          The number of cycles remaining.
+   * @return the key.
+   */
+  private static Long key(long level, long steam, int open, int cycles) {
+    long key = (level + MAX_QUANTA) << 42 | (steam + MAX_QUANTA) << 20 | (long) open << 6 | cycles;
+    return Long.valueOf(key);
+  }
+}
@@ -0,0 +1,257 @@
+package steam.boiler.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * A primary controller paired with a hot standby. At the end of every cycle, the primary ships a
+ * compact delta of its state to the standby over a link. The standby applies the delta, so it
+ * always holds the primary's state as of the last cycle. Should the primary fail, the standby
+ * takes over from the very next cycle and produces exactly the outputs the primary would have,
+ * rather than initialising the boiler all over again.
+ *
+ * <p>The link is an in-memory queue of packets, which stands in for a network. A packet holds the
+ * cycle number and whichever of the mode, pump positions and faults changed in that cycle.
+ *
+ * <p>In verifying mode, the standby is also clocked on each cycle's inputs before the delta is
+ * applied, and its outputs are compared with the primary's. Any difference means the two replicas
+ * are not deterministic, and is counted as a divergence.
+ *
+ */
+public final class HotStandby implements SteamBoilerController {
+  /**
+   * The primary controller.
+   */
+  private final MySteamBoilerController primary;
+
+  /**
+   * The standby controller.
+   */
+  private final MySteamBoilerController standby;
+
+  /**
+   * The link between the primary and the standby.
+   */
+  private final BlockingQueue<byte[]> link;
+
+  /**
+   * Encodes the primary's state.
+   */
+  private final StateCodec sender;
+
+  /**
+   * Decodes the primary's state at the standby.
+   */
+  private final StateCodec receiver;
+
+  /**
+   * Deltas are encoded here before being shipped.
+   */
+  private final ByteBuffer scratch;
+
+  /**
+   * Whether or not the primary has failed.
+   */
+  private boolean failed;
+
+  /**
+   * Whether or not the standby is also clocked to check determinism.
+   */
+  private boolean verifying;
+
+  /**
+   * The number of cycles replicated.
+   */
+  private long cycles;
+
+  /**
+   * The total number of bytes shipped.
+   */
+  private long bytes;
+
+  /**
+   * The total time spent replicating.
+   */
+  private long nanos;
+
+  /**
+   * The longest time spent replicating a single cycle.
+   */
+  private long worstNanos;
+
+  /**
+   * The number of cycles in which the standby's outputs differed from the primary's.
+   */
+  private long divergences;
+
+  /**
+   * Construct a pair from a primary controller and its standby.
+   *
+   * @param primary
+   *          The primary controller.
+   * @param standby
+   *          The standby controller, which must have the same characteristics.
+   */
+  public HotStandby(MySteamBoilerController primary, MySteamBoilerController standby) {
+    if (primary.pumpsOn.length != standby.pumpsOn.length) {
+      throw new IllegalArgumentException("controllers have different numbers of pumps");
+    }
+    this.primary = primary;
+    this.standby = standby;
+    this.link = new ArrayBlockingQueue<>(16);
+    this.sender = new StateCodec(primary.pumpsOn.length);
+    this.receiver = new StateCodec(primary.pumpsOn.length);
+    this.scratch = ByteBuffer.allocate(this.sender.length(StateCodec.ALL));
+  }
+
+  /**
+   * Enable or disable checking that the standby produces the same outputs as the primary.
+   *
+   * @param verifying
+   *          True to clock the standby on every cycle's inputs as well.
+   */
+  public void setVerifying(boolean verifying) {
+    this.verifying = verifying;
+  }
+
+  /**
+   * Fail the primary, so that the standby handles every subsequent cycle.
+   */
+  public void failover() {
+    this.failed = true;
+  }
+
+  /**
+   * Get the controller currently handling each cycle.
+   *
+   * @return the primary, or the standby after a failover.
+   */
+  public MySteamBoilerController getActive() {
+    return this.failed ? this.standby : this.primary;
+  }
+
+  @Override
+  public String getStatusMessage() {
+    return getActive().getStatusMessage();
+  }
+
+  @Override
+  public void clock(Mailbox incoming, Mailbox outgoing) {
+    if (this.failed) {
+      this.standby.clock(incoming, outgoing);
+      return;
+    }
+    int sent = outgoing.size();
+    this.primary.clock(incoming, outgoing);
+    if (this.verifying) {
+      verify(incoming, outgoing, sent);
+    }
+    long start = System.nanoTime();
+    ship();
+    receive();
+    long elapsed = System.nanoTime() - start;
+    this.cycles = this.cycles + 1;
+    this.nanos = this.nanos + elapsed;
+    this.worstNanos = Math.max(this.worstNanos, elapsed);
+  }
+
+  /**
+   * Encode the primary's state and send it over the link.
+   */
+  private void ship() {
+    ByteBuffer b = this.scratch;
+    b.clear();
+    int n = this.primary.encodeState(this.sender, b);
+    this.link.add(Arrays.copyOf(b.array(), n));
+    this.bytes = this.bytes + n;
+  }
+
+  /**
+   * Apply every delta waiting on the link to the standby.
+   */
+  private void receive() {
+    byte[] packet = this.link.poll();
+    while (packet != null) {
+      if (this.receiver.decode(ByteBuffer.wrap(packet))) {
+        ControllerSnapshot state = this.receiver.toSnapshot();
+        if (state != null) {
+          this.standby.restore(state);
+        }
+      }
+      packet = this.link.poll();
+    }
+  }
+
+  /**
+   * Clock the standby on the same inputs as the primary, and compare their outputs.
+   *
+   * @param incoming
+   *          The inputs of this cycle.
+   * @param outgoing
+   *          The outputs of the primary.
+   * @param from
+   *          The index of the first output of this cycle.
+   */
+  private void verify(Mailbox incoming, Mailbox outgoing, int from) {
+    Mailbox shadow = new UnboundedMailbox(outgoing.size());
+    this.standby.clock(incoming, shadow);
+    boolean same = shadow.size() == outgoing.size() - from;
+    for (int i = 0; same && i != shadow.size(); i = i + 1) {
+      same = shadow.read(i).toString().equals(outgoing.read(from + i).toString());
+    }
+    if (!same) {
+      this.divergences = this.divergences + 1;
+    }
+  }
+
+  /**
+   * Get the number of cycles replicated.
+   *
+   * @return the number of cycles.
+   */
+  public long getCycles() {
+    return this.cycles;
+  }
+
+  /**
+   * Get the total number of bytes shipped to the standby.
+   *
+   * @return the number of bytes.
+   */
+  public long getBytes() {
+    return this.bytes;
+  }
+
+  /**
+   * Get the average time taken to replicate a cycle.
+   *
+   * @return the average in nanoseconds.
+   */
+  public double getMeanReplicationTime() {
+    return this.cycles == 0 ? 0 : (double) this.nanos / this.cycles;
+  }
+
+  /**
+   * Get the longest time taken to replicate a cycle.
+   *
+   * @return the longest time in nanoseconds.
+   */
+  public long getWorstReplicationTime() {
+    return this.worstNanos;
+  }
+
+  /**
+   * Get the number of verified cycles in which the standby's outputs differed from the primary's.
+   *
+   * @return the number of divergences.
+   */
+  public long getDivergences() {
+    return this.divergences;
+  }
+}
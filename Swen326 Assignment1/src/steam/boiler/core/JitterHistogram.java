@@ -0,0 +1,106 @@
+package steam.boiler.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of cycle start-time jitter. Values are recorded in nanoseconds into power-of-two
+ * buckets, such that bucket <code>i</code> holds values in the range <code>[2^(i-1), 2^i)</code>
+ * and bucket zero holds exact zeros. Recording never allocates. The histogram is written by a
+ * single thread, but can be read by other threads whilst it is being written.
+ *
+ */
+public class JitterHistogram {
+  /**
+   * The number of buckets, which is enough for any non-negative long.
+   */
+  private static final int BUCKETS = 64;
+
+  /**
+   * The bucket counts, followed by the total count, the sum and the maximum.
+   */
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 3);
+
+  /**
+   * Record a single value. Negative values (i.e. cycles which started early) are recorded as zero.
+   *
+   * @param nanos
+   *          The value to record, in nanoseconds.
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    int bucket = 64 - Long.numberOfLeadingZeros(value);
+    this.counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    this.counts.incrementAndGet(BUCKETS);
+    this.counts.addAndGet(BUCKETS + 1, value);
+    if (value > this.counts.get(BUCKETS + 2)) {
+      this.counts.set(BUCKETS + 2, value);
+    }
+  }
+
+  /**
+   * Get the number of values recorded.
+   *
+   * @return the count.
+   */
+  public long getCount() {
+    return this.counts.get(BUCKETS);
+  }
+
+  /**
+   * Get the largest value recorded.
+   *
+   * @return the maximum, in nanoseconds.
+   */
+  public long getMax() {
+    return this.counts.get(BUCKETS + 2);
+  }
+
+  /**
+   * Get the mean of the values recorded.
+   *
+   * @return the mean, in nanoseconds, or zero if nothing was recorded.
+   */
+  public double getMean() {
+    long count = getCount();
+    return count == 0 ? 0 : (double) this.counts.get(BUCKETS + 1) / count;
+  }
+
+  /**
+   * Get an upper bound on a given percentile. This is the upper end of the bucket in which the
+   * percentile falls, so it is accurate to within a factor of two.
+   *
+   * @param percentile
+   *          The percentile, between 0 and 100.
+   * @return the upper bound, in nanoseconds.
+   */
+  public long getPercentile(double percentile) {
+    long count = getCount();
+    long rank = (long) Math.ceil(count * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i != BUCKETS; ++i) {
+      seen += this.counts.get(i);
+      if (seen >= rank && seen > 0) {
+        return i == 0 ? 0 : Math.min((1L << i) - 1, getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Get the number of values recorded in a given bucket.
+   *
+   * @param bucket
+   *          The bucket index.
+   * @return the count for that bucket.
+   */
+  public long getBucket(int bucket) {
+    return this.counts.get(bucket);
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount() + ", mean=" + (long) getMean() + "ns, p50<=" + getPercentile(50)
+        + "ns, p99<=" + getPercentile(99) + "ns, p99.9<=" + getPercentile(99.9) + "ns, max="
+        + getMax() + "ns";
+  }
+}
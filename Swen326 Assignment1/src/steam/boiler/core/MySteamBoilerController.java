@@ -1,5 +1,8 @@
 package steam.boiler.core;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 
@@ -29,7 +32,7 @@ public class MySteamBoilerController implements SteamBoilerController {
    *
    */
 
-  private enum State {
+  enum State {
     /**
      * steam boiler waiting.
      */
@@ -61,20 +64,415 @@ public class MySteamBoilerController implements SteamBoilerController {
    */
   private final SteamBoilerCharacteristics configuration;
 
+  /**
+   * the characteristics needed on every cycle, shared with other controllers for identical boilers.
+   */
+  private final CompiledConfiguration compiled;
+
+  /**
+   * the default time (in milliseconds) between cycles.
+   */
+  public static final int DEFAULT_PERIOD = 5000;
+
+  /**
+   * the most cycles in a row which may skip the pump and pump controller checks because the cycle
+   * budget ran out. The next late cycle performs them regardless.
+   */
+  public static final int MAX_SKIPPED_CHECKS = 4;
+
+  /**
+   * the time (in milliseconds) between cycles.
+   */
+  private final int period;
+
+  /**
+   * the time (in seconds) between cycles, over which each prediction is made.
+   */
+  private final double cycleTime;
+
+  /**
+   * how each kind of message is decoded, indexed by ordinal. This is shared by every controller.
+   */
+  private static final byte[] DECODE = new byte[MessageKind.values().length];
+
+  /**
+   * the decode slot for messages which are not needed when decoding.
+   */
+  private static final byte IGNORED = 0;
+
+  /**
+   * the decode slot for LEVEL_v messages.
+   */
+  private static final byte LEVEL = 1;
+
+  /**
+   * the decode slot for STEAM_v messages.
+   */
+  private static final byte STEAM = 2;
+
+  /**
+   * the decode slot for PUMP_STATE_n_b messages.
+   */
+  private static final byte PUMP_STATE = 3;
+
+  /**
+   * the decode slot for PUMP_CONTROL_STATE_n_b messages.
+   */
+  private static final byte PUMP_CONTROL_STATE = 4;
+
+  /**
+   * the decode slot for PHYSICAL_UNITS_READY messages.
+   */
+  private static final byte UNITS_READY = 5;
+
+  /**
+   * the decode slot for STEAM_BOILER_WAITING messages.
+   */
+  private static final byte BOILER_WAITING = 6;
+
+  static {
+    Arrays.fill(DECODE, IGNORED);
+    DECODE[MessageKind.LEVEL_v.ordinal()] = LEVEL;
+    DECODE[MessageKind.STEAM_v.ordinal()] = STEAM;
+    DECODE[MessageKind.PUMP_STATE_n_b.ordinal()] = PUMP_STATE;
+    DECODE[MessageKind.PUMP_CONTROL_STATE_n_b.ordinal()] = PUMP_CONTROL_STATE;
+    DECODE[MessageKind.PHYSICAL_UNITS_READY.ordinal()] = UNITS_READY;
+    DECODE[MessageKind.STEAM_BOILER_WAITING.ordinal()] = BOILER_WAITING;
+  }
+
+  /**
+   * the number of messages of each decode slot seen in the current cycle.
+   */
+  private final int[] decodedCounts = new int[7];
+
+  /**
+   * the LEVEL_v message decoded in the current cycle, if any.
+   */
+  private @Nullable Message decodedLevel;
+
+  /**
+   * the STEAM_v message decoded in the current cycle, if any.
+   */
+  private @Nullable Message decodedSteam;
+
+  /**
+   * which pumps a PUMP_STATE_n_b message was decoded for in the current cycle, one bit per pump.
+   */
+  private final long[] decodedPumps;
+
+  /**
+   * which pumps a PUMP_CONTROL_STATE_n_b message was decoded for in the current cycle, one bit per
+   * pump.
+   */
+  private final long[] decodedPumpControls;
+
+  /**
+   * which pumps reported being open in the current cycle, one bit per pump.
+   */
+  private final long[] decodedPumpStates;
+
+  /**
+   * which pump controllers reported their pump being open in the current cycle, one bit per pump.
+   */
+  private final long[] decodedPumpControlStates;
+
+  /**
+   * which pumps are currently considered to be open, one bit per pump. This is kept in step with
+   * <code>pumpsOn</code>, so that the readings of a cycle can be checked a word at a time.
+   */
+  private final long[] pumpsOnWords;
+
+  /**
+   * whether checks and predictions skip work when their inputs have not changed in a way which
+   * could alter the result.
+   */
+  private boolean incremental = true;
+
+  /**
+   * the precomputed pump decisions, shared with other controllers for identical boilers, or null
+   * until first needed.
+   */
+  private @Nullable DecisionTable decisionTable;
+
+  /**
+   * whether a pump reading in the current cycle was for a nonexistent pump, or repeated a pump.
+   */
+  private boolean decodedMalformed;
+
   /**
    * Identifies the current mode in which the controller is operating.
    */
   private State mode = State.WAITING;
 
   /**
-   * Construct a steam boiler controller for a given set of characteristics.
+   * the most recent water level reading, or NaN if none has been received yet.
+   */
+  private double lastLevel = Double.NaN;
+
+  /**
+   * the most recent steam reading, or NaN if none has been received yet.
+   */
+  private double lastSteam = Double.NaN;
+
+  /**
+   * the per-cycle time budget, or null if cycles are unbounded.
+   */
+  private @Nullable CycleBudget budget;
+
+  /**
+   * the number of cycles in a row which have skipped the pump and pump controller checks.
+   */
+  private int skippedChecks;
+
+  /**
+   * the number of cycles completed so far.
+   */
+  private long cycle;
+
+  /**
+   * which pumps are currently considered to have failed.
+   */
+  private final boolean[] pumpFaults;
+
+  /**
+   * which pump controllers are currently considered to have failed.
+   */
+  private final boolean[] pumpControlFaults;
+
+  /**
+   * whether the level sensor is currently considered to have failed.
+   */
+  private boolean levelFault;
+
+  /**
+   * whether the steam sensor is currently considered to have failed.
+   */
+  private boolean steamFault;
+
+  /**
+   * publishes a consistent copy of the state at the end of each cycle to concurrent readers.
+   */
+  private final SnapshotSeqlock snapshot;
+
+  /**
+   * the journal to which the state is committed at the end of each cycle, if any.
+   */
+  private @Nullable StateJournal journal;
+
+  /**
+   * the planner used to choose the pumps in normal mode, if any.
+   */
+  private @Nullable HorizonPlanner planner;
+
+  /**
+   * publishes the decisions made in each cycle to any subscribers.
+   */
+  private final DecisionPublisher decisions = new DecisionPublisher();
+
+  /**
+   * precomputed OPEN_PUMP_n messages, used by the safe action.
+   */
+  private final Message[] openPumpMessages;
+
+  /**
+   * precomputed CLOSE_PUMP_n messages, used by the safe action.
+   */
+  private final Message[] closePumpMessages;
+
+  /**
+   * Construct a steam boiler controller for a given set of characteristics, which is clocked every
+   * five seconds.
    *
    * @param configuration
    *          The boiler characteristics to be used.
    */
   public MySteamBoilerController(SteamBoilerCharacteristics configuration) {
+    this(configuration, DEFAULT_PERIOD);
+  }
+
+  /**
+   * Construct a steam boiler controller for a given set of characteristics, which is clocked at a
+   * given period. Each cycle predicts the level one period ahead, so a shorter period reacts sooner
+   * to changes such as a rise in the steam rate, at the cost of more cycles.
+   *
+   * @param configuration
+   *          The boiler characteristics to be used.
+   * @param period
+   *          The time (in milliseconds) between cycles.
+   */
+  public MySteamBoilerController(SteamBoilerCharacteristics configuration, int period) {
+    if (period <= 0) {
+      throw new IllegalArgumentException("period must be positive");
+    }
     this.configuration = configuration;
+    this.compiled = CompiledConfiguration.of(configuration);
+    this.period = period;
+    this.cycleTime = period / 1000.0;
     this.pumpsOn = new boolean[configuration.getNumberOfPumps()];
+    this.pumpFaults = new boolean[this.pumpsOn.length];
+    this.pumpControlFaults = new boolean[this.pumpsOn.length];
+    int words = (this.pumpsOn.length + 63) >>> 6;
+    this.decodedPumps = new long[words];
+    this.decodedPumpControls = new long[words];
+    this.decodedPumpStates = new long[words];
+    this.decodedPumpControlStates = new long[words];
+    this.pumpsOnWords = new long[words];
+    this.snapshot = new SnapshotSeqlock(this.pumpsOn.length);
+    publishSnapshot();
+    this.openPumpMessages = new Message[this.pumpsOn.length];
+    this.closePumpMessages = new Message[this.pumpsOn.length];
+    for (int i = 0; i < this.pumpsOn.length; i = i + 1) {
+      this.openPumpMessages[i] = new Message(MessageKind.OPEN_PUMP_n, i);
+      this.closePumpMessages[i] = new Message(MessageKind.CLOSE_PUMP_n, i);
+    }
+  }
+
+  /**
+   * bounds the time taken by each cycle. Once the budget is close to running out, the remaining
+   * pump checks and predictions are skipped and the current pumps are held instead. The pump and
+   * pump controller checks are skipped for at most <code>MAX_SKIPPED_CHECKS</code> cycles in a
+   * row, after which they are performed even though the budget has run out. Every check which
+   * changes the mode, including those which lead to an emergency stop, is always performed, and
+   * every one-off message is still handled.
+   *
+   * @param budget
+   *          the per-cycle budget, or null to remove any bound.
+   */
+  public void setCycleBudget(@Nullable CycleBudget budget) {
+    this.budget = budget;
+  }
+
+  /**
+   * gets the time between cycles, at which the controller expects to be clocked.
+   *
+   * @return the period, in milliseconds.
+   */
+  public int getPeriod() {
+    return this.period;
+  }
+
+  /**
+   * sets whether work is skipped when it cannot change the result. When incremental, the pump
+   * readings are compared a word of pumps at a time, and the number of pumps to open is looked up
+   * in a table built for this boiler's characteristics the first time it is needed. Turning this
+   * off evaluates everything in full every cycle, which gives the same messages and is only useful
+   * for checking that this is so.
+   *
+   * @param incremental
+   *          true to skip redundant work, which is the default.
+   */
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  /**
+   * sets the journal to which the state is committed at the end of every cycle, before any of the
+   * messages produced in that cycle are sent. To carry on after a restart, first
+   * {@link #restore(ControllerSnapshot)} the state recovered from the same journal.
+   *
+   * @param journal
+   *          the journal, or null to stop journalling.
+   */
+  public void setJournal(@Nullable StateJournal journal) {
+    if (journal != null && journal.getNumberOfPumps() != this.pumpsOn.length) {
+      throw new IllegalArgumentException("journal is for a different number of pumps");
+    }
+    this.journal = journal;
+  }
+
+  /**
+   * sets the planner used to choose the pumps in normal mode. With a planner, pumps are chosen
+   * over several cycles rather than one, and only pumps which are to change are sent a command. If
+   * the planner runs out of time before planning even one cycle, the pumps are chosen as without
+   * it.
+   *
+   * @param planner
+   *          the planner, or null to look only one cycle ahead.
+   */
+  public void setPlanner(@Nullable HorizonPlanner planner) {
+    if (planner != null && planner.getNumberOfPumps() != this.pumpsOn.length) {
+      throw new IllegalArgumentException("planner is for a different number of pumps");
+    }
+    if (planner != null && planner.getPeriod() != this.period) {
+      throw new IllegalArgumentException("planner is for a different period");
+    }
+    this.planner = planner;
+  }
+
+  /**
+   * restores a previously captured state, such as one recovered from a journal. The controller
+   * then carries on from that state, rather than initialising the boiler again.
+   *
+   * @param state
+   *          the state to restore.
+   */
+  public void restore(ControllerSnapshot state) {
+    if (state.pumps.length != this.pumpsOn.length) {
+      throw new IllegalArgumentException("state is for a different number of pumps");
+    }
+    this.mode = state.state;
+    this.cycle = state.cycle;
+    this.lastLevel = state.level;
+    this.lastSteam = state.steam;
+    for (int i = 0; i < this.pumpsOn.length; i = i + 1) {
+      setPumpOn(i, state.pumps[i]);
+    }
+    System.arraycopy(state.pumpFaults, 0, this.pumpFaults, 0, this.pumpsOn.length);
+    System.arraycopy(state.pumpControlFaults, 0, this.pumpControlFaults, 0, this.pumpsOn.length);
+    this.levelFault = state.levelFault;
+    this.steamFault = state.steamFault;
+    publishSnapshot();
+  }
+
+  /**
+   * creates a controller for the same boiler, with the same period and options, in the same state
+   * as this one. The copy gets its own budget and planner with the same settings as this
+   * controller's, if any, so that clocking it changes nothing here. It has no journal, since it
+   * must never write to this controller's one; a copy which is to survive restarts needs a journal
+   * of its own.
+   *
+   * @return the copy.
+   */
+  public MySteamBoilerController copy() {
+    MySteamBoilerController copy = new MySteamBoilerController(this.configuration, this.period);
+    copy.incremental = this.incremental;
+    CycleBudget b = this.budget;
+    copy.budget = b == null ? null : b.copy();
+    HorizonPlanner p = this.planner;
+    copy.planner = p == null ? null : p.copy();
+    copy.restore(getSnapshot());
+    return copy;
+  }
+
+  /**
+   * encodes the state at the end of the last cycle as a delta against the state last encoded by a
+   * given codec, or as a complete state if the codec has none yet.
+   *
+   * @param codec
+   *          the codec.
+   * @param out
+   *          the buffer to write the delta to.
+   * @return the length of the delta in bytes.
+   */
+  int encodeState(StateCodec codec, ByteBuffer out) {
+    int mask = StateCodec.ALL;
+    if (codec.hasState()) {
+      mask = codec.changes(this.mode, this.pumpsOn, this.pumpFaults, this.pumpControlFaults,
+          this.levelFault, this.steamFault);
+    }
+    return codec.encode(out, mask, this.mode, this.cycle, this.pumpsOn, this.pumpFaults,
+        this.pumpControlFaults, this.levelFault, this.steamFault);
+  }
+
+  /**
+   * gets the publisher of this controller's decisions. Subscribers are sent the mode changes, pump
+   * commands, failure detections and acknowledgements made in each cycle, without ever holding up
+   * the cycle itself.
+   *
+   * @return the decision publisher.
+   */
+  public DecisionPublisher getDecisions() {
+    return this.decisions;
   }
 
   /**
@@ -87,11 +485,21 @@ public class MySteamBoilerController implements SteamBoilerController {
    */
   @Override
   public String getStatusMessage() {
-    String string = this.mode.toString();
+    String string = this.snapshot.read().getStateName();
     assert string != null;
     return string;
   }
 
+  /**
+   * gets a consistent copy of the controller's state as of the end of the most recent cycle. This
+   * is safe to call from any thread, never blocks and never holds up the controller.
+   *
+   * @return the snapshot.
+   */
+  public ControllerSnapshot getSnapshot() {
+    return this.snapshot.read();
+  }
+
   /**
    * Process a clock signal which occurs every 5 seconds. This requires reading
    * the set of incoming messages from the physical units and producing a set of
@@ -105,17 +513,179 @@ public class MySteamBoilerController implements SteamBoilerController {
    */
   @Override
   public void clock(@NonNull Mailbox incoming, @NonNull Mailbox outgoing) {
+    CycleBudget b = this.budget;
+    if (b != null) {
+      b.start();
+    }
+    this.cycle = this.cycle + 1;
+    State previous = this.mode;
+    int sent = outgoing.size();
+    step(incoming, outgoing);
+    recordFaults(outgoing, sent);
+    StateJournal j = this.journal;
+    if (j != null) {
+      j.append(this.mode, this.cycle, this.pumpsOn, this.pumpFaults, this.pumpControlFaults,
+          this.levelFault, this.steamFault);
+    }
+    publishSnapshot();
+    if (this.decisions.hasSubscribers()) {
+      publishDecisions(previous, outgoing, sent);
+    }
+    if (b != null) {
+      b.finish();
+    }
+  }
+
+  /**
+   * updates the active faults from the detections and acknowledgements sent in this cycle.
+   *
+   * @param outgoing
+   *          the messages sent by the controller.
+   * @param from
+   *          the index of the first message sent in this cycle.
+   */
+  private void recordFaults(Mailbox outgoing, int from) {
+    for (int i = from; i < outgoing.size(); i = i + 1) {
+      Message m = outgoing.read(i);
+      switch (m.getKind()) {
+        case LEVEL_FAILURE_DETECTION:
+          this.levelFault = true;
+          break;
+        case LEVEL_REPAIRED_ACKNOWLEDGEMENT:
+          this.levelFault = false;
+          break;
+        case STEAM_FAILURE_DETECTION:
+          this.steamFault = true;
+          break;
+        case STEAM_REPAIRED_ACKNOWLEDGEMENT:
+          this.steamFault = false;
+          break;
+        case PUMP_FAILURE_DETECTION_n:
+          setFault(this.pumpFaults, m.getIntegerParameter(), true);
+          break;
+        case PUMP_REPAIRED_ACKNOWLEDGEMENT_n:
+          setFault(this.pumpFaults, m.getIntegerParameter(), false);
+          break;
+        case PUMP_CONTROL_FAILURE_DETECTION_n:
+          setFault(this.pumpControlFaults, m.getIntegerParameter(), true);
+          break;
+        case PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n:
+        case PUMP_CONTROL_FAILURE_ACKNOWLEDGEMENT_n:
+          setFault(this.pumpControlFaults, m.getIntegerParameter(), false);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * checks whether a pump index names one of this boiler's pumps.
+   *
+   * @param pump
+   *          The pump index.
+   * @return true if the pump exists.
+   */
+  private boolean isPump(int pump) {
+    return pump >= 0 && pump < this.pumpsOn.length;
+  }
+
+  /**
+   * records whether a pump is considered to be open, in both <code>pumpsOn</code> and its
+   * bitset.
+   *
+   * @param pump
+   *          the pump number.
+   * @param on
+   *          true if the pump is open.
+   */
+  private void setPumpOn(int pump, boolean on) {
+    this.pumpsOn[pump] = on;
+    if (on) {
+      this.pumpsOnWords[pump >>> 6] |= 1L << pump;
+    } else {
+      this.pumpsOnWords[pump >>> 6] &= ~(1L << pump);
+    }
+  }
+
+  /**
+   * checks whether a pump's bit is set.
+   *
+   * @param words
+   *          the bitset, one bit per pump.
+   * @param pump
+   *          the pump number.
+   * @return true if the bit is set.
+   */
+  private static boolean isSet(long[] words, int pump) {
+    return (words[pump >>> 6] & (1L << pump)) != 0;
+  }
+
+  /**
+   * sets the fault flag of a given pump, ignoring pump numbers which are out of range.
+   *
+   * @param faults
+   *          the fault flags.
+   * @param pump
+   *          the pump number.
+   * @param fault
+   *          the new value of the flag.
+   */
+  private static void setFault(boolean[] faults, int pump, boolean fault) {
+    if (pump >= 0 && pump < faults.length) {
+      faults[pump] = fault;
+    }
+  }
+
+  /**
+   * publishes the current state for concurrent readers.
+   */
+  private void publishSnapshot() {
+    this.snapshot.write(this.mode, this.cycle, this.lastLevel, this.lastSteam, this.pumpsOn,
+        this.pumpFaults, this.pumpControlFaults, this.levelFault, this.steamFault);
+  }
+
+  /**
+   * publishes the decisions made in this cycle.
+   *
+   * @param previous
+   *          the mode at the start of the cycle.
+   * @param outgoing
+   *          the messages sent by the controller.
+   * @param from
+   *          the index of the first message sent in this cycle.
+   */
+  private void publishDecisions(State previous, Mailbox outgoing, int from) {
+    if (previous != this.mode) {
+      this.decisions.publish(new DecisionEvent(DecisionEvent.Kind.MODE_CHANGE, this.cycle,
+          new Message(MessageKind.MODE_m, toMode(this.mode))));
+    }
+    for (int i = from; i < outgoing.size(); i = i + 1) {
+      Message m = outgoing.read(i);
+      DecisionEvent.Kind kind = DecisionEvent.classify(m.getKind());
+      if (kind != null) {
+        this.decisions.publish(new DecisionEvent(kind, this.cycle, m));
+      }
+    }
+  }
+
+  /**
+   * Perform one cycle of the controller.
+   *
+   * @param incoming
+   *          The set of incoming messages from the physical units.
+   * @param outgoing
+   *          Messages generated during this cycle are written here.
+   */
+  private void step(Mailbox incoming, Mailbox outgoing) {
     // Extract expected messages
-    Message levelMessage = extractOnlyMatch(MessageKind.LEVEL_v, incoming);
-    Message steamMessage = extractOnlyMatch(MessageKind.STEAM_v, incoming);
-    Message[] pumpStateMessages = extractAllMatches(MessageKind.PUMP_STATE_n_b, incoming);
-    Message[] pumpControlStateMessages = extractAllMatches(MessageKind.PUMP_CONTROL_STATE_n_b,
-        incoming);
+    decode(incoming);
+    Message levelMessage = this.decodedCounts[LEVEL] == 1 ? this.decodedLevel : null;
+    Message steamMessage = this.decodedCounts[STEAM] == 1 ? this.decodedSteam : null;
     //
-    assert (levelMessage != null);
-    assert (steamMessage != null);
-    if (transmissionFailure(levelMessage, steamMessage, pumpStateMessages,
-        pumpControlStateMessages)) {
+    if (levelMessage == null || steamMessage == null
+        || transmissionFailure(levelMessage, steamMessage, this.decodedCounts[PUMP_STATE],
+            this.decodedCounts[PUMP_CONTROL_STATE])) {
       // Level and steam messages required, so emergency stop.
       this.mode = State.EMERGENCY_STOP;
       outgoing.send(new Message(MessageKind.MODE_m, Mode.EMERGENCY_STOP));
@@ -124,8 +694,10 @@ public class MySteamBoilerController implements SteamBoilerController {
 
     double l = levelMessage.getDoubleParameter();
     double s = steamMessage.getDoubleParameter();
-    double c = this.configuration.getPumpCapacity(0);
-    double w = this.configuration.getMaximualSteamRate();
+    this.lastLevel = l;
+    this.lastSteam = s;
+    double c = this.compiled.pumpCapacities[0];
+    double w = this.compiled.maximalSteamRate;
 
     if (checkSteamRate(s) && this.mode != State.NORMAL) {
       this.mode = State.EMERGENCY_STOP;
@@ -137,8 +709,14 @@ public class MySteamBoilerController implements SteamBoilerController {
       outgoing.send(new Message(MessageKind.MODE_m, Mode.EMERGENCY_STOP));
       return;
     }
+    // Once the budget runs out, only the pump checks and predictions are skipped; every check
+    // which changes the mode, and every one-off message, is still handled. The pump checks are
+    // only skipped for a bounded number of cycles in a row, so a pump fault is always reported.
+    boolean late = outOfTime();
+    boolean check = !late || this.skippedChecks >= MAX_SKIPPED_CHECKS;
+    this.skippedChecks = check ? 0 : this.skippedChecks + 1;
 
-    if (checkPumpControllers(incoming, outgoing)) {
+    if (check && this.mode != State.EMERGENCY_STOP && checkPumpControllers(outgoing)) {
       outgoing.send(new Message(MessageKind.MODE_m, Mode.DEGRADED));
       this.mode = State.DEGRADED;
     }
@@ -147,13 +725,13 @@ public class MySteamBoilerController implements SteamBoilerController {
 
     if (this.mode == State.EMERGENCY_STOP) {
       outgoing.send(new Message(MessageKind.MODE_m, Mode.EMERGENCY_STOP));
-    } else if (extractOnlyMatch(MessageKind.PHYSICAL_UNITS_READY, incoming) != null) {
+    } else if (this.decodedCounts[UNITS_READY] == 1) {
       this.mode = State.NORMAL;
       outgoing.send(new Message(MessageKind.MODE_m, Mode.NORMAL));
     } else if (this.mode == State.WAITING) {
       outgoing.send(new Message(MessageKind.MODE_m, Mode.INITIALISATION));
 
-      if (extractOnlyMatch(MessageKind.STEAM_BOILER_WAITING, incoming) != null) {
+      if (this.decodedCounts[BOILER_WAITING] == 1) {
 
         if (steamMessage.getDoubleParameter() != 0) {
           this.mode = State.EMERGENCY_STOP;
@@ -179,23 +757,32 @@ public class MySteamBoilerController implements SteamBoilerController {
 
         outgoing.send(new Message(MessageKind.MODE_m, Mode.EMERGENCY_STOP));
         this.mode = State.EMERGENCY_STOP;
-      } else if (checkPumpControllers(incoming, outgoing)) {
+      } else if (check && checkPumpControllers(outgoing)) {
         outgoing.send(new Message(MessageKind.MODE_m, Mode.DEGRADED));
         this.mode = State.DEGRADED;
       } else if (checkSteamRate(s)) {
         outgoing.send(new Message(MessageKind.MODE_m, Mode.DEGRADED));
         outgoing.send(new Message(MessageKind.STEAM_FAILURE_DETECTION));
         this.mode = State.DEGRADED;
-      } else if (checkPumps(incoming, outgoing)) {
-        checkPumps(incoming, outgoing);
+      } else if (check) {
+        checkPumps(outgoing);
+      }
+      if (late || outOfTime()) {
+        holdPumps(outgoing);
+      } else {
+        HorizonPlanner horizon = this.planner;
+        int pumps = horizon == null ? -1 : horizon.plan(l, s, countOpenPumps());
+        if (pumps >= 0) {
+          switchPumps(pumps, outgoing);
+        } else {
+          openPumps(decidePumps(l, c, w, s), outgoing);
+        }
       }
-      openPumps(predictPumps(l, c, w, s, this.configuration.getMinimalNormalLevel(),
-          this.configuration.getMaximalNormalLevel()), outgoing);
 
     }
     if (this.mode == State.RESCUE) {
-      if (transmissionFailure(levelMessage, steamMessage,
-          pumpStateMessages, pumpControlStateMessages)) {
+      if (transmissionFailure(levelMessage, steamMessage, this.decodedCounts[PUMP_STATE],
+          this.decodedCounts[PUMP_CONTROL_STATE])) {
         // Level and steam messages required, so emergency stop.
         this.mode = State.EMERGENCY_STOP;
         outgoing.send(new Message(MessageKind.MODE_m, Mode.EMERGENCY_STOP));
@@ -212,12 +799,14 @@ public class MySteamBoilerController implements SteamBoilerController {
           outgoing.send(new Message(MessageKind.STEAM_REPAIRED_ACKNOWLEDGEMENT));
           outgoing.send(new Message(MessageKind.MODE_m, Mode.NORMAL));
           this.mode = State.NORMAL;
-        } else if (m.getKind().equals(MessageKind.PUMP_CONTROL_REPAIRED_n)) {
+        } else if (m.getKind().equals(MessageKind.PUMP_CONTROL_REPAIRED_n)
+            && isPump(m.getIntegerParameter())) {
           outgoing.send(new Message(MessageKind.PUMP_CONTROL_FAILURE_ACKNOWLEDGEMENT_n,
               m.getIntegerParameter()));
           outgoing.send(new Message(MessageKind.MODE_m, Mode.NORMAL));
           this.mode = State.NORMAL;
-        } else if (m.getKind().equals(MessageKind.PUMP_REPAIRED_n)) {
+        } else if (m.getKind().equals(MessageKind.PUMP_REPAIRED_n)
+            && isPump(m.getIntegerParameter())) {
           outgoing.send(new Message(MessageKind.PUMP_REPAIRED_ACKNOWLEDGEMENT_n,
               m.getIntegerParameter()));
           outgoing.send(new Message(MessageKind.CLOSE_PUMP_n, m.getIntegerParameter()));
@@ -231,17 +820,100 @@ public class MySteamBoilerController implements SteamBoilerController {
   }
 
   /**
-   * fills the boiler by opening pumps.
+   * checks whether the cycle budget (if any) is close to running out. When it is, the fallback is
+   * recorded and the caller should take the safe action.
+   *
+   * @return true if the cycle should fall back to the safe action.
+   */
+  private boolean outOfTime() {
+    CycleBudget b = this.budget;
+    if (b != null && b.exhausted()) {
+      b.fallback();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * the safe action, which holds every pump in its current position using the precomputed pump
+   * messages.
+   *
+   * @param outgoing
+   *          the outgoing mailbox.
+   */
+  private void holdPumps(Mailbox outgoing) {
+    for (int i = 0; i < this.pumpsOn.length; i = i + 1) {
+      outgoing.send(this.pumpsOn[i] ? this.openPumpMessages[i] : this.closePumpMessages[i]);
+    }
+  }
+
+  /**
+   * opens the given number of pumps and closes the rest, as for <code>openPumps()</code>, but only
+   * sends a command to the pumps which are to change.
+   *
+   * @param pumps
+   *          the number of pumps to open.
+   * @param outgoing
+   *          the outgoing mailbox.
+   */
+  private void switchPumps(int pumps, Mailbox outgoing) {
+    for (int i = 0; i < this.pumpsOn.length; i = i + 1) {
+      boolean on = i < pumps;
+      if (on != this.pumpsOn[i]) {
+        outgoing.send(on ? this.openPumpMessages[i] : this.closePumpMessages[i]);
+        setPumpOn(i, on);
+      }
+    }
+  }
+
+  /**
+   * counts the pumps currently considered to be open.
+   *
+   * @return the number of open pumps.
+   */
+  private int countOpenPumps() {
+    int open = 0;
+    for (long word : this.pumpsOnWords) {
+      open = open + Long.bitCount(word);
+    }
+    return open;
+  }
+
+  /**
+   * converts a controller state into the mode reported to the physical units.
+   *
+   * @param state
+   *          the controller state.
+   * @return the corresponding mode.
+   */
+  static Mode toMode(State state) {
+    switch (state) {
+      case NORMAL:
+        return Mode.NORMAL;
+      case DEGRADED:
+        return Mode.DEGRADED;
+      case RESCUE:
+        return Mode.RESCUE;
+      case EMERGENCY_STOP:
+        return Mode.EMERGENCY_STOP;
+      default:
+        return Mode.INITIALISATION;
+    }
+  }
+
+  /**
+   * fills the boiler by opening up to three pumps.
    *
    * @param outgoing
    *          The set of incoming messages from the physical units.
    */
 
-  public static void fillBoiler(Mailbox outgoing) {
+  public void fillBoiler(Mailbox outgoing) {
     int open = 0;
-    int numPumps = 3;
+    int numPumps = Math.min(3, this.compiled.numberOfPumps);
     for (int i = open; i < numPumps; i = i + 1) {
       outgoing.send(new Message(MessageKind.OPEN_PUMP_n, i));
+      setPumpOn(i, true);
     }
   }
 
@@ -255,7 +927,7 @@ public class MySteamBoilerController implements SteamBoilerController {
 
   public void closePumps(Mailbox outgoing) {
     int open = 0;
-    for (int i = open; i < this.configuration.getNumberOfPumps(); i = i + 1) {
+    for (int i = open; i < this.compiled.numberOfPumps; i = i + 1) {
       outgoing.send(new Message(MessageKind.CLOSE_PUMP_n, i));
     }
   }
@@ -276,18 +948,16 @@ public class MySteamBoilerController implements SteamBoilerController {
       int open = 0;
       for (int i = open; i < pumps; i = i + 1) {
         outgoing.send(new Message(MessageKind.OPEN_PUMP_n, i));
-        this.pumpsOn[i] = true;
+        setPumpOn(i, true);
       }
-      for (int i = pumps; i <= this.configuration.getNumberOfPumps(); i = i + 1) {
+      for (int i = pumps; i < this.compiled.numberOfPumps; i = i + 1) {
         outgoing.send(new Message(MessageKind.CLOSE_PUMP_n, i));
-        if (i < this.configuration.getNumberOfPumps()) {
-          this.pumpsOn[i] = false;
-        }
+        setPumpOn(i, false);
       }
     } else {
-      for (int i = 0; i < this.configuration.getNumberOfPumps(); i = i + 1) {
+      for (int i = 0; i < this.compiled.numberOfPumps; i = i + 1) {
         outgoing.send(new Message(MessageKind.CLOSE_PUMP_n, i));
-        this.pumpsOn[i] = false;
+        setPumpOn(i, false);
       }
     }
   }
@@ -314,7 +984,7 @@ public class MySteamBoilerController implements SteamBoilerController {
       double s, double normalmin, double normalmax) {
     int count = 0;
     double dist = 1000000;
-    for (int i = count; i <= this.configuration.getNumberOfPumps(); i = i + 1) {
+    for (int i = count; i <= this.compiled.numberOfPumps; i = i + 1) {
       if (getDist(average(predictNextLmax(i, l, c, w, s), predictNextLmin(i, l, c, w, s)),
           average(normalmin, normalmax)) <= dist) {
         dist = getDist(average(predictNextLmax(i, l, c, w, s), predictNextLmin(i, l, c, w, s)),
@@ -326,6 +996,72 @@ public class MySteamBoilerController implements SteamBoilerController {
     return count;
   }
 
+  /**
+   * predicts the number of pumps to open in normal mode. When incremental, this is a lookup in the
+   * precomputed table, which only falls back to the full prediction for readings which are close to
+   * a point at which the choice changes, or which are not sensible.
+   *
+   * @param l
+   *          the current level of water.
+   * @param c
+   *          the capacity of a pump.
+   * @param w
+   *          the maximum steam rate.
+   * @param s
+   *          the current steam reading.
+   * @return the number of pumps to open.
+   */
+  private int decidePumps(double l, double c, double w, double s) {
+    if (this.incremental) {
+      DecisionTable table = this.decisionTable;
+      if (table == null) {
+        table = this.compiled.getDecisionTable(this.cycleTime);
+        this.decisionTable = table;
+      }
+      int pumps = table.lookup(l, s);
+      if (pumps >= 0) {
+        return pumps;
+      }
+    }
+    return predictPumps(l, c, w, s, this.compiled.minimalNormalLevel,
+        this.compiled.maximalNormalLevel);
+  }
+
+  /**
+   * predicts how long (in seconds) the boiler has before the water level reaches either the
+   * minimal or maximal limit level, assuming the pumps stay as they currently are. This uses the
+   * same flow model as the pump predictions, so the level is expected to move somewhere between
+   * lmin and lmax over the next cycle.
+   *
+   * @return the predicted time to the nearest limit, which is zero when no reading has been
+   *         received yet or a limit has already been reached.
+   */
+  public double getTimeToLimit() {
+    double l = this.lastLevel;
+    double s = this.lastSteam;
+    if (Double.isNaN(l) || Double.isNaN(s)) {
+      return 0;
+    }
+    int pumps = 0;
+    for (int i = 0; i < this.pumpsOn.length; i = i + 1) {
+      if (this.pumpsOn[i]) {
+        pumps = pumps + 1;
+      }
+    }
+    double c = this.compiled.pumpCapacities[0];
+    double w = this.compiled.maximalSteamRate;
+    double rise = (predictNextLmax(pumps, l, c, w, s) - l) / this.cycleTime;
+    double fall = (l - predictNextLmin(pumps, l, c, w, s)) / this.cycleTime;
+    double time = Double.POSITIVE_INFINITY;
+    if (rise > 0) {
+      time = Math.min(time, (this.compiled.maximalLimitLevel - l) / rise);
+    }
+    if (fall > 0) {
+      time = Math.min(time, (l - this.compiled.minimalLimitLevel) / fall);
+    }
+    return Math.max(0, time);
+  }
+
   /**
    * checks if the steam reading is faulty.
    *
@@ -334,7 +1070,8 @@ public class MySteamBoilerController implements SteamBoilerController {
    * @return true if the steam rate is faulty
    */
   private boolean checkSteamRate(double steamRate) {
-    if (steamRate < 0 || steamRate > this.configuration.getMaximualSteamRate()) {
+    // Written so that a NaN reading is faulty too
+    if (!(steamRate >= 0 && steamRate <= this.compiled.maximalSteamRate)) {
       return true;
     }
     return false;
@@ -348,7 +1085,8 @@ public class MySteamBoilerController implements SteamBoilerController {
    * @return true if the water level is faulty.
    */
   private boolean checkWaterLevel(double waterLevel) {
-    if (waterLevel < 0 || waterLevel > this.configuration.getCapacity()) {
+    // Written so that a NaN reading is faulty too
+    if (!(waterLevel >= 0 && waterLevel <= this.compiled.capacity)) {
       return true;
     }
     return false;
@@ -362,8 +1100,8 @@ public class MySteamBoilerController implements SteamBoilerController {
    * @return true if the water level is not within limits.
    */
   private boolean checkWithinLimits(double waterLevel) {
-    if (waterLevel < this.configuration.getMinimalLimitLevel()
-        && waterLevel < this.configuration.getMaximalLimitLevel()) {
+    if (waterLevel < this.compiled.minimalLimitLevel
+        && waterLevel < this.compiled.maximalLimitLevel) {
       return true;
     }
     return false;
@@ -371,59 +1109,86 @@ public class MySteamBoilerController implements SteamBoilerController {
 
   /**
    * checks all pump controllers with their respective pumps to see if there are
-   * faults.
+   * faults. Every pump controller which disagrees with its pump is reported, so that
+   * several faults arising together are detected in the same cycle. This relies on the
+   * current cycle having exactly one reading of each kind for every pump, which
+   * <code>transmissionFailure()</code> has already checked.
    *
-   * @param incoming
-   *          the incoming mailbox.
    * @param outgoing
    *          the outgoing mailbox.
    * @return true if there is a controller fault.
    */
-  private static boolean checkPumpControllers(Mailbox incoming, Mailbox outgoing) {
-    for (int i = 0; i < incoming.size(); i++) {
-      Message tempPump = incoming.read(i);
-      if (tempPump.getKind().equals(MessageKind.PUMP_STATE_n_b)) {
-        int pumpNum = tempPump.getIntegerParameter();
-        boolean pumpOn = tempPump.getBooleanParameter();
-        for (int j = 0; j < incoming.size(); j++) {
-          Message tempCont = incoming.read(j);
-          if (tempCont.getKind().equals(MessageKind.PUMP_CONTROL_STATE_n_b)) {
-            int contNum = tempCont.getIntegerParameter();
-            boolean contOn = tempCont.getBooleanParameter();
-            if (pumpNum == contNum && (pumpOn != contOn)) {
-              outgoing.send(new Message(MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n, contNum));
-              return true;
-            }
-          }
-        }
+  private boolean checkPumpControllers(Mailbox outgoing) {
+    if (this.incremental) {
+      return reportDifferences(this.decodedPumpStates, this.decodedPumpControlStates,
+          MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n, outgoing);
+    }
+    boolean fault = false;
+    for (int i = 0; i < this.pumpsOn.length; i++) {
+      if (isSet(this.decodedPumpStates, i) != isSet(this.decodedPumpControlStates, i)) {
+        outgoing.send(new Message(MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n, i));
+        fault = true;
       }
     }
-    return false;
+    return fault;
   }
 
   /**
    * checks if there are faults in the pumps if they do not match the expected
-   * readings.
+   * readings. Every pump which disagrees is reported and taken to be off, and as for
+   * <code>checkPumpControllers()</code> there must be exactly one reading for every pump.
    *
-   * @param incoming
-   *          incoming mailbox.
    * @param outgoing
    *          outgoing mailbox.
    * @return true if there is a pump fault.
    */
-  private boolean checkPumps(Mailbox incoming, Mailbox outgoing) {
+  private boolean checkPumps(Mailbox outgoing) {
+    if (this.incremental) {
+      return reportDifferences(this.pumpsOnWords, this.decodedPumpStates,
+          MessageKind.PUMP_FAILURE_DETECTION_n, outgoing);
+    }
+    boolean fault = false;
+    for (int i = 0; i < this.pumpsOn.length; i++) {
+      if (this.pumpsOn[i] != isSet(this.decodedPumpStates, i)) {
+        setPumpOn(i, false);
+        outgoing.send(new Message(MessageKind.PUMP_FAILURE_DETECTION_n, i));
+        fault = true;
+      }
+    }
+    return fault;
+  }
 
-    for (int i = 0; i < incoming.size(); i++) {
-      Message m = incoming.read(i);
-      if (m.getKind().equals(MessageKind.PUMP_STATE_n_b)) {
-        if (this.pumpsOn[m.getIntegerParameter()] != m.getBooleanParameter()) {
-          this.pumpsOn[m.getIntegerParameter()] = false;
-          outgoing.send(new Message(MessageKind.PUMP_FAILURE_DETECTION_n, m.getIntegerParameter()));
-          return true;
+  /**
+   * reports every pump whose bit differs between two bitsets, in order of pump number, and takes
+   * it to be off. Only pumps which differ are visited, so a cycle in which every reading agrees
+   * costs a comparison per word of pumps.
+   *
+   * @param expected
+   *          the first bitset.
+   * @param actual
+   *          the second bitset.
+   * @param kind
+   *          the kind of failure to report.
+   * @param outgoing
+   *          the outgoing mailbox.
+   * @return true if any pump was reported.
+   */
+  private boolean reportDifferences(long[] expected, long[] actual, MessageKind kind,
+      Mailbox outgoing) {
+    boolean fault = false;
+    for (int w = 0; w < expected.length; w = w + 1) {
+      long diff = expected[w] ^ actual[w];
+      while (diff != 0) {
+        int i = (w << 6) + Long.numberOfTrailingZeros(diff);
+        diff &= diff - 1;
+        if (kind == MessageKind.PUMP_FAILURE_DETECTION_n) {
+          setPumpOn(i, false);
         }
+        outgoing.send(new Message(kind, i));
+        fault = true;
       }
     }
-    return false;
+    return fault;
   }
 
   /**
@@ -461,8 +1226,8 @@ public class MySteamBoilerController implements SteamBoilerController {
    *          the current steam rate.
    * @return the predicted lmax.
    */
-  private static double predictNextLmax(int pumps, double l, double c, double w, double s) {
-    double lmax = l + (5 * c * pumps) - (5 * s);
+  private double predictNextLmax(int pumps, double l, double c, double w, double s) {
+    double lmax = l + (this.cycleTime * c * pumps) - (this.cycleTime * s);
     return lmax;
 
   }
@@ -483,8 +1248,8 @@ public class MySteamBoilerController implements SteamBoilerController {
    * @return the predicted lmin.
    */
 
-  private static double predictNextLmin(int pumps, double l, double c, double w, double s) {
-    double lmin = l + (5 * c * pumps) - (5 * w);
+  private double predictNextLmin(int pumps, double l, double c, double w, double s) {
+    double lmin = l + (this.cycleTime * c * pumps) - (this.cycleTime * w);
     return lmin;
 
   }
@@ -533,8 +1298,8 @@ public class MySteamBoilerController implements SteamBoilerController {
    *          pump capacity
    * @return the lmin.
    */
-  private static double predictNextInit(int pumps, double l, double c) {
-    double lmin = l + (5 * c * pumps) - (5 * 0);
+  private double predictNextInit(int pumps, double l, double c) {
+    double lmin = l + (this.cycleTime * c * pumps) - (this.cycleTime * 0);
     return lmin;
 
   }
@@ -555,29 +1320,36 @@ public class MySteamBoilerController implements SteamBoilerController {
 
   /**
    * Check whether there was a transmission failure. This is indicated in several
-   * ways. Firstly, when one of the required messages is missing. Secondly, when
-   * the values returned in the messages are nonsensical.
+   * ways. Firstly, when one of the required messages is missing or repeated. Secondly, when
+   * the values returned in the messages are nonsensical, such as a reading for a pump which
+   * does not exist.
    *
    * @param levelMessage
    *          Extracted LEVEL_v message.
    * @param steamMessage
    *          Extracted STEAM_v message.
    * @param pumpStates
-   *          Extracted PUMP_STATE_n_b messages.
+   *          Number of extracted PUMP_STATE_n_b messages.
    * @param pumpControlStates
-   *          Extracted PUMP_CONTROL_STATE_n_b messages.
+   *          Number of extracted PUMP_CONTROL_STATE_n_b messages.
    * @return if there was a transmission failure.
    */
-  private boolean transmissionFailure(Message levelMessage,
-      @Nullable Message steamMessage, Message[] pumpStates,
-      Message[] pumpControlStates) {
-    if (steamMessage == null) {
+  private boolean transmissionFailure(@Nullable Message levelMessage,
+      @Nullable Message steamMessage, int pumpStates,
+      int pumpControlStates) {
+    if (levelMessage == null) {
+      // Nonsense or missing level reading
+      return true;
+    } else if (steamMessage == null) {
       // Nonsense or missing steam reading
       return true;
-    } else if (pumpStates.length != this.configuration.getNumberOfPumps()) {
+    } else if (this.decodedMalformed) {
+      // Reading for a nonexistent pump, or more than one for the same pump
+      return true;
+    } else if (pumpStates != this.compiled.numberOfPumps) {
       // Nonsense pump state readings
       return true;
-    } else if (pumpControlStates.length != this.configuration.getNumberOfPumps()) {
+    } else if (pumpControlStates != this.compiled.numberOfPumps) {
       // Nonsense pump control state readings
       return true;
     }
@@ -586,61 +1358,61 @@ public class MySteamBoilerController implements SteamBoilerController {
   }
 
   /**
-   * Find and extract a message of a given kind in a mailbox. This must the only
-   * match in the mailbox, else <code>null</code> is returned.
+   * Decode the incoming messages in a single pass. This counts the messages for each decode slot,
+   * and records the level and steam messages. A level or steam reading is only used when it was
+   * the only one of its kind in the mailbox.
    *
-   * @param kind
-   *          The kind of message to look for.
    * @param incoming
-   *          The mailbox to search through.
-   * @return The matching message, or <code>null</code> if there was not exactly
-   *         one match.
+   *          The mailbox to decode.
    */
-  private static @Nullable Message extractOnlyMatch(MessageKind kind, Mailbox incoming) {
-    Message match = null;
+  private void decode(Mailbox incoming) {
+    int[] counts = this.decodedCounts;
+    for (int i = 0; i != counts.length; ++i) {
+      counts[i] = 0;
+    }
+    this.decodedLevel = null;
+    this.decodedSteam = null;
+    this.decodedMalformed = false;
+    Arrays.fill(this.decodedPumps, 0);
+    Arrays.fill(this.decodedPumpControls, 0);
+    Arrays.fill(this.decodedPumpStates, 0);
+    Arrays.fill(this.decodedPumpControlStates, 0);
     for (int i = 0; i != incoming.size(); ++i) {
       Message ith = incoming.read(i);
-      if (ith.getKind() == kind) {
-        if (match == null) {
-          match = ith;
-        } else {
-          // This indicates that we matched more than one message of the given kind.
-          return null;
-        }
+      byte slot = DECODE[ith.getKind().ordinal()];
+      counts[slot]++;
+      if (slot == LEVEL) {
+        this.decodedLevel = ith;
+      } else if (slot == STEAM) {
+        this.decodedSteam = ith;
+      } else if (slot == PUMP_STATE) {
+        decodePump(ith, this.decodedPumps, this.decodedPumpStates);
+      } else if (slot == PUMP_CONTROL_STATE) {
+        decodePump(ith, this.decodedPumpControls, this.decodedPumpControlStates);
       }
     }
-    return match;
   }
 
   /**
-   * Find and extract all messages of a given kind.
+   * Record the pump a reading is for and the state it reports, noting a malformed mailbox if the
+   * pump does not exist or already has a reading.
    *
-   * @param kind
-   *          The kind of message to look for.
-   * @param incoming
-   *          The mailbox to search through.
-   * @return The array of matches, which can empty if there were none.
+   * @param reading
+   *          The PUMP_STATE_n_b or PUMP_CONTROL_STATE_n_b message.
+   * @param seen
+   *          Which pumps already have a reading of this kind, one bit per pump.
+   * @param states
+   *          Which pumps readings of this kind reported as open, one bit per pump.
    */
-  private static Message[] extractAllMatches(MessageKind kind, Mailbox incoming) {
-    int count = 0;
-    // Count the number of matches
-    for (int i = 0; i != incoming.size(); ++i) {
-      Message ith = incoming.read(i);
-      if (ith.getKind() == kind) {
-        count = count + 1;
-      }
-    }
-    // Now, construct resulting array
-    Message[] matches = new Message[count];
-    int index = 0;
-    for (int i = 0; i != incoming.size(); ++i) {
-      Message ith = incoming.read(i);
-      if (ith.getKind() == kind) {
-        matches[index++] = ith;
+  private void decodePump(Message reading, long[] seen, long[] states) {
+    int pump = reading.getIntegerParameter();
+    if (!isPump(pump) || isSet(seen, pump)) {
+      this.decodedMalformed = true;
+    } else {
+      seen[pump >>> 6] |= 1L << pump;
+      if (reading.getBooleanParameter()) {
+        states[pump >>> 6] |= 1L << pump;
       }
     }
-    return matches;
   }
 }
-
-
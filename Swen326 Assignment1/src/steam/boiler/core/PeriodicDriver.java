@@ -0,0 +1,252 @@
+package steam.boiler.core;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Drives a controller in real time, clocking it once every cycle period. Several strategies are
+ * available for waiting until the start of the next cycle, which trade CPU usage for lower jitter.
+ * The lateness of every cycle start is recorded in a histogram, so it is possible to see how late
+ * cycles start under load.
+ *
+ */
+public class PeriodicDriver {
+  /**
+   * The strategies available for waiting until the start of the next cycle.
+   */
+  public enum Strategy {
+    /**
+     * Use a single threaded scheduled executor at a fixed rate. This uses the least CPU, but has
+     * the most jitter.
+     */
+    SCHEDULED_EXECUTOR,
+    /**
+     * Park the driver thread until shortly before the cycle starts, and then spin for the rest.
+     */
+    PARK_SPIN,
+    /**
+     * Spin continuously on a dedicated thread. This has the least jitter, but occupies a core.
+     */
+    BUSY_SPIN
+  }
+
+  /**
+   * The default time (in nanoseconds) before the start of a cycle at which parking gives way to
+   * spinning.
+   */
+  public static final long DEFAULT_SPIN_TAIL = 200000;
+
+  /**
+   * The controller being driven.
+   */
+  private final SteamBoilerController controller;
+
+  /**
+   * The link to the physical units.
+   */
+  private final PlantLink link;
+
+  /**
+   * The cycle period, in nanoseconds.
+   */
+  private final long period;
+
+  /**
+   * The waiting strategy.
+   */
+  private final Strategy strategy;
+
+  /**
+   * The time before the start of a cycle at which parking gives way to spinning.
+   */
+  private final long spinTail;
+
+  /**
+   * The lateness of each cycle start.
+   */
+  private final JitterHistogram jitter = new JitterHistogram();
+
+  /**
+   * The executor, when using {@link Strategy#SCHEDULED_EXECUTOR}.
+   */
+  private @Nullable ScheduledExecutorService executor;
+
+  /**
+   * The driver thread, when using one of the spinning strategies.
+   */
+  private @Nullable Thread thread;
+
+  /**
+   * Whether or not the driver should keep running.
+   */
+  private volatile boolean running;
+
+  /**
+   * The time at which the next cycle is due.
+   */
+  private long next;
+
+  /**
+   * The number of whole cycles skipped because the driver fell too far behind.
+   */
+  private volatile long missed;
+
+  /**
+   * Construct a driver using the default spin tail.
+   *
+   * @param controller
+   *          The controller to be driven.
+   * @param link
+   *          The link to the physical units.
+   * @param period
+   *          The cycle period, in nanoseconds.
+   * @param strategy
+   *          The waiting strategy.
+   */
+  public PeriodicDriver(SteamBoilerController controller, PlantLink link, long period,
+      Strategy strategy) {
+    this(controller, link, period, strategy, DEFAULT_SPIN_TAIL);
+  }
+
+  /**
+   * Construct a driver.
+   *
+   * @param controller
+   *          The controller to be driven.
+   * @param link
+   *          The link to the physical units.
+   * @param period
+   *          The cycle period, in nanoseconds.
+   * @param strategy
+   *          The waiting strategy.
+   * @param spinTail
+   *          The time (in nanoseconds) before the start of a cycle at which parking gives way to
+   *          spinning. This is only used by {@link Strategy#PARK_SPIN}.
+   */
+  public PeriodicDriver(SteamBoilerController controller, PlantLink link, long period,
+      Strategy strategy, long spinTail) {
+    if (period <= 0 || spinTail < 0) {
+      throw new IllegalArgumentException("invalid period");
+    }
+    this.controller = controller;
+    this.link = link;
+    this.period = period;
+    this.strategy = strategy;
+    this.spinTail = spinTail;
+  }
+
+  /**
+   * Start driving the controller. The first cycle starts one period from now.
+   */
+  public synchronized void start() {
+    if (this.running) {
+      throw new IllegalStateException("driver already started");
+    }
+    this.running = true;
+    this.next = System.nanoTime() + this.period;
+    if (this.strategy == Strategy.SCHEDULED_EXECUTOR) {
+      ScheduledThreadPoolExecutor e = new ScheduledThreadPoolExecutor(1, (Runnable r) -> {
+        Thread t = new Thread(r, "steam-boiler-driver");
+        t.setDaemon(true);
+        return t;
+      });
+      e.scheduleAtFixedRate(() -> {
+        cycle(System.nanoTime());
+        this.next += this.period;
+      }, this.period, this.period, TimeUnit.NANOSECONDS);
+      this.executor = e;
+    } else {
+      Thread t = new Thread(this::loop, "steam-boiler-driver");
+      t.setDaemon(true);
+      t.setPriority(Thread.MAX_PRIORITY);
+      t.start();
+      this.thread = t;
+    }
+  }
+
+  /**
+   * Stop driving the controller, waiting for any cycle in progress to complete.
+   *
+   * @throws InterruptedException
+   *           if interrupted whilst waiting.
+   */
+  public synchronized void stop() throws InterruptedException {
+    this.running = false;
+    ScheduledExecutorService e = this.executor;
+    if (e != null) {
+      e.shutdown();
+      e.awaitTermination(1, TimeUnit.MINUTES);
+      this.executor = null;
+    }
+    Thread t = this.thread;
+    if (t != null) {
+      t.join();
+      this.thread = null;
+    }
+  }
+
+  /**
+   * Get the histogram of cycle start lateness.
+   *
+   * @return the jitter histogram.
+   */
+  public JitterHistogram getJitter() {
+    return this.jitter;
+  }
+
+  /**
+   * Get the number of whole cycles skipped because a cycle overran by more than a period. This only
+   * applies to the spinning strategies, since the executor runs late cycles back to back instead.
+   *
+   * @return the number of missed cycles.
+   */
+  public long getMissedCycles() {
+    return this.missed;
+  }
+
+  /**
+   * The main loop for the spinning strategies.
+   */
+  private void loop() {
+    while (this.running) {
+      long now = System.nanoTime();
+      long remaining = this.next - now;
+      if (this.strategy == Strategy.PARK_SPIN && remaining > this.spinTail) {
+        LockSupport.parkNanos(remaining - this.spinTail);
+      } else if (remaining <= 0) {
+        cycle(now);
+        this.next += this.period;
+        long behind = System.nanoTime() - this.next;
+        if (behind > this.period) {
+          // Skip any cycles which are already over, rather than running them back to back.
+          long skip = behind / this.period;
+          this.next += skip * this.period;
+          this.missed += skip;
+        }
+      }
+    }
+  }
+
+  /**
+   * Run a single cycle.
+   *
+   * @param now
+   *          The time at which the cycle actually started.
+   */
+  private void cycle(long now) {
+    this.jitter.record(now - this.next);
+    Mailbox incoming = new UnboundedMailbox(100);
+    Mailbox outgoing = new UnboundedMailbox(100);
+    this.link.transmit(incoming);
+    this.controller.clock(incoming, outgoing);
+    this.link.receive(outgoing);
+  }
+}
@@ -0,0 +1,26 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * The link between a controller and the physical units it controls. In the simulator this is the
+ * simulated physical units themselves, whilst in production it would be the message bus.
+ *
+ */
+public interface PlantLink {
+  /**
+   * Collect the messages sent by the physical units since the last cycle.
+   *
+   * @param incoming
+   *          The mailbox into which the messages should be written.
+   */
+  public void transmit(Mailbox incoming);
+
+  /**
+   * Deliver the messages produced by the controller in this cycle to the physical units.
+   *
+   * @param outgoing
+   *          The messages produced by the controller.
+   */
+  public void receive(Mailbox outgoing);
+}
@@ -0,0 +1,187 @@
+package steam.boiler.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Publishes a controller's state using a sequence lock. The single writer (i.e. the thread calling
+ * <code>clock()</code>) makes the sequence number odd, writes every field and then makes it even
+ * again. A reader copies the fields and retries if the sequence number was odd or changed in the
+ * meantime. Writing therefore never blocks or allocates, and any number of readers obtain a
+ * consistent copy without ever holding up the writer.
+ *
+ * <p>Every field lives in a single atomic array, so all accesses are volatile. This makes the usual
+ * seqlock reasoning hold under the Java memory model without any explicit fences.
+ *
+ */
+final class SnapshotSeqlock {
+  /**
+   * The index of the sequence number.
+   */
+  private static final int SEQUENCE = 0;
+
+  /**
+   * The index of the cycle number.
+   */
+  private static final int CYCLE = 1;
+
+  /**
+   * The index of the state ordinal, combined with the sensor fault flags.
+   */
+  private static final int STATE = 2;
+
+  /**
+   * The index of the level reading.
+   */
+  private static final int LEVEL = 3;
+
+  /**
+   * The index of the steam reading.
+   */
+  private static final int STEAM = 4;
+
+  /**
+   * The index of the first pump word.
+   */
+  private static final int PUMPS = 5;
+
+  /**
+   * The flag marking a level sensor fault.
+   */
+  private static final long LEVEL_FAULT = 1L << 8;
+
+  /**
+   * The flag marking a steam sensor fault.
+   */
+  private static final long STEAM_FAULT = 1L << 9;
+
+  /**
+   * The published fields.
+   */
+  private final AtomicLongArray fields;
+
+  /**
+   * The number of pumps.
+   */
+  private final int numberOfPumps;
+
+  /**
+   * The number of words needed for one bit per pump.
+   */
+  private final int words;
+
+  /**
+   * Construct a seqlock for a given number of pumps.
+   *
+   * @param numberOfPumps
+   *          The number of pumps.
+   */
+  SnapshotSeqlock(int numberOfPumps) {
+    this.numberOfPumps = numberOfPumps;
+    this.words = (numberOfPumps + 63) / 64;
+    this.fields = new AtomicLongArray(PUMPS + 3 * this.words);
+  }
+
+  /**
+   * Publish a new state. This must only be called by a single thread.
+   *
+   * @param state
+   *          The mode of the controller.
+   * @param cycle
+   *          The cycle number.
+   * @param level
+   *          The last level reading.
+   * @param steam
+   *          The last steam reading.
+   * @param pumps
+   *          Which pumps are on.
+   * @param pumpFaults
+   *          Which pumps have failed.
+   * @param pumpControlFaults
+   *          Which pump controllers have failed.
+   * @param levelFault
+   *          Whether the level sensor has failed.
+   * @param steamFault
+   *          Whether the steam sensor has failed.
+   */
+  void write(MySteamBoilerController.State state, long cycle, double level, double steam,
+      boolean[] pumps, boolean[] pumpFaults, boolean[] pumpControlFaults, boolean levelFault,
+      boolean steamFault) {
+    AtomicLongArray f = this.fields;
+    long sequence = f.get(SEQUENCE);
+    f.set(SEQUENCE, sequence + 1);
+    f.set(CYCLE, cycle);
+    f.set(STATE, state.ordinal() | (levelFault ? LEVEL_FAULT : 0) | (steamFault ? STEAM_FAULT : 0));
+    f.set(LEVEL, Double.doubleToRawLongBits(level));
+    f.set(STEAM, Double.doubleToRawLongBits(steam));
+    writeBits(PUMPS, pumps);
+    writeBits(PUMPS + this.words, pumpFaults);
+    writeBits(PUMPS + 2 * this.words, pumpControlFaults);
+    f.set(SEQUENCE, sequence + 2);
+  }
+
+  /**
+   * Obtain a consistent copy of the most recently published state.
+   *
+   * @return the snapshot.
+   */
+  ControllerSnapshot read() {
+    AtomicLongArray f = this.fields;
+    long[] copy = new long[f.length()];
+    while (true) {
+      long before = f.get(SEQUENCE);
+      if ((before & 1) == 0) {
+        for (int i = 1; i != copy.length; ++i) {
+          copy[i] = f.get(i);
+        }
+        if (f.get(SEQUENCE) == before) {
+          break;
+        }
+      }
+      Thread.yield();
+    }
+    long state = copy[STATE];
+    return new ControllerSnapshot(MySteamBoilerController.State.values()[(int) (state & 0xFF)],
+        copy[CYCLE], Double.longBitsToDouble(copy[LEVEL]), Double.longBitsToDouble(copy[STEAM]),
+        readBits(copy, PUMPS), readBits(copy, PUMPS + this.words),
+        readBits(copy, PUMPS + 2 * this.words), (state & LEVEL_FAULT) != 0,
+        (state & STEAM_FAULT) != 0);
+  }
+
+  /**
+   * Write one bit per pump, starting at a given word.
+   *
+   * @param start
+   *          The index of the first word.
+   * @param bits
+   *          The bits to write.
+   */
+  private void writeBits(int start, boolean[] bits) {
+    for (int w = 0; w != this.words; ++w) {
+      long word = 0;
+      int end = Math.min(this.numberOfPumps, (w + 1) * 64);
+      for (int i = w * 64; i < end; ++i) {
+        if (bits[i]) {
+          word |= 1L << (i & 63);
+        }
+      }
+      this.fields.set(start + w, word);
+    }
+  }
+
+  /**
+   * Read one bit per pump from a copy of the fields.
+   *
+   * @param copy
+   *          The copied fields.
+   * @param start
+   *          The index of the first word.
+   * @return the bits.
+   */
+  private boolean[] readBits(long[] copy, int start) {
+    boolean[] bits = new boolean[this.numberOfPumps];
+    for (int i = 0; i != bits.length; ++i) {
+      bits[i] = (copy[start + (i >>> 6)] & (1L << (i & 63))) != 0;
+    }
+    return bits;
+  }
+}
@@ -0,0 +1,356 @@
+package steam.boiler.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Encodes a controller's state as compact deltas against the last state encoded, and decodes such
+ * deltas to rebuild the state elsewhere. The state consists of the mode, pump positions and
+ * faults, which together determine the controller's subsequent outputs.
+ *
+ * <p>A delta consists of the cycle number and a mask identifying the fields which follow. A mask
+ * with every bit set is a complete copy of the state, from which decoding can start.
+ *
+ */
+final class StateCodec {
+  /**
+   * The mask bit for the mode.
+   */
+  static final int MODE = 1;
+
+  /**
+   * The mask bit for the pump positions.
+   */
+  static final int PUMPS = 2;
+
+  /**
+   * The mask bit for the pump faults.
+   */
+  static final int PUMP_FAULTS = 4;
+
+  /**
+   * The mask bit for the pump controller faults.
+   */
+  static final int PUMP_CONTROL_FAULTS = 8;
+
+  /**
+   * The mask bit for the sensor faults.
+   */
+  static final int SENSOR_FAULTS = 16;
+
+  /**
+   * The mask of a complete copy of the state.
+   */
+  static final int ALL = 31;
+
+  /**
+   * The offset within a delta of its mask.
+   */
+  static final int MASK = 8;
+
+  /**
+   * The size of a delta without any fields.
+   */
+  static final int HEADER = 9;
+
+  /**
+   * The number of pumps.
+   */
+  private final int numberOfPumps;
+
+  /**
+   * The number of words needed for one bit per pump.
+   */
+  private final int words;
+
+  /**
+   * The current mode, or null if no complete state has been seen yet.
+   */
+  private MySteamBoilerController.@Nullable State mode;
+
+  /**
+   * The current cycle.
+   */
+  private long cycle;
+
+  /**
+   * The current pump positions.
+   */
+  private final boolean[] pumps;
+
+  /**
+   * The current pump faults.
+   */
+  private final boolean[] pumpFaults;
+
+  /**
+   * The current pump controller faults.
+   */
+  private final boolean[] pumpControlFaults;
+
+  /**
+   * The current level sensor fault.
+   */
+  private boolean levelFault;
+
+  /**
+   * The current steam sensor fault.
+   */
+  private boolean steamFault;
+
+  /**
+   * Construct a codec for a given number of pumps.
+   *
+   * @param numberOfPumps
+   *          The number of pumps.
+   */
+  StateCodec(int numberOfPumps) {
+    this.numberOfPumps = numberOfPumps;
+    this.words = (numberOfPumps + 63) / 64;
+    this.pumps = new boolean[numberOfPumps];
+    this.pumpFaults = new boolean[numberOfPumps];
+    this.pumpControlFaults = new boolean[numberOfPumps];
+  }
+
+  /**
+   * Get the number of pumps.
+   *
+   * @return the number of pumps.
+   */
+  int getNumberOfPumps() {
+    return this.numberOfPumps;
+  }
+
+  /**
+   * Get the cycle of the current state.
+   *
+   * @return the cycle number.
+   */
+  long getCycle() {
+    return this.cycle;
+  }
+
+  /**
+   * Check whether a complete state has been encoded or decoded.
+   *
+   * @return true if there is a current state.
+   */
+  boolean hasState() {
+    return this.mode != null;
+  }
+
+  /**
+   * Determine which fields of a given state differ from the current state.
+   *
+   * @param m
+   *          The mode of the controller.
+   * @param p
+   *          Which pumps are on.
+   * @param pf
+   *          Which pumps have failed.
+   * @param pcf
+   *          Which pump controllers have failed.
+   * @param lf
+   *          Whether the level sensor has failed.
+   * @param sf
+   *          Whether the steam sensor has failed.
+   * @return the mask of the fields which changed.
+   */
+  int changes(MySteamBoilerController.State m, boolean[] p, boolean[] pf, boolean[] pcf,
+      boolean lf, boolean sf) {
+    int mask = 0;
+    if (m != this.mode) {
+      mask |= MODE;
+    }
+    if (!Arrays.equals(p, this.pumps)) {
+      mask |= PUMPS;
+    }
+    if (!Arrays.equals(pf, this.pumpFaults)) {
+      mask |= PUMP_FAULTS;
+    }
+    if (!Arrays.equals(pcf, this.pumpControlFaults)) {
+      mask |= PUMP_CONTROL_FAULTS;
+    }
+    if (lf != this.levelFault || sf != this.steamFault) {
+      mask |= SENSOR_FAULTS;
+    }
+    return mask;
+  }
+
+  /**
+   * Make a given state the current state, and encode a delta containing the given fields. The
+   * mask must include every field which changed.
+   *
+   * @param out
+   *          The buffer to write the delta to, which must have room for a complete state.
+   * @param mask
+   *          The fields to include.
+   * @param m
+   *          The mode of the controller.
+   * @param c
+   *          The cycle number.
+   * @param p
+   *          Which pumps are on.
+   * @param pf
+   *          Which pumps have failed.
+   * @param pcf
+   *          Which pump controllers have failed.
+   * @param lf
+   *          Whether the level sensor has failed.
+   * @param sf
+   *          Whether the steam sensor has failed.
+   * @return the length of the delta in bytes.
+   */
+  int encode(ByteBuffer out, int mask, MySteamBoilerController.State m, long c, boolean[] p,
+      boolean[] pf, boolean[] pcf, boolean lf, boolean sf) {
+    this.mode = m;
+    this.cycle = c;
+    System.arraycopy(p, 0, this.pumps, 0, this.numberOfPumps);
+    System.arraycopy(pf, 0, this.pumpFaults, 0, this.numberOfPumps);
+    System.arraycopy(pcf, 0, this.pumpControlFaults, 0, this.numberOfPumps);
+    this.levelFault = lf;
+    this.steamFault = sf;
+    int start = out.position();
+    out.putLong(c).put((byte) mask);
+    if ((mask & MODE) != 0) {
+      out.put((byte) m.ordinal());
+    }
+    if ((mask & PUMPS) != 0) {
+      putBits(out, this.pumps);
+    }
+    if ((mask & PUMP_FAULTS) != 0) {
+      putBits(out, this.pumpFaults);
+    }
+    if ((mask & PUMP_CONTROL_FAULTS) != 0) {
+      putBits(out, this.pumpControlFaults);
+    }
+    if ((mask & SENSOR_FAULTS) != 0) {
+      out.put((byte) ((this.levelFault ? 1 : 0) | (this.steamFault ? 2 : 0)));
+    }
+    return out.position() - start;
+  }
+
+  /**
+   * Apply a delta to the current state. Nothing is applied if the delta is malformed, or if it
+   * is not a complete state and there is no current state for it to apply to.
+   *
+   * @param in
+   *          The buffer holding the delta, from its position up to its limit.
+   * @return true if the delta was applied.
+   */
+  boolean decode(ByteBuffer in) {
+    int start = in.position();
+    if (in.remaining() < HEADER) {
+      return false;
+    }
+    int mask = in.get(start + MASK) & 0xFF;
+    if ((mask & ~ALL) != 0 || (mask != ALL && this.mode == null)
+        || in.remaining() < length(mask)) {
+      return false;
+    }
+    MySteamBoilerController.State[] states = MySteamBoilerController.State.values();
+    int p = start + HEADER;
+    if ((mask & MODE) != 0) {
+      int ordinal = in.get(p) & 0xFF;
+      if (ordinal >= states.length) {
+        return false;
+      }
+      this.mode = states[ordinal];
+      p = p + 1;
+    }
+    this.cycle = in.getLong(start);
+    if ((mask & PUMPS) != 0) {
+      p = getBits(in, p, this.pumps);
+    }
+    if ((mask & PUMP_FAULTS) != 0) {
+      p = getBits(in, p, this.pumpFaults);
+    }
+    if ((mask & PUMP_CONTROL_FAULTS) != 0) {
+      p = getBits(in, p, this.pumpControlFaults);
+    }
+    if ((mask & SENSOR_FAULTS) != 0) {
+      int faults = in.get(p);
+      this.levelFault = (faults & 1) != 0;
+      this.steamFault = (faults & 2) != 0;
+      p = p + 1;
+    }
+    in.position(p);
+    return true;
+  }
+
+  /**
+   * Get a copy of the current state. The readings are not part of the state, hence they are NaN.
+   *
+   * @return the state, or null if there is none.
+   */
+  @Nullable
+  ControllerSnapshot toSnapshot() {
+    MySteamBoilerController.State m = this.mode;
+    if (m == null) {
+      return null;
+    }
+    return new ControllerSnapshot(m, this.cycle, Double.NaN, Double.NaN, this.pumps.clone(),
+        this.pumpFaults.clone(), this.pumpControlFaults.clone(), this.levelFault,
+        this.steamFault);
+  }
+
+  /**
+   * Determine the length of a delta containing given fields.
+   *
+   * @param mask
+   *          The fields.
+   * @return the length in bytes.
+   */
+  int length(int mask) {
+    int n = HEADER;
+    if ((mask & MODE) != 0) {
+      n = n + 1;
+    }
+    n = n + Integer.bitCount(mask & (PUMPS | PUMP_FAULTS | PUMP_CONTROL_FAULTS)) * 8 * this.words;
+    if ((mask & SENSOR_FAULTS) != 0) {
+      n = n + 1;
+    }
+    return n;
+  }
+
+  /**
+   * Write one bit per pump.
+   *
+   * @param b
+   *          The buffer to write to.
+   * @param bits
+   *          The bits to write.
+   */
+  private void putBits(ByteBuffer b, boolean[] bits) {
+    for (int w = 0; w != this.words; w = w + 1) {
+      long word = 0;
+      int end = Math.min(this.numberOfPumps, (w + 1) * 64);
+      for (int i = w * 64; i < end; i = i + 1) {
+        if (bits[i]) {
+          word |= 1L << (i & 63);
+        }
+      }
+      b.putLong(word);
+    }
+  }
+
+  /**
+   * Read one bit per pump.
+   *
+   * @param b
+   *          The buffer to read from.
+   * @param offset
+   *          The offset of the first word.
+   * @param bits
+   *          The bits to fill in.
+   * @return the offset after the last word.
+   */
+  private int getBits(ByteBuffer b, int offset, boolean[] bits) {
+    for (int i = 0; i != bits.length; i = i + 1) {
+      bits[i] = (b.getLong(offset + 8 * (i >>> 6)) & (1L << (i & 63))) != 0;
+    }
+    return offset + 8 * this.words;
+  }
+}
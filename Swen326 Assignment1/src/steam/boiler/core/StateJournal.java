@@ -0,0 +1,303 @@
+package steam.boiler.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A write-ahead journal of a controller's state, held in a memory-mapped file. A controller which
+ * is restarted can then carry on from its last committed state, rather than re-initialising a
+ * boiler which is already running.
+ *
+ * <p>The file consists of two regions of equal size. Each region begins with a checkpoint of the
+ * complete state. The checkpoint is followed by deltas, each of which records only the parts of
+ * the state that changed in a given cycle. Once a region is full, a new checkpoint is written at
+ * the start of the other region, using a higher generation number.
+ *
+ * <p>Every record carries a CRC32 checksum and the generation of its region. A record torn by a
+ * crash part way through a write is therefore ignored. Recovery starts from the valid checkpoint
+ * with the highest generation, and then applies deltas up to the first one which is invalid.
+ * Writing a checkpoint never touches the region holding the state it follows on from. So if a
+ * checkpoint is torn, the previous region is still intact.
+ *
+ * <p>The file survives the process, since writes go straight to the operating system's page
+ * cache. Surviving a power failure additionally requires {@link #force()}.
+ *
+ */
+public final class StateJournal implements Closeable {
+  /**
+   * The default size of each region in bytes.
+   */
+  public static final int DEFAULT_REGION_SIZE = 1 << 16;
+
+  /**
+   * The offset within a record of its checksum, which covers everything after it.
+   */
+  private static final int CRC = 0;
+
+  /**
+   * The offset within a record of its generation.
+   */
+  private static final int GENERATION = 4;
+
+  /**
+   * The offset within a record of the encoded state.
+   */
+  private static final int STATE = 8;
+
+  /**
+   * The mapped file.
+   */
+  private final MappedByteBuffer map;
+
+  /**
+   * The size of each region.
+   */
+  private final int regionSize;
+
+  /**
+   * The number of pumps as bytes, which seeds every checksum so that a journal written for a
+   * different number of pumps is never mistaken for a valid one.
+   */
+  private final byte[] seed;
+
+  /**
+   * Used to compute checksums.
+   */
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * Encodes the state, and holds the last state written.
+   */
+  private final StateCodec codec;
+
+  /**
+   * Records are encoded here before being copied into the file.
+   */
+  private final ByteBuffer scratch;
+
+  /**
+   * The region currently being appended to.
+   */
+  private int region;
+
+  /**
+   * The generation of the current region, which is zero if nothing has been written yet.
+   */
+  private int generation;
+
+  /**
+   * The offset within the current region at which the next record is written.
+   */
+  private int position;
+
+  /**
+   * Open a journal with regions of the default size, recovering any state it already holds.
+   *
+   * @param file
+   *          The file holding the journal, which is created if it does not exist.
+   * @param numberOfPumps
+   *          The number of pumps of the controller being journalled.
+   * @throws IOException
+   *           If the file could not be opened or mapped.
+   */
+  public StateJournal(Path file, int numberOfPumps) throws IOException {
+    this(file, numberOfPumps, DEFAULT_REGION_SIZE);
+  }
+
+  /**
+   * Open a journal, recovering any state it already holds. Smaller regions mean faster recovery,
+   * but more frequent checkpoints.
+   *
+   * @param file
+   *          The file holding the journal, which is created if it does not exist.
+   * @param numberOfPumps
+   *          The number of pumps of the controller being journalled.
+   * @param regionSize
+   *          The size of each of the two regions in bytes, which must hold at least one checkpoint.
+   * @throws IOException
+   *           If the file could not be opened or mapped.
+   */
+  public StateJournal(Path file, int numberOfPumps, int regionSize) throws IOException {
+    if (numberOfPumps < 0) {
+      throw new IllegalArgumentException("number of pumps cannot be negative");
+    }
+    this.codec = new StateCodec(numberOfPumps);
+    if (regionSize < STATE + this.codec.length(StateCodec.ALL)) {
+      throw new IllegalArgumentException("region cannot hold a checkpoint");
+    }
+    this.regionSize = regionSize;
+    this.seed = ByteBuffer.allocate(4).putInt(numberOfPumps).array();
+    this.scratch = ByteBuffer.allocate(STATE + this.codec.length(StateCodec.ALL));
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      this.map = channel.map(MapMode.READ_WRITE, 0, 2L * regionSize);
+    }
+    replay();
+  }
+
+  /**
+   * Get the number of pumps this journal is for.
+   *
+   * @return the number of pumps.
+   */
+  public int getNumberOfPumps() {
+    return this.codec.getNumberOfPumps();
+  }
+
+  /**
+   * Get the last committed state held in this journal. The readings are not journalled, hence
+   * they are NaN. Likewise, the cycle is that of the last change of state.
+   *
+   * @return the recovered state, or null if the journal is empty.
+   */
+  public @Nullable ControllerSnapshot recover() {
+    return this.codec.toSnapshot();
+  }
+
+  /**
+   * Commit the state at the end of a cycle. Nothing is written if the state has not changed,
+   * otherwise a delta is appended. A checkpoint is written instead when the current region is
+   * full, or when the cycle does not follow on from the last one written (e.g. because a fresh
+   * controller is now using this journal).
+   *
+   * @param m
+   *          The mode of the controller.
+   * @param c
+   *          The cycle number.
+   * @param p
+   *          Which pumps are on.
+   * @param pf
+   *          Which pumps have failed.
+   * @param pcf
+   *          Which pump controllers have failed.
+   * @param lf
+   *          Whether the level sensor has failed.
+   * @param sf
+   *          Whether the steam sensor has failed.
+   */
+  void append(MySteamBoilerController.State m, long c, boolean[] p, boolean[] pf, boolean[] pcf,
+      boolean lf, boolean sf) {
+    StateCodec states = this.codec;
+    int mask = states.changes(m, p, pf, pcf, lf, sf);
+    boolean checkpoint = this.generation == 0 || c <= states.getCycle();
+    if (mask == 0 && !checkpoint) {
+      return;
+    }
+    if (checkpoint || this.position + STATE + states.length(mask) > this.regionSize) {
+      this.region = this.generation == 0 ? 0 : 1 - this.region;
+      this.generation = this.generation + 1;
+      this.position = 0;
+      mask = StateCodec.ALL;
+    }
+    ByteBuffer b = this.scratch;
+    b.clear();
+    b.putInt(0).putInt(this.generation);
+    int n = STATE + states.encode(b, mask, m, c, p, pf, pcf, lf, sf);
+    CRC32 checksum = this.crc;
+    checksum.reset();
+    checksum.update(this.seed);
+    checksum.update(b.array(), GENERATION, n - GENERATION);
+    b.putInt(CRC, (int) checksum.getValue());
+    ByteBuffer target = this.map;
+    target.position(this.region * this.regionSize + this.position);
+    target.put(b.array(), 0, n);
+    this.position = this.position + n;
+  }
+
+  /**
+   * Ensure everything written so far has reached the storage device.
+   */
+  public void force() {
+    this.map.force();
+  }
+
+  @Override
+  public void close() {
+    force();
+  }
+
+  /**
+   * Recover the state held in the file, and position this journal after the last valid record.
+   */
+  private void replay() {
+    int best = -1;
+    int bestGeneration = 0;
+    for (int r = 0; r != 2; r = r + 1) {
+      int offset = r * this.regionSize;
+      if (validate(offset, offset + this.regionSize) > 0
+          && (this.map.get(offset + STATE + StateCodec.MASK) & 0xFF) == StateCodec.ALL) {
+        int g = this.map.getInt(offset + GENERATION);
+        if (g > bestGeneration) {
+          best = r;
+          bestGeneration = g;
+        }
+      }
+    }
+    if (best < 0) {
+      return;
+    }
+    int start = best * this.regionSize;
+    int end = start + this.regionSize;
+    int offset = start;
+    long last = Long.MIN_VALUE;
+    while (true) {
+      int n = validate(offset, end);
+      if (n < 0 || this.map.getInt(offset + GENERATION) != bestGeneration) {
+        break;
+      }
+      long c = this.map.getLong(offset + STATE);
+      if (c <= last) {
+        break;
+      }
+      ByteBuffer record = this.map.duplicate();
+      record.limit(offset + n).position(offset + STATE);
+      if (!this.codec.decode(record)) {
+        break;
+      }
+      last = c;
+      offset = offset + n;
+    }
+    this.region = best;
+    this.generation = bestGeneration;
+    this.position = offset - start;
+  }
+
+  /**
+   * Check whether a valid record starts at a given offset.
+   *
+   * @param offset
+   *          The offset of the record.
+   * @param end
+   *          The end of the region containing it.
+   * @return the length of the record, or -1 if it is not valid.
+   */
+  private int validate(int offset, int end) {
+    if (end - offset < STATE + StateCodec.HEADER) {
+      return -1;
+    }
+    int mask = this.map.get(offset + STATE + StateCodec.MASK) & 0xFF;
+    if (mask == 0 || (mask & ~StateCodec.ALL) != 0) {
+      return -1;
+    }
+    int n = STATE + this.codec.length(mask);
+    if (end - offset < n) {
+      return -1;
+    }
+    ByteBuffer view = this.map.duplicate();
+    view.limit(offset + n).position(offset + GENERATION);
+    CRC32 checksum = this.crc;
+    checksum.reset();
+    checksum.update(this.seed);
+    checksum.update(view);
+    return (int) checksum.getValue() == this.map.getInt(offset + CRC) ? n : -1;
+  }
+}
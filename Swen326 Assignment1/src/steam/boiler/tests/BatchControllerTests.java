@@ -0,0 +1,88 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.BatchController;
+import steam.boiler.core.CompiledConfiguration;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check that clocking boilers as a batch produces exactly the same responses as
+ * clocking each of them separately.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class BatchControllerTests {
+
+  /**
+   * Check identical characteristics share the same compiled configuration.
+   */
+  @Test
+  public void test_batch_01() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    SteamBoilerCharacteristics other = config.setNumberOfPumps(config.getNumberOfPumps(),
+        config.getPumpCapacity(0));
+    assertTrue(CompiledConfiguration.of(config) == CompiledConfiguration.of(other));
+    other = config.setNumberOfPumps(config.getNumberOfPumps() + 1, config.getPumpCapacity(0));
+    assertTrue(CompiledConfiguration.of(config) != CompiledConfiguration.of(other));
+  }
+
+  /**
+   * Check a batch behaves exactly like separately clocked controllers over a full run.
+   */
+  @Test
+  public void test_batch_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    int size = 16;
+    BatchController batch = new BatchController(config, size);
+    MySteamBoilerController[] separate = new MySteamBoilerController[size];
+    PhysicalUnits[] models = new PhysicalUnits[size];
+    for (int i = 0; i != size; ++i) {
+      separate[i] = new MySteamBoilerController(config);
+      models[i] = new PhysicalUnits.Template(config).construct();
+      models[i].setMode(PhysicalUnits.Mode.WAITING);
+    }
+    for (int cycle = 0; cycle != 100; ++cycle) {
+      Mailbox[] incoming = new Mailbox[size];
+      Mailbox[] outgoing = new Mailbox[size];
+      Mailbox[] expected = new Mailbox[size];
+      for (int i = 0; i != size; ++i) {
+        models[i].clock(5000);
+        incoming[i] = new UnboundedMailbox(100);
+        outgoing[i] = new UnboundedMailbox(100);
+        expected[i] = new UnboundedMailbox(100);
+        models[i].transmit(incoming[i]);
+        separate[i].clock(incoming[i], expected[i]);
+      }
+      batch.clock(incoming, outgoing);
+      for (int i = 0; i != size; ++i) {
+        assertTrue(outgoing[i].toString().equals(expected[i].toString()));
+        models[i].receive(outgoing[i]);
+      }
+    }
+  }
+
+  /**
+   * Check only a bounded number of compiled configurations are kept, so that a configuration is
+   * no longer shared once many other boilers have been seen since it was last used.
+   */
+  @Test
+  public void test_batch_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    CompiledConfiguration first = CompiledConfiguration.of(config);
+    for (int i = 1; i <= 1000; ++i) {
+      CompiledConfiguration.of(config.setNumberOfPumps(config.getNumberOfPumps(),
+          config.getPumpCapacity(0) + i));
+    }
+    assertTrue(CompiledConfiguration.of(config) != first);
+    assertTrue(CompiledConfiguration.of(config) == CompiledConfiguration.of(config));
+  }
+}
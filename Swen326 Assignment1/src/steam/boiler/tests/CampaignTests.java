@@ -0,0 +1,117 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.bench.FaultCampaign;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the fault injection campaigns, rather than the controller itself.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CampaignTests {
+
+  /**
+   * Check a campaign gives the same results every time for a given seed, however its runs happen
+   * to be spread across cores.
+   */
+  @Test
+  public void test_campaign_01() {
+    FaultCampaign campaign = new FaultCampaign(SteamBoilerCharacteristics.DEFAULT);
+    campaign.setDuration(300);
+    campaign.setGranularity(500);
+    FaultCampaign.Result first = campaign.run(42, 200);
+    FaultCampaign.Result second = campaign.run(42, 200);
+    assertTrue(first.getRuns() == 200);
+    assertTrue(first.toString().equals(second.toString()));
+    assertTrue(campaign.schedule(42, 7).toString().equals(campaign.schedule(42, 7).toString()));
+    assertTrue(!campaign.schedule(42, 7).toString().equals(campaign.schedule(43, 7).toString()));
+  }
+
+  /**
+   * Check runs without any faults never stop the boiler or break its limits.
+   */
+  @Test
+  public void test_campaign_02() {
+    FaultCampaign campaign = new FaultCampaign(SteamBoilerCharacteristics.DEFAULT);
+    campaign.setDuration(300);
+    campaign.setMaxFaults(0);
+    FaultCampaign.Result result = campaign.run(1, 20);
+    assertTrue(result.getFaults() == 0);
+    assertTrue(result.getEmergencyStopRate().getEstimate() == 0);
+    assertTrue(result.getLimitViolationRate().getEstimate() == 0);
+    assertTrue(result.getCrashRate().getEstimate() == 0);
+    // Nothing was seen, but with only twenty runs that is weak evidence.
+    assertTrue(result.getEmergencyStopRate().getHigh() > 0.1);
+  }
+
+  /**
+   * Check an obvious steam sensor failure in normal operation is always detected.
+   */
+  @Test
+  public void test_campaign_03() {
+    FaultCampaign campaign = new FaultCampaign(SteamBoilerCharacteristics.DEFAULT);
+    campaign.setDuration(300);
+    FaultCampaign.Fault fault = new FaultCampaign.Fault(
+        FaultCampaign.FaultKind.STEAM_STUCK_NEGATIVE, 0, 250000, -1);
+    List<FaultCampaign.Fault> schedule = Collections.singletonList(fault);
+    FaultCampaign.Result result = campaign.run(schedule);
+    assertTrue(result.getFaults() == 1);
+    assertTrue(result.getMissedDetectionRate().getEstimate() == 0);
+    assertTrue(result.getCrashRate().getEstimate() == 0);
+  }
+
+  /**
+   * Check the confidence intervals narrow as the number of runs grows, and always contain the
+   * estimate.
+   */
+  @Test
+  public void test_campaign_04() {
+    FaultCampaign campaign = new FaultCampaign(SteamBoilerCharacteristics.DEFAULT);
+    campaign.setDuration(120);
+    campaign.setGranularity(1000);
+    campaign.setKinds(EnumSet.of(FaultCampaign.FaultKind.PUMP_STUCK_CLOSED,
+        FaultCampaign.FaultKind.PUMP_CONTROLLER_STUCK_OFF));
+    FaultCampaign.Result small = campaign.run(5, 50);
+    FaultCampaign.Result large = campaign.run(5, 800);
+    for (FaultCampaign.Result r : new FaultCampaign.Result[] { small, large }) {
+      FaultCampaign.Interval i = r.getEmergencyStopRate();
+      assertTrue(i.getLow() <= i.getEstimate() && i.getEstimate() <= i.getHigh());
+      assertTrue(0 <= i.getLow() && i.getHigh() <= 1);
+    }
+    double narrow = large.getEmergencyStopRate().getHigh() - large.getEmergencyStopRate().getLow();
+    double wide = small.getEmergencyStopRate().getHigh() - small.getEmergencyStopRate().getLow();
+    assertTrue(narrow < wide);
+  }
+
+  /**
+   * Check a fault which the controller cannot see is counted as unobserved rather than missed,
+   * and that a run at a shorter period exchanges messages at that period.
+   */
+  @Test
+  public void test_campaign_05() {
+    FaultCampaign campaign = new FaultCampaign(SteamBoilerCharacteristics.DEFAULT);
+    campaign.setDuration(300);
+    campaign.setPeriod(1000);
+    // Pump 3 is never opened once the boiler is running normally, so its controller reporting no
+    // flow cannot be noticed.
+    FaultCampaign.Fault fault = new FaultCampaign.Fault(
+        FaultCampaign.FaultKind.PUMP_CONTROLLER_STUCK_OFF, 3, 100000, -1);
+    FaultCampaign.Result result = campaign.run(Collections.singletonList(fault));
+    assertTrue(result.getMissedDetectionRate().getEstimate() == 0);
+    assertTrue(result.getUnobservedFaults() == 1);
+    fault = new FaultCampaign.Fault(FaultCampaign.FaultKind.STEAM_STUCK_NEGATIVE, 0, 250000, -1);
+    result = campaign.run(Collections.singletonList(fault));
+    assertTrue(result.getMissedDetectionRate().getEstimate() == 0);
+    assertTrue(result.getUnobservedFaults() == 0);
+  }
+}
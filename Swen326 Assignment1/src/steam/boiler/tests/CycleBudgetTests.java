@@ -0,0 +1,222 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.clockForWithout;
+import static steam.boiler.tests.TestUtils.clockOnceExpecting;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.CycleBudget;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpModels;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check the bounded execution time mode of the controller. That is, a cycle which runs
+ * out of time must still produce a safe response.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CycleBudgetTests {
+
+  /**
+   * Check a generous budget never forces a fallback during normal operation.
+   */
+  @Test
+  public void test_budget_01() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    CycleBudget budget = new CycleBudget(1000000000L);
+    controller.setCycleBudget(budget);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    clockForWithout(240, controller, model, atleast(MODE_emergencystop));
+    assertTrue(budget.getCycles() > 0);
+    assertTrue(budget.getFallbacks() == 0);
+  }
+
+  /**
+   * Check a late cycle in normal mode stays in normal mode, sends no mode message, and holds every
+   * pump where it is, and that the late cycle is recorded.
+   */
+  @Test
+  public void test_budget_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    double normal = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+    cycle(controller, config, normal, 0, MessageKind.STEAM_BOILER_WAITING);
+    cycle(controller, config, normal, 0, MessageKind.PHYSICAL_UNITS_READY);
+    Mailbox outgoing = cycle(controller, config, normal, 0, null);
+    int open = commanded(outgoing, MessageKind.OPEN_PUMP_n);
+    // Every reading of this timer advances by 1ms, so the budget runs out at the first check.
+    final long[] now = {0};
+    CycleBudget budget = new CycleBudget(1500000, 500000, () -> now[0] += 1000000);
+    controller.setCycleBudget(budget);
+    outgoing = cycle(controller, config, normal, open, null);
+    assertEquals(Mode.NORMAL, controller.getSnapshot().getMode());
+    assertTrue(!sent(outgoing, MessageKind.MODE_m));
+    assertEquals(open, commanded(outgoing, MessageKind.OPEN_PUMP_n));
+    assertEquals(config.getNumberOfPumps() - open, commanded(outgoing, MessageKind.CLOSE_PUMP_n));
+    assertTrue(budget.getFallbacks() > 0);
+    assertTrue(budget.getOverruns() > 0);
+  }
+
+  /**
+   * Check an exhausted budget never prevents an emergency stop.
+   */
+  @Test
+  public void test_budget_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    clockForWithout(240, controller, model, atleast(MODE_emergencystop));
+    final long[] now = {0};
+    controller.setCycleBudget(new CycleBudget(1500000, 500000, () -> now[0] += 1000000));
+    model.setPump(0, new PumpModels.TxFailureAll(0, 0.0, model));
+    clockOnceExpecting(controller, model, atleast(MODE_emergencystop));
+  }
+
+  /**
+   * Check that, with the budget exhausted on every cycle, the controller still acknowledges the
+   * physical units being ready, and stops the boiler in normal mode when the level falls below
+   * the lower limit.
+   */
+  @Test
+  public void test_budget_04() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    final long[] now = {0};
+    CycleBudget budget = new CycleBudget(1500000, 500000, () -> now[0] += 1000000);
+    controller.setCycleBudget(budget);
+    double normal = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+    Mailbox outgoing = cycle(controller, config, normal, 0, MessageKind.STEAM_BOILER_WAITING);
+    assertTrue(sent(outgoing, MessageKind.PROGRAM_READY));
+    cycle(controller, config, normal, 0, MessageKind.PHYSICAL_UNITS_READY);
+    assertEquals(Mode.NORMAL, controller.getSnapshot().getMode());
+    outgoing = cycle(controller, config, config.getMinimalLimitLevel() / 2, 0, null);
+    assertEquals(Mode.EMERGENCY_STOP, controller.getSnapshot().getMode());
+    assertTrue(stopped(outgoing));
+  }
+
+  /**
+   * Check that, with the budget exhausted on every cycle, a pump which reports itself open while
+   * held closed is still detected once the pump checks have been skipped for as many cycles in a
+   * row as allowed.
+   */
+  @Test
+  public void test_budget_05() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    final long[] now = {0};
+    controller.setCycleBudget(new CycleBudget(1500000, 500000, () -> now[0] += 1000000));
+    double normal = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+    cycle(controller, config, normal, 0, MessageKind.STEAM_BOILER_WAITING);
+    cycle(controller, config, normal, 0, MessageKind.PHYSICAL_UNITS_READY);
+    boolean detected = false;
+    for (int i = 0; i <= MySteamBoilerController.MAX_SKIPPED_CHECKS && !detected; i = i + 1) {
+      Mailbox outgoing = cycle(controller, config, normal, 1, null);
+      detected = sent(outgoing, MessageKind.PUMP_FAILURE_DETECTION_n);
+    }
+    assertTrue(detected);
+    assertTrue(controller.getSnapshot().getMode() != Mode.EMERGENCY_STOP);
+  }
+
+  /**
+   * Clock the controller once with no steam, and with the first pumps reported open and the rest
+   * closed.
+   *
+   * @param controller
+   *          The controller.
+   * @param config
+   *          The characteristics of the boiler.
+   * @param level
+   *          The level reading.
+   * @param open
+   *          The number of pumps reported open.
+   * @param extra
+   *          A further message to send, or null for none.
+   * @return the messages the controller sent.
+   */
+  private static Mailbox cycle(MySteamBoilerController controller,
+      SteamBoilerCharacteristics config, double level, int open, MessageKind extra) {
+    Mailbox incoming = new UnboundedMailbox(100);
+    incoming.send(new Message(MessageKind.LEVEL_v, level));
+    incoming.send(new Message(MessageKind.STEAM_v, 0.0));
+    for (int p = 0; p != config.getNumberOfPumps(); p = p + 1) {
+      incoming.send(new Message(MessageKind.PUMP_STATE_n_b, p, p < open));
+      incoming.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, p, p < open));
+    }
+    if (extra != null) {
+      incoming.send(new Message(extra));
+    }
+    Mailbox outgoing = new UnboundedMailbox(100);
+    controller.clock(incoming, outgoing);
+    return outgoing;
+  }
+
+  /**
+   * Check whether a message of a given kind was sent.
+   *
+   * @param outgoing
+   *          The messages sent.
+   * @param kind
+   *          The kind.
+   * @return true if one was sent.
+   */
+  private static boolean sent(Mailbox outgoing, MessageKind kind) {
+    for (int i = 0; i != outgoing.size(); i = i + 1) {
+      if (outgoing.read(i).getKind() == kind) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Count the pump commands of a given kind.
+   *
+   * @param outgoing
+   *          The messages sent.
+   * @param kind
+   *          The kind of pump command.
+   * @return the number of commands of that kind.
+   */
+  private static int commanded(Mailbox outgoing, MessageKind kind) {
+    int n = 0;
+    for (int i = 0; i != outgoing.size(); i = i + 1) {
+      if (outgoing.read(i).getKind() == kind) {
+        n = n + 1;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Check whether the controller told the boiler to stop.
+   *
+   * @param outgoing
+   *          The messages sent.
+   * @return true if an emergency stop was sent.
+   */
+  private static boolean stopped(Mailbox outgoing) {
+    for (int i = 0; i != outgoing.size(); i = i + 1) {
+      Message m = outgoing.read(i);
+      if (m.getKind() == MessageKind.MODE_m && m.getModeParameter() == Mode.EMERGENCY_STOP) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,170 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.clockForWithout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.DecisionEvent;
+import steam.boiler.core.DecisionPublisher;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the publication of controller decisions, and in particular that a slow
+ * subscriber can never hold up the controller.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DecisionPublisherTests {
+
+  /**
+   * Check a subscriber sees the controller move into normal mode and command the pumps.
+   */
+  @Test
+  public void test_publisher_01() throws InterruptedException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    Recorder recorder = new Recorder(Long.MAX_VALUE, null);
+    controller.getDecisions().subscribe(recorder, 10000, DecisionPublisher.Overflow.DROP_NEWEST);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    clockForWithout(120, controller, model, atleast(MODE_emergencystop));
+    controller.getDecisions().close();
+    assertTrue(recorder.completed.await(10, TimeUnit.SECONDS));
+    boolean normal = false;
+    boolean pumps = false;
+    for (DecisionEvent e : recorder.events) {
+      if (e.getKind() == DecisionEvent.Kind.MODE_CHANGE
+          && e.getMessage().getModeParameter() == Mode.NORMAL) {
+        normal = true;
+      } else if (e.getKind() == DecisionEvent.Kind.PUMP_COMMAND) {
+        pumps = true;
+      }
+    }
+    assertTrue(normal && pumps);
+  }
+
+  /**
+   * Check a subscriber is never sent more events than it requested.
+   */
+  @Test
+  public void test_publisher_02() throws InterruptedException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    Recorder recorder = new Recorder(3, null);
+    controller.getDecisions().subscribe(recorder, 10000, DecisionPublisher.Overflow.DROP_NEWEST);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    clockForWithout(120, controller, model, atleast(MODE_emergencystop));
+    assertTrue(recorder.received.await(10, TimeUnit.SECONDS));
+    assertTrue(recorder.events.size() == 3);
+  }
+
+  /**
+   * Check a subscriber which blocks forever does not stall the controller, and that it loses the
+   * oldest events once its buffer is full.
+   */
+  @Test
+  public void test_publisher_03() throws InterruptedException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    CountDownLatch release = new CountDownLatch(1);
+    Recorder slow = new Recorder(Long.MAX_VALUE, release);
+    Recorder fast = new Recorder(Long.MAX_VALUE, null);
+    DecisionPublisher.Subscription subscription = controller.getDecisions().subscribe(slow, 4,
+        DecisionPublisher.Overflow.DROP_OLDEST);
+    controller.getDecisions().subscribe(fast, 10000, DecisionPublisher.Overflow.DROP_NEWEST);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    // Wait until the slow subscriber is blocked on its first event, since otherwise how many events
+    // it ends up with depends on when its delivery thread happens to start.
+    clockForWithout(30, controller, model, atleast(MODE_emergencystop));
+    for (int i = 0; i != 1000 && slow.events.isEmpty(); ++i) {
+      Thread.sleep(10);
+    }
+    assertTrue(slow.events.size() == 1);
+    // This would never complete if publication blocked on the slow subscriber.
+    clockForWithout(210, controller, model, atleast(MODE_emergencystop));
+    assertTrue(subscription.getDropped() > 0);
+    release.countDown();
+    controller.getDecisions().close();
+    assertTrue(slow.completed.await(10, TimeUnit.SECONDS));
+    assertTrue(fast.completed.await(10, TimeUnit.SECONDS));
+    // The slow subscriber received the event it was blocked on, followed by the newest four.
+    assertTrue(slow.events.size() == 5);
+    assertTrue(fast.events.size() > slow.events.size());
+  }
+
+  /**
+   * A subscriber which records the events it receives.
+   */
+  private static class Recorder implements DecisionPublisher.Subscriber {
+    /**
+     * The number of events to request.
+     */
+    private final long request;
+
+    /**
+     * If non-null, each delivery waits for this latch.
+     */
+    private final CountDownLatch release;
+
+    /**
+     * The events received.
+     */
+    final List<DecisionEvent> events = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Released on completion.
+     */
+    final CountDownLatch completed = new CountDownLatch(1);
+
+    /**
+     * Released once every requested event has been received, or never if the request is too large
+     * to count.
+     */
+    final CountDownLatch received;
+
+    Recorder(long request, CountDownLatch release) {
+      this.request = request;
+      this.release = release;
+      this.received = new CountDownLatch((int) Math.min(request, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public void onSubscribe(DecisionPublisher.Subscription subscription) {
+      subscription.request(this.request);
+    }
+
+    @Override
+    public void onNext(DecisionEvent event) {
+      this.events.add(event);
+      this.received.countDown();
+      if (this.release != null) {
+        try {
+          this.release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    @Override
+    public void onComplete() {
+      this.completed.countDown();
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.CompiledConfiguration;
+import steam.boiler.core.DecisionTable;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the precomputed table of pump decisions. Wherever the table gives an answer it
+ * must be the one the full prediction gives, it must be shared between controllers for the same
+ * boiler, and for boilers with many pumps it must be small.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DecisionTableTests {
+
+  /**
+   * Check the table for the default boiler over a dense grid of readings, including nonsensical
+   * ones, and check that it answers for most sensible readings.
+   */
+  @Test
+  public void test_table_01() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    int answered = check(config, 5000, 400, 100, 1);
+    assertTrue(answered > 400 * 100 * 3 / 4);
+  }
+
+  /**
+   * Check that controllers for boilers with the same characteristics and period share one table.
+   */
+  @Test
+  public void test_table_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    SteamBoilerCharacteristics same = config.setNumberOfPumps(config.getNumberOfPumps(),
+        config.getPumpCapacity(0));
+    SteamBoilerCharacteristics different = config.setNumberOfPumps(2, config.getPumpCapacity(0));
+    DecisionTable table = CompiledConfiguration.of(config).getDecisionTable(5);
+    assertSame(table, CompiledConfiguration.of(same).getDecisionTable(5));
+    assertTrue(table != CompiledConfiguration.of(different).getDecisionTable(5));
+    assertTrue(table != CompiledConfiguration.of(config).getDecisionTable(1));
+  }
+
+  /**
+   * Check boilers with many small pumps, where the table is at its largest.
+   */
+  @Test
+  public void test_table_03() {
+    for (int pumps : new int[] { 100, 1000, 10000 }) {
+      SteamBoilerCharacteristics config = large(pumps);
+      DecisionTable table = CompiledConfiguration.of(config).getDecisionTable(5);
+      assertTrue(table.getCells() <= DecisionTable.MAX_CELLS);
+      assertTrue(table.getMemory() <= 2L * DecisionTable.MAX_CELLS + 1024);
+      check(config, 5000, 200, 20, Math.max(1, pumps / 100));
+    }
+  }
+
+  /**
+   * Check that, for a boiler with a thousand pumps, every lookup the table answers matches the
+   * full prediction, which looks at every possible number of pumps, and that it answers most
+   * sensible readings. How much faster the lookups are is measured by
+   * <code>DecisionTableBenchmark</code>.
+   */
+  @Test
+  public void test_table_04() {
+    SteamBoilerCharacteristics config = large(1000);
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    DecisionTable table = CompiledConfiguration.of(config).getDecisionTable(5);
+    double c = config.getPumpCapacity(0);
+    double w = config.getMaximualSteamRate();
+    double min = config.getMinimalNormalLevel();
+    double max = config.getMaximalNormalLevel();
+    Random random = new Random(4);
+    int answered = 0;
+    for (int i = 0; i != 1000; i = i + 1) {
+      double level = min + random.nextDouble() * (max - min);
+      int pumps = table.lookup(level, w / 2);
+      if (pumps >= 0) {
+        assertEquals("level " + level, controller.predictPumps(level, c, w, w / 2, min, max),
+            pumps);
+        answered = answered + 1;
+      }
+    }
+    assertTrue(answered + " answered", answered > 500);
+  }
+
+  /**
+   * Check the tables for controllers clocked more often than every five seconds.
+   */
+  @Test
+  public void test_table_05() {
+    for (int period : new int[] { 1000, 500, 100 }) {
+      check(SteamBoilerCharacteristics.DEFAULT, period, 400, 100, 1);
+      check(large(1000), period, 200, 20, 10);
+    }
+  }
+
+  /**
+   * Check that the table agrees with the full prediction for a grid of readings, together with
+   * readings placed on and around each point at which the number of pumps predicted changes.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param period
+   *          The time (in milliseconds) between cycles.
+   * @param levels
+   *          The number of level readings in the grid.
+   * @param steams
+   *          The number of steam readings in the grid.
+   * @param stride
+   *          The gap between the numbers of pumps whose change points are checked.
+   * @return the number of readings in the grid which the table answered.
+   */
+  private static int check(SteamBoilerCharacteristics config, int period, int levels, int steams,
+      int stride) {
+    MySteamBoilerController controller = new MySteamBoilerController(config, period);
+    double t = period / 1000.0;
+    DecisionTable table = CompiledConfiguration.of(config).getDecisionTable(t);
+    double c = config.getPumpCapacity(0);
+    double w = config.getMaximualSteamRate();
+    double min = config.getMinimalNormalLevel();
+    double max = config.getMaximalNormalLevel();
+    int answered = 0;
+    for (int i = 0; i <= levels; i = i + 1) {
+      double level = -10 + i * (config.getCapacity() + 20) / levels;
+      for (int j = 0; j <= steams; j = j + 1) {
+        double steam = -1 + j * (w + 2) / steams;
+        if (check(config, controller, table, level, steam)) {
+          answered = answered + 1;
+        }
+      }
+    }
+    double[] bad = { Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 1e9, -1e9 };
+    for (double value : bad) {
+      check(config, controller, table, value, w / 2);
+      check(config, controller, table, min, value);
+    }
+    double step = t * c;
+    double target = (min + max) / 2 + t / 2 * w;
+    double[] offsets = { 0, 1e-12, -1e-12, 1e-9, -1e-9, 1e-6, -1e-6 };
+    for (int i = 0; i <= config.getNumberOfPumps(); i = i + stride) {
+      double boundary = target - step * (i + 0.5);
+      for (double offset : offsets) {
+        double x = boundary + offset * Math.max(1, Math.abs(boundary));
+        check(config, controller, table, x, 0);
+        check(config, controller, table, x + t / 2 * w, w);
+      }
+    }
+    return answered;
+  }
+
+  /**
+   * Check that the table agrees with the full prediction for one pair of readings.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param controller
+   *          The controller giving the full prediction.
+   * @param table
+   *          The table.
+   * @param level
+   *          The level reading.
+   * @param steam
+   *          The steam reading.
+   * @return true if the table gave an answer.
+   */
+  private static boolean check(SteamBoilerCharacteristics config,
+      MySteamBoilerController controller, DecisionTable table, double level, double steam) {
+    int pumps = table.lookup(level, steam);
+    if (pumps < 0) {
+      return false;
+    }
+    int expected = controller.predictPumps(level, config.getPumpCapacity(0),
+        config.getMaximualSteamRate(), steam, config.getMinimalNormalLevel(),
+        config.getMaximalNormalLevel());
+    assertEquals("level " + level + ", steam " + steam, expected, pumps);
+    return true;
+  }
+
+  /**
+   * Create a boiler with many pumps, each small enough that together they match the default
+   * boiler's pumps.
+   *
+   * @param pumps
+   *          The number of pumps.
+   * @return the characteristics of the boiler.
+   */
+  private static SteamBoilerCharacteristics large(int pumps) {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    double total = config.getPumpCapacity(0) * config.getNumberOfPumps();
+    return config.setNumberOfPumps(pumps, total / pumps);
+  }
+}
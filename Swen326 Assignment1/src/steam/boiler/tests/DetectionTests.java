@@ -0,0 +1,114 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.atleast;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.bench.DetectionBenchmark;
+import steam.boiler.bench.FaultCampaign.FaultKind;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpControllerModels;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check how quickly the controller detects faults, against the baselines stored in
+ * <code>detection-baselines.txt</code>. The baselines are produced by running
+ * {@link DetectionBenchmark#main(String[])}.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DetectionTests {
+
+  /**
+   * Check a report reads back exactly as it was written, and that a report is never a regression
+   * on itself.
+   */
+  @Test
+  public void test_detection_01() throws IOException {
+    DetectionBenchmark benchmark = new DetectionBenchmark(SteamBoilerCharacteristics.DEFAULT);
+    benchmark.setPumpCounts(4);
+    benchmark.setTrials(5);
+    benchmark.setKinds(FaultKind.STEAM_STUCK_NEGATIVE, FaultKind.PUMP_STUCK_CLOSED);
+    DetectionBenchmark.Report report = benchmark.run(7);
+    DetectionBenchmark.Report copy = DetectionBenchmark.Report.read(
+        new StringReader(report.format()));
+    assertTrue(copy.format().equals(report.format()));
+    assertTrue(report.compare(copy, 0).isEmpty());
+    assertTrue(report.getRows().size() == 4);
+    for (DetectionBenchmark.Row r : report.getRows()) {
+      assertTrue(r.getTrials() == 5);
+      assertTrue(r.getDetected() + r.getMissed() + r.getStopped()
+          == r.getTrials() * r.getScenario().getFaults());
+      for (int i = 1; i != 4; i = i + 1) {
+        assertTrue(r.getLatency(i - 1) <= r.getLatency(i));
+      }
+    }
+  }
+
+  /**
+   * Check a fixed selection of the default benchmark's scenarios is no worse than their stored
+   * baselines. Every scenario is seeded by itself, so these run exactly as in the full benchmark.
+   */
+  @Test
+  public void test_detection_02() throws IOException {
+    DetectionBenchmark.Report baseline;
+    try (InputStream in = DetectionTests.class.getResourceAsStream("detection-baselines.txt")) {
+      assertTrue("missing baselines", in != null);
+      baseline = DetectionBenchmark.Report.read(new InputStreamReader(in,
+          StandardCharsets.UTF_8));
+    }
+    DetectionBenchmark benchmark = new DetectionBenchmark(SteamBoilerCharacteristics.DEFAULT);
+    benchmark.setPumpCounts(4);
+    benchmark.setMaxFaults(2);
+    benchmark.setKinds(FaultKind.STEAM_STUCK_HIGH, FaultKind.LEVEL_STUCK_NEGATIVE,
+        FaultKind.PUMP_STUCK_CLOSED, FaultKind.PUMP_CONTROLLER_STUCK_OFF);
+    DetectionBenchmark.Report report = benchmark.run(1);
+    List<String> regressions = report.compare(baseline, 0);
+    assertTrue(regressions.toString(), regressions.isEmpty());
+    assertTrue(report.getRows().size() == 6);
+    for (DetectionBenchmark.Row r : report.getRows()) {
+      assertTrue(r.toString(), baseline.getRow(r.getScenario()) != null);
+    }
+  }
+
+  /**
+   * Check pump controllers failing together are all detected in the same cycle.
+   */
+  @Test
+  public void test_detection_03() {
+    ForkableRun run = new ForkableRun(SteamBoilerCharacteristics.DEFAULT);
+    run.change((PhysicalUnits m) -> m.setMode(PhysicalUnits.Mode.WAITING));
+    run.clockForWithout(240, atleast(MODE_emergencystop));
+    int open = 0;
+    for (int i = 0; i != 4; i = i + 1) {
+      open = open + (run.getController().getSnapshot().isPumpOn(i) ? 1 : 0);
+    }
+    assertTrue(open >= 2);
+    run.change((PhysicalUnits m) -> {
+      for (int i = 0; i != 4; i = i + 1) {
+        m.setPumpController(i, new PumpControllerModels.StuckOff(i, m));
+      }
+    });
+    Mailbox output = run.exchange();
+    int detections = 0;
+    for (int i = 0; i != output.size(); i = i + 1) {
+      if (output.read(i).getKind() == MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n) {
+        detections = detections + 1;
+      }
+    }
+    assertTrue(detections == open);
+  }
+}
@@ -0,0 +1,174 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.bench.DifferentialRunner;
+import steam.boiler.bench.FaultCampaign;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check the differential runner: that the incremental controller agrees with the one
+ * which evaluates everything in full, that the order of messages within a cycle is ignored, that
+ * the first difference is found and reported with its context, and that long runs agree.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DifferentialTests {
+
+  /**
+   * Check that the incremental controller agrees with full evaluation across many fault schedules.
+   */
+  @Test
+  public void test_differential_01() {
+    DifferentialRunner runner = new DifferentialRunner(SteamBoilerCharacteristics.DEFAULT,
+        MySteamBoilerController::new, (SteamBoilerCharacteristics cs) -> {
+          MySteamBoilerController c = new MySteamBoilerController(cs);
+          c.setIncremental(false);
+          return c;
+        });
+    DifferentialRunner.Result result = runner.run(326, 200);
+    assertEquals(200, result.getRuns());
+    assertTrue(result.getCycles() > 200 * 10);
+    assertEquals(result.toString(), null, result.getDivergence());
+  }
+
+  /**
+   * Check that a controller which sends the same messages in a different order agrees.
+   */
+  @Test
+  public void test_differential_02() {
+    DifferentialRunner runner = new DifferentialRunner(SteamBoilerCharacteristics.DEFAULT,
+        MySteamBoilerController::new, (SteamBoilerCharacteristics cs) -> new Mutant(cs, -1));
+    DifferentialRunner.Result result = runner.run(7, 50);
+    assertEquals(result.toString(), null, result.getDivergence());
+  }
+
+  /**
+   * Check that a controller which drops a message is caught in the first run and cycle where it
+   * does so, with the recent cycles and the missing message reported.
+   */
+  @Test
+  public void test_differential_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    DifferentialRunner runner = new DifferentialRunner(config, MySteamBoilerController::new,
+        (SteamBoilerCharacteristics cs) -> new Mutant(cs, MessageKind.PUMP_FAILURE_DETECTION_n
+            .ordinal()));
+    runner.setContext(4);
+    DifferentialRunner.Result result = runner.run(11, 100);
+    DifferentialRunner.Divergence divergence = result.getDivergence();
+    assertTrue(divergence != null);
+    List<Message> missing = divergence.getReferenceOnly();
+    assertEquals(1, missing.size());
+    assertEquals(MessageKind.PUMP_FAILURE_DETECTION_n, missing.get(0).getKind());
+    assertEquals(0, divergence.getCandidateOnly().size());
+    String report = divergence.toString();
+    assertTrue(report, report.contains("cycle " + divergence.getCycle() + "\n"));
+    assertTrue(report, report.contains("cycle " + (divergence.getCycle() - 4) + "\n"));
+    // No earlier run diverges, and replaying the reported schedule reproduces the divergence.
+    FaultCampaign campaign = new FaultCampaign(config);
+    for (long i = 0; i != divergence.getRun(); i = i + 1) {
+      assertEquals(null, runner.run(campaign.schedule(11, i)).getDivergence());
+    }
+    DifferentialRunner.Divergence again = runner.run(divergence.getFaults()).getDivergence();
+    assertTrue(again != null && again.getCycle() == divergence.getCycle());
+  }
+
+  /**
+   * Check that a controller which throws where the reference does not is reported, in a run
+   * without faults.
+   */
+  @Test
+  public void test_differential_04() {
+    DifferentialRunner runner = new DifferentialRunner(SteamBoilerCharacteristics.DEFAULT,
+        MySteamBoilerController::new, (SteamBoilerCharacteristics cs) -> new Mutant(cs, -2));
+    DifferentialRunner.Divergence divergence = runner.run(new ArrayList<FaultCampaign.Fault>())
+        .getDivergence();
+    assertTrue(divergence != null);
+    assertEquals(30, divergence.getCycle());
+    assertTrue(divergence.toString(), divergence.toString().contains("IllegalStateException"));
+  }
+
+  /**
+   * Check that two copies of the real controller agree over hour-long runs, as compared by the
+   * throughput benchmark in <code>DifferentialRunner.main</code>.
+   */
+  @Test
+  public void test_differential_05() {
+    DifferentialRunner runner = new DifferentialRunner(SteamBoilerCharacteristics.DEFAULT,
+        MySteamBoilerController::new, MySteamBoilerController::new);
+    runner.setGranularity(1000);
+    runner.setDuration(3600);
+    DifferentialRunner.Result result = runner.run(5, 20);
+    assertEquals(20, result.getRuns());
+    assertTrue(result.getCycles() > 20 * 10);
+    assertEquals(result.toString(), null, result.getDivergence());
+  }
+
+  /**
+   * A controller which sends what the real controller sends, but in reverse order, and optionally
+   * without messages of one kind or throwing in its thirty-first cycle.
+   */
+  private static final class Mutant implements SteamBoilerController {
+    /**
+     * The real controller.
+     */
+    private final MySteamBoilerController controller;
+
+    /**
+     * The ordinal of the kind of message to drop, -1 to drop nothing, or -2 to throw instead.
+     */
+    private final int drop;
+
+    /**
+     * The number of cycles so far.
+     */
+    private int cycles;
+
+    /**
+     * Construct a mutant.
+     *
+     * @param config
+     *          The characteristics of the boiler.
+     * @param drop
+     *          The ordinal of the kind of message to drop, -1 to drop nothing, or -2 to throw.
+     */
+    Mutant(SteamBoilerCharacteristics config, int drop) {
+      this.controller = new MySteamBoilerController(config);
+      this.drop = drop;
+    }
+
+    @Override
+    public String getStatusMessage() {
+      return this.controller.getStatusMessage();
+    }
+
+    @Override
+    public void clock(Mailbox incoming, Mailbox outgoing) {
+      this.cycles = this.cycles + 1;
+      if (this.drop == -2 && this.cycles == 31) {
+        throw new IllegalStateException();
+      }
+      Mailbox sent = new UnboundedMailbox(100);
+      this.controller.clock(incoming, sent);
+      for (int i = sent.size() - 1; i >= 0; i = i - 1) {
+        if (sent.read(i).getKind().ordinal() != this.drop) {
+          outgoing.send(sent.read(i));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.FleetScheduler;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check that a fleet of boilers sharing an overloaded host is still kept within its
+ * limits, since the boilers closest to their limits are always clocked first.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class FleetSchedulerTests {
+
+  /**
+   * Check every boiler is clocked when the host has enough capacity.
+   */
+  @Test
+  public void test_fleet_01() {
+    int deferred = run(8, 8, 300, 4);
+    assertTrue(deferred == 0);
+  }
+
+  /**
+   * Check no boiler crosses a limit when the host can only clock three quarters of the fleet each
+   * cycle.
+   */
+  @Test
+  public void test_fleet_02() {
+    int deferred = run(8, 6, 600, 4);
+    assertTrue(deferred > 0);
+  }
+
+  /**
+   * Check no boiler crosses a limit when the host can only clock half of a larger fleet with more
+   * pumps each cycle.
+   */
+  @Test
+  public void test_fleet_03() {
+    int deferred = run(16, 8, 600, 6);
+    assertTrue(deferred > 0);
+  }
+
+  /**
+   * Check that a boiler deferred while its physical units are waiting, and so sent the same
+   * one-off messages again in its next cycle, is given each of them once and reaches normal mode
+   * without stopping.
+   */
+  @Test
+  public void test_fleet_04() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    FleetScheduler scheduler = new FleetScheduler(1);
+    FleetScheduler.Boiler[] boilers = new FleetScheduler.Boiler[2];
+    PhysicalUnits[] models = new PhysicalUnits[2];
+    for (int i = 0; i != 2; ++i) {
+      boilers[i] = scheduler.register(new MySteamBoilerController(config));
+      models[i] = new PhysicalUnits.Template(config).construct();
+      models[i].setMode(PhysicalUnits.Mode.WAITING);
+    }
+    boolean deferredWaiting = false;
+    for (int totalElapsed = 0; totalElapsed < 900 * 1000; totalElapsed += 100) {
+      for (int i = 0; i != 2; ++i) {
+        models[i].clock(100);
+      }
+      if ((totalElapsed % 5000) == 0) {
+        scheduler.beginCycle();
+        for (int i = 0; i != 2; ++i) {
+          models[i].transmit(boilers[i].getIncoming());
+        }
+        scheduler.runCycle();
+        for (int i = 0; i != 2; ++i) {
+          Mode mode = boilers[i].getController().getSnapshot().getMode();
+          if (scheduler.wasClocked(boilers[i])) {
+            Mailbox incoming = boilers[i].getIncoming();
+            int waiting = 0;
+            for (int j = 0; j != incoming.size(); ++j) {
+              if (incoming.read(j).getKind() == MessageKind.STEAM_BOILER_WAITING) {
+                waiting = waiting + 1;
+              }
+            }
+            assertTrue("boiler " + i + " was given " + incoming, waiting <= 1);
+            assertTrue("boiler " + i + " stopped after " + totalElapsed + "ms",
+                mode != Mode.EMERGENCY_STOP);
+            models[i].receive(boilers[i].getOutgoing());
+          } else if (mode == Mode.INITIALISATION) {
+            deferredWaiting = true;
+          }
+        }
+      }
+    }
+    assertTrue(deferredWaiting);
+    for (int i = 0; i != 2; ++i) {
+      assertEquals("boiler " + i, Mode.NORMAL, boilers[i].getController().getSnapshot().getMode());
+    }
+  }
+
+  /**
+   * Run a fleet of identical boilers on a host of a given capacity, checking after every step that
+   * no boiler has crossed a limit level.
+   *
+   * @param size
+   *          The number of boilers in the fleet.
+   * @param capacity
+   *          The number of boilers the host can clock per cycle.
+   * @param time
+   *          The amount of time (in seconds) to run for.
+   * @param numberOfPumps
+   *          The number of pumps in each boiler.
+   * @return the total number of deferred boiler cycles.
+   */
+  private static int run(int size, int capacity, int time, int numberOfPumps) {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    config = config.setNumberOfPumps(numberOfPumps, config.getPumpCapacity(0));
+    FleetScheduler scheduler = new FleetScheduler(capacity);
+    FleetScheduler.Boiler[] boilers = new FleetScheduler.Boiler[size];
+    PhysicalUnits[] models = new PhysicalUnits[size];
+    boolean[] filled = new boolean[size];
+    for (int i = 0; i != size; ++i) {
+      boilers[i] = scheduler.register(new MySteamBoilerController(config));
+      models[i] = new PhysicalUnits.Template(config).construct();
+      models[i].setMode(PhysicalUnits.Mode.WAITING);
+    }
+    final int granularity = 100; // ms
+    int deferred = 0;
+    for (int totalElapsed = 0; totalElapsed < time * 1000; totalElapsed += granularity) {
+      for (int i = 0; i != size; ++i) {
+        models[i].clock(granularity);
+      }
+      if ((totalElapsed % 5000) == 0) {
+        scheduler.beginCycle();
+        for (int i = 0; i != size; ++i) {
+          models[i].transmit(boilers[i].getIncoming());
+        }
+        deferred += scheduler.runCycle();
+        for (int i = 0; i != size; ++i) {
+          if (scheduler.wasClocked(boilers[i])) {
+            models[i].receive(boilers[i].getOutgoing());
+          }
+        }
+      }
+      // Each boiler starts empty, so its limits are only checked once it has been filled to the
+      // normal range.
+      for (int i = 0; i != size; ++i) {
+        double level = models[i].getBoiler().getWaterLevel();
+        if (level >= config.getMinimalNormalLevel() && level <= config.getMaximalNormalLevel()) {
+          filled[i] = true;
+        } else if (filled[i]
+            && (level > config.getMaximalLimitLevel() || level < config.getMinimalLimitLevel())) {
+          fail("Boiler " + i + " crossed a limit (level " + level + " after " + totalElapsed
+              + "ms)");
+        }
+      }
+    }
+    return deferred;
+  }
+}
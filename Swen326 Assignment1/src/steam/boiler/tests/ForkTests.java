@@ -0,0 +1,140 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.LEVEL_FAILURE_DETECTION;
+import static steam.boiler.tests.TestUtils.MODE_degraded;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.MODE_rescue;
+import static steam.boiler.tests.TestUtils.STEAM_FAILURE_DETECTION;
+import static steam.boiler.tests.TestUtils.atleast;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.CycleBudget;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.LevelSensorModels;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.SteamSensorModels;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check runs forked from a shared warmed-up state behave exactly as the original run
+ * would have, and that forks are independent of each other.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ForkTests {
+
+  /**
+   * Check a fork continues exactly as the run it was forked from.
+   */
+  @Test
+  public void test_fork_01() {
+    ForkableRun run = warmedUp();
+    ForkableRun fork = run.fork();
+    for (int totalElapsed = 0; totalElapsed < 120000; totalElapsed += 100) {
+      Mailbox expected = run.clock(100, totalElapsed);
+      Mailbox actual = fork.clock(100, totalElapsed);
+      assertTrue(expected == null ? actual == null : expected.toString().equals(actual.toString()));
+    }
+    assertTrue(run.getModel().getBoiler().getWaterLevel()
+        == fork.getModel().getBoiler().getWaterLevel());
+    assertTrue(fork.getController().getSnapshot().getMode() == Mode.NORMAL);
+  }
+
+  /**
+   * Check a matrix of sensor faults, each explored in its own fork of the same warmed-up run. This
+   * mirrors the degraded and rescue mode tests, without initialising the boiler for every fault.
+   */
+  @Test
+  public void test_fork_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    ForkableRun run = warmedUp();
+    ForkableRun fork = run.fork();
+    fork.change((PhysicalUnits m) -> m.setSteamSensor(new SteamSensorModels.StuckNegativeOne(m)));
+    fork.clockOnceExpecting(atleast(MODE_degraded, STEAM_FAILURE_DETECTION));
+    fork = run.fork();
+    fork.change((PhysicalUnits m) -> m.setSteamSensor(
+        new SteamSensorModels.Stuck(m, config.getCapacity())));
+    fork.clockOnceExpecting(atleast(MODE_degraded, STEAM_FAILURE_DETECTION));
+    fork = run.fork();
+    fork.change((PhysicalUnits m) -> m.setLevelSensor(new LevelSensorModels.StuckNegativeOne(m)));
+    fork.clockOnceExpecting(atleast(MODE_rescue, LEVEL_FAILURE_DETECTION));
+    // The faults in the forks have no effect on the original run.
+    run.clockForWithout(60, atleast(MODE_emergencystop));
+    assertTrue(run.getController().getSnapshot().getMode() == Mode.NORMAL);
+  }
+
+  /**
+   * Check a fork of a fork sees the changes made to its parent before the fork, but not after.
+   */
+  @Test
+  public void test_fork_03() {
+    ForkableRun run = warmedUp();
+    ForkableRun parent = run.fork();
+    parent.change((PhysicalUnits m) -> m.setSteamSensor(new SteamSensorModels.StuckNegativeOne(m)));
+    parent.exchange();
+    ForkableRun child = parent.fork();
+    parent.change((PhysicalUnits m) -> m.setLevelSensor(new LevelSensorModels.StuckNegativeOne(m)));
+    assertTrue(child.getController().getSnapshot().getMode() == Mode.DEGRADED);
+    assertTrue(child.getController().getSnapshot().isSteamFaulty());
+    child.clockForWithout(30, atleast(LEVEL_FAILURE_DETECTION));
+  }
+
+  /**
+   * Check a fork keeps the period and options of its controller, and takes the physical units as
+   * they are at the fork point, including changes made since the run last exchanged messages.
+   */
+  @Test
+  public void test_fork_04() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config, 2500);
+    controller.setIncremental(false);
+    ForkableRun run = new ForkableRun(config, controller);
+    run.change((PhysicalUnits m) -> m.setMode(PhysicalUnits.Mode.WAITING));
+    run.clockForWithout(240, atleast(MODE_emergencystop));
+    ForkableRun fork = run.fork();
+    assertTrue(fork.getController().getPeriod() == 2500);
+    for (int totalElapsed = 0; totalElapsed < 60000; totalElapsed += 100) {
+      Mailbox expected = run.clock(100, totalElapsed);
+      Mailbox actual = fork.clock(100, totalElapsed);
+      assertTrue(expected == null ? actual == null : expected.toString().equals(actual.toString()));
+    }
+    run.change((PhysicalUnits m) -> m.setSteamSensor(new SteamSensorModels.StuckNegativeOne(m)));
+    run.fork().clockOnceExpecting(atleast(MODE_degraded, STEAM_FAILURE_DETECTION));
+  }
+
+  /**
+   * Check a fork's controller has its own cycle budget, so clocking the fork records nothing in
+   * the budget of the original.
+   */
+  @Test
+  public void test_fork_05() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    CycleBudget budget = new CycleBudget(1000000000L);
+    controller.setCycleBudget(budget);
+    ForkableRun run = new ForkableRun(config, controller);
+    run.change((PhysicalUnits m) -> m.setMode(PhysicalUnits.Mode.WAITING));
+    run.clockForWithout(60, atleast(MODE_emergencystop));
+    long cycles = budget.getCycles();
+    run.fork().clockForWithout(60, atleast(MODE_emergencystop));
+    assertTrue(cycles > 0 && budget.getCycles() == cycles);
+  }
+
+  /**
+   * Run a boiler until it is operating normally.
+   *
+   * @return the run.
+   */
+  private static ForkableRun warmedUp() {
+    ForkableRun run = new ForkableRun(SteamBoilerCharacteristics.DEFAULT);
+    run.change((PhysicalUnits m) -> m.setMode(PhysicalUnits.Mode.WAITING));
+    run.clockForWithout(240, atleast(MODE_emergencystop));
+    return run;
+  }
+}
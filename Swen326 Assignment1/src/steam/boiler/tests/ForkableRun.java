@@ -0,0 +1,363 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.tests.TestUtils.MailboxMatcher;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * A controller running against a model of the physical units, which can be forked at any point to
+ * explore different futures (e.g. different faults) from a shared, warmed-up state. This provides
+ * the same clocking operations as {@link TestUtils}.
+ *
+ * <p>A fork gets a copy of the controller straight away, with the same period and options, so no
+ * fork has to go through initialisation again. <code>PhysicalUnits</code> offers no way to copy it
+ * or set its state, so a fork instead rebuilds its physical units when first used, by replaying
+ * every input they were given into a fresh model. Those inputs are the clocks, the changes made
+ * through {@link #change(Consumer)}, and the exchanges with the controller, whose messages are
+ * produced again by a fresh copy of the controller the run started with. Since the controller and
+ * model are deterministic, this gives the same physical units. The history records no messages,
+ * and runs of identical clocks and exchanges are kept as a single input, so it stays small however
+ * long the run has been going; it is immutable, so forks share it.
+ *
+ * <p>Any change to the physical units must be made through {@link #change(Consumer)}, since a
+ * change made directly to the model returned by {@link #getModel()} is not replayed into forks.
+ *
+ */
+public final class ForkableRun {
+  /**
+   * The characteristics of the boiler.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * The controller.
+   */
+  private final MySteamBoilerController controller;
+
+  /**
+   * A copy of the controller as it was when the run started, which is never clocked.
+   */
+  private final MySteamBoilerController origin;
+
+  /**
+   * The physical units, or null if they have not been rebuilt from the history yet.
+   */
+  private PhysicalUnits model;
+
+  /**
+   * The most recent input to the physical units, or null if there has been none.
+   */
+  private Event history;
+
+  /**
+   * Start a run from scratch.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   */
+  public ForkableRun(SteamBoilerCharacteristics config) {
+    this(config, new MySteamBoilerController(config));
+  }
+
+  /**
+   * Start a run from scratch with a given controller, which may have a different period or other
+   * options.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param controller
+   *          The controller, which has not yet been clocked.
+   */
+  public ForkableRun(SteamBoilerCharacteristics config, MySteamBoilerController controller) {
+    this(config, controller, controller.copy(), null);
+    this.model = new PhysicalUnits.Template(config).construct();
+  }
+
+  /**
+   * Construct a run in a given state.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param controller
+   *          The controller.
+   * @param origin
+   *          A copy of the controller as it was when the run started.
+   * @param history
+   *          The most recent input to the physical units, or null if there has been none.
+   */
+  private ForkableRun(SteamBoilerCharacteristics config, MySteamBoilerController controller,
+      MySteamBoilerController origin, Event history) {
+    this.config = config;
+    this.controller = controller;
+    this.origin = origin;
+    this.history = history;
+  }
+
+  /**
+   * Create an independent copy of this run in its current state.
+   *
+   * @return the fork.
+   */
+  public ForkableRun fork() {
+    return new ForkableRun(this.config, this.controller.copy(), this.origin, this.history);
+  }
+
+  /**
+   * Get the controller of this run.
+   *
+   * @return the controller.
+   */
+  public MySteamBoilerController getController() {
+    return this.controller;
+  }
+
+  /**
+   * Get the physical units of this run, rebuilding them first if necessary. These must only be
+   * changed through {@link #change(Consumer)}.
+   *
+   * @return the physical units.
+   */
+  public PhysicalUnits getModel() {
+    if (this.model == null) {
+      this.model = replay(this.config, this.origin, this.history);
+    }
+    return this.model;
+  }
+
+  /**
+   * Change the physical units, for example to break a component. Since the change may be replayed
+   * into a different model, it must only refer to the model it is given.
+   *
+   * @param change
+   *          The change to apply.
+   */
+  public void change(Consumer<PhysicalUnits> change) {
+    change.accept(getModel());
+    this.history = new Event(this.history, 0, 0, false, 1, change);
+  }
+
+  /**
+   * Clock the combined system, as for {@link TestUtils#clock}.
+   *
+   * @param elapsed
+   *          The elapsed time (in milliseconds) since the last clock.
+   * @param totalElapsed
+   *          The total amount of elapsed time (in milliseconds), which determines when messages
+   *          are exchanged.
+   * @return Any messages received from the controller, or null if this wasn't a transmission cycle.
+   */
+  public Mailbox clock(int elapsed, int totalElapsed) {
+    getModel().clock(elapsed);
+    Event h = this.history;
+    if (h != null && h.isOpen() && h.elapsed == elapsed) {
+      // Coalesce with the previous event, leaving that one untouched for any forks sharing it.
+      this.history = new Event(h.previous, h.ticks + 1, elapsed, false, 1, null);
+    } else {
+      this.history = new Event(h, 1, elapsed, false, 1, null);
+    }
+    if ((totalElapsed % getController().getPeriod()) == 0) {
+      return exchange();
+    }
+    return null;
+  }
+
+  /**
+   * Exchange messages between the controller and the physical units once.
+   *
+   * @return the messages sent by the controller.
+   */
+  public Mailbox exchange() {
+    PhysicalUnits m = getModel();
+    Mailbox input = new UnboundedMailbox(100);
+    Mailbox output = new UnboundedMailbox(100);
+    m.transmit(input);
+    this.controller.clock(input, output);
+    m.receive(output);
+    Event h = this.history;
+    Event exchanged = h != null && h.isOpen()
+        ? new Event(h.previous, h.ticks, h.elapsed, true, 1, null)
+        : new Event(h, 0, 0, true, 1, null);
+    Event p = exchanged.previous;
+    if (p != null && p.change == null && p.exchanged && p.ticks == exchanged.ticks
+        && p.elapsed == exchanged.elapsed) {
+      // The same clocks and exchange as before, as happens every period of a steady run.
+      exchanged = new Event(p.previous, p.ticks, p.elapsed, true, p.repeats + 1, null);
+    }
+    this.history = exchanged;
+    return output;
+  }
+
+  /**
+   * Exchange messages once, as for {@link TestUtils#clockOnceExpecting}.
+   *
+   * @param matcher
+   *          The messages the controller is expected to send.
+   */
+  public void clockOnceExpecting(MailboxMatcher matcher) {
+    Mailbox output = exchange();
+    if (!matcher.matches(output)) {
+      fail("did not expect to receive " + output + ", expected " + matcher);
+    }
+  }
+
+  /**
+   * Clock the system until a given event has occurred, as for {@link TestUtils#clockUntil}.
+   *
+   * @param timeout
+   *          The maximum amount of time (in seconds) to wait for the event.
+   * @param matcher
+   *          The matcher used for the event in question.
+   */
+  public void clockUntil(int timeout, MailboxMatcher matcher) {
+    int granularity = TestUtils.granularity(this.controller);
+    for (int totalElapsed = 0; totalElapsed < timeout * 1000; totalElapsed += granularity) {
+      Mailbox received = clock(granularity, totalElapsed);
+      if (received != null && matcher.matches(received)) {
+        return;
+      }
+    }
+    fail("timeout occurred");
+  }
+
+  /**
+   * Clock the system for a given amount of time, whilst ensuring a particular event does not
+   * happen, as for {@link TestUtils#clockForWithout}.
+   *
+   * @param time
+   *          The amount of time (in seconds) to clock the system for.
+   * @param matcher
+   *          The matcher used for the event in question which we want to avoid.
+   */
+  public void clockForWithout(int time, MailboxMatcher matcher) {
+    int granularity = TestUtils.granularity(this.controller);
+    for (int totalElapsed = 0; totalElapsed < time * 1000; totalElapsed += granularity) {
+      Mailbox received = clock(granularity, totalElapsed);
+      if (received != null && matcher.matches(received)) {
+        fail("bad event happened after " + totalElapsed + "ms (" + received + ")");
+      }
+    }
+  }
+
+  /**
+   * Rebuild the physical units by replaying every input they were given into a fresh model, with
+   * a fresh copy of the original controller producing the messages they receive.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param origin
+   *          The controller as it was when the run started.
+   * @param history
+   *          The most recent input.
+   * @return the rebuilt physical units.
+   */
+  private static PhysicalUnits replay(SteamBoilerCharacteristics config,
+      MySteamBoilerController origin, Event history) {
+    List<Event> events = new ArrayList<>();
+    for (Event e = history; e != null; e = e.previous) {
+      events.add(e);
+    }
+    PhysicalUnits m = new PhysicalUnits.Template(config).construct();
+    MySteamBoilerController controller = origin.copy();
+    for (int i = events.size() - 1; i >= 0; i = i - 1) {
+      Event e = events.get(i);
+      if (e.change != null) {
+        e.change.accept(m);
+        continue;
+      }
+      for (int r = 0; r != e.repeats; r = r + 1) {
+        for (int j = 0; j != e.ticks; j = j + 1) {
+          m.clock(e.elapsed);
+        }
+        if (e.exchanged) {
+          Mailbox input = new UnboundedMailbox(100);
+          Mailbox output = new UnboundedMailbox(100);
+          m.transmit(input);
+          controller.clock(input, output);
+          m.receive(output);
+        }
+      }
+    }
+    return m;
+  }
+
+  /**
+   * An input to the physical units: either a change, or a number of clocks optionally followed by
+   * an exchange with the controller, repeated a number of times. Events are never modified, so
+   * they can be shared by any number of forks.
+   */
+  private static final class Event {
+    /**
+     * The input before this one, or null if this is the first.
+     */
+    final Event previous;
+
+    /**
+     * The number of consecutive clocks, which may be zero.
+     */
+    final int ticks;
+
+    /**
+     * The time elapsed by each clock.
+     */
+    final int elapsed;
+
+    /**
+     * Whether the clocks are followed by an exchange with the controller.
+     */
+    final boolean exchanged;
+
+    /**
+     * The number of times the clocks and exchange happen in a row.
+     */
+    final int repeats;
+
+    /**
+     * The change made, or null if this is not a change.
+     */
+    final Consumer<PhysicalUnits> change;
+
+    /**
+     * Construct an input.
+     *
+     * @param previous
+     *          The input before this one, or null if this is the first.
+     * @param ticks
+     *          The number of consecutive clocks.
+     * @param elapsed
+     *          The time elapsed by each clock.
+     * @param exchanged
+     *          Whether the clocks are followed by an exchange.
+     * @param repeats
+     *          The number of times the clocks and exchange happen in a row.
+     * @param change
+     *          The change made, or null if this is not a change.
+     */
+    Event(Event previous, int ticks, int elapsed, boolean exchanged, int repeats,
+        Consumer<PhysicalUnits> change) {
+      this.previous = previous;
+      this.ticks = ticks;
+      this.elapsed = elapsed;
+      this.exchanged = exchanged;
+      this.repeats = repeats;
+      this.change = change;
+    }
+
+    /**
+     * Check whether this is a run of clocks which further clocks or an exchange can join.
+     *
+     * @return true if this is a single run of clocks with no exchange yet.
+     */
+    boolean isOpen() {
+      return this.change == null && !this.exchanged && this.repeats == 1 && this.ticks > 0;
+    }
+  }
+}
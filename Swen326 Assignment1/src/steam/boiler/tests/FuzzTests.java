@@ -0,0 +1,387 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.ControllerSnapshot;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests feed the controller large numbers of malformed mailboxes, such as missing or
+ * repeated readings, readings for pumps which do not exist and nonsensical values. Whatever it is
+ * given, the controller must never throw, never name a pump which does not exist, and must stop
+ * the boiler whenever a level or steam reading is missing or ambiguous.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class FuzzTests {
+
+  /**
+   * The values used to replace a reading.
+   */
+  private static final double[] BAD_VALUES = { Double.NaN, -1, -0.5, Double.POSITIVE_INFINITY,
+      Double.NEGATIVE_INFINITY, Double.MAX_VALUE, 1e9 };
+
+  /**
+   * Check mailboxes with a single mutation, which exercises each kind of malformed input on its
+   * own.
+   */
+  @Test
+  public void test_fuzz_01() {
+    fuzz(SteamBoilerCharacteristics.DEFAULT, 1, 1, 100000);
+  }
+
+  /**
+   * Check mailboxes with several mutations at once.
+   */
+  @Test
+  public void test_fuzz_02() {
+    fuzz(SteamBoilerCharacteristics.DEFAULT, 2, 5, 100000);
+  }
+
+  /**
+   * Check a boiler with a different number of pumps, so that an index which is valid for the
+   * default boiler is not valid here.
+   */
+  @Test
+  public void test_fuzz_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    config = config.setNumberOfPumps(2, config.getPumpCapacity(0));
+    fuzz(config, 3, 3, 100000);
+  }
+
+  /**
+   * Check mailboxes which are well-formed except for a repeated level reading, which the
+   * controller used to trip over, always stop the boiler.
+   */
+  @Test
+  public void test_fuzz_04() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    Mailbox incoming = wellFormed(config, controller.getSnapshot(), new Random(4));
+    incoming.send(new Message(MessageKind.LEVEL_v, config.getMinimalNormalLevel()));
+    Mailbox outgoing = new UnboundedMailbox(100);
+    controller.clock(incoming, outgoing);
+    assertTrue(stopped(outgoing));
+    assertTrue(controller.getSnapshot().getMode() == Mode.EMERGENCY_STOP);
+  }
+
+  /**
+   * Feed a controller randomly mutated mailboxes, checking every response. A fresh controller is
+   * used whenever the boiler has been stopped, since nothing further happens after that.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param seed
+   *          The seed for the random mutations.
+   * @param maxMutations
+   *          The largest number of mutations applied to any one mailbox.
+   * @param iterations
+   *          The number of mailboxes to try.
+   */
+  private static void fuzz(SteamBoilerCharacteristics config, long seed, int maxMutations,
+      int iterations) {
+    Random random = new Random(seed);
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    for (int i = 0; i != iterations; i = i + 1) {
+      Mailbox incoming = wellFormed(config, controller.getSnapshot(), random);
+      int mutations = random.nextInt(maxMutations + 1);
+      for (int j = 0; j != mutations; j = j + 1) {
+        incoming = mutate(config, incoming, random);
+      }
+      Mailbox outgoing = new UnboundedMailbox(100);
+      try {
+        controller.clock(incoming, outgoing);
+      } catch (RuntimeException | AssertionError e) {
+        fail("controller threw " + e + " on " + incoming);
+      }
+      check(config, incoming, outgoing, controller);
+      if (controller.getSnapshot().getMode() == Mode.EMERGENCY_STOP) {
+        controller = new MySteamBoilerController(config);
+      }
+    }
+  }
+
+  /**
+   * Check the response of a controller to a mailbox.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param incoming
+   *          The mailbox given to the controller.
+   * @param outgoing
+   *          The messages sent by the controller.
+   * @param controller
+   *          The controller.
+   */
+  private static void check(SteamBoilerCharacteristics config, Mailbox incoming,
+      Mailbox outgoing, MySteamBoilerController controller) {
+    int pumps = config.getNumberOfPumps();
+    for (int i = 0; i != outgoing.size(); i = i + 1) {
+      Message m = outgoing.read(i);
+      if (namesPump(m.getKind())) {
+        int pump = m.getIntegerParameter();
+        if (pump < 0 || pump >= pumps) {
+          fail("sent " + m + " in response to " + incoming);
+        }
+      }
+    }
+    if (malformed(pumps, incoming)) {
+      if (!stopped(outgoing) || controller.getSnapshot().getMode() != Mode.EMERGENCY_STOP) {
+        fail("did not stop the boiler in response to " + incoming + ", sent " + outgoing);
+      }
+    }
+  }
+
+  /**
+   * Create a mailbox of the sort the physical units would send, with sensible readings which
+   * match the pumps the controller believes are open. Sometimes the boiler also reports that it
+   * is waiting, or that the physical units are ready, so that the controller moves through its
+   * modes.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param state
+   *          The state of the controller.
+   * @param random
+   *          The source of randomness.
+   * @return the mailbox.
+   */
+  private static Mailbox wellFormed(SteamBoilerCharacteristics config, ControllerSnapshot state,
+      Random random) {
+    Mailbox mailbox = new UnboundedMailbox(100);
+    double low = config.getMinimalNormalLevel();
+    double high = config.getMaximalNormalLevel();
+    mailbox.send(new Message(MessageKind.LEVEL_v, low + random.nextDouble() * (high - low)));
+    double steam = random.nextInt(4) == 0 ? 0
+        : random.nextDouble() * config.getMaximualSteamRate();
+    mailbox.send(new Message(MessageKind.STEAM_v, steam));
+    for (int p = 0; p != config.getNumberOfPumps(); p = p + 1) {
+      mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, p, state.isPumpOn(p)));
+    }
+    for (int p = 0; p != config.getNumberOfPumps(); p = p + 1) {
+      mailbox.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, p, state.isPumpOn(p)));
+    }
+    switch (random.nextInt(8)) {
+      case 0:
+        mailbox.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+        break;
+      case 1:
+        mailbox.send(new Message(MessageKind.PHYSICAL_UNITS_READY));
+        break;
+      default:
+        break;
+    }
+    return mailbox;
+  }
+
+  /**
+   * Apply one random mutation to a mailbox.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param mailbox
+   *          The mailbox to mutate, which is left unchanged.
+   * @param random
+   *          The source of randomness.
+   * @return the mutated mailbox.
+   */
+  private static Mailbox mutate(SteamBoilerCharacteristics config, Mailbox mailbox,
+      Random random) {
+    Mailbox result = new UnboundedMailbox(100);
+    int size = mailbox.size();
+    int target = size == 0 ? 0 : random.nextInt(size);
+    int kind = random.nextInt(6);
+    for (int i = 0; i != size; i = i + 1) {
+      Message m = mailbox.read(i);
+      if (i != target) {
+        result.send(m);
+      } else if (kind == 0) {
+        // Drop the message
+      } else if (kind == 1) {
+        // Repeat the message
+        result.send(m);
+        result.send(m);
+      } else if (kind == 2) {
+        result.send(withPump(config, m, random));
+      } else if (kind == 3) {
+        result.send(withValue(m, random));
+      } else if (kind == 4 && (m.getKind() == MessageKind.PUMP_STATE_n_b
+          || m.getKind() == MessageKind.PUMP_CONTROL_STATE_n_b)) {
+        result.send(new Message(m.getKind(), m.getIntegerParameter(), !m.getBooleanParameter()));
+      } else {
+        result.send(m);
+      }
+    }
+    if (kind == 5) {
+      // Add a message the physical units would not send unprompted
+      int pump = badPump(config, random);
+      switch (random.nextInt(4)) {
+        case 0:
+          result.send(new Message(MessageKind.PUMP_REPAIRED_n, pump));
+          break;
+        case 1:
+          result.send(new Message(MessageKind.PUMP_CONTROL_REPAIRED_n, pump));
+          break;
+        case 2:
+          result.send(new Message(MessageKind.STEAM_REPAIRED));
+          break;
+        default:
+          result.send(new Message(MessageKind.LEVEL_REPAIRED));
+          break;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Give a pump reading a different, usually nonexistent, pump.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param m
+   *          The message.
+   * @param random
+   *          The source of randomness.
+   * @return the changed message, or the original if it is not a pump reading.
+   */
+  private static Message withPump(SteamBoilerCharacteristics config, Message m, Random random) {
+    if (m.getKind() == MessageKind.PUMP_STATE_n_b
+        || m.getKind() == MessageKind.PUMP_CONTROL_STATE_n_b) {
+      return new Message(m.getKind(), badPump(config, random), m.getBooleanParameter());
+    }
+    return m;
+  }
+
+  /**
+   * Give a level or steam reading a nonsensical value.
+   *
+   * @param m
+   *          The message.
+   * @param random
+   *          The source of randomness.
+   * @return the changed message, or the original if it is not a level or steam reading.
+   */
+  private static Message withValue(Message m, Random random) {
+    if (m.getKind() == MessageKind.LEVEL_v || m.getKind() == MessageKind.STEAM_v) {
+      return new Message(m.getKind(), BAD_VALUES[random.nextInt(BAD_VALUES.length)]);
+    }
+    return m;
+  }
+
+  /**
+   * Pick a pump index, which is usually out of range.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param random
+   *          The source of randomness.
+   * @return the index.
+   */
+  private static int badPump(SteamBoilerCharacteristics config, Random random) {
+    int pumps = config.getNumberOfPumps();
+    switch (random.nextInt(5)) {
+      case 0:
+        return -1;
+      case 1:
+        return pumps;
+      case 2:
+        return pumps + 5;
+      case 3:
+        return Integer.MIN_VALUE;
+      default:
+        return random.nextInt(pumps);
+    }
+  }
+
+  /**
+   * Check whether a mailbox is missing a level or steam reading, has more than one, or does not
+   * have exactly one reading of each kind for every pump.
+   *
+   * @param pumps
+   *          The number of pumps.
+   * @param mailbox
+   *          The mailbox.
+   * @return true if the mailbox is malformed.
+   */
+  private static boolean malformed(int pumps, Mailbox mailbox) {
+    int levels = 0;
+    int steams = 0;
+    int[] states = new int[pumps];
+    int[] controlStates = new int[pumps];
+    for (int i = 0; i != mailbox.size(); i = i + 1) {
+      Message m = mailbox.read(i);
+      if (m.getKind() == MessageKind.LEVEL_v) {
+        levels = levels + 1;
+      } else if (m.getKind() == MessageKind.STEAM_v) {
+        steams = steams + 1;
+      } else if (m.getKind() == MessageKind.PUMP_STATE_n_b
+          || m.getKind() == MessageKind.PUMP_CONTROL_STATE_n_b) {
+        int pump = m.getIntegerParameter();
+        if (pump < 0 || pump >= pumps) {
+          return true;
+        }
+        int[] seen = m.getKind() == MessageKind.PUMP_STATE_n_b ? states : controlStates;
+        seen[pump] = seen[pump] + 1;
+      }
+    }
+    for (int p = 0; p != pumps; p = p + 1) {
+      if (states[p] != 1 || controlStates[p] != 1) {
+        return true;
+      }
+    }
+    return levels != 1 || steams != 1;
+  }
+
+  /**
+   * Check whether a message sent by the controller names a pump.
+   *
+   * @param kind
+   *          The kind of the message.
+   * @return true if its parameter is a pump index.
+   */
+  private static boolean namesPump(MessageKind kind) {
+    switch (kind) {
+      case OPEN_PUMP_n:
+      case CLOSE_PUMP_n:
+      case PUMP_FAILURE_DETECTION_n:
+      case PUMP_CONTROL_FAILURE_DETECTION_n:
+      case PUMP_REPAIRED_ACKNOWLEDGEMENT_n:
+      case PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n:
+      case PUMP_FAILURE_ACKNOWLEDGEMENT_n:
+      case PUMP_CONTROL_FAILURE_ACKNOWLEDGEMENT_n:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Check whether the controller told the physical units to stop.
+   *
+   * @param outgoing
+   *          The messages sent by the controller.
+   * @return true if an emergency stop was sent.
+   */
+  private static boolean stopped(Mailbox outgoing) {
+    for (int i = 0; i != outgoing.size(); i = i + 1) {
+      Message m = outgoing.read(i);
+      if (m.getKind() == MessageKind.MODE_m && m.getModeParameter() == Mode.EMERGENCY_STOP) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
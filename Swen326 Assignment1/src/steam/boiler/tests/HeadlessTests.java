@@ -0,0 +1,199 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.bench.FaultCampaign;
+import steam.boiler.bench.HeadlessSimulation;
+import steam.boiler.bench.TelemetryStore;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the headless simulation: that scenario and characteristics files are read
+ * correctly, that it runs faults exactly as the fault campaign does, and that it runs in a fresh
+ * JVM without loading any GUI classes.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class HeadlessTests {
+
+  /**
+   * Check that a scenario is read correctly, with its faults in order, and that errors are
+   * reported with their line.
+   */
+  @Test
+  public void test_headless_01() throws IOException {
+    HeadlessSimulation.Scenario scenario = HeadlessSimulation.Scenario.parse("a",
+        new StringReader("# two faults\nduration 300\n\nfault 9000 PUMP_STICKS_OPEN 1 repair 20000"
+            + "\nfault 5000 LEVEL_TX_FAILURE   # the level sensor\n"));
+    List<FaultCampaign.Fault> faults = scenario.getFaults();
+    assertEquals(2, faults.size());
+    assertEquals(FaultCampaign.FaultKind.LEVEL_TX_FAILURE, faults.get(0).getKind());
+    assertEquals(5000, faults.get(0).getTime());
+    assertEquals(1, faults.get(1).getPump());
+    assertEquals(20000, faults.get(1).getRepair());
+    String[] bad = { "duration\n", "period -5", "\nfault 10 NOTHING", "fault 10 PUMP_TX_FAILURE",
+        "fault 10 LEVEL_TX_FAILURE repair 20", "speed 2", "period 150" };
+    for (String text : bad) {
+      try {
+        HeadlessSimulation.Scenario.parse("b", new StringReader(text));
+        fail("expected an error for " + text);
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage(), e.getMessage().startsWith("b:"));
+      }
+    }
+    SteamBoilerCharacteristics cs = HeadlessSimulation.characteristics(
+        new ByteArrayInputStream("pumps=2\npumpCapacity.1=7\n".getBytes(StandardCharsets.UTF_8)));
+    assertEquals(2, cs.getNumberOfPumps());
+    try {
+      HeadlessSimulation.characteristics(
+          new ByteArrayInputStream("capacity=2000\n".getBytes(StandardCharsets.UTF_8)));
+      fail("expected an error");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Check that at the default period a scenario has the same outcome as the same faults in the
+   * fault campaign.
+   */
+  @Test
+  public void test_headless_02() throws IOException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    FaultCampaign campaign = new FaultCampaign(config);
+    HeadlessSimulation simulation = new HeadlessSimulation(config);
+    for (long i = 0; i != 20; i = i + 1) {
+      List<FaultCampaign.Fault> faults = campaign.schedule(326, i);
+      StringBuilder text = new StringBuilder();
+      for (FaultCampaign.Fault f : faults) {
+        text.append("fault ").append(f.getTime()).append(' ').append(f.getKind());
+        if (f.getKind().isPumpFault()) {
+          text.append(' ').append(f.getPump());
+        }
+        if (f.getRepair() >= 0) {
+          text.append(" repair ").append(f.getRepair());
+        }
+        text.append('\n');
+      }
+      HeadlessSimulation.Summary summary = simulation.run(
+          HeadlessSimulation.Scenario.parse("run" + i, new StringReader(text.toString())));
+      FaultCampaign.Result expected = campaign.run(faults);
+      assertEquals(text.toString(), expected.getEmergencyStopRate().getEstimate() > 0,
+          summary.getStopTime() >= 0);
+      assertEquals(text.toString(), expected.getMissedDetectionRate().getEstimate()
+          * expected.getFaults(), summary.getMissed(), 1e-9);
+      assertEquals(expected.getLimitViolationRate().getEstimate() > 0,
+          summary.getViolations() > 0);
+      assertFalse(summary.isCrashed());
+    }
+  }
+
+  /**
+   * Check the command line: one summary line per scenario, an error status for a missing file or
+   * a pump the boiler does not have, and a trace of a boiler with more pumps than fit in a word.
+   */
+  @Test
+  public void test_headless_03() throws IOException {
+    Path dir = Files.createTempDirectory("headless");
+    dir.toFile().deleteOnExit();
+    Path first = write(dir, "first.txt", "duration 120\nperiod 500\n");
+    Path second = write(dir, "second.txt", "duration 120\nfault 60000 PUMP_STUCK_CLOSED 3\n");
+    Path pumps = write(dir, "pumps.properties", "pumps=3\n");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    int status = HeadlessSimulation.run(new String[] { first.toString(), second.toString() },
+        new PrintStream(out, true, "UTF-8"), new PrintStream(err, true, "UTF-8"));
+    assertEquals(0, status);
+    String[] lines = out.toString("UTF-8").split("\n");
+    assertEquals(4, lines.length);
+    assertEquals(HeadlessSimulation.HEADER, lines[0]);
+    assertTrue(lines[1], lines[1].startsWith(first + " completed 240 -1 0 0 0 "));
+    assertTrue(lines[2], lines[2].startsWith(second + " completed 24 -1 1 0 0 "));
+    assertTrue(lines[3], lines[3].startsWith("# startup_ms "));
+    status = HeadlessSimulation.run(
+        new String[] { "-c", pumps.toString(), first.toString(), second.toString() },
+        new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"),
+        new PrintStream(err, true, "UTF-8"));
+    assertEquals(2, status);
+    status = HeadlessSimulation.run(new String[] { dir.resolve("missing").toString() },
+        new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"),
+        new PrintStream(err, true, "UTF-8"));
+    assertEquals(2, status);
+    Path many = write(dir, "many.properties", "pumps=40\n");
+    status = HeadlessSimulation.run(new String[] { "-c", many.toString(), "-t",
+        dir.resolve("telemetry").toString(), first.toString() },
+        new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"),
+        new PrintStream(err, true, "UTF-8"));
+    assertEquals(0, status);
+    TelemetryStore store = new TelemetryStore(dir.resolve("telemetry"));
+    assertEquals(1, store.list().size());
+    assertEquals(40, store.open(store.list().get(0)).getPumps());
+  }
+
+  /**
+   * Check that the command line runs in a fresh headless JVM without loading any GUI class.
+   */
+  @Test
+  public void test_headless_04() throws IOException, InterruptedException {
+    Path dir = Files.createTempDirectory("headless");
+    dir.toFile().deleteOnExit();
+    Path scenario = write(dir, "scenario.txt", "duration 60\n");
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+        + "java";
+    ProcessBuilder builder = new ProcessBuilder(Arrays.asList(java, "-verbose:class",
+        "-Djava.awt.headless=true", "-cp", System.getProperty("java.class.path"),
+        HeadlessSimulation.class.getName(), scenario.toString()));
+    builder.redirectErrorStream(true);
+    Process process = builder.start();
+    int summaries = 0;
+    try (BufferedReader in = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        assertFalse(line, line.contains("java.awt.") || line.contains("javax.swing.")
+            || line.contains("steam.boiler.simulator."));
+        summaries = summaries + (line.startsWith(scenario + " completed") ? 1 : 0);
+      }
+    }
+    assertEquals(0, process.waitFor());
+    assertEquals(1, summaries);
+  }
+
+  /**
+   * Write a file.
+   *
+   * @param dir
+   *          The directory.
+   * @param name
+   *          The name of the file.
+   * @param text
+   *          The contents of the file.
+   * @return the path of the file.
+   */
+  private static Path write(Path dir, String name, String text) throws IOException {
+    Path path = dir.resolve(name);
+    Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+    path.toFile().deleteOnExit();
+    return path;
+  }
+}
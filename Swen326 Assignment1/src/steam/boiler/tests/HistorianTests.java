@@ -0,0 +1,202 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.bench.HistorianImporter;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the historian importer: that a recorded plant is replayed through the
+ * controller, that the result does not depend on where the mapped window falls, that unreadable
+ * rows are skipped and counted, and that large files are read in full.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class HistorianTests {
+
+  /**
+   * The header of the generated files, which includes columns the importer skips.
+   */
+  private static final String HEADER = "time,level,steam,pump_0,pump_1,pump_2,pump_3,"
+      + "control_0,control_1,control_2,control_3,note";
+
+  /**
+   * Check that a steady plant is replayed through the controller into normal operation.
+   */
+  @Test
+  public void test_historian_01() throws IOException {
+    StringBuilder text = new StringBuilder(HEADER).append('\n');
+    for (int i = 0; i != 100; i = i + 1) {
+      text.append(5 * i).append(",500.0,0,0,0,0,0,0,0,0,0,steady\n");
+    }
+    HistorianImporter.Statistics stats = run(text.toString(), 0);
+    assertEquals(100, stats.getRows());
+    assertEquals(0, stats.getMalformed());
+    long total = 0;
+    for (Mode mode : Mode.values()) {
+      total = total + stats.getRows(mode);
+    }
+    assertEquals(100, total);
+    assertTrue(stats.toString(), stats.getRows(Mode.NORMAL) > 0);
+    assertEquals(stats.toString(), 0, stats.getRows(Mode.EMERGENCY_STOP));
+  }
+
+  /**
+   * Check that the statistics are the same whatever the size of the mapped window, and that a
+   * line longer than the window is rejected.
+   */
+  @Test
+  public void test_historian_02() throws IOException {
+    String text = generate(new Random(46), 5000);
+    String expected = run(text, 0).toString();
+    for (int window : new int[] { 101, 160, 4093 }) {
+      assertEquals("window " + window, expected, run(text, window).toString());
+    }
+    try {
+      run(text, 20);
+      fail("expected a line to be too long");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("line longer than 20"));
+    }
+  }
+
+  /**
+   * Check that rows which cannot be read are skipped and counted, that empty fields and different
+   * ways of writing the same reading are accepted, and that line endings do not matter.
+   */
+  @Test
+  public void test_historian_03() throws IOException {
+    String rows = "0,500,0,0,0,0,0,0,0,0,0,\n" + "5,lots,0,0,0,0,0,0,0,0,0,\n"
+        + "10,500,0,0,0,0,0,0,0,0\n" + "15,500,0,2,0,0,0,0,0,0,0,\n"
+        + "20,500,0,0,0,0,0,0,0,0,0,x,y\n" + "\n" + "25,5e2,0.0,false,0,0,0,0,0,0,0,\n"
+        + "30, 500.000 ,-0,0,FALSE,0,0,0,0,0,0,\n" + "35,,0,0,0,0,0,0,0,0,0,\n";
+    HistorianImporter.Statistics stats = run(HEADER + "\n" + rows, 0);
+    assertEquals(4, stats.getMalformed());
+    assertEquals(4, stats.getRows());
+    String summary = stats.toString().replaceFirst("^.* stops=", "");
+    String crlf = run(HEADER + "\r\n" + rows.replace("\n", "\r\n"), 0).toString();
+    assertEquals(summary, crlf.replaceFirst("^.* stops=", ""));
+    String plain = "0,500,0,0,0,0,0,0,0,0,0,\n" + "25,500,0,0,0,0,0,0,0,0,0,\n"
+        + "30,500,0,0,0,0,0,0,0,0,0,\n" + "35,,0,0,0,0,0,0,0,0,0,";
+    HistorianImporter.Statistics expected = run(HEADER + "\n" + plain, 0);
+    assertEquals(expected.toString().replaceFirst("^.* stops=", ""), summary);
+    // The missing level reading in the last row is a transmission failure.
+    assertEquals(expected.toString(), 1, expected.getRows(Mode.EMERGENCY_STOP)
+        + expected.getDetections(MessageKind.LEVEL_FAILURE_DETECTION));
+    String[] headers = { "level,pump_4", "level,level", "level,pump_x" };
+    for (String header : headers) {
+      try {
+        run(header + "\n1,0\n", 0);
+        fail("expected " + header + " to be rejected");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+
+  /**
+   * Check that a file spanning many mapped windows is read in full, every row replayed and none
+   * skipped. How quickly it is read is measured by <code>HistorianBenchmark</code>.
+   */
+  @Test
+  public void test_historian_04() throws IOException {
+    Path file = Files.createTempFile("historian", ".csv");
+    try {
+      Random random = new Random(4);
+      long rows = 0;
+      try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+        out.write(HEADER);
+        out.write('\n');
+        while (rows < 300000) {
+          out.write(row(random, rows));
+          rows = rows + 1;
+        }
+      }
+      HistorianImporter importer = new HistorianImporter(SteamBoilerCharacteristics.DEFAULT);
+      importer.setWindow(1 << 20);
+      HistorianImporter.Statistics stats = importer.run(file);
+      assertEquals(rows, stats.getRows());
+      assertEquals(0, stats.getMalformed());
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Generate a historian recording of a plant with a varying level, steam rate and pumps.
+   *
+   * @param random
+   *          The source of variation.
+   * @param rows
+   *          The number of rows.
+   * @return the recording.
+   */
+  private static String generate(Random random, int rows) {
+    StringBuilder text = new StringBuilder(HEADER).append('\n');
+    for (int i = 0; i != rows; i = i + 1) {
+      text.append(row(random, i));
+    }
+    return text.toString();
+  }
+
+  /**
+   * Generate a single row of a recording.
+   *
+   * @param random
+   *          The source of variation.
+   * @param i
+   *          The number of the row.
+   * @return the row.
+   */
+  private static String row(Random random, long i) {
+    StringBuilder row = new StringBuilder();
+    row.append(5 * i).append(',').append(300 + random.nextInt(400)).append('.')
+        .append(random.nextInt(100)).append(',').append(random.nextInt(10)).append(".5");
+    int open = random.nextInt(5);
+    for (int pump = 0; pump != 4; pump = pump + 1) {
+      row.append(',').append(pump < open ? 1 : 0);
+    }
+    for (int pump = 0; pump != 4; pump = pump + 1) {
+      row.append(',').append(pump < open ? "true" : "false");
+    }
+    return row.append(",\n").toString();
+  }
+
+  /**
+   * Replay a recording held in memory.
+   *
+   * @param text
+   *          The recording.
+   * @param window
+   *          The size of the mapped window, or 0 for the default.
+   * @return the statistics.
+   */
+  private static HistorianImporter.Statistics run(String text, int window) throws IOException {
+    Path file = Files.createTempFile("historian", ".csv");
+    try {
+      Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+      HistorianImporter importer = new HistorianImporter(SteamBoilerCharacteristics.DEFAULT);
+      if (window != 0) {
+        importer.setWindow(window);
+      }
+      return importer.run(file);
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
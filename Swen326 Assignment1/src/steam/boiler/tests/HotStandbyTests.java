@@ -0,0 +1,102 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.HotStandby;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpModels;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check a hot standby takes over from a failed primary without any change to the
+ * outputs sent to the physical units.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class HotStandbyTests {
+
+  /**
+   * Check that, whichever cycle the primary fails in, the pair's outputs are identical to those of
+   * a single controller given the same inputs.
+   */
+  @Test
+  public void test_standby_01() {
+    for (int failure : new int[] { 1, 2, 5, 12, 30, 47 }) {
+      run(failure, false);
+    }
+  }
+
+  /**
+   * Check the standby never diverges from the primary when both are given the same inputs, and
+   * that the state shipped each cycle is small.
+   */
+  @Test
+  public void test_standby_02() {
+    HotStandby pair = run(Integer.MAX_VALUE, true);
+    assertTrue(pair.getCycles() == 60);
+    assertTrue(pair.getDivergences() == 0);
+    assertTrue(pair.getBytes() < 20 * pair.getCycles());
+    assertTrue(pair.getMeanReplicationTime() > 0);
+    assertTrue(pair.getWorstReplicationTime() >= pair.getMeanReplicationTime());
+  }
+
+  /**
+   * Check a standby which takes over in normal mode stays in normal mode.
+   */
+  @Test
+  public void test_standby_03() {
+    HotStandby pair = run(30, false);
+    assertTrue(pair.getActive().getSnapshot().getMode() == Mode.NORMAL);
+  }
+
+  /**
+   * Run a pair alongside a reference controller for five minutes, with a pump failing part way
+   * through, and fail the primary at a given cycle. The pair's outputs must match the reference.
+   *
+   * @param failure
+   *          The cycle before which the primary fails.
+   * @param verifying
+   *          Whether the pair checks its own determinism.
+   * @return the pair.
+   */
+  private static HotStandby run(int failure, boolean verifying) {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController reference = new MySteamBoilerController(config);
+    HotStandby pair = new HotStandby(new MySteamBoilerController(config),
+        new MySteamBoilerController(config));
+    pair.setVerifying(verifying);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    for (int cycle = 0; cycle != 60; cycle = cycle + 1) {
+      if (cycle == 40) {
+        model.setPump(1, new PumpModels.StuckClosed(1, 0.0, model));
+      }
+      if (cycle == failure) {
+        pair.failover();
+      }
+      model.clock(5000);
+      Mailbox input = new UnboundedMailbox(100);
+      Mailbox expected = new UnboundedMailbox(100);
+      Mailbox actual = new UnboundedMailbox(100);
+      model.transmit(input);
+      reference.clock(input, expected);
+      pair.clock(input, actual);
+      assertTrue(actual.size() == expected.size());
+      for (int i = 0; i != actual.size(); i = i + 1) {
+        Message m = actual.read(i);
+        assertTrue(m.toString().equals(expected.read(i).toString()));
+      }
+      model.receive(expected);
+    }
+    return pair;
+  }
+}
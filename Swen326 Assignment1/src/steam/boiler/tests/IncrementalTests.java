@@ -0,0 +1,266 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.ControllerSnapshot;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check that skipping redundant work changes nothing. An incremental controller and
+ * one which evaluates everything in full are given the same long traces of readings, and must
+ * send exactly the same messages in every cycle.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class IncrementalTests {
+
+  /**
+   * The values occasionally given to a reading in place of a sensible one.
+   */
+  private static final double[] BAD_VALUES = { Double.NaN, -1, Double.POSITIVE_INFINITY,
+      Double.NEGATIVE_INFINITY, Double.MAX_VALUE, 1e9 };
+
+  /**
+   * Check slowly drifting readings, which is where the pump predictions are reused the most.
+   */
+  @Test
+  public void test_incremental_01() {
+    int reused = compare(SteamBoilerCharacteristics.DEFAULT, 1, 0.01, 200000);
+    assertTrue(reused > 0);
+  }
+
+  /**
+   * Check readings which jump about and are sometimes nonsensical or disagree with the pumps.
+   */
+  @Test
+  public void test_incremental_02() {
+    compare(SteamBoilerCharacteristics.DEFAULT, 2, 0.5, 200000);
+  }
+
+  /**
+   * Check a boiler with more pumps than fit in one word of pump bits.
+   */
+  @Test
+  public void test_incremental_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    config = config.setNumberOfPumps(70, config.getPumpCapacity(0) / 20);
+    compare(config, 3, 0.05, 50000);
+  }
+
+  /**
+   * Check readings placed exactly on, and just either side of, the points at which the number of
+   * pumps predicted changes.
+   */
+  @Test
+  public void test_incremental_04() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController incremental = normal(config, true);
+    MySteamBoilerController full = normal(config, false);
+    double step = 5 * config.getPumpCapacity(0);
+    double target = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2
+        + 2.5 * config.getMaximualSteamRate();
+    double steam = config.getMaximualSteamRate() / 2;
+    double[] offsets = { 0, Math.ulp(target), -Math.ulp(target), 1e-9, -1e-9, 1e-3, -1e-3 };
+    for (int i = -1; i <= config.getNumberOfPumps() + 1; i = i + 1) {
+      for (double offset : offsets) {
+        double level = target - step * (i + 0.5) + offset + 2.5 * steam;
+        cycle(config, incremental, full, level, steam, null);
+        cycle(config, incremental, full, level - 2.5 * offset, steam + offset, null);
+      }
+    }
+  }
+
+  /**
+   * Give an incremental and a full controller the same random trace, checking that they always
+   * send the same messages. Both are replaced whenever the boiler has been stopped.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param seed
+   *          The seed for the trace.
+   * @param noise
+   *          The chance of a reading jumping, rather than drifting slightly or staying the same.
+   * @param cycles
+   *          The number of cycles to run.
+   * @return the number of cycles in which the incremental controller sent the same pump commands
+   *         as in the cycle before, which is a lower bound on the predictions it could reuse.
+   */
+  private static int compare(SteamBoilerCharacteristics config, long seed, double noise,
+      int cycles) {
+    Random random = new Random(seed);
+    MySteamBoilerController incremental = new MySteamBoilerController(config);
+    MySteamBoilerController full = new MySteamBoilerController(config);
+    full.setIncremental(false);
+    double low = config.getMinimalNormalLevel();
+    double high = config.getMaximalNormalLevel();
+    double level = (low + high) / 2;
+    double steam = config.getMaximualSteamRate() / 2;
+    int reused = 0;
+    String previous = "";
+    for (int i = 0; i != cycles; i = i + 1) {
+      if (random.nextDouble() < noise) {
+        level = low + random.nextDouble() * (high - low);
+        steam = random.nextDouble() * config.getMaximualSteamRate();
+      } else if (random.nextBoolean()) {
+        level = Math.max(0, level + random.nextGaussian());
+        steam = Math.max(0, steam + random.nextGaussian() * 0.1);
+      }
+      String sent = cycle(config, incremental, full, level, steam, random);
+      if (sent.equals(previous)) {
+        reused = reused + 1;
+      }
+      previous = sent;
+      if (incremental.getSnapshot().getMode() == Mode.EMERGENCY_STOP) {
+        incremental = new MySteamBoilerController(config);
+        full = new MySteamBoilerController(config);
+        full.setIncremental(false);
+        level = (low + high) / 2;
+      }
+    }
+    return reused;
+  }
+
+  /**
+   * Run one cycle of both controllers on the same readings and check they respond the same way.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param incremental
+   *          The incremental controller.
+   * @param full
+   *          The controller which evaluates everything in full.
+   * @param level
+   *          The level reading.
+   * @param steam
+   *          The steam reading.
+   * @param random
+   *          The source of disturbances to the readings, or null for none.
+   * @return the messages sent, as text.
+   */
+  private static String cycle(SteamBoilerCharacteristics config,
+      MySteamBoilerController incremental, MySteamBoilerController full, double level,
+      double steam, Random random) {
+    Mailbox incoming = readings(config, incremental.getSnapshot(), level, steam, random);
+    Mailbox first = new UnboundedMailbox(200);
+    Mailbox second = new UnboundedMailbox(200);
+    incremental.clock(incoming, first);
+    full.clock(incoming, second);
+    String expected = text(second);
+    assertEquals("in response to " + text(incoming), expected, text(first));
+    return expected;
+  }
+
+  /**
+   * Create the readings the physical units would send, with pump readings which match the pumps
+   * the controller believes are open. When a source of randomness is given, a reading is
+   * occasionally replaced by a nonsensical value, a pump or its controller disagrees, or the boiler
+   * reports that it is waiting or the physical units are ready.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param state
+   *          The state of the controller.
+   * @param level
+   *          The level reading.
+   * @param steam
+   *          The steam reading.
+   * @param random
+   *          The source of disturbances, or null for none.
+   * @return the mailbox.
+   */
+  private static Mailbox readings(SteamBoilerCharacteristics config, ControllerSnapshot state,
+      double level, double steam, Random random) {
+    int pumps = config.getNumberOfPumps();
+    int flipped = -1;
+    int controlFlipped = -1;
+    if (random != null) {
+      if (random.nextInt(200) == 0) {
+        level = BAD_VALUES[random.nextInt(BAD_VALUES.length)];
+      }
+      if (random.nextInt(200) == 0) {
+        steam = BAD_VALUES[random.nextInt(BAD_VALUES.length)];
+      }
+      if (random.nextInt(50) == 0) {
+        flipped = random.nextInt(pumps);
+      }
+      if (random.nextInt(50) == 0) {
+        controlFlipped = random.nextInt(pumps);
+      }
+    }
+    Mailbox mailbox = new UnboundedMailbox(200);
+    mailbox.send(new Message(MessageKind.LEVEL_v, level));
+    mailbox.send(new Message(MessageKind.STEAM_v, steam));
+    for (int p = 0; p != pumps; p = p + 1) {
+      mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, p, state.isPumpOn(p) ^ p == flipped));
+    }
+    for (int p = 0; p != pumps; p = p + 1) {
+      mailbox.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, p,
+          state.isPumpOn(p) ^ (p == flipped || p == controlFlipped)));
+    }
+    if (random != null) {
+      switch (random.nextInt(8)) {
+        case 0:
+          mailbox.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+          break;
+        case 1:
+          mailbox.send(new Message(MessageKind.PHYSICAL_UNITS_READY));
+          break;
+        default:
+          break;
+      }
+    }
+    return mailbox;
+  }
+
+  /**
+   * Create a controller and bring it into normal mode.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param incremental
+   *          Whether the controller skips redundant work.
+   * @return the controller.
+   */
+  private static MySteamBoilerController normal(SteamBoilerCharacteristics config,
+      boolean incremental) {
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    controller.setIncremental(incremental);
+    double level = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+    for (int i = 0; i != 3; i = i + 1) {
+      Mailbox incoming = readings(config, controller.getSnapshot(), level, 0, null);
+      incoming.send(new Message(i == 0 ? MessageKind.STEAM_BOILER_WAITING
+          : MessageKind.PHYSICAL_UNITS_READY));
+      controller.clock(incoming, new UnboundedMailbox(200));
+    }
+    assertEquals(Mode.NORMAL, controller.getSnapshot().getMode());
+    return controller;
+  }
+
+  /**
+   * Render the messages in a mailbox as text.
+   *
+   * @param mailbox
+   *          The mailbox.
+   * @return the messages, in order.
+   */
+  private static String text(Mailbox mailbox) {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i != mailbox.size(); i = i + 1) {
+      b.append(mailbox.read(i)).append(' ');
+    }
+    return b.toString();
+  }
+}
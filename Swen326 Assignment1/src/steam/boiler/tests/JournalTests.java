@@ -0,0 +1,254 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.clock;
+import static steam.boiler.tests.TestUtils.clockChanging;
+import static steam.boiler.tests.TestUtils.clockForWithout;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.ControllerSnapshot;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.StateJournal;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpModels;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check a controller can be restarted from its state journal, including when the
+ * previous instance crashed part way through writing to it.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class JournalTests {
+
+  /**
+   * Check a restarted controller carries on in normal mode, without initialising the boiler again.
+   */
+  @Test
+  public void test_journal_01() throws IOException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    Path file = Files.createTempFile("journal", ".bin");
+    try {
+      MySteamBoilerController first = new MySteamBoilerController(config);
+      StateJournal journal = new StateJournal(file, config.getNumberOfPumps());
+      assertTrue(journal.recover() == null);
+      first.setJournal(journal);
+      PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+      model.setMode(PhysicalUnits.Mode.WAITING);
+      clockForWithout(240, first, model, atleast(MODE_emergencystop));
+      journal.close();
+      // Restart
+      journal = new StateJournal(file, config.getNumberOfPumps());
+      ControllerSnapshot state = journal.recover();
+      assertTrue(state != null && state.getMode() == Mode.NORMAL);
+      assertTrue(key(state).equals(key(first.getSnapshot())));
+      MySteamBoilerController second = new MySteamBoilerController(config);
+      second.restore(state);
+      second.setJournal(journal);
+      for (int time = 0; time < 120000; time = time + 5000) {
+        Mailbox output = clock(5000, time, second, model);
+        for (int i = 0; i != output.size(); i = i + 1) {
+          Message m = output.read(i);
+          assertTrue(m.getKind() != MessageKind.MODE_m || m.getModeParameter() == Mode.NORMAL);
+        }
+      }
+      journal.close();
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Check that a crash at any point while writing a record recovers either the state before that
+   * record or the state after it. Small regions are used so that checkpoints, and crashes while
+   * writing them, occur frequently.
+   */
+  @Test
+  public void test_journal_02() throws IOException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    int pumps = config.getNumberOfPumps();
+    Path file = Files.createTempFile("journal", ".bin");
+    Path crashed = Files.createTempFile("crashed", ".bin");
+    try {
+      MySteamBoilerController controller = new MySteamBoilerController(config);
+      StateJournal journal = new StateJournal(file, pumps, 128);
+      controller.setJournal(journal);
+      PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+      model.setMode(PhysicalUnits.Mode.WAITING);
+      model.setPump(1, new PumpModels.StuckClosed(1, 0.0, model));
+      Random random = new Random(0);
+      String previous = null;
+      int records = 0;
+      for (int time = 0; time < 600000; time = time + 5000) {
+        byte[] before = Files.readAllBytes(file);
+        clock(5000, time, controller, model);
+        byte[] after = Files.readAllBytes(file);
+        String current = key(controller.getSnapshot());
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i != after.length; i = i + 1) {
+          if (before[i] != after[i]) {
+            changed.add(i);
+          }
+        }
+        if (!changed.isEmpty()) {
+          records = records + 1;
+        }
+        // A crash after writing any prefix of the record.
+        for (int n = 0; n <= changed.size(); n = n + 1) {
+          byte[] image = before.clone();
+          for (int i = 0; i != n; i = i + 1) {
+            image[changed.get(i)] = after[changed.get(i)];
+          }
+          String recovered = recover(crashed, image, pumps, 128);
+          assertTrue(eq(recovered, previous) || eq(recovered, current));
+          if (n == changed.size()) {
+            assertTrue(eq(recovered, current));
+          }
+        }
+        // A crash after writing an arbitrary subset of the record.
+        for (int k = 0; k != 10 && !changed.isEmpty(); k = k + 1) {
+          byte[] image = before.clone();
+          for (int i : changed) {
+            if (random.nextBoolean()) {
+              image[i] = after[i];
+            }
+          }
+          String recovered = recover(crashed, image, pumps, 128);
+          assertTrue(eq(recovered, previous) || eq(recovered, current));
+        }
+        previous = current;
+      }
+      // Ensure both regions and several checkpoints were exercised.
+      assertTrue(records > 20);
+      assertTrue(controller.getSnapshot().isPumpFaulty(1));
+      journal.close();
+    } finally {
+      Files.delete(file);
+      Files.delete(crashed);
+    }
+  }
+
+  /**
+   * Check recovery from a journal which has filled several regions with deltas: the whole journal
+   * recovers the last state, a torn last record recovers the state before it, a damaged delta
+   * recovers the state before that delta, and a damaged newest region recovers the last state held
+   * in the other one. How long recovery takes is measured by <code>JournalBenchmark</code>.
+   */
+  @Test
+  public void test_journal_03() throws IOException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    config = config.setNumberOfPumps(6, config.getPumpCapacity(0));
+    int pumps = config.getNumberOfPumps();
+    int region = 4096;
+    Path file = Files.createTempFile("journal", ".bin");
+    Path damaged = Files.createTempFile("damaged", ".bin");
+    try {
+      MySteamBoilerController controller = new MySteamBoilerController(config);
+      StateJournal journal = new StateJournal(file, pumps, region);
+      controller.setJournal(journal);
+      boolean[] on = new boolean[pumps];
+      // The state after each cycle, and the first and last byte each cycle wrote, or -1.
+      List<String> states = new ArrayList<>();
+      List<int[]> writes = new ArrayList<>();
+      states.add(null);
+      writes.add(new int[] { -1, -1 });
+      for (int cycle = 1; cycle <= 1000; cycle = cycle + 1) {
+        byte[] before = Files.readAllBytes(file);
+        clockChanging(controller, config, cycle, on);
+        byte[] after = Files.readAllBytes(file);
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i != after.length; i = i + 1) {
+          if (before[i] != after[i]) {
+            first = first < 0 ? i : first;
+            last = i;
+          }
+        }
+        states.add(key(controller.getSnapshot()));
+        writes.add(new int[] { first, last });
+      }
+      journal.close();
+      byte[] image = Files.readAllBytes(file);
+      int end = states.size() - 1;
+      assertTrue(eq(states.get(end), recover(damaged, image, pumps, region)));
+      // Find the last cycle which wrote, the last checkpoint, and a delta between them.
+      int checkpoints = 0;
+      for (int[] w : writes) {
+        checkpoints = checkpoints + (w[0] >= 0 && w[0] % region < 8 ? 1 : 0);
+      }
+      int torn = end;
+      while (writes.get(torn)[0] < 0) {
+        torn = torn - 1;
+      }
+      int checkpoint = torn;
+      while (writes.get(checkpoint)[0] < 0 || writes.get(checkpoint)[0] % region >= 8) {
+        checkpoint = checkpoint - 1;
+      }
+      int delta = (checkpoint + torn) / 2;
+      while (writes.get(delta)[0] < 0) {
+        delta = delta + 1;
+      }
+      assertTrue(checkpoints > 3 && checkpoint < delta && delta < torn);
+      byte[] copy = image.clone();
+      copy[writes.get(torn)[1]] ^= 1;
+      assertTrue(eq(states.get(torn - 1), recover(damaged, copy, pumps, region)));
+      copy = image.clone();
+      copy[writes.get(delta)[1]] ^= 1;
+      assertTrue(eq(states.get(delta - 1), recover(damaged, copy, pumps, region)));
+      copy = image.clone();
+      int start = writes.get(checkpoint)[0] / region * region;
+      Random random = new Random(3);
+      for (int i = start; i != start + region; i = i + 1) {
+        copy[i] = (byte) random.nextInt(256);
+      }
+      assertTrue(eq(states.get(checkpoint - 1), recover(damaged, copy, pumps, region)));
+    } finally {
+      Files.delete(file);
+      Files.delete(damaged);
+    }
+  }
+
+  /**
+   * Recover the state from a given image of a journal file.
+   *
+   * @return the key of the recovered state, or null if there was none.
+   */
+  private static String recover(Path file, byte[] image, int pumps, int region)
+      throws IOException {
+    Files.write(file, image);
+    ControllerSnapshot state = new StateJournal(file, pumps, region).recover();
+    return state == null ? null : key(state);
+  }
+
+  /**
+   * Describe the journalled parts of a state.
+   */
+  private static String key(ControllerSnapshot s) {
+    StringBuilder r = new StringBuilder(s.getStateName());
+    for (int i = 0; i != s.getNumberOfPumps(); i = i + 1) {
+      r.append(s.isPumpOn(i) ? '1' : '0').append(s.isPumpFaulty(i) ? 'P' : '-')
+          .append(s.isPumpControlFaulty(i) ? 'C' : '-');
+    }
+    return r.append(s.isLevelFaulty()).append(s.isSteamFaulty()).toString();
+  }
+
+  private static boolean eq(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+}
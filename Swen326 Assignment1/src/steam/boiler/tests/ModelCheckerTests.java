@@ -0,0 +1,86 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.bench.ModelChecker;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests exhaustively explore the controller's mode machine, checking that its safety
+ * properties hold in every reachable configuration.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ModelCheckerTests {
+
+  /**
+   * Check the default boiler never leaves emergency stop, never names a nonexistent pump and
+   * always stops without a level reading.
+   */
+  @Test
+  public void test_model_01() {
+    ModelChecker checker = new ModelChecker(SteamBoilerCharacteristics.DEFAULT);
+    ModelChecker.Result result = checker.run();
+    assertTrue(result.getCounterexamples().toString(), result.getCounterexamples().isEmpty());
+    for (Mode m : Mode.values()) {
+      assertTrue(m == Mode.EMERGENCY_STOP || !result.hasTransition(Mode.EMERGENCY_STOP, m));
+    }
+    assertTrue(result.hasTransition(Mode.INITIALISATION, Mode.NORMAL));
+    assertTrue(result.hasTransition(Mode.NORMAL, Mode.DEGRADED));
+    assertTrue(result.hasTransition(Mode.NORMAL, Mode.RESCUE));
+    assertTrue(result.hasTransition(Mode.DEGRADED, Mode.NORMAL));
+  }
+
+  /**
+   * Check a property which does not hold is reported with a shortest trace, which leads to the
+   * violation when replayed against a fresh controller.
+   */
+  @Test
+  public void test_model_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    ModelChecker checker = new ModelChecker(config);
+    checker.addProperty("no rescue", (before, input, output, after) ->
+        after.getMode() == Mode.RESCUE ? "entered rescue" : null);
+    ModelChecker.Result result = checker.run();
+    assertTrue(result.getCounterexamples().size() == 1);
+    ModelChecker.Counterexample counterexample = result.getCounterexamples().get(0);
+    assertTrue(counterexample.getProperty().equals("no rescue"));
+    List<Mailbox> trace = counterexample.getTrace();
+    // Rescue mode can only be entered from normal mode, which takes one input to reach.
+    assertTrue(trace.size() == 2);
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    for (int i = 0; i != trace.size(); i = i + 1) {
+      assertTrue(controller.getSnapshot().getMode() != Mode.RESCUE);
+      controller.clock(trace.get(i), new UnboundedMailbox(100));
+    }
+    assertTrue(controller.getSnapshot().getMode() == Mode.RESCUE);
+    // The same trace is found however the search is spread across cores.
+    ModelChecker.Result again = checker.run();
+    assertTrue(again.getCounterexamples().get(0).toString().equals(counterexample.toString()));
+  }
+
+  /**
+   * Check a boiler with six pumps, allowing two pumps and two pump controllers to disagree with
+   * the controller at once.
+   */
+  @Test
+  public void test_model_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    config = config.setNumberOfPumps(6, config.getPumpCapacity(0));
+    ModelChecker checker = new ModelChecker(config);
+    checker.setMaxDisagreements(2);
+    ModelChecker.Result result = checker.run();
+    assertTrue(result.getCounterexamples().toString(), result.getCounterexamples().isEmpty());
+    assertTrue(result.getReachable().size() > 6);
+  }
+}
@@ -0,0 +1,122 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.bench.CapacityOptimiser;
+import steam.boiler.bench.HeadlessSimulation;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the capacity optimiser: that it finds that the default boiler needs three of
+ * its pumps, that its bounds never prune a configuration which works, that outcomes are cached,
+ * and that the outcome does not depend on the number of threads.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class OptimiserTests {
+
+  /**
+   * Check that, with pumps of the default capacity, three are needed, as observed of normal
+   * operation.
+   */
+  @Test
+  public void test_optimiser_01() throws IOException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    CapacityOptimiser optimiser = new CapacityOptimiser(config, scenario());
+    optimiser.setCapacities(config.getPumpCapacity(0));
+    CapacityOptimiser.Result result = optimiser.optimise();
+    assertEquals(result.toString(), 3, result.getPumps());
+    assertEquals(result.toString(), config.getPumpCapacity(0), result.getCapacity(), 0);
+    assertTrue(result.toString(), result.getPruned() >= 2);
+  }
+
+  /**
+   * Check that every configuration pruned by the bounds fails when simulated, and that pruning does
+   * not change the outcome.
+   */
+  @Test
+  public void test_optimiser_02() throws IOException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    HeadlessSimulation.Scenario scenario = scenario();
+    CapacityOptimiser optimiser = new CapacityOptimiser(config, scenario);
+    optimiser.setMaxPumps(4);
+    optimiser.setCapacities(1, 2.5, 4, 9, 30, 120);
+    int pruned = 0;
+    for (int n = 1; n <= 4; n = n + 1) {
+      for (double c : new double[] { 1, 2.5, 4, 9, 30, 120 }) {
+        if (optimiser.bound(n, c) != null) {
+          pruned = pruned + 1;
+          assertFalse(n + "x" + c + ": " + optimiser.bound(n, c), optimiser.isViable(n, c));
+        }
+      }
+    }
+    assertTrue(pruned >= 4);
+    CapacityOptimiser.Result with = optimiser.optimise();
+    CapacityOptimiser unpruned = new CapacityOptimiser(config, scenario);
+    unpruned.setMaxPumps(4);
+    unpruned.setCapacities(1, 2.5, 4, 9, 30, 120);
+    unpruned.setPruning(false);
+    CapacityOptimiser.Result without = unpruned.optimise();
+    assertEquals(without.getPumps(), with.getPumps());
+    assertEquals(without.getCapacity(), with.getCapacity(), 0);
+    assertTrue(with.getPumps() > 0);
+  }
+
+  /**
+   * Check that searching again simulates nothing new, and that widening the search simulates only
+   * what was not simulated before.
+   */
+  @Test
+  public void test_optimiser_03() throws IOException {
+    CapacityOptimiser optimiser = new CapacityOptimiser(SteamBoilerCharacteristics.DEFAULT,
+        scenario());
+    optimiser.setCapacities(2, 4);
+    CapacityOptimiser.Result first = optimiser.optimise();
+    assertTrue(first.getSimulated() > 0);
+    int simulations = optimiser.getSimulations();
+    CapacityOptimiser.Result again = optimiser.optimise();
+    assertEquals(0, again.getSimulated());
+    assertEquals(simulations, optimiser.getSimulations());
+    assertEquals(first.toString().replaceFirst("simulated .*", ""),
+        again.toString().replaceFirst("simulated .*", ""));
+    optimiser.setCapacities(2, 3, 4);
+    CapacityOptimiser.Result wider = optimiser.optimise();
+    assertTrue(wider.toString(), wider.getSimulated() <= 2);
+  }
+
+  /**
+   * Check that the outcome is the same with one thread as with several.
+   */
+  @Test
+  public void test_optimiser_04() throws IOException {
+    String[] outcomes = new String[2];
+    int[] threads = { 1, 4 };
+    for (int i = 0; i != 2; i = i + 1) {
+      CapacityOptimiser optimiser = new CapacityOptimiser(SteamBoilerCharacteristics.DEFAULT,
+          scenario());
+      optimiser.setThreads(threads[i]);
+      CapacityOptimiser.Result result = optimiser.optimise();
+      outcomes[i] = result.getPumps() + "x" + result.getCapacity();
+    }
+    assertEquals(outcomes[0], outcomes[1]);
+  }
+
+  /**
+   * A scenario long enough for the steam to reach its maximum and drain an undersized boiler.
+   *
+   * @return the scenario.
+   */
+  private static HeadlessSimulation.Scenario scenario() throws IOException {
+    return HeadlessSimulation.Scenario.parse("profile", new StringReader(
+        "duration 1800\ngranularity 500\n"));
+  }
+}
@@ -0,0 +1,143 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.MODE_normal;
+import static steam.boiler.tests.TestUtils.STEAM_FAILURE_DETECTION;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.clock;
+import static steam.boiler.tests.TestUtils.clockForWithout;
+import static steam.boiler.tests.TestUtils.clockUntil;
+
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.bench.FleetBenchmark;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.SteamSensorModels;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check controllers which are clocked more often than every five seconds. They must
+ * bring the boiler into normal mode and keep it there, notice a fault sooner than a controller
+ * clocked at the default period, and keep up with their period across a fleet.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PeriodTests {
+
+  /**
+   * Check that a period must be positive.
+   */
+  @Test
+  public void test_period_01() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    assertEquals(MySteamBoilerController.DEFAULT_PERIOD,
+        new MySteamBoilerController(config).getPeriod());
+    assertEquals(100, new MySteamBoilerController(config, 100).getPeriod());
+    try {
+      new MySteamBoilerController(config, 0);
+      fail("expected an exception");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Check that a fault-free boiler reaches normal mode and stays there for ten minutes at each
+   * shorter period.
+   */
+  @Test
+  public void test_period_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    for (int period : new int[] { 1000, 500, 100 }) {
+      MySteamBoilerController controller = new MySteamBoilerController(config, period);
+      PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+      model.setMode(PhysicalUnits.Mode.WAITING);
+      clockUntil(180, controller, model, atleast(MODE_normal));
+      clockForWithout(600, controller, model, atleast(MODE_emergencystop));
+    }
+  }
+
+  /**
+   * Check that a steam sensor which suddenly reads the full capacity is reported within one period,
+   * and so sooner at a shorter period than at the default.
+   */
+  @Test
+  public void test_period_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    int slow = latency(config, MySteamBoilerController.DEFAULT_PERIOD);
+    int fast = latency(config, 100);
+    assertTrue(slow <= MySteamBoilerController.DEFAULT_PERIOD);
+    assertTrue(fast <= 100);
+    assertTrue(fast + " " + slow, fast < slow);
+  }
+
+  /**
+   * Check that a fleet runs every cycle of every period without stopping or crossing a limit.
+   * Whether it keeps up with the period depends on the machine, so that is left to the benchmark.
+   */
+  @Test
+  public void test_period_04() {
+    FleetBenchmark benchmark = new FleetBenchmark(SteamBoilerCharacteristics.DEFAULT);
+    benchmark.setBoilers(100);
+    benchmark.setDuration(300);
+    List<FleetBenchmark.Row> rows = benchmark.run();
+    assertEquals(4, rows.size());
+    for (FleetBenchmark.Row row : rows) {
+      assertEquals(row.toString(), 300000 / row.getPeriod(), row.getCycles());
+      assertEquals(row.toString(), 0, row.getStops());
+      assertEquals(row.toString(), 0, row.getCrossings());
+    }
+  }
+
+  /**
+   * Check a period which is not a multiple of 100ms is still clocked exactly once every period.
+   */
+  @Test
+  public void test_period_05() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config, 250);
+    assertEquals(50, TestUtils.granularity(controller));
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    clockForWithout(60, controller, model, atleast(MODE_emergencystop));
+    assertEquals(240, controller.getSnapshot().getCycle());
+  }
+
+  /**
+   * Run a boiler at a given period until it has been in normal mode for a while, then fault its
+   * steam sensor part way through a period and measure how long the controller takes to report it.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param period
+   *          The period, in milliseconds.
+   * @return the time from the fault to its report, in milliseconds.
+   */
+  private static int latency(SteamBoilerCharacteristics config, int period) {
+    MySteamBoilerController controller = new MySteamBoilerController(config, period);
+    final int granularity = TestUtils.granularity(controller); // ms
+    final int onset = 120000 + 2300; // ms
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    for (int time = 0; time < onset + 60000; time += granularity) {
+      if (time == onset) {
+        model.setSteamSensor(new SteamSensorModels.Stuck(model, config.getCapacity()));
+      }
+      Mailbox received = clock(granularity, time, controller, model);
+      if (received != null && time >= onset && atleast(STEAM_FAILURE_DETECTION).matches(received)) {
+        return time - onset;
+      }
+    }
+    fail("fault not detected");
+    return -1;
+  }
+}
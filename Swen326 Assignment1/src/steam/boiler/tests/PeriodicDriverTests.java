@@ -0,0 +1,112 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.JitterHistogram;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.PeriodicDriver;
+import steam.boiler.core.PlantLink;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the real-time driver clocks the controller with each waiting strategy, and that
+ * the lateness of each cycle is recorded.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PeriodicDriverTests {
+
+  /**
+   * Check the histogram places values into the expected buckets.
+   */
+  @Test
+  public void test_histogram_01() {
+    JitterHistogram histogram = new JitterHistogram();
+    for (int i = 0; i != 99; ++i) {
+      histogram.record(1000);
+    }
+    histogram.record(1000000);
+    assertTrue(histogram.getCount() == 100);
+    assertTrue(histogram.getMax() == 1000000);
+    // 1000 lies in [512,1024) and 1000000 lies in [524288,1048576)
+    assertTrue(histogram.getBucket(10) == 99);
+    assertTrue(histogram.getBucket(20) == 1);
+    assertTrue(histogram.getPercentile(50) == 1023);
+    assertTrue(histogram.getPercentile(100) == 1000000);
+  }
+
+  /**
+   * Check cycles which start early are recorded as on time.
+   */
+  @Test
+  public void test_histogram_02() {
+    JitterHistogram histogram = new JitterHistogram();
+    histogram.record(-10);
+    assertTrue(histogram.getBucket(0) == 1);
+    assertTrue(histogram.getMax() == 0);
+  }
+
+  /**
+   * Check the executor strategy drives the controller.
+   */
+  @Test
+  public void test_driver_01() throws InterruptedException {
+    test_driver(PeriodicDriver.Strategy.SCHEDULED_EXECUTOR);
+  }
+
+  /**
+   * Check the park and spin strategy drives the controller.
+   */
+  @Test
+  public void test_driver_02() throws InterruptedException {
+    test_driver(PeriodicDriver.Strategy.PARK_SPIN);
+  }
+
+  /**
+   * Check the busy spin strategy drives the controller.
+   */
+  @Test
+  public void test_driver_03() throws InterruptedException {
+    test_driver(PeriodicDriver.Strategy.BUSY_SPIN);
+  }
+
+  /**
+   * Drive a controller against simulated physical units with a 10ms period for around half a
+   * second. The physical units are clocked by the driver as well, at the normal 5s cycle length, so
+   * the simulated system runs much faster than real time.
+   *
+   * @param strategy
+   *          The waiting strategy to use.
+   */
+  private static void test_driver(PeriodicDriver.Strategy strategy) throws InterruptedException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    PlantLink link = new PlantLink() {
+      @Override
+      public void transmit(Mailbox incoming) {
+        model.clock(5000);
+        model.transmit(incoming);
+      }
+
+      @Override
+      public void receive(Mailbox outgoing) {
+        model.receive(outgoing);
+      }
+    };
+    PeriodicDriver driver = new PeriodicDriver(controller, link, 10000000, strategy);
+    driver.start();
+    Thread.sleep(500);
+    driver.stop();
+    JitterHistogram jitter = driver.getJitter();
+    assertTrue(jitter.getCount() > 10);
+    assertTrue(jitter.getPercentile(50) <= jitter.getMax());
+  }
+}
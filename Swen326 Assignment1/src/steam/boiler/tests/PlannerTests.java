@@ -0,0 +1,179 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.bench.PlannerBenchmark;
+import steam.boiler.core.HorizonPlanner;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check the planner which chooses pumps over several cycles. It must agree with the
+ * one-cycle prediction when it looks only one cycle ahead and switching is free, must give up
+ * rather than overrun its time budget, and over an hour must switch pumps less often than the
+ * controller does without it, while keeping the boiler running.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PlannerTests {
+
+  /**
+   * Check that a one-cycle plan with free switching is the one-cycle prediction, whatever pumps
+   * are open, wherever the envelope stays within the normal range.
+   */
+  @Test
+  public void test_planner_01() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    HorizonPlanner planner = new HorizonPlanner(config);
+    planner.setHorizon(1);
+    planner.setSwitchCost(0);
+    double c = config.getPumpCapacity(0);
+    double w = config.getMaximualSteamRate();
+    double min = config.getMinimalNormalLevel();
+    double max = config.getMaximalNormalLevel();
+    int planned = 0;
+    for (double level = min; level <= max; level = level + 0.7) {
+      for (double steam = 0; steam <= w; steam = steam + w / 13) {
+        for (int open = 0; open <= config.getNumberOfPumps(); open = open + 1) {
+          int pumps = planner.plan(level, steam, open);
+          if (pumps >= 0) {
+            assertEquals(controller.predictPumps(level, c, w, steam, min, max), pumps);
+            planned = planned + 1;
+          }
+        }
+      }
+    }
+    assertTrue(planned > 0);
+  }
+
+  /**
+   * Check that a planner which runs out of time immediately gives up, and that the controller then
+   * behaves exactly as it does without a planner.
+   */
+  @Test
+  public void test_planner_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    HorizonPlanner planner = new HorizonPlanner(config);
+    long[] clock = { 0 };
+    planner.setBudget(10, () -> clock[0] += 100);
+    double level = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+    assertEquals(-1, planner.plan(level, 0, 0));
+    assertEquals(0, planner.getDepth());
+    assertEquals(1, planner.getTruncated());
+    MySteamBoilerController with = new MySteamBoilerController(config);
+    MySteamBoilerController without = new MySteamBoilerController(config);
+    with.setPlanner(planner);
+    for (int i = 0; i != 20; i = i + 1) {
+      Mailbox incoming = readings(config, level + i, i % 2 == 0);
+      Mailbox first = new UnboundedMailbox(100);
+      Mailbox second = new UnboundedMailbox(100);
+      with.clock(incoming, first);
+      without.clock(incoming, second);
+      assertEquals(text(second), text(first));
+    }
+  }
+
+  /**
+   * Check that with unlimited time every plan reaches the horizon, and the memo stays bounded,
+   * and that a planner is only accepted for a boiler with the same number of pumps.
+   */
+  @Test
+  public void test_planner_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    HorizonPlanner planner = new HorizonPlanner(config);
+    planner.setHorizon(12);
+    planner.setQuantum(0.01);
+    planner.setBudget(1, () -> 0);
+    double min = config.getMinimalNormalLevel();
+    double max = config.getMaximalNormalLevel();
+    for (double level = min; level <= max; level = level + 3.1) {
+      planner.plan(level, config.getMaximualSteamRate() / 3, 2);
+      assertEquals(12, planner.getDepth());
+      assertTrue(planner.getMemoSize() <= HorizonPlanner.MAX_MEMO);
+    }
+    assertEquals(0, planner.getTruncated());
+    MySteamBoilerController controller = new MySteamBoilerController(
+        config.setNumberOfPumps(2, config.getPumpCapacity(0)));
+    try {
+      controller.setPlanner(planner);
+      assertTrue(false);
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Run a fault-free boiler for an hour and check that planning ahead switches pumps less often,
+   * sends fewer pump commands, and never stops the boiler.
+   */
+  @Test
+  public void test_planner_04() {
+    PlannerBenchmark benchmark = new PlannerBenchmark(SteamBoilerCharacteristics.DEFAULT);
+    benchmark.setHorizons(2, 4, 8);
+    List<PlannerBenchmark.Row> rows = benchmark.run();
+    PlannerBenchmark.Row baseline = rows.get(0);
+    assertFalse(baseline.isStopped());
+    for (PlannerBenchmark.Row row : rows.subList(1, rows.size())) {
+      assertFalse(row.isStopped());
+      assertTrue(row.toString(), row.getTogglesPerHour() < baseline.getTogglesPerHour());
+      assertTrue(row.toString(), row.getCommandsPerHour() < baseline.getCommandsPerHour());
+      assertTrue(row.toString(), row.getDeviation() < 2 * baseline.getDeviation());
+    }
+  }
+
+  /**
+   * Create the readings a fault-free boiler would send. The first cycle also reports that the
+   * boiler is waiting, and the rest that the physical units are ready.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param level
+   *          The level reading.
+   * @param first
+   *          Whether this is the first cycle.
+   * @return the mailbox.
+   */
+  private static Mailbox readings(SteamBoilerCharacteristics config, double level,
+      boolean first) {
+    Mailbox mailbox = new UnboundedMailbox(100);
+    mailbox.send(new Message(MessageKind.LEVEL_v, level));
+    mailbox.send(new Message(MessageKind.STEAM_v, 0.0));
+    for (int p = 0; p != config.getNumberOfPumps(); p = p + 1) {
+      mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, p, false));
+    }
+    for (int p = 0; p != config.getNumberOfPumps(); p = p + 1) {
+      mailbox.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, p, false));
+    }
+    mailbox.send(new Message(first ? MessageKind.STEAM_BOILER_WAITING
+        : MessageKind.PHYSICAL_UNITS_READY));
+    return mailbox;
+  }
+
+  /**
+   * Render the messages in a mailbox as text.
+   *
+   * @param mailbox
+   *          The mailbox.
+   * @return the messages, in order.
+   */
+  private static String text(Mailbox mailbox) {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i != mailbox.size(); i = i + 1) {
+      b.append(mailbox.read(i)).append(' ');
+    }
+    return b.toString();
+  }
+}
@@ -0,0 +1,268 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.bench.CapacityOptimiser;
+import steam.boiler.bench.HeadlessSimulation;
+import steam.boiler.bench.ResultCache;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the cache of simulation outcomes: that keys depend on everything which decides
+ * an outcome, that outcomes survive being stored and are found again, that the least recently used
+ * outcomes are removed to keep within the budget, and that caches shared between threads stay
+ * consistent.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ResultCacheTests {
+
+  /**
+   * Check that keys are the same for the same characteristics, scenario and controller, and differ
+   * when any of them does.
+   */
+  @Test
+  public void test_result_cache_01() throws IOException {
+    Path dir = Files.createTempDirectory("results");
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    ResultCache cache = new ResultCache(dir, 1 << 20);
+    String key = cache.key(config, scenario(""));
+    assertTrue(key, key.matches("[0-9a-f]{64}"));
+    assertEquals(key, cache.key(config, scenario("")));
+    assertEquals(key, new ResultCache(dir, 1 << 20).key(config, scenario("")));
+    assertFalse(key.equals(cache.key(config.setNumberOfPumps(3, config.getPumpCapacity(0)),
+        scenario(""))));
+    assertFalse(key.equals(cache.key(config, scenario("window 30\n"))));
+    String fault = cache.key(config, scenario("fault 120 PUMP_STUCK_CLOSED 1\n"));
+    assertFalse(key.equals(fault));
+    assertFalse(fault.equals(cache.key(config, scenario("fault 120 PUMP_STUCK_CLOSED 2\n"))));
+    ResultCache other = new ResultCache(dir, 1 << 20, new byte[] { 1 });
+    assertFalse(key.equals(other.key(config, scenario(""))));
+    clean(dir);
+  }
+
+  /**
+   * Check that an outcome is simulated once, found again by another cache on the same directory,
+   * and matches the simulation, and that a damaged outcome is treated as missing.
+   */
+  @Test
+  public void test_result_cache_02() throws IOException {
+    Path dir = Files.createTempDirectory("results");
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    HeadlessSimulation.Scenario scenario = scenario("");
+    ResultCache cache = new ResultCache(dir, 1 << 20);
+    ResultCache.Outcome first = cache.run(config, scenario);
+    assertEquals(1, cache.getMisses());
+    HeadlessSimulation.Summary summary = new HeadlessSimulation(config).run(scenario);
+    assertEquals(summary.isPassed(), first.isPassed());
+    assertEquals(summary.getCycles(), first.getCycles());
+    assertEquals(summary.getFinalLevel(), first.getFinalLevel(), 0);
+    assertEquals(summary.getModes(), first.getModes());
+    assertTrue(first.getModes(), first.getModes().contains("NORMAL"));
+    ResultCache again = new ResultCache(dir, 1 << 20);
+    assertTrue(again.getSize() > 0);
+    ResultCache.Outcome second = again.run(config, scenario);
+    assertEquals(1, again.getHits());
+    assertEquals(0, again.getMisses());
+    assertEquals(first.toString(), second.toString());
+    for (Path p : files(dir)) {
+      Files.write(p, new byte[] { 1, 2, 3 });
+    }
+    assertNull(again.get(again.key(config, scenario)));
+    assertTrue(files(dir).isEmpty());
+    clean(dir);
+  }
+
+  /**
+   * Check that storing more outcomes than the budget allows removes the least recently used, and
+   * that reading an outcome keeps it.
+   */
+  @Test
+  public void test_result_cache_03() throws IOException {
+    Path dir = Files.createTempDirectory("results");
+    ResultCache.Outcome outcome = new ResultCache(dir, 1 << 20).run(
+        SteamBoilerCharacteristics.DEFAULT, scenario(""));
+    Path file = files(dir).get(0);
+    long each = Files.size(file);
+    Files.delete(file);
+    ResultCache cache = new ResultCache(dir, each * 10);
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    String[] keys = new String[30];
+    for (int i = 0; i != keys.length; i = i + 1) {
+      keys[i] = cache.key(config, scenario("duration " + (100 + i) + "\n"));
+    }
+    long time = System.currentTimeMillis() - 1000000;
+    for (int i = 0; i != keys.length; i = i + 1) {
+      cache.put(keys[i], outcome);
+      assertTrue(cache.getSize() <= each * 10);
+      Path stored = file(dir, keys[i]);
+      if (Files.exists(stored)) {
+        Files.setLastModifiedTime(stored, FileTime.fromMillis(time + i * 1000));
+      }
+      if (i == 8) {
+        assertNotNull(cache.get(keys[0]));
+      }
+    }
+    assertTrue(files(dir).size() <= 10);
+    assertEquals(files(dir).size() * each, cache.getSize());
+    assertNotNull(cache.get(keys[0]));
+    assertNull(cache.get(keys[1]));
+    assertNotNull(cache.get(keys[keys.length - 1]));
+    clean(dir);
+  }
+
+  /**
+   * Check that searches on several threads sharing a cache agree with a search without one, that
+   * the configuration they find is held, and that a later search finds it again.
+   */
+  @Test
+  public void test_result_cache_04() throws Exception {
+    Path dir = Files.createTempDirectory("results");
+    HeadlessSimulation.Scenario scenario = HeadlessSimulation.Scenario.parse("profile",
+        new StringReader("duration 1800\ngranularity 500\n"));
+    CapacityOptimiser plain = new CapacityOptimiser(SteamBoilerCharacteristics.DEFAULT, scenario);
+    plain.setCapacities(2, 4);
+    CapacityOptimiser.Result expected = plain.optimise();
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    List<Future<CapacityOptimiser.Result>> results = new ArrayList<>();
+    for (int i = 0; i != 4; i = i + 1) {
+      ResultCache cache = new ResultCache(dir, 1 << 20);
+      results.add(pool.submit(() -> {
+        CapacityOptimiser optimiser = new CapacityOptimiser(SteamBoilerCharacteristics.DEFAULT,
+            scenario);
+        optimiser.setCapacities(2, 4);
+        optimiser.setThreads(2);
+        optimiser.setResultCache(cache);
+        return optimiser.optimise();
+      }));
+    }
+    for (Future<CapacityOptimiser.Result> f : results) {
+      CapacityOptimiser.Result result = f.get();
+      assertEquals(expected.getPumps(), result.getPumps());
+      assertEquals(expected.getCapacity(), result.getCapacity(), 0);
+    }
+    pool.shutdown();
+    for (Path p : files(dir)) {
+      assertNotNull(p.toString(), ResultCacheTests.read(dir, p));
+    }
+    ResultCache cache = new ResultCache(dir, 1 << 20);
+    ResultCache.Outcome found = cache.get(cache.key(SteamBoilerCharacteristics.DEFAULT
+        .setNumberOfPumps(expected.getPumps(), expected.getCapacity()), scenario));
+    assertNotNull(found);
+    assertTrue(found.toString(), found.isPassed());
+    CapacityOptimiser later = new CapacityOptimiser(SteamBoilerCharacteristics.DEFAULT, scenario);
+    later.setCapacities(2, 4);
+    later.setResultCache(cache);
+    CapacityOptimiser.Result result = later.optimise();
+    assertEquals(expected.getPumps(), result.getPumps());
+    assertEquals(expected.getCapacity(), result.getCapacity(), 0);
+    clean(dir);
+  }
+
+  /**
+   * Check that storing an outcome which is already held replaces it without counting it twice.
+   */
+  @Test
+  public void test_result_cache_05() throws IOException {
+    Path dir = Files.createTempDirectory("results");
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    ResultCache cache = new ResultCache(dir, 1 << 20);
+    ResultCache.Outcome outcome = cache.run(config, scenario(""));
+    String key = cache.key(config, scenario(""));
+    long each = Files.size(file(dir, key));
+    assertEquals(each, cache.getSize());
+    for (int i = 0; i != 5; i = i + 1) {
+      cache.put(key, outcome);
+      assertEquals(each, cache.getSize());
+    }
+    assertEquals(1, files(dir).size());
+    assertEquals(outcome.toString(), String.valueOf(cache.get(key)));
+    clean(dir);
+  }
+
+  /**
+   * Build a short scenario.
+   *
+   * @param extra
+   *          Lines added to the scenario.
+   * @return the scenario.
+   */
+  private static HeadlessSimulation.Scenario scenario(String extra) throws IOException {
+    return HeadlessSimulation.Scenario.parse("cached", new StringReader("duration 120\n" + extra));
+  }
+
+  /**
+   * Find the file holding an outcome.
+   *
+   * @param dir
+   *          The cache directory.
+   * @param key
+   *          The key of the outcome.
+   * @return the file.
+   */
+  private static Path file(Path dir, String key) {
+    return dir.resolve(key.substring(0, 2)).resolve(key + ".sbr");
+  }
+
+  /**
+   * Read an outcome file through a cache, by its name.
+   *
+   * @param dir
+   *          The cache directory.
+   * @param file
+   *          The file.
+   * @return the outcome, or null if it is damaged.
+   */
+  private static ResultCache.Outcome read(Path dir, Path file) throws IOException {
+    String name = file.getFileName().toString();
+    return new ResultCache(dir, 1 << 20).get(name.substring(0, name.indexOf('.')));
+  }
+
+  /**
+   * List the outcome files in a cache directory.
+   *
+   * @param dir
+   *          The directory.
+   * @return the files.
+   */
+  private static List<Path> files(Path dir) throws IOException {
+    try (Stream<Path> walk = Files.walk(dir)) {
+      return walk.filter(p -> p.toString().endsWith(".sbr")).collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Remove a cache directory.
+   *
+   * @param dir
+   *          The directory.
+   */
+  private static void clean(Path dir) throws IOException {
+    try (Stream<Path> walk = Files.walk(dir)) {
+      for (Path p : walk.sorted((a, b) -> b.compareTo(a)).collect(Collectors.toList())) {
+        Files.delete(p);
+      }
+    }
+  }
+}
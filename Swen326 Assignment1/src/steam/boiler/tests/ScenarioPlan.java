@@ -0,0 +1,853 @@
+package steam.boiler.tests;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import steam.boiler.bench.FaultCampaign;
+import steam.boiler.bench.HeadlessSimulation;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpModels;
+import steam.boiler.tests.TestUtils.MailboxMatcher;
+import steam.boiler.tests.TestUtils.MessageMatcher;
+import steam.boiler.tests.TestUtils.ParameterMatcher;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * A scenario compiled from text into the steps a hand-written test would take. Everything is
+ * resolved when the scenario is loaded: message patterns become {@link MailboxMatcher}s, levels
+ * become litres and times become milliseconds, so running a plan does no parsing and no lookups.
+ *
+ * <p>A scenario file holds any number of scenarios, each starting with a <code>scenario</code>
+ * line. Configuration comes first, then the steps in order, and <code>#</code> starts a comment:
+ *
+ * <pre>
+ * scenario pump 2 sticks closed once running
+ * pumps 3                          # or: pumps 3 capacity
+ * pumpCapacity 0 20
+ * period 5000                      # milliseconds between controller cycles
+ * water middleNormal               # litres, or a named level of the boiler
+ * mode WAITING
+ * once exactly MODE_m(INITIALISATION) PROGRAM_READY
+ * until 60 atleast MODE_m(NORMAL)  # seconds
+ * inject PUMP_STUCK_CLOSED 2
+ * fault 90000 STEAM_TX_FAILURE     # milliseconds of simulated time from the start
+ * never 30 atleast MODE_m(EMERGENCY_STOP)
+ * level normal                     # or: level limits
+ * repair 2
+ * </pre>
+ *
+ * <p>The steps <code>once</code>, <code>until</code> and <code>never</code> clock the controller
+ * exactly as {@link TestUtils#clockOnceExpecting}, {@link TestUtils#clockUntil} and
+ * {@link TestUtils#clockForWithout} do. Faults use the kinds of {@link FaultCampaign.FaultKind}.
+ * A message pattern is a kind, optionally followed by its parameter in brackets, where
+ * <code>?</code> matches anything; a kind given without its parameter also matches anything.
+ *
+ */
+public final class ScenarioPlan {
+  /**
+   * The step (in milliseconds) by which the physical units are advanced.
+   */
+  private static final int GRANULARITY = 100;
+
+  /**
+   * A single compiled step.
+   */
+  private interface Step {
+    /**
+     * Perform the step.
+     *
+     * @param run
+     *          The state of the run.
+     * @return null if the step succeeded, or a description of what went wrong.
+     */
+    String perform(Run run);
+  }
+
+  /**
+   * The state of a plan while it runs.
+   */
+  private static final class Run {
+    /**
+     * The plan being run.
+     */
+    final ScenarioPlan plan;
+
+    /**
+     * The controller under test.
+     */
+    final MySteamBoilerController controller;
+
+    /**
+     * The physical units.
+     */
+    final PhysicalUnits model;
+
+    /**
+     * The simulated time (in milliseconds) for which the physical units have been clocked.
+     */
+    int time;
+
+    /**
+     * The index of the next timed fault to inject.
+     */
+    int next;
+
+    /**
+     * The index of the next timed fault to repair, in order of repair.
+     */
+    int repair;
+
+    /**
+     * Construct the state at the start of a run.
+     *
+     * @param plan
+     *          The plan being run.
+     * @param controller
+     *          The controller under test.
+     * @param model
+     *          The physical units.
+     */
+    Run(ScenarioPlan plan, MySteamBoilerController controller, PhysicalUnits model) {
+      this.plan = plan;
+      this.controller = controller;
+      this.model = model;
+    }
+  }
+
+  /**
+   * Where the scenario came from, as <code>source:line</code>.
+   */
+  private final String location;
+
+  /**
+   * The name of the scenario.
+   */
+  private final String name;
+
+  /**
+   * The characteristics of the boiler.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * The period of the controller, in milliseconds.
+   */
+  private final int period;
+
+  /**
+   * The steps, in order.
+   */
+  private final Step[] steps;
+
+  /**
+   * The line on which each step was written.
+   */
+  private final int[] lines;
+
+  /**
+   * The timed faults, in order of occurrence.
+   */
+  private final FaultCampaign.Fault[] faults;
+
+  /**
+   * The timed faults which are repaired, in order of repair.
+   */
+  private final FaultCampaign.Fault[] repairs;
+
+  /**
+   * Construct a compiled plan.
+   *
+   * @param builder
+   *          The scenario as read.
+   */
+  private ScenarioPlan(Builder builder) {
+    this.location = builder.location;
+    this.name = builder.name;
+    this.config = builder.config;
+    this.period = builder.period;
+    this.steps = builder.steps.toArray(new Step[builder.steps.size()]);
+    this.lines = new int[this.steps.length];
+    for (int i = 0; i != this.lines.length; i = i + 1) {
+      this.lines[i] = builder.lines.get(i);
+    }
+    List<FaultCampaign.Fault> faults = new ArrayList<>(builder.faults);
+    Collections.sort(faults, new Comparator<FaultCampaign.Fault>() {
+      @Override
+      public int compare(FaultCampaign.Fault a, FaultCampaign.Fault b) {
+        return Integer.compare(a.getTime(), b.getTime());
+      }
+    });
+    this.faults = faults.toArray(new FaultCampaign.Fault[faults.size()]);
+    List<FaultCampaign.Fault> repairs = new ArrayList<>();
+    for (FaultCampaign.Fault f : faults) {
+      if (f.getRepair() >= 0) {
+        repairs.add(f);
+      }
+    }
+    Collections.sort(repairs, new Comparator<FaultCampaign.Fault>() {
+      @Override
+      public int compare(FaultCampaign.Fault a, FaultCampaign.Fault b) {
+        return Integer.compare(a.getRepair(), b.getRepair());
+      }
+    });
+    this.repairs = repairs.toArray(new FaultCampaign.Fault[repairs.size()]);
+  }
+
+  /**
+   * Get the name of the scenario.
+   *
+   * @return the name.
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Get where the scenario was written.
+   *
+   * @return the source and line of its <code>scenario</code> line.
+   */
+  public String getLocation() {
+    return this.location;
+  }
+
+  /**
+   * Get the number of steps in the scenario.
+   *
+   * @return the number of steps.
+   */
+  public int getSteps() {
+    return this.steps.length;
+  }
+
+  /**
+   * Run the scenario against a fresh controller and physical units.
+   *
+   * @return null if every step succeeded, or a description of the first which did not, giving the
+   *         line on which it was written.
+   */
+  public String run() {
+    PhysicalUnits model = new PhysicalUnits.Template(this.config).construct();
+    Run run = new Run(this, new MySteamBoilerController(this.config, this.period), model);
+    for (int i = 0; i != this.steps.length; i = i + 1) {
+      String failure = this.steps[i].perform(run);
+      if (failure != null) {
+        return this.location.substring(0, this.location.lastIndexOf(':') + 1) + this.lines[i]
+            + ": " + this.name + ": " + failure;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Clock the physical units by one step, injecting and repairing timed faults as they fall due,
+   * and let the controller and physical units synchronise if a period has elapsed.
+   *
+   * @param run
+   *          The state of the run.
+   * @param elapsed
+   *          The time (in milliseconds) elapsed within the current step.
+   * @return the messages sent by the controller, or null if this was not a synchronisation.
+   */
+  private Mailbox tick(Run run, int elapsed) {
+    while (run.next < this.faults.length && this.faults[run.next].getTime() <= run.time) {
+      FaultCampaign.Fault f = this.faults[run.next];
+      f.getKind().inject(run.model, f.getPump(), this.config);
+      run.next = run.next + 1;
+    }
+    while (run.repair < this.repairs.length && this.repairs[run.repair].getRepair() <= run.time) {
+      repair(run.model, this.repairs[run.repair].getPump());
+      run.repair = run.repair + 1;
+    }
+    run.time = run.time + GRANULARITY;
+    return TestUtils.clock(GRANULARITY, elapsed, run.controller, run.model);
+  }
+
+  /**
+   * Restore a pump.
+   *
+   * @param model
+   *          The physical units.
+   * @param pump
+   *          The pump.
+   */
+  private void repair(PhysicalUnits model, int pump) {
+    model.setPump(pump, new PumpModels.Ideal(pump, this.config.getPumpCapacity(pump), model));
+    model.setPumpStatus(pump, PhysicalUnits.ComponentStatus.REPAIRED);
+  }
+
+  /**
+   * Load every scenario in a file.
+   *
+   * @param source
+   *          The name of the file, by which errors are located.
+   * @param in
+   *          The text of the file.
+   * @return the compiled scenarios, in order.
+   * @throws IOException
+   *           if the text could not be read.
+   * @throws IllegalArgumentException
+   *           if a line is malformed.
+   */
+  public static List<ScenarioPlan> load(String source, Reader in) throws IOException {
+    List<ScenarioPlan> plans = new ArrayList<>();
+    BufferedReader reader = new BufferedReader(in);
+    Builder builder = null;
+    int line = 0;
+    for (String text = reader.readLine(); text != null; text = reader.readLine()) {
+      line = line + 1;
+      int hash = text.indexOf('#');
+      String body = (hash < 0 ? text : text.substring(0, hash)).trim();
+      if (body.isEmpty()) {
+        continue;
+      }
+      try {
+        String[] words = body.split("\\s+");
+        if (words[0].equals("scenario")) {
+          if (builder != null) {
+            plans.add(builder.build());
+          }
+          builder = new Builder(source + ":" + line, body.substring("scenario".length()).trim());
+        } else if (builder == null) {
+          throw new IllegalArgumentException("expected scenario");
+        } else {
+          builder.directive(words, line);
+        }
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(source + ":" + line + ": " + e.getMessage());
+      }
+    }
+    if (builder != null) {
+      plans.add(builder.build());
+    }
+    return plans;
+  }
+
+  /**
+   * A scenario as it is being read.
+   */
+  private static final class Builder {
+    /**
+     * Where the scenario came from.
+     */
+    final String location;
+
+    /**
+     * The name of the scenario.
+     */
+    final String name;
+
+    /**
+     * The characteristics of the boiler.
+     */
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+
+    /**
+     * The period of the controller.
+     */
+    int period = MySteamBoilerController.DEFAULT_PERIOD;
+
+    /**
+     * The steps so far.
+     */
+    final List<Step> steps = new ArrayList<>();
+
+    /**
+     * The line of each step so far.
+     */
+    final List<Integer> lines = new ArrayList<>();
+
+    /**
+     * The timed faults so far.
+     */
+    final List<FaultCampaign.Fault> faults = new ArrayList<>();
+
+    /**
+     * Start a scenario.
+     *
+     * @param location
+     *          Where the scenario came from.
+     * @param name
+     *          The name of the scenario.
+     */
+    Builder(String location, String name) {
+      if (name.isEmpty()) {
+        throw new IllegalArgumentException("scenario has no name");
+      }
+      this.location = location;
+      this.name = name;
+    }
+
+    /**
+     * Finish the scenario.
+     *
+     * @return the compiled plan.
+     */
+    ScenarioPlan build() {
+      for (FaultCampaign.Fault f : this.faults) {
+        checkPump(f.getKind().isPumpFault() ? f.getPump() : 0);
+      }
+      return new ScenarioPlan(this);
+    }
+
+    /**
+     * Read a single directive.
+     *
+     * @param words
+     *          The words of the directive.
+     * @param line
+     *          The line on which it was written.
+     */
+    void directive(String[] words, int line) {
+      switch (words[0]) {
+        case "pumps":
+          configure();
+          arguments(words, 2, 3);
+          this.config = this.config.setNumberOfPumps(positive(words[1]),
+              words.length == 3 ? number(words[2]) : this.config.getPumpCapacity(0));
+          break;
+        case "pumpCapacity":
+          configure();
+          arguments(words, 3, 3);
+          this.config = this.config.setPumpCapacity(checkPump(integer(words[1])),
+              number(words[2]));
+          break;
+        case "period":
+          configure();
+          arguments(words, 2, 2);
+          this.period = positive(words[1]);
+          if (this.period % GRANULARITY != 0) {
+            throw new IllegalArgumentException("period must be a multiple of " + GRANULARITY);
+          }
+          break;
+        case "fault":
+          this.faults.add(HeadlessSimulation.Scenario.fault(words));
+          break;
+        default:
+          this.steps.add(step(words));
+          this.lines.add(line);
+          break;
+      }
+    }
+
+    /**
+     * Check that configuration is not changed once steps have been given, since they are resolved
+     * against it.
+     */
+    private void configure() {
+      if (!this.steps.isEmpty()) {
+        throw new IllegalArgumentException("configuration must come before the steps");
+      }
+    }
+
+    /**
+     * Compile a single step.
+     *
+     * @param words
+     *          The words of the step.
+     * @return the step.
+     */
+    private Step step(String[] words) {
+      switch (words[0]) {
+        case "mode":
+          arguments(words, 2, 2);
+          return mode(words[1]);
+        case "water":
+          arguments(words, 2, 2);
+          return water(level(words[1]));
+        case "inject":
+          return inject(words);
+        case "repair":
+          arguments(words, 2, 2);
+          return repair(checkPump(integer(words[1])));
+        case "once":
+          return once(mailbox(words, 1));
+        case "until":
+          arguments(words, 3, words.length);
+          return until(positive(words[1]) * 1000, mailbox(words, 2));
+        case "never":
+          arguments(words, 3, words.length);
+          return never(positive(words[1]) * 1000, mailbox(words, 2));
+        case "level":
+          arguments(words, 2, 2);
+          if (words[1].equals("normal")) {
+            return level(this.config.getMinimalNormalLevel(), this.config.getMaximalNormalLevel());
+          } else if (words[1].equals("limits")) {
+            return level(this.config.getMinimalLimitLevel(), this.config.getMaximalLimitLevel());
+          }
+          throw new IllegalArgumentException("expected normal or limits");
+        default:
+          throw new IllegalArgumentException("unknown directive " + words[0]);
+      }
+    }
+
+    /**
+     * Compile a step which sets the mode of the physical units.
+     *
+     * @param name
+     *          The name of the mode.
+     * @return the step.
+     */
+    private static Step mode(String name) {
+      final PhysicalUnits.Mode mode;
+      try {
+        mode = PhysicalUnits.Mode.valueOf(name);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("unknown mode " + name);
+      }
+      return new Step() {
+        @Override
+        public String perform(Run run) {
+          run.model.setMode(mode);
+          return null;
+        }
+      };
+    }
+
+    /**
+     * Compile a step which pumps water into the boiler.
+     *
+     * @param litres
+     *          The amount of water.
+     * @return the step.
+     */
+    private static Step water(final double litres) {
+      return new Step() {
+        @Override
+        public String perform(Run run) {
+          run.model.getBoiler().pumpInWater(litres);
+          return null;
+        }
+      };
+    }
+
+    /**
+     * Compile a step which breaks a unit at once.
+     *
+     * @param words
+     *          The words of the step: the kind of fault, then the pump if it is a pump fault.
+     * @return the step.
+     */
+    private Step inject(String[] words) {
+      if (words.length < 2) {
+        throw new IllegalArgumentException("expected a fault");
+      }
+      final FaultCampaign.FaultKind kind;
+      try {
+        kind = FaultCampaign.FaultKind.valueOf(words[1]);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("unknown fault " + words[1]);
+      }
+      arguments(words, kind.isPumpFault() ? 3 : 2, kind.isPumpFault() ? 3 : 2);
+      final int pump = kind.isPumpFault() ? checkPump(integer(words[2])) : 0;
+      final SteamBoilerCharacteristics cs = this.config;
+      return new Step() {
+        @Override
+        public String perform(Run run) {
+          kind.inject(run.model, pump, cs);
+          return null;
+        }
+      };
+    }
+
+    /**
+     * Compile a step which restores a pump.
+     *
+     * @param pump
+     *          The pump.
+     * @return the step.
+     */
+    private Step repair(final int pump) {
+      final double capacity = this.config.getPumpCapacity(pump);
+      return new Step() {
+        @Override
+        public String perform(Run run) {
+          run.model.setPump(pump, new PumpModels.Ideal(pump, capacity, run.model));
+          run.model.setPumpStatus(pump, PhysicalUnits.ComponentStatus.REPAIRED);
+          return null;
+        }
+      };
+    }
+
+    /**
+     * Compile a step which clocks the controller once, as {@link TestUtils#clockOnceExpecting}
+     * does.
+     *
+     * @param matcher
+     *          What the controller must send.
+     * @return the step.
+     */
+    private static Step once(final MailboxMatcher matcher) {
+      return new Step() {
+        @Override
+        public String perform(Run run) {
+          Mailbox input = new UnboundedMailbox(100);
+          Mailbox output = new UnboundedMailbox(100);
+          run.model.transmit(input);
+          run.controller.clock(input, output);
+          if (!matcher.matches(output)) {
+            return "did not expect to receive " + output + ", expected " + matcher;
+          }
+          run.model.receive(output);
+          return null;
+        }
+      };
+    }
+
+    /**
+     * Compile a step which clocks the system until the controller sends something, as
+     * {@link TestUtils#clockUntil} does.
+     *
+     * @param timeout
+     *          The time (in milliseconds) to wait.
+     * @param matcher
+     *          What the controller must send.
+     * @return the step.
+     */
+    private static Step until(final int timeout, final MailboxMatcher matcher) {
+      return new Step() {
+        @Override
+        public String perform(Run run) {
+          for (int elapsed = 0; elapsed < timeout; elapsed += GRANULARITY) {
+            Mailbox received = run.plan.tick(run, elapsed);
+            if (received != null && matcher.matches(received)) {
+              return null;
+            }
+          }
+          return "timeout occurred waiting for " + matcher;
+        }
+      };
+    }
+
+    /**
+     * Compile a step which clocks the system for a time during which the controller must not send
+     * something, as {@link TestUtils#clockForWithout} does.
+     *
+     * @param time
+     *          The time (in milliseconds) to clock for.
+     * @param matcher
+     *          What the controller must not send.
+     * @return the step.
+     */
+    private static Step never(final int time, final MailboxMatcher matcher) {
+      return new Step() {
+        @Override
+        public String perform(Run run) {
+          for (int elapsed = 0; elapsed < time; elapsed += GRANULARITY) {
+            Mailbox received = run.plan.tick(run, elapsed);
+            if (received != null && matcher.matches(received)) {
+              return "bad event happened after " + elapsed + "ms (" + received + ")";
+            }
+          }
+          return null;
+        }
+      };
+    }
+
+    /**
+     * Compile a step which checks the actual level.
+     *
+     * @param min
+     *          The lowest level allowed.
+     * @param max
+     *          The highest level allowed.
+     * @return the step.
+     */
+    private static Step level(final double min, final double max) {
+      return new Step() {
+        @Override
+        public String perform(Run run) {
+          double level = run.model.getBoiler().getWaterLevel();
+          return level >= min && level <= max ? null
+              : "level " + level + " outside [" + min + ", " + max + "]";
+        }
+      };
+    }
+
+    /**
+     * Compile a mailbox pattern: <code>exactly</code> or <code>atleast</code>, followed by the
+     * message patterns.
+     *
+     * @param words
+     *          The words of the step.
+     * @param from
+     *          The index of the word giving the kind of pattern.
+     * @return the matcher.
+     */
+    private static MailboxMatcher mailbox(String[] words, int from) {
+      if (from >= words.length) {
+        throw new IllegalArgumentException("expected exactly or atleast");
+      }
+      MessageMatcher[] matchers = new MessageMatcher[words.length - from - 1];
+      for (int i = 0; i != matchers.length; i = i + 1) {
+        matchers[i] = message(words[from + 1 + i]);
+      }
+      if (words[from].equals("exactly")) {
+        return TestUtils.exactly(matchers);
+      } else if (words[from].equals("atleast") && matchers.length > 0) {
+        return TestUtils.atleast(matchers);
+      }
+      throw new IllegalArgumentException("expected exactly or atleast with messages");
+    }
+
+    /**
+     * Compile a message pattern, such as <code>MODE_m(NORMAL)</code>,
+     * <code>OPEN_PUMP_n(?)</code> or <code>VALVE</code>.
+     *
+     * @param word
+     *          The pattern.
+     * @return the matcher.
+     */
+    private static MessageMatcher message(String word) {
+      int open = word.indexOf('(');
+      if (open >= 0 && !word.endsWith(")")) {
+        throw new IllegalArgumentException("malformed message " + word);
+      }
+      String name = open < 0 ? word : word.substring(0, open);
+      String argument = open < 0 ? "?" : word.substring(open + 1, word.length() - 1);
+      MessageKind kind;
+      try {
+        kind = MessageKind.valueOf(name);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("unknown message " + name);
+      }
+      ParameterMatcher parameter;
+      if (argument.equals("?")) {
+        parameter = TestUtils.ANY;
+      } else if (kind == MessageKind.MODE_m) {
+        try {
+          parameter = TestUtils.Parameter(Mode.valueOf(argument));
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException("unknown mode " + argument);
+        }
+      } else if (name.endsWith("_n")) {
+        parameter = TestUtils.Parameter(integer(argument));
+      } else if (name.endsWith("_v")) {
+        parameter = TestUtils.Parameter(number(argument));
+      } else {
+        throw new IllegalArgumentException("cannot match parameter of " + word);
+      }
+      boolean none = kind != MessageKind.MODE_m && !name.endsWith("_n") && !name.endsWith("_v")
+          && !name.endsWith("_b");
+      if (none && open >= 0) {
+        throw new IllegalArgumentException(name + " has no parameter");
+      }
+      return TestUtils.Kind(kind, none ? null : parameter);
+    }
+
+    /**
+     * Resolve a level, given in litres or as one of the boiler's named levels.
+     *
+     * @param word
+     *          The level.
+     * @return the level in litres.
+     */
+    private double level(String word) {
+      switch (word) {
+        case "minimalNormal":
+          return this.config.getMinimalNormalLevel();
+        case "maximalNormal":
+          return this.config.getMaximalNormalLevel();
+        case "middleNormal":
+          return (this.config.getMinimalNormalLevel() + this.config.getMaximalNormalLevel()) / 2;
+        case "minimalLimit":
+          return this.config.getMinimalLimitLevel();
+        case "maximalLimit":
+          return this.config.getMaximalLimitLevel();
+        case "capacity":
+          return this.config.getCapacity();
+        default:
+          return number(word);
+      }
+    }
+
+    /**
+     * Check that a pump exists.
+     *
+     * @param pump
+     *          The pump.
+     * @return the pump.
+     */
+    private int checkPump(int pump) {
+      if (pump < 0 || pump >= this.config.getNumberOfPumps()) {
+        throw new IllegalArgumentException("no pump " + pump);
+      }
+      return pump;
+    }
+
+    /**
+     * Check the number of words in a directive.
+     *
+     * @param words
+     *          The words.
+     * @param min
+     *          The fewest allowed, including the directive itself.
+     * @param max
+     *          The most allowed.
+     */
+    private static void arguments(String[] words, int min, int max) {
+      if (words.length < min || words.length > max) {
+        throw new IllegalArgumentException("wrong number of arguments to " + words[0]);
+      }
+    }
+
+    /**
+     * Read an integer.
+     *
+     * @param word
+     *          The word.
+     * @return the integer.
+     */
+    private static int integer(String word) {
+      try {
+        return Integer.parseInt(word);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("not a number: " + word);
+      }
+    }
+
+    /**
+     * Read a positive integer.
+     *
+     * @param word
+     *          The word.
+     * @return the integer.
+     */
+    private static int positive(String word) {
+      int value = integer(word);
+      if (value <= 0) {
+        throw new IllegalArgumentException("expected a positive number: " + word);
+      }
+      return value;
+    }
+
+    /**
+     * Read a finite number.
+     *
+     * @param word
+     *          The word.
+     * @return the number.
+     */
+    private static double number(String word) {
+      try {
+        double value = Double.parseDouble(word);
+        if (Double.isFinite(value)) {
+          return value;
+        }
+      } catch (NumberFormatException e) {
+        // fall through
+      }
+      throw new IllegalArgumentException("not a number: " + word);
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * These tests check scenario plans: that the scenarios kept in <code>functional.scenarios</code>
+ * and <code>safety.scenarios</code> pass, that mistakes in a scenario are reported against the
+ * line they were written on, and that large numbers of scenarios load into reusable plans.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ScenarioTests {
+
+  /**
+   * Check that every stored scenario passes.
+   */
+  @Test
+  public void test_scenario_01() throws IOException {
+    List<String> failures = new ArrayList<>();
+    int count = 0;
+    for (String file : new String[] { "functional.scenarios", "safety.scenarios" }) {
+      for (ScenarioPlan plan : load(file)) {
+        String failure = plan.run();
+        if (failure != null) {
+          failures.add(failure);
+        }
+        count = count + 1;
+      }
+    }
+    assertTrue(count >= 15);
+    assertEquals(new ArrayList<String>(), failures);
+  }
+
+  /**
+   * Check that malformed scenarios are rejected with the line of the mistake.
+   */
+  @Test
+  public void test_scenario_02() throws IOException {
+    String[] bad = { "once exactly", "scenario a\nonce sometimes VALVE",
+        "scenario a\nonce atleast MODE_m(ASLEEP)", "scenario a\nonce atleast VALVE(1)",
+        "scenario a\nonce atleast OPEN_PUMP_n(x)", "scenario a\nonce atleast", "scenario a\nwait 5",
+        "scenario a\ninject PUMP_STUCK_CLOSED 4", "scenario a\nmode WAITING\npumps 2",
+        "scenario a\nperiod 150", "scenario a\nwater lots", "scenario a\nuntil 5",
+        "scenario a\nlevel high", "scenario\nmode WAITING" };
+    int[] lines = { 1, 2, 2, 2, 2, 2, 2, 2, 3, 2, 2, 2, 2, 1 };
+    for (int i = 0; i != bad.length; i = i + 1) {
+      try {
+        ScenarioPlan.load("bad", new StringReader(bad[i]));
+        fail("expected an error for " + bad[i]);
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage(), e.getMessage().startsWith("bad:" + lines[i] + ":"));
+      }
+    }
+  }
+
+  /**
+   * Check that a scenario whose expectation is not met reports the step which failed, and that the
+   * other scenarios in the same file are unaffected.
+   */
+  @Test
+  public void test_scenario_03() throws IOException {
+    List<ScenarioPlan> plans = ScenarioPlan.load("mixed", new StringReader(
+        "scenario wrong\nwater middleNormal\nmode WAITING\n"
+            + "once exactly MODE_m(INITIALISATION) PROGRAM_READY\n"
+            + "once atleast MODE_m(RESCUE) # should be NORMAL\n"
+            + "scenario right\npumps 2 4\nmode WAITING\nnever 30 atleast MODE_m(EMERGENCY_STOP)\n"
+            + "scenario slow\nmode WAITING\nuntil 5 atleast PROGRAM_READY\n"));
+    assertEquals(3, plans.size());
+    assertEquals("mixed:6", plans.get(1).getLocation());
+    String failure = plans.get(0).run();
+    assertTrue(failure, failure != null && failure.startsWith("mixed:5: wrong: did not expect"));
+    assertEquals(null, plans.get(1).run());
+    failure = plans.get(2).run();
+    assertTrue(failure, failure != null && failure.startsWith("mixed:12: slow: timeout"));
+  }
+
+  /**
+   * Check that thousands of scenarios load, and that a plan can be run repeatedly with the same
+   * outcome.
+   */
+  @Test
+  public void test_scenario_04() throws IOException {
+    StringBuilder text = new StringBuilder();
+    String[] faults = { "STEAM_STUCK_NEGATIVE", "LEVEL_TX_FAILURE", "PUMP_STUCK_CLOSED 1",
+        "PUMP_CONTROLLER_STUCK_OFF 2" };
+    for (int i = 0; i != 4000; i = i + 1) {
+      text.append("scenario generated ").append(i).append("\npumps ").append(3 + i % 3)
+          .append("\nwater ").append(200 + i % 400).append("\nmode WAITING\n")
+          .append("fault ").append(1000 * (i % 50)).append(' ').append(faults[i % 4])
+          .append("\nonce atleast MODE_m(?)\nnever 10 atleast MODE_m(RESCUE)\n");
+    }
+    List<ScenarioPlan> plans = ScenarioPlan.load("generated", new StringReader(text.toString()));
+    assertEquals(4000, plans.size());
+    for (int i = 0; i < plans.size(); i = i + 97) {
+      ScenarioPlan plan = plans.get(i);
+      assertEquals(4, plan.getSteps());
+      assertEquals(plan.run(), plan.run());
+    }
+  }
+
+  /**
+   * Load the scenarios in a file stored alongside these tests.
+   *
+   * @param file
+   *          The name of the file.
+   * @return the compiled scenarios.
+   */
+  private static List<ScenarioPlan> load(String file) throws IOException {
+    try (InputStream in = ScenarioTests.class.getResourceAsStream(file)) {
+      assertTrue("missing " + file, in != null);
+      return ScenarioPlan.load(file, new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.changingLevel;
+import static steam.boiler.tests.TestUtils.changingSteam;
+import static steam.boiler.tests.TestUtils.clockChanging;
+import static steam.boiler.tests.TestUtils.clockForWithout;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.ControllerSnapshot;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpModels;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the state snapshots published by the controller, including that concurrent
+ * readers only ever see consistent snapshots.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SnapshotTests {
+
+  /**
+   * Check the snapshot follows the controller into normal mode.
+   */
+  @Test
+  public void test_snapshot_01() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    assertTrue(controller.getSnapshot().getCycle() == 0);
+    assertTrue(Double.isNaN(controller.getSnapshot().getLevel()));
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    clockForWithout(240, controller, model, atleast(MODE_emergencystop));
+    ControllerSnapshot snapshot = controller.getSnapshot();
+    assertTrue(snapshot.getMode() == Mode.NORMAL);
+    assertTrue(snapshot.getCycle() == 48);
+    assertTrue(snapshot.getNumberOfPumps() == config.getNumberOfPumps());
+    assertTrue(controller.getStatusMessage().equals("NORMAL"));
+  }
+
+  /**
+   * Check a detected pump failure is reported as an active fault.
+   */
+  @Test
+  public void test_snapshot_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    model.setPump(0, new PumpModels.StuckClosed(0, 0.0, model));
+    clockForWithout(60, controller, model, atleast(MODE_emergencystop));
+    assertTrue(controller.getSnapshot().isPumpFaulty(0));
+  }
+
+  /**
+   * Check readers running concurrently with the controller never see a torn snapshot. Every cycle
+   * uses a different level and steam reading derived from the cycle number, and the pumps chosen
+   * by the controller depend on these. Therefore, a reader can check the cycle, level, steam and
+   * pumps of each snapshot all belong together.
+   */
+  @Test
+  public void test_snapshot_03() throws InterruptedException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    config = config.setNumberOfPumps(6, config.getPumpCapacity(0));
+    final SteamBoilerCharacteristics cs = config;
+    final MySteamBoilerController controller = new MySteamBoilerController(cs);
+    final int cycles = 200000;
+    final AtomicReference<String> failure = new AtomicReference<>();
+    final boolean[] done = new boolean[1];
+    Thread[] readers = new Thread[4];
+    for (int r = 0; r != readers.length; ++r) {
+      readers[r] = new Thread(() -> {
+        long last = 0;
+        while (!isDone(done)) {
+          ControllerSnapshot s = controller.getSnapshot();
+          String error = check(s, last, cs, controller);
+          if (error != null) {
+            failure.compareAndSet(null, error);
+            return;
+          }
+          last = s.getCycle();
+        }
+      });
+      readers[r].start();
+    }
+    boolean[] pumps = new boolean[cs.getNumberOfPumps()];
+    for (int cycle = 1; cycle <= cycles; ++cycle) {
+      clockChanging(controller, cs, cycle, pumps);
+    }
+    synchronized (done) {
+      done[0] = true;
+    }
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    if (failure.get() != null) {
+      fail(failure.get());
+    }
+    assertTrue(controller.getSnapshot().getCycle() == cycles);
+  }
+
+  /**
+   * Check whether the controller has finished, which readers must only do while holding the flag's
+   * lock.
+   *
+   * @param done
+   *          The flag set once the controller has finished.
+   * @return true if the controller has finished.
+   */
+  private static boolean isDone(boolean[] done) {
+    synchronized (done) {
+      return done[0];
+    }
+  }
+
+  /**
+   * Check a snapshot is consistent.
+   *
+   * @param s
+   *          The snapshot.
+   * @param last
+   *          The cycle of the previous snapshot seen by the same reader.
+   * @param cs
+   *          The characteristics of the boiler.
+   * @param controller
+   *          The controller, used to work out which pumps it should have chosen.
+   * @return an error message, or null if the snapshot is consistent.
+   */
+  private static String check(ControllerSnapshot s, long last, SteamBoilerCharacteristics cs,
+      MySteamBoilerController controller) {
+    long cycle = s.getCycle();
+    if (cycle < last) {
+      return "cycle went backwards";
+    } else if (cycle < 2) {
+      return null;
+    } else if (s.getLevel() != changingLevel(cycle, cs)
+        || s.getSteam() != changingSteam(cycle, cs)) {
+      return "torn readings in cycle " + cycle;
+    }
+    int expected = controller.predictPumps(s.getLevel(), cs.getPumpCapacity(0),
+        cs.getMaximualSteamRate(), s.getSteam(), cs.getMinimalNormalLevel(),
+        cs.getMaximalNormalLevel());
+    for (int i = 0; i != s.getNumberOfPumps(); ++i) {
+      if (s.isPumpOn(i) != (i < expected)) {
+        return "torn pumps in cycle " + cycle + ": " + s;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,240 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.clockForWithout;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.bench.HeadlessSimulation;
+import steam.boiler.bench.RunStatistics;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the statistics gathered over runs: that they are right for known levels, that
+ * merging the statistics of parts gives those of the whole, that new statistics merge as an
+ * identity, that pumps are counted however many there are, and that they are gathered by the test
+ * harness and the headless simulation.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class StatisticsTests {
+
+  /**
+   * Check the statistics of a known sequence of levels and pumps.
+   */
+  @Test
+  public void test_statistics_01() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    RunStatistics stats = new RunStatistics(config);
+    assertTrue(Double.isNaN(stats.getQuantile(0.5)));
+    double[] levels = new double[1000];
+    long outsideNormal = 0;
+    long outsideLimits = 0;
+    for (int i = 0; i != levels.length; i = i + 1) {
+      levels[i] = i + 1;
+      stats.record(levels[i], 100);
+      if (levels[i] < config.getMinimalNormalLevel()
+          || levels[i] > config.getMaximalNormalLevel()) {
+        outsideNormal = outsideNormal + 100;
+      }
+      if (levels[i] < config.getMinimalLimitLevel()
+          || levels[i] > config.getMaximalLimitLevel()) {
+        outsideLimits = outsideLimits + 100;
+      }
+    }
+    assertEquals(1000, stats.getCount());
+    assertEquals(1.0, stats.getMin(), 0);
+    assertEquals(1000.0, stats.getMax(), 0);
+    assertEquals(500.5, stats.getMean(), 1e-9);
+    assertEquals((1000.0 * 1000 - 1) / 12, stats.getVariance(), 1e-6);
+    checkQuantiles(stats, levels);
+    assertEquals(100000, stats.getTime());
+    assertEquals(outsideNormal, stats.getTimeOutsideNormal());
+    assertEquals(outsideLimits, stats.getTimeOutsideLimits());
+    stats.pumps(new long[] { 3 });
+    stats.pumps(new long[] { 1 });
+    stats.pumps(new long[] { 1 });
+    stats.pumps(new long[] { 12 });
+    assertEquals(6, stats.getToggles());
+  }
+
+  /**
+   * Check that merging the statistics of parts of a sequence, including empty parts and negative
+   * and zero levels, gives the statistics of the whole.
+   */
+  @Test
+  public void test_statistics_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    Random random = new Random(48);
+    double[] levels = new double[100000];
+    RunStatistics whole = new RunStatistics(config);
+    RunStatistics[] parts = new RunStatistics[8];
+    for (int i = 0; i != parts.length; i = i + 1) {
+      parts[i] = new RunStatistics(config);
+    }
+    for (int i = 0; i != levels.length; i = i + 1) {
+      int r = random.nextInt(100);
+      levels[i] = r == 0 ? 0 : r == 1 ? -random.nextDouble() * 50 : 500 + random.nextGaussian()
+          * 150;
+      whole.record(levels[i], 5000);
+      parts[(i / 1000) % 7].record(levels[i], 5000);
+    }
+    RunStatistics merged = new RunStatistics(config);
+    for (RunStatistics part : parts) {
+      merged.merge(part);
+    }
+    assertEquals(7, merged.getRuns());
+    assertEquals(whole.getCount(), merged.getCount());
+    assertEquals(whole.getMin(), merged.getMin(), 0);
+    assertEquals(whole.getMax(), merged.getMax(), 0);
+    assertEquals(whole.getMean(), merged.getMean(), 1e-9);
+    assertEquals(whole.getVariance(), merged.getVariance(), 1e-6);
+    assertEquals(whole.getTimeOutsideNormal(), merged.getTimeOutsideNormal());
+    assertEquals(whole.getTimeOutsideLimits(), merged.getTimeOutsideLimits());
+    for (double q = 0; q <= 1; q = q + 0.01) {
+      assertEquals(whole.getQuantile(q), merged.getQuantile(q), 0);
+    }
+    checkQuantiles(merged, levels);
+  }
+
+  /**
+   * Check that a sweep of normal operation, run in parallel through the test harness, gathers
+   * statistics which show the level held within the limits, and that the merged statistics do
+   * not depend on the order the runs finish.
+   */
+  @Test
+  public void test_statistics_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    config = config.setNumberOfPumps(4, config.getPumpCapacity(0));
+    SteamBoilerCharacteristics cs = config;
+    RunStatistics parallel = IntStream.range(0, 24).parallel().mapToObj(i -> sweep(cs, 60 + 20 * i))
+        .reduce((a, b) -> {
+          a.merge(b);
+          return a;
+        }).get();
+    RunStatistics sequential = sweep(cs, 60);
+    for (int i = 1; i != 24; i = i + 1) {
+      sequential.merge(sweep(cs, 60 + 20 * i));
+    }
+    String report = parallel.toString();
+    assertEquals(report, 24, parallel.getRuns());
+    assertEquals(report, sequential.getCount(), parallel.getCount());
+    assertEquals(report, sequential.getQuantile(0.5), parallel.getQuantile(0.5), 0);
+    assertEquals(report, sequential.getToggles(), parallel.getToggles());
+    assertEquals(report, 0, parallel.getTimeOutsideLimits());
+    assertTrue(report, parallel.getMin() >= config.getMinimalLimitLevel());
+    assertTrue(report, parallel.getMax() <= config.getMaximalLimitLevel());
+    assertTrue(report, parallel.getToggles() > 0);
+  }
+
+  /**
+   * Check that the headless simulation gathers statistics at every step after initialisation,
+   * which cover the levels it sees at the end of each cycle.
+   */
+  @Test
+  public void test_statistics_04() throws IOException {
+    HeadlessSimulation simulation = new HeadlessSimulation(SteamBoilerCharacteristics.DEFAULT);
+    HeadlessSimulation.Summary summary = simulation.run(HeadlessSimulation.Scenario.parse("s",
+        new StringReader("duration 1800\ngranularity 100\n")));
+    RunStatistics stats = summary.getStatistics();
+    String report = summary + " " + stats;
+    assertTrue(report, stats.getCount() > 17000 && stats.getCount() < 18000);
+    assertEquals(report, stats.getCount() * 100, stats.getTime());
+    String[] columns = summary.toString().split(" ");
+    assertTrue(report, stats.getMin() <= Double.parseDouble(columns[8]) + 0.5);
+    assertTrue(report, stats.getMax() >= Double.parseDouble(columns[9]) - 0.5);
+    assertTrue(report, stats.getToggles() > 0);
+  }
+
+  /**
+   * Check that new statistics cover no runs, and that merging them into others, or others into
+   * them, changes nothing.
+   */
+  @Test
+  public void test_statistics_05() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    RunStatistics empty = new RunStatistics(config);
+    assertEquals(0, empty.getRuns());
+    RunStatistics run = new RunStatistics(config);
+    run.record(400, 100);
+    run.record(600, 100);
+    run.pumps(new long[] { 5 });
+    String before = run.toString();
+    assertEquals(1, run.getRuns());
+    run.merge(new RunStatistics(config));
+    assertEquals(before, run.toString());
+    empty.merge(run);
+    assertEquals(before, empty.toString());
+    empty.merge(new RunStatistics(config));
+    assertEquals(before, empty.toString());
+  }
+
+  /**
+   * Check that switches are counted for every pump of a boiler with more pumps than fit in a word,
+   * including the harness's count for a boiler of 100 pumps.
+   */
+  @Test
+  public void test_statistics_06() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    RunStatistics stats = new RunStatistics(config);
+    stats.pumps(new long[] { 0, 1L << 35 });
+    stats.pumps(new long[] { -1, 1L << 35, 7 });
+    stats.pumps(new long[] { -1 });
+    assertEquals(1 + (64 + 3) + (1 + 3), stats.getToggles());
+    config = config.setNumberOfPumps(100, config.getPumpCapacity(0) * 4 / 100);
+    RunStatistics harness = sweep(config, 600);
+    assertEquals(harness.toString(), 1, harness.getRuns());
+    assertTrue(harness.toString(), harness.getToggles() > 64);
+  }
+
+  /**
+   * Run the boiler in normal operation for a while, gathering statistics.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param time
+   *          How long to run it, in seconds.
+   * @return the statistics.
+   */
+  private static RunStatistics sweep(SteamBoilerCharacteristics config, int time) {
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    RunStatistics stats = new RunStatistics(config);
+    clockForWithout(time, controller, model, atleast(MODE_emergencystop), stats);
+    return stats;
+  }
+
+  /**
+   * Check that every quantile is within the sketch's accuracy of the exact quantile.
+   *
+   * @param stats
+   *          The statistics.
+   * @param levels
+   *          The levels they were gathered from.
+   */
+  private static void checkQuantiles(RunStatistics stats, double[] levels) {
+    double[] sorted = levels.clone();
+    Arrays.sort(sorted);
+    for (double q = 0; q <= 1; q = q + 0.01) {
+      double exact = sorted[(int) Math.floor(q * (sorted.length - 1))];
+      double estimate = stats.getQuantile(q);
+      double error = Math.abs(exact) < 1e-3 ? Math.abs(estimate)
+          : Math.abs(estimate - exact) / Math.abs(exact);
+      assertTrue(q + ": " + estimate + " for " + exact, error <= RunStatistics.ACCURACY + 1e-12);
+    }
+  }
+}
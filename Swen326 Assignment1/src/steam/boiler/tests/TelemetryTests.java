@@ -0,0 +1,338 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.bench.HeadlessSimulation;
+import steam.boiler.bench.TelemetryStore;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the telemetry store: that traces read back exactly what was written across
+ * many segments, that range scans agree with a scan of every row, that a simulation records every
+ * step compactly, that the range of a long trace is found from the chunk headers alone, and that
+ * boilers with many pumps are recorded.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TelemetryTests {
+
+  /**
+   * Check that awkward rows read back bit for bit, across segments and chunks.
+   */
+  @Test
+  public void test_telemetry_01() throws IOException {
+    Path dir = Files.createTempDirectory("telemetry");
+    try {
+      TelemetryStore store = new TelemetryStore(dir);
+      store.setSegmentSize(4096);
+      List<Object[]> rows = generate(new Random(47), 20000);
+      write(store, "awkward", 4, rows);
+      TelemetryStore.Run run = store.open("awkward");
+      assertEquals(rows.size(), run.getRows());
+      List<Object[]> read = new ArrayList<>();
+      assertEquals(text(rows), read(run));
+      assertEquals(Arrays.asList("awkward"), store.list());
+    } finally {
+      delete(dir);
+    }
+  }
+
+  /**
+   * Check that the ranges of level and steam between two times match those of every row scanned.
+   */
+  @Test
+  public void test_telemetry_02() throws IOException {
+    Path dir = Files.createTempDirectory("telemetry");
+    try {
+      TelemetryStore store = new TelemetryStore(dir);
+      store.setSegmentSize(8192);
+      Random random = new Random(2);
+      List<Object[]> rows = generate(random, 30000);
+      write(store, "ranges", 4, rows);
+      TelemetryStore.Run run = store.open("ranges");
+      for (int i = 0; i != 200; i = i + 1) {
+        long from = random.nextInt(200000) - 10000;
+        long to = i == 0 ? Long.MAX_VALUE : from + random.nextInt(i < 100 ? 2000 : 100000);
+        double[] level = { Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        double[] steam = { Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        for (Object[] row : rows) {
+          long t = (Long) row[0];
+          if (t >= from && t <= to) {
+            include(level, Double.longBitsToDouble((Long) row[1]));
+            include(steam, Double.longBitsToDouble((Long) row[2]));
+          }
+        }
+        String range = from + ".." + to;
+        assertEquals(range, Arrays.toString(level), Arrays.toString(run.levelRange(from, to)));
+        assertEquals(range, Arrays.toString(steam), Arrays.toString(run.steamRange(from, to)));
+      }
+    } finally {
+      delete(dir);
+    }
+  }
+
+  /**
+   * Check that a headless simulation records every step up to the end of the run, in a few bytes a
+   * step, with the controller leaving normal mode once the fault occurs.
+   */
+  @Test
+  public void test_telemetry_03() throws IOException {
+    Path dir = Files.createTempDirectory("telemetry");
+    try {
+      HeadlessSimulation simulation = new HeadlessSimulation(SteamBoilerCharacteristics.DEFAULT);
+      simulation.setTelemetry(new TelemetryStore(dir));
+      HeadlessSimulation.Scenario scenario = HeadlessSimulation.Scenario.parse("long run",
+          new StringReader("duration 7200\ngranularity 100\nfault 600000 STEAM_STUCK_HIGH\n"));
+      HeadlessSimulation.Summary summary = simulation.run(scenario);
+      long end = summary.getStopTime() >= 0 ? summary.getStopTime() : 7199900;
+      TelemetryStore store = new TelemetryStore(dir);
+      assertEquals(Arrays.asList("long_run"), store.list());
+      TelemetryStore.Run run = store.open("long_run");
+      assertEquals(end / 100 + 1, run.getRows());
+      long bytes = Files.size(dir.resolve("long_run.tlm"));
+      // Uncompressed, a row would take 33 bytes; the simulated level changes in every step.
+      assertTrue(bytes + " bytes", bytes < 10 * run.getRows());
+      double[] level = run.levelRange(Long.MIN_VALUE, Long.MAX_VALUE);
+      assertTrue(Arrays.toString(level), level[0] == 0 && level[1] > 400 && level[1] < 1000);
+      int[] modes = new int[Mode.values().length];
+      long[] last = { -100 };
+      run.scan(0, Long.MAX_VALUE, (long time, double l, double s, long[] pumps, Mode mode) -> {
+        assertEquals(last[0] + 100, time);
+        last[0] = time;
+        modes[mode.ordinal()] += 1;
+      });
+      assertEquals(end, last[0]);
+      assertTrue(Arrays.toString(modes), modes[Mode.NORMAL.ordinal()] > 5000);
+      assertTrue(Arrays.toString(modes), modes[Mode.NORMAL.ordinal()] < run.getRows() - 50);
+    } finally {
+      delete(dir);
+    }
+  }
+
+  /**
+   * Check that the range of a long trace, and of a short part of it, is found correctly, and that
+   * the trace is small on disk. How quickly the range is found is measured by
+   * <code>TelemetryBenchmark</code>.
+   */
+  @Test
+  public void test_telemetry_04() throws IOException {
+    Path dir = Files.createTempDirectory("telemetry");
+    try {
+      TelemetryStore store = new TelemetryStore(dir);
+      int n = 2000000;
+      try (TelemetryStore.Writer writer = store.create("week", 4)) {
+        double level = 500;
+        long[] three = { 3 };
+        long[] one = { 1 };
+        for (int i = 0; i != n; i = i + 1) {
+          level = level + (i % 600 < 300 ? 0.125 : -0.125);
+          writer.append(5000L * i, level, i % 7200 < 3600 ? 10 : 15, i % 900 < 450 ? three : one,
+              Mode.NORMAL);
+        }
+      }
+      long bytes = Files.size(dir.resolve("week.tlm"));
+      assertTrue(bytes + " bytes", bytes < 4 * n);
+      TelemetryStore.Run run = store.open("week");
+      double[] whole = run.levelRange(0, Long.MAX_VALUE);
+      assertEquals("[500.0, 537.5]", Arrays.toString(whole));
+      double[] part = run.levelRange(5000L * 150, 5000L * 450);
+      assertEquals("[518.625, 537.5]", Arrays.toString(part));
+    } finally {
+      delete(dir);
+    }
+  }
+
+  /**
+   * Check that boilers with more pumps than fit in a word are recorded exactly, including every
+   * pump open at the start of a chunk and bits beyond the last pump, which are dropped.
+   */
+  @Test
+  public void test_telemetry_05() throws IOException {
+    Path dir = Files.createTempDirectory("telemetry");
+    try {
+      TelemetryStore store = new TelemetryStore(dir);
+      store.setSegmentSize(16384);
+      Random random = new Random(5);
+      for (int pumps : new int[] { 64, 130, 1000 }) {
+        List<Object[]> rows = new ArrayList<>();
+        List<Object[]> expected = new ArrayList<>();
+        long[] open = {};
+        for (int i = 0; i != 3 * TelemetryStore.CHUNK; i = i + 1) {
+          if (i % 7 == 0) {
+            // One word more than the pumps need, which should be ignored.
+            open = new long[TelemetryStore.words(pumps) + 1];
+            for (int w = 0; w != open.length; w = w + 1) {
+              open[w] = i % 2 == 0 ? -1 : random.nextLong();
+            }
+          }
+          long[] masked = Arrays.copyOf(open, open.length - 1);
+          masked[masked.length - 1] &= pumps % 64 == 0 ? -1 : (1L << pumps) - 1;
+          rows.add(row(10L * i, 500 + i % 3, 1, open, Mode.NORMAL));
+          expected.add(row(10L * i, 500 + i % 3, 1, masked, Mode.NORMAL));
+        }
+        write(store, "wide" + pumps, pumps, rows);
+        TelemetryStore.Run run = store.open("wide" + pumps);
+        assertEquals(pumps, run.getPumps());
+        assertEquals(text(expected), read(run));
+      }
+    } finally {
+      delete(dir);
+    }
+  }
+
+  /**
+   * Generate rows with irregular times, unusual readings and changing pumps and modes.
+   *
+   * @param random
+   *          The source of variation.
+   * @param n
+   *          The number of rows.
+   * @return the rows, as returned by {@link #row}.
+   */
+  private static List<Object[]> generate(Random random, int n) {
+    List<Object[]> rows = new ArrayList<>();
+    double[] odd = { Double.NaN, -0.0, 0.0, Double.MIN_VALUE, 1e300, -1e-300,
+        Double.POSITIVE_INFINITY };
+    Mode[] modes = Mode.values();
+    long time = 0;
+    double level = 500;
+    double steam = 0;
+    long[] pumps = { 0 };
+    Mode mode = Mode.INITIALISATION;
+    for (int i = 0; i != n; i = i + 1) {
+      int r = random.nextInt(100);
+      time = time + (r < 80 ? 5 : r < 90 ? random.nextInt(5000) : r < 95 ? 7 : r < 98
+          ? -random.nextInt(100) : random.nextLong() >> 20);
+      level = r < 3 ? odd[random.nextInt(odd.length)] : r < 50 ? level
+          : 500 + random.nextGaussian() * 100;
+      steam = r % 10 == 0 ? random.nextInt(20) + random.nextDouble() : steam;
+      pumps = r % 13 == 0 ? new long[] { random.nextInt(16) } : pumps;
+      mode = r % 17 == 0 ? modes[random.nextInt(modes.length)] : mode;
+      rows.add(row(time, level, steam, pumps, mode));
+      if (i == n / 2) {
+        time = 0;
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Write rows to a trace.
+   *
+   * @param store
+   *          The store.
+   * @param name
+   *          The name of the trace.
+   * @param pumps
+   *          The number of pumps.
+   * @param rows
+   *          The rows.
+   */
+  private static void write(TelemetryStore store, String name, int pumps, List<Object[]> rows)
+      throws IOException {
+    try (TelemetryStore.Writer writer = store.create(name, pumps)) {
+      for (Object[] row : rows) {
+        writer.append((Long) row[0], Double.longBitsToDouble((Long) row[1]),
+            Double.longBitsToDouble((Long) row[2]), (long[]) row[3], (Mode) row[4]);
+      }
+    }
+  }
+
+  /**
+   * Read every row of a trace.
+   *
+   * @param run
+   *          The trace.
+   * @return the rows, as strings which can be compared exactly.
+   */
+  private static List<String> read(TelemetryStore.Run run) {
+    List<String> rows = new ArrayList<>();
+    run.scan(Long.MIN_VALUE, Long.MAX_VALUE, (long time, double level, double steam,
+        long[] pumps, Mode mode) -> rows.add(Arrays.deepToString(row(time, level, steam, pumps,
+            mode))));
+    return rows;
+  }
+
+  /**
+   * Represent rows as they are read by {@link #read}.
+   *
+   * @param rows
+   *          The rows, as returned by {@link #row}.
+   * @return the rows, as strings.
+   */
+  private static List<String> text(List<Object[]> rows) {
+    List<String> text = new ArrayList<>();
+    for (Object[] row : rows) {
+      text.add(Arrays.deepToString(row));
+    }
+    return text;
+  }
+
+  /**
+   * Represent a row so that it can be compared exactly.
+   *
+   * @param time
+   *          The time.
+   * @param level
+   *          The level.
+   * @param steam
+   *          The steam rate.
+   * @param pumps
+   *          The pumps.
+   * @param mode
+   *          The mode.
+   * @return the row, with readings as their bits.
+   */
+  private static Object[] row(long time, double level, double steam, long[] pumps, Mode mode) {
+    return new Object[] { time, Double.doubleToRawLongBits(level),
+        Double.doubleToRawLongBits(steam), pumps, mode };
+  }
+
+  /**
+   * Widen a range to include a value.
+   *
+   * @param range
+   *          The lowest and highest value.
+   * @param value
+   *          The value.
+   */
+  private static void include(double[] range, double value) {
+    if (value < range[0]) {
+      range[0] = value;
+    }
+    if (value > range[1]) {
+      range[1] = value;
+    }
+  }
+
+  /**
+   * Delete a directory of traces.
+   *
+   * @param dir
+   *          The directory.
+   */
+  private static void delete(Path dir) throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+      for (Path p : files) {
+        Files.delete(p);
+      }
+    }
+    Files.delete(dir);
+  }
+}
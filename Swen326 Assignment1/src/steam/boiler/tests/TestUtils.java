@@ -4,14 +4,16 @@ import static org.junit.Assert.fail;
 
 import java.util.Arrays;
 
+import steam.boiler.bench.RunStatistics;
 import steam.boiler.core.MySteamBoilerController;
 import steam.boiler.model.PhysicalUnits;
 import steam.boiler.tests.TestUtils.MailboxMatcher;
 import steam.boiler.util.Mailbox;
-import steam.boiler.util.UnboundedMailbox;
 import steam.boiler.util.Mailbox.Message;
 import steam.boiler.util.Mailbox.MessageKind;
 import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
 
 public class TestUtils {
 
@@ -144,6 +146,52 @@ public class TestUtils {
     return new ConcreteMessageMatcher(MessageKind.CLOSE_PUMP_n, matcher);
   }
 
+  /**
+   * Match messages of a given kind.
+   *
+   * @param kind
+   *          The kind of message.
+   * @param matcher
+   *          Matcher for the parameter, or null if messages of this kind have none.
+   * @return
+   */
+  public static MessageMatcher Kind(MessageKind kind, ParameterMatcher matcher) {
+    return new ConcreteMessageMatcher(kind, matcher);
+  }
+
+  /**
+   * Match a mode parameter exactly.
+   *
+   * @param mode
+   *          The mode to match.
+   * @return
+   */
+  public static ParameterMatcher Parameter(Mode mode) {
+    return new ModeParameterMatcher(mode);
+  }
+
+  /**
+   * Match an integer parameter exactly.
+   *
+   * @param n
+   *          The integer to match.
+   * @return
+   */
+  public static ParameterMatcher Parameter(int n) {
+    return new IntegerParameterMatcher(n);
+  }
+
+  /**
+   * Match a double parameter exactly.
+   *
+   * @param v
+   *          The double to match.
+   * @return
+   */
+  public static ParameterMatcher Parameter(double v) {
+    return new DoubleParameterMatcher(v);
+  }
+
   /**
    * Clock the system exactly once and check for a set of expected messages.
    *
@@ -187,7 +235,7 @@ public class TestUtils {
    */
   public static void clockUntil(int timeout, MySteamBoilerController controller,
       PhysicalUnits physicalUnits, MailboxMatcher matcher) {
-    final int granularity = 100; // ms
+    final int granularity = granularity(controller); // ms
     int totalElapsed = 0; // ms
     // Convert timeout into microseconds
     timeout = timeout * 1000;
@@ -221,13 +269,44 @@ public class TestUtils {
    */
   public static void clockForWithout(int time, MySteamBoilerController controller,
       PhysicalUnits physicalUnits, MailboxMatcher matcher) {
-    final int granularity = 100; // ms
+    clockForWithout(time, controller, physicalUnits, matcher, null);
+  }
+
+  /**
+   * Clock the system for a given amount of time, whilst ensuring a particular event does not happen
+   * and gathering statistics of the run. The level is recorded at every step once the controller
+   * has left initialisation, and the pumps are taken to be those the controller has told to open.
+   *
+   * @param time
+   *          The amount of time (in seconds) to clock the system for.
+   * @param controller
+   *          The controller under test.
+   * @param physicalUnits
+   *          The model of the physical units being manipulated.
+   * @param matcher
+   *          The matcher used for the event in question which we want to avoid.
+   * @param statistics
+   *          Where to gather statistics, or null.
+   */
+  public static void clockForWithout(int time, MySteamBoilerController controller,
+      PhysicalUnits physicalUnits, MailboxMatcher matcher, RunStatistics statistics) {
+    final int granularity = granularity(controller); // ms
     int totalElapsed = 0; // ms
+    long[] pumps = new long[(controller.getSnapshot().getNumberOfPumps() + 63) / 64];
     // Convert timeout into microseconds
     time = time * 1000;
     //
     while (totalElapsed < time) {
       Mailbox received = clock(granularity, totalElapsed, controller, physicalUnits);
+      if (statistics != null) {
+        if (received != null) {
+          commanded(received, pumps);
+          statistics.pumps(pumps);
+        }
+        if (controller.getSnapshot().getMode() != Mode.INITIALISATION) {
+          statistics.record(physicalUnits.getBoiler().getWaterLevel(), granularity);
+        }
+      }
       if (received != null) {
         // We received something back from controller, there see whether we have matched our event.
         if (matcher.matches(received)) {
@@ -240,10 +319,56 @@ public class TestUtils {
     // If we get here, then the given event obviously didn't happen so we're done.
   }
 
+  /**
+   * Get the time between clocks of the physical units when clocking a given controller. This is
+   * 100ms, unless the controller's period is not a multiple of that, in which case it is the
+   * largest time dividing both, so that messages are still exchanged exactly once every period.
+   *
+   * @param controller
+   *          The controller under test.
+   * @return the time between clocks, in milliseconds.
+   */
+  public static int granularity(MySteamBoilerController controller) {
+    int a = controller.getPeriod();
+    int b = 100;
+    while (b != 0) {
+      int r = a % b;
+      a = b;
+      b = r;
+    }
+    return a;
+  }
+
+  /**
+   * Update which pumps the controller has told to be open.
+   *
+   * @param output
+   *          The messages the controller sent in a cycle.
+   * @param pumps
+   *          The pumps it had told to be open before, with pump i as bit i % 64 of word i / 64,
+   *          which are updated for those it has now told to open or close.
+   */
+  private static void commanded(Mailbox output, long[] pumps) {
+    for (int i = 0; i != output.size(); i = i + 1) {
+      Message m = output.read(i);
+      MessageKind kind = m.getKind();
+      int pump = m.getIntegerParameter();
+      if ((kind == MessageKind.OPEN_PUMP_n || kind == MessageKind.CLOSE_PUMP_n) && pump >= 0
+          && pump < 64 * pumps.length) {
+        if (kind == MessageKind.OPEN_PUMP_n) {
+          pumps[pump >>> 6] = pumps[pump >>> 6] | (1L << pump);
+        } else {
+          pumps[pump >>> 6] = pumps[pump >>> 6] & ~(1L << pump);
+        }
+      }
+    }
+  }
+
   /**
    * Clock the combined system for a given amount of time. This sends and receives messages between
-   * the two components when the total time elapsed is a multiple of five seconds. Messages received
-   * from the controller are return (when available) so they can be inspected for certain events.
+   * the two components when the total time elapsed is a multiple of the controller's period.
+   * Messages received from the controller are return (when available) so they can be inspected for
+   * certain events.
    *
    * @param elapsed
    *          The elapsed time (in microseconds) since the last clock.
@@ -260,9 +385,9 @@ public class TestUtils {
   public static Mailbox clock(int elapsed, int totalElapsed, MySteamBoilerController controller,
       PhysicalUnits physicalUnits) {
     physicalUnits.clock(elapsed);
-    // After every five seconds has elapsed we allow the controller and physical units to
-    // synchronise (i.e. transmit messages between them).
-    if ((totalElapsed % 5000) == 0) {
+    // After every period (five seconds by default) has elapsed we allow the controller and
+    // physical units to synchronise (i.e. transmit messages between them).
+    if ((totalElapsed % controller.getPeriod()) == 0) {
       Mailbox input = new UnboundedMailbox(100);
       Mailbox output = new UnboundedMailbox(100);
       // Generation messages for controller from model
@@ -279,6 +404,74 @@ public class TestUtils {
     }
   }
 
+  /**
+   * Clock a controller in normal mode for one cycle, using the readings of
+   * <code>changingLevel()</code> and <code>changingSteam()</code> so that the pumps are switched
+   * often. The first cycle also reports the physical units ready.
+   *
+   * @param controller
+   *          The controller under test.
+   * @param cs
+   *          The characteristics of the boiler.
+   * @param cycle
+   *          The number of the cycle, starting from one.
+   * @param pumps
+   *          Which pumps are on, which is updated from the controller's commands.
+   */
+  public static void clockChanging(MySteamBoilerController controller,
+      SteamBoilerCharacteristics cs, long cycle, boolean[] pumps) {
+    Mailbox incoming = new UnboundedMailbox(100);
+    Mailbox outgoing = new UnboundedMailbox(100);
+    incoming.send(new Message(MessageKind.LEVEL_v, changingLevel(cycle, cs)));
+    incoming.send(new Message(MessageKind.STEAM_v, changingSteam(cycle, cs)));
+    for (int i = 0; i != pumps.length; i = i + 1) {
+      incoming.send(new Message(MessageKind.PUMP_STATE_n_b, i, pumps[i]));
+      incoming.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, pumps[i]));
+    }
+    if (cycle == 1) {
+      incoming.send(new Message(MessageKind.PHYSICAL_UNITS_READY));
+    }
+    controller.clock(incoming, outgoing);
+    for (int i = 0; i != outgoing.size(); i = i + 1) {
+      Message m = outgoing.read(i);
+      if (m.getKind() == MessageKind.OPEN_PUMP_n && m.getIntegerParameter() < pumps.length) {
+        pumps[m.getIntegerParameter()] = true;
+      } else if (m.getKind() == MessageKind.CLOSE_PUMP_n
+          && m.getIntegerParameter() < pumps.length) {
+        pumps[m.getIntegerParameter()] = false;
+      }
+    }
+  }
+
+  /**
+   * Get the level reading sent by <code>clockChanging()</code>, which moves around the normal
+   * range so that it differs from one cycle to the next.
+   *
+   * @param cycle
+   *          The number of the cycle.
+   * @param cs
+   *          The characteristics of the boiler.
+   * @return the level reading.
+   */
+  public static double changingLevel(long cycle, SteamBoilerCharacteristics cs) {
+    double range = cs.getMaximalNormalLevel() - cs.getMinimalNormalLevel();
+    return cs.getMinimalNormalLevel() + range * ((cycle * 37) % 100) / 100;
+  }
+
+  /**
+   * Get the steam reading sent by <code>clockChanging()</code>, which steps between none and the
+   * maximal steam rate.
+   *
+   * @param cycle
+   *          The number of the cycle.
+   * @param cs
+   *          The characteristics of the boiler.
+   * @return the steam reading.
+   */
+  public static double changingSteam(long cycle, SteamBoilerCharacteristics cs) {
+    return cs.getMaximualSteamRate() * (cycle % 11) / 10;
+  }
+
   /**
    * A mailbox match provides a way to match concrete messages without having to explicitly provide
    * all the details. For example, suppose we wanted to match any possible LEVEL_v message (e.g.